@@ -1,6 +1,5 @@
 package com.dsetools;
 
-import com.amazonaws.AmazonServiceException;
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.Protocol;
 import com.amazonaws.SdkClientException;
@@ -21,28 +20,33 @@ import com.datastax.driver.dse.DseCluster;
 import org.apache.commons.cli.*;
 import org.apache.commons.io.FileUtils;
 import org.json.simple.JSONArray;
-import org.json.simple.parser.JSONParser;
 import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
 
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.*;
-import java.time.Duration;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 class S3ObjDownloadRunnable implements  Runnable {
     private int threadID;
-    private TransferManager s3TransferManager;
+    private OpscBackupStore backupStore;
     private boolean fileSizeChk;
-    private String s3BuketName;
     private String downloadHomeDir;
     private String[] s3ObjNames;
     private long[] s3ObjSizes;
@@ -51,13 +55,12 @@ class S3ObjDownloadRunnable implements  Runnable {
     private String[] sstableVersions;
     private boolean noTargetDirStruct;
     private boolean dse48ver;
-
-    private DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private OpscSstableCache sstableCache;
+    private DseOpscS3Restore.DownloadTotals downloadTotals;
 
     S3ObjDownloadRunnable( int tID,
-                           TransferManager transferManager,
+                           OpscBackupStore store,
                            boolean file_size_chk,
-                           String s3bkt_name,
                            String download_dir,
                            String[] object_names,
                            long[] object_sizes,
@@ -65,14 +68,15 @@ class S3ObjDownloadRunnable implements  Runnable {
                            String[] tbl_names,
                            String[] sstable_versions,
                            boolean no_dir_struct,
-                           boolean dse48) {
+                           boolean dse48,
+                           OpscSstableCache sstable_cache,
+                           DseOpscS3Restore.DownloadTotals download_totals) {
         assert (tID > 0);
-        assert (transferManager != null);
+        assert (store != null);
 
         this.threadID = tID;
-        this.s3TransferManager = transferManager;
+        this.backupStore = store;
         this.fileSizeChk = file_size_chk;
-        this.s3BuketName = s3bkt_name;
         this.downloadHomeDir = download_dir;
         this.s3ObjNames = object_names;
         this.s3ObjSizes = object_sizes;
@@ -81,96 +85,219 @@ class S3ObjDownloadRunnable implements  Runnable {
         this.sstableVersions = sstable_versions;
         this.noTargetDirStruct = no_dir_struct;
         this.dse48ver = dse48;
-
-        System.out.format("  Creating thread with ID %d (%d).\n", threadID, s3ObjNames.length);
+        this.sstableCache = sstable_cache;
+        this.downloadTotals = download_totals;
     }
 
     @Override
     public void run() {
 
-        LocalDateTime startTime = LocalDateTime.now();
-
-        System.out.println("   - Starting thread " + threadID + " at: " + startTime.format(formatter));
-
-        int downloadedS3ObjNum = 0;
-        int failedS3ObjNum = 0;
+        String worker = "thread-" + threadID;
 
         for ( int i = 0; i < s3ObjNames.length; i++ ) {
+            long objStartMillis = System.currentTimeMillis();
+            long objSize = -1;
+            long byteNum = 0;
+            String outcome = OpscEventLog.OUTCOME_OK;
+            Throwable error = null;
+
             try {
-                int sstblVersionStartPos = s3ObjNames[i].indexOf(sstableVersions[i]);
-                String realSStableName = s3ObjNames[i].substring(sstblVersionStartPos);
+                DseOpscS3Restore.RestoreResult result = DseOpscS3Restore.restoreSstableObj(
+                    s3ObjNames[i],
+                    s3ObjSizes[i],
+                    keyspaceNames[i],
+                    tableNames[i],
+                    sstableVersions[i],
+                    noTargetDirStruct,
+                    dse48ver);
+
+                outcome = result.outcome;
+                byteNum = result.byteNum;
+
+                downloadTotals.objNum.incrementAndGet();
+                downloadTotals.byteNum.addAndGet(byteNum);
+
+                objSize = DseOpscS3Restore.findLocalSstableFile(
+                    s3ObjNames[i],
+                    keyspaceNames[i],
+                    tableNames[i],
+                    sstableVersions[i],
+                    noTargetDirStruct,
+                    dse48ver).length();
+            }
+            catch ( InterruptedException | InterruptedIOException ie) {
+                outcome = OpscEventLog.OUTCOME_INTERRUPTED;
+                error = ie;
+            }
+            catch ( Exception ex ) {
+                outcome = OpscEventLog.OUTCOME_FAILED;
+                error = ex;
+            }
 
-                String tmp = s3ObjNames[i].substring(0, sstblVersionStartPos -1 );
-                int lastPathSeperatorPos = tmp.lastIndexOf('/');
+            if (error != null) {
+                downloadTotals.failedObjNum.incrementAndGet();
+                downloadTotals.failedTables.add(keyspaceNames[i] + "/" + tableNames[i]);
 
-                String parentPathStr = tmp.substring(0, lastPathSeperatorPos);
-                parentPathStr = parentPathStr.substring(parentPathStr.indexOf(DseOpscS3RestoreUtils.OPSC_OBJKEY_BASESTR));
+                System.out.format("ERROR: [Thread %d] download of \"%s\" %s (%s)\n", threadID,
+                    s3ObjNames[i], outcome, error.getMessage());
+            }
 
-                // For DSE 4.8 version, the atual SSTable file name starts with "<keyspace_name>-<table_name>-"
-                if (dse48ver) {
-                    realSStableName = keyspaceNames[i] + "-" + tableNames[i] + "-" + realSStableName;
-                }
+            OpscEventLog.objectDownload(
+                worker,
+                s3ObjNames[i],
+                keyspaceNames[i],
+                tableNames[i],
+                objSize,
+                byteNum,
+                System.currentTimeMillis() - objStartMillis,
+                outcome,
+                error);
+
+            // Download threads are stopped (e.g. a cancelled daemon job): skip the rest of the set
+            if (outcome.equals(OpscEventLog.OUTCOME_INTERRUPTED)) {
+                break;
+            }
+        }
+    }
+}
 
-                File localFile = new File(downloadHomeDir + "/" +
-                    ( noTargetDirStruct ? "" :
-                        (parentPathStr + "/" + keyspaceNames[i] + "/" + tableNames[i] + "/") ) +
-                    realSStableName );
 
+public class DseOpscS3Restore {
 
-                GetObjectRequest getObjectRequest = new GetObjectRequest(s3BuketName, s3ObjNames[i]);
+    private static Properties CONFIGPROP = null;
+    private static boolean debugOpt = false;
 
-                Download s3Download = s3TransferManager.download(getObjectRequest, localFile);
+    private static OpscBackupTimeline.MatchMode bkupTimeMatchMode = OpscBackupTimeline.MatchMode.EXACT;
+    private static Map<String, OpscBackupTimeline> bkupTimelines = new ConcurrentHashMap<>();
 
-                // wait for download to complete
-                s3Download.waitForCompletion();
+    // Reference backup for delta restore ("local" or a backup time); null means full restore
+    private static String refBkupTimeOpt = null;
 
-                downloadedS3ObjNum++;
+    // Only restore SSTables that overlap these token ranges; null means no token range filtering
+    private static OpscTokenRangeFilter tokenRangeFilter = null;
 
-                System.out.format("     [Thread %d] download of \"%s\" completed \n", threadID,
-                    s3ObjNames[i] + "[keyspace: " + keyspaceNames[i] + "; table: " + tableNames[i] + "]");
+    // Only restore SSTables with cell timestamps in this window; null means no time window filtering
+    private static OpscTimeWindowFilter timeWindowFilter = null;
 
-                if (fileSizeChk) {
-                    TransferProgress transferProgress = s3Download.getProgress();
-                    System.out.format("        >>> %d of %d bytes transferred (%.2f%%)\n",
-                        transferProgress.getBytesTransferred(),
-                        s3ObjSizes[i],
-                        transferProgress.getPercentTransferred());
-                }
-            }
-            catch ( InterruptedException ie) {
-                System.out.format("     [Thread %d] download of \"%s\" interrupted\n", threadID,
-                    s3ObjNames[i] + "[keyspace: " + keyspaceNames[i] + "; table: " + tableNames[i] + "]");
-                failedS3ObjNum++;
-            }
-            catch ( Exception ex ) {
-                ex.printStackTrace();
-                System.out.format("     [Thread %d] download of \"%s\" failed - unkown error\n", threadID,
-                    s3ObjNames[i] + "[keyspace: " + keyspaceNames[i] + "; table: " + tableNames[i] + "]");
-                ex.printStackTrace();
-                failedS3ObjNum++;
-            }
+    // Local SSTable object cache shared across restores; null when not configured
+    private static OpscSstableCache sstableCache = null;
+
+    // Where SSTable objects are downloaded from: the backup bucket and its replicas, or a backup directory
+    private static OpscBackupStore backupStore = null;
+
+    // Object index of the backup bucket from an S3 Inventory report; null means LIST requests
+    private static OpscS3Inventory s3Inventory = null;
+
+    // Concurrent LIST sequences for large SSTable prefixes
+    private static int listThreadNum = DseOpscS3RestoreUtils.LIST_THREAD_NUM;
+
+    // Backup timelines are rebuilt after this long; negative means never (one-shot runs)
+    static long bkupTimelineTtlMillis = -1;
+
+    // Parsed "backup.json" files by object key (daemon mode); null means no caching
+    static Map<String, OpscBackupManifest> backupManifestCache = null;
+
+    // Download bandwidth shared by daemon jobs; null means no limit
+    private static OpscBandwidthBudget bandwidthBudget = null;
+
+    // Local mirror of recent backups ("local_mirror_dir"); null if not configured
+    static OpscBackupMirror backupMirror = null;
+
+    // Mirror watch: mirrored "backup.json" key -> the selected SSTable object keys it references
+    private static Map<String, List<String>> mirroredBackupObjKeys = new ConcurrentHashMap<>();
+
+    // SSTable files still on this node ("local_sstable_dirs"); null if not configured
+    static OpscLocalSstables localSstables = null;
+
+    // Local download roots (download home plus "local_download_dirs"), each with free space admission
+    static OpscDownloadRoots downloadRoots = null;
+
+    // SSTable component file names ("<version>-<generation>-big-<component>")
+    static String[] SSTABLE_COMPONENTS = { "Data.db", "Index.db", "Filter.db", "Summary.db", "Statistics.db",
+                                           "CompressionInfo.db", "Digest.crc32", "Digest.adler32", "Digest.sha1",
+                                           "TOC.txt", "CRC.db" };
+
+    /**
+     * SSTable objects restored / failed, and bytes fetched over the network (for the throughput
+     * profile), by the download threads of one restore
+     */
+    static class DownloadTotals {
+        final AtomicLong objNum = new AtomicLong();
+        final AtomicLong failedObjNum = new AtomicLong();
+        final AtomicLong byteNum = new AtomicLong();
+
+        // "<keyspace>/<table>" of the failed objects
+        final Set<String> failedTables = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Error that ends the run: main() prints it and exits with its exit code, and a daemon job
+     * fails with it (instead of the whole daemon exiting)
+     */
+    static class RestoreAbortException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int exitCode;
+
+        RestoreAbortException(String message, int exitCode, Throwable cause) {
+            super(message, cause);
+            this.exitCode = exitCode;
         }
+    }
 
-        LocalDateTime endTime = LocalDateTime.now();
+    /**
+     * How one SSTable object was restored
+     */
+    static class RestoreResult {
+        // OpscEventLog.OUTCOME_OK (downloaded), OUTCOME_LOCAL_HIT, OUTCOME_MIRROR_HIT or OUTCOME_CACHE_HIT
+        final String outcome;
+        // Bytes fetched from the backup store
+        final long byteNum;
 
-        Duration duration = Duration.between(startTime, endTime);
+        RestoreResult(String outcome, long byteNum) {
+            this.outcome = outcome;
+            this.byteNum = byteNum;
+        }
+    }
 
-        System.out.format("   - Existing Thread %d at %s (duration: %d seconds): %d of %d s3 objects downloaded, %d failed.\n",
-            threadID,
-            endTime.format(formatter),
-            duration.getSeconds(),
-            downloadedS3ObjNum,
-            s3ObjNames.length,
-            failedS3ObjNum
-        );
+    /**
+     * Buffers between S3 part downloads and the disk (daemon status)
+     *
+     * @return null when the backups are read from a backup directory
+     */
+    static OpscWriteBehind getWriteBehind() {
+        return (backupStore instanceof OpscS3SourcePool) ? ((OpscS3SourcePool) backupStore).getWriteBehind() : null;
     }
-}
 
+    /**
+     * Get the backup timeline of a DSE host. The timeline is built once per host (LIST of
+     * "opscenter_*" prefixes, or the S3 inventory index) and cached for subsequent lookups
+     * (in daemon mode, until it is older than the timeline TTL).
+     *
+     * @param s3Client
+     * @param hostId
+     * @return
+     */
+    static OpscBackupTimeline getBackupTimeline(AmazonS3 s3Client, String hostId) {
+        OpscBackupTimeline timeline = bkupTimelines.get(hostId);
 
-public class DseOpscS3Restore {
+        if ( (timeline == null) ||
+             ((bkupTimelineTtlMillis >= 0) && (System.currentTimeMillis() - timeline.getBuildMillis() > bkupTimelineTtlMillis)) ) {
+            String bktName = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_OPSC_S3_BUCKET_NAME);
 
-    private static Properties CONFIGPROP = null;
-    private static boolean debugOpt = false;
+            timeline = (s3Inventory != null) ?
+                OpscBackupTimeline.build(s3Inventory, s3Client, bktName, hostId) :
+                OpscBackupTimeline.build(s3Client, bktName, hostId);
+            bkupTimelines.put(hostId, timeline);
+
+            if (debugOpt) {
+                System.out.println("    [DEBUG] getBackupTimeline() - host " + hostId + ": " +
+                    timeline.backupTimes().size() + " backups");
+            }
+        }
+
+        return timeline;
+    }
 
     /**
      * Get the full file path of the "backup.json" file that corresponds
@@ -185,55 +312,23 @@ public class DseOpscS3Restore {
                                            String hostId,
                                            ZonedDateTime opscBckupTimeGmt)
     {
-        DateTimeFormatter opscObjTimeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm-ss-z");
-        String opscBckupTimeGmtStr = opscBckupTimeGmt.format(opscObjTimeFormatter);
-
-        String bktName = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_OPSC_S3_BUCKET_NAME);
-        String basePrefix = DseOpscS3RestoreUtils.OPSC_OBJKEY_BASESTR + "/" + hostId;
-        String opscPrefixString = basePrefix + "/" +
-            DseOpscS3RestoreUtils.OPSC_OBJKEY_OPSC_MARKER_STR + "_";
-
-        ObjectListing objectListing = s3Client.listObjects(
-            new ListObjectsRequest()
-                .withBucketName(bktName)
-                .withPrefix(opscPrefixString));
+        OpscBackupTimeline timeline = getBackupTimeline(s3Client, hostId);
 
-        List<S3ObjectSummary>  s3ObjectSummaries = objectListing.getObjectSummaries();
-
-        S3ObjectSummary backupJsonS3ObjeSummary = null;
+        S3ObjectSummary backupJsonS3ObjeSummary = timeline.lookup(opscBckupTimeGmt, bkupTimeMatchMode);
 
         if (debugOpt) {
-            System.out.println("    [DEBUG] getMyBackupJson() START ");
-            System.out.println("    [DEBUG]    opscBckupTimeGmtStr: " + opscBckupTimeGmtStr );
-        }
-
-        for (S3ObjectSummary objectSummary : s3ObjectSummaries) {
-            String opscObjName = objectSummary.getKey();
-
-            // snapshots/<host_id>/opscenter_<schedule_time_uuid_string>_yyyy-MM-dd-HH-mm-ss-UTC/backup.json
-            // snapshots/<host_id>/opscenter_adhoc_yyyy-MM-dd-HH-mm-ss-UTC/backup.json
-            int startOfTimeStampPos =
-                opscObjName.length()
-                    - DseOpscS3RestoreUtils.OPSC_BKUP_METADATA_FILE.length()  // "backup.json"
-                    - 1     // "/"
-                    - 23;   // "yyyy-MM-dd-HH-mm-ss-UTC"
-
-            String backupTimeShortZeroSecondStr =
-                opscObjName.substring(startOfTimeStampPos, startOfTimeStampPos + 16) + "-00-UTC";
-
-            if (debugOpt) {
-                System.out.println("    [DEBUG]    opscObjName (backupTimeShortZeroSecondStr): " +
-                    opscObjName + "(" + backupTimeShortZeroSecondStr + ")");
-            }
-
-            if (opscBckupTimeGmtStr.equalsIgnoreCase(backupTimeShortZeroSecondStr)) {
-                backupJsonS3ObjeSummary = objectSummary;
-                break;
-            }
+            System.out.println("    [DEBUG] getMyBackupJson() - host " + hostId + ", mode " + bkupTimeMatchMode + ": " +
+                ((backupJsonS3ObjeSummary != null) ? backupJsonS3ObjeSummary.getKey() : "no match"));
         }
 
-        if (debugOpt) {
-            System.out.println("    [DEBUG] getMyBackupJson() END ");
+        // Let the user know which backup is actually used when not matching exactly
+        if ( (backupJsonS3ObjeSummary != null) && (bkupTimeMatchMode != OpscBackupTimeline.MatchMode.EXACT) ) {
+            long bkupTime = OpscBackupTimeline.parseBackupTime(backupJsonS3ObjeSummary.getKey());
+            System.out.format("  Using backup taken at %s for host %s (requested: %s, match mode: %s)\n",
+                OpscBackupTimeline.toUtcTime(bkupTime).format(DseOpscS3RestoreUtils.OPSC_BKUP_TIME_DISPLAY_FORMATTER),
+                hostId,
+                opscBckupTimeGmt.format(DseOpscS3RestoreUtils.OPSC_BKUP_TIME_DISPLAY_FORMATTER),
+                bkupTimeMatchMode.toString().toLowerCase());
         }
 
         return backupJsonS3ObjeSummary;
@@ -248,7 +343,12 @@ public class DseOpscS3Restore {
      * @return
      */
     static long getS3FileSize(AmazonS3 s3Client, String s3BucketName, String s3ObjKeyName) {
-        long size = -1;
+        long size = (s3Inventory != null) ? s3Inventory.getSize(s3ObjKeyName) : -1;
+
+        // Not in the inventory index (or no index): LIST
+        if (size >= 0) {
+            return size;
+        }
 
         ObjectListing objectListing = s3Client.listObjects(
             new ListObjectsRequest()
@@ -266,67 +366,14 @@ public class DseOpscS3Restore {
     }
 
     /**
-     * Get mapping from "unique_identifier" to "keyspace:table"
+     * Get the SSTable list of a host backup from its "backup.json" file
      *
+     * @param hostId
      * @param backupJsonFileName
-     * @return
+     * @return empty when the file can't be read
      */
-    static Map<String, String> getOpscUniquifierToKsTblMapping(String backupJsonFileName) {
-
-        LinkedHashMap<String, String> opscObjMaps = new LinkedHashMap<String, String>();
-
-        JSONParser jsonParser = new JSONParser();
-
-        try {
-            JSONObject jsonObject = (JSONObject) jsonParser.parse(new FileReader(backupJsonFileName));
-            JSONArray jsonItemArr = (JSONArray)jsonObject.get(DseOpscS3RestoreUtils.OPSC_OBJKEY_SSTABLES_MARKER_STR);
-
-            Iterator iterator = jsonItemArr.iterator();
-
-            while (iterator.hasNext()) {
-                String jsonItemContent = (String) ((JSONObject)iterator.next()).toJSONString();
-                jsonItemContent = jsonItemContent.substring(1, jsonItemContent.length() -1 );
-
-                String[] keyValuePairs = jsonItemContent.split(",");
-
-                String ssTableName = "";
-                String uniquifierStr = "";
-                String keyspaceName = "";
-                String tableName = "";
-                String ssTableVersion = "";
-
-                for ( String keyValuePair :  keyValuePairs ) {
-                    String key = keyValuePair.split(":")[0];
-                    String value = keyValuePair.split(":")[1];
-
-                    key = key.substring(1, key.length() - 1 );
-                    value = value.substring(1, value.length() - 1);
-
-                    if ( key.equalsIgnoreCase("uniquifier") ) {
-                        uniquifierStr = value;
-                    }
-                    else if ( key.equalsIgnoreCase("version") ) {
-                        ssTableVersion = value;
-                    }
-                    else if ( key.equalsIgnoreCase("keyspace") ) {
-                        keyspaceName = value;
-                    }
-                    else if ( key.equalsIgnoreCase("cf") ) {
-                        tableName = value;
-                    }
-                    else if ( key.equalsIgnoreCase("name") ) {
-                        ssTableName = value;
-                    }
-                }
-
-                opscObjMaps.put(ssTableName, keyspaceName + ":" + tableName + ":" + uniquifierStr + ":" + ssTableVersion);
-            }
-        }
-        catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        return opscObjMaps;
+    static OpscBackupManifest getOpscBackupManifest(String hostId, String backupJsonFileName) {
+        return OpscBackupManifest.load(hostId, backupJsonFileName);
     }
 
 
@@ -389,6 +436,12 @@ public class DseOpscS3Restore {
                 if (localhostIp.equals(listen_address_ip) || localhostIp.equals(broadcast_address_ip)) {
                     myHostId = host.getHostId().toString();
                     foundMatchingHost = true;
+
+                    // Fallback for next runs when the local node can't be queried
+                    OpscHostIdResolver.cacheHostId(
+                        CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_LOCAL_DOWNLOAD_HOME),
+                        localhostIp,
+                        myHostId);
                     break;
                 }
             }
@@ -405,544 +458,2318 @@ public class DseOpscS3Restore {
     
 
     /**
-     * Download a single S3 object to a local file.
+     * Get the local file that a backup SSTable S3 object is downloaded to:
+     *   <download_home>/snapshots/<host_id>/sstables/<keyspace>/<table>/<sstable_file_name>, or
+     *   <download_home>/<sstable_file_name> (no target directory structure)
      *
-     * @param s3TransferManager
-     * @param localFilePath
-     * @param s3BukcetName
-     * @param s3ObjKeyName
-     * @param s3ObjeKeySize
-     * @param file_size_chk
-     * @param printMsg
+     * @param downloadHomeDir
+     * @param s3ObjName
+     * @param keyspaceName
+     * @param tableName
+     * @param sstableVersion
+     * @param noTargetDirStruct
+     * @param dse48ver
+     * @return
      */
-    static void downloadSingleS3Obj(TransferManager s3TransferManager,
-                                    String localFilePath,
-                                    String s3BukcetName,
-                                    String s3ObjKeyName,
-                                    long s3ObjeKeySize,
-                                    boolean file_size_chk,
-                                    boolean printMsg) {
-        File localFile = new File(localFilePath);
-        GetObjectRequest getObjectRequest = new GetObjectRequest(s3BukcetName, s3ObjKeyName);
-        Download s3Download = s3TransferManager.download(getObjectRequest, localFile);
-
-        try {
-            // wait for download to complete
-            s3Download.waitForCompletion();
-        }
-        catch ( InterruptedException ie) {
-            if (printMsg) {
-                System.out.println("   ... Download of [" + s3BukcetName + "] " + s3ObjKeyName + " gets interrupted.");
-            }
-        }
-        catch ( Exception ex ) {
-            if (printMsg) {
-                System.out.println("   ... Download failed - unknown error.");
-            }
-            ex.printStackTrace();
-        }
-
-        if (file_size_chk) {
-            TransferProgress transferProgress = s3Download.getProgress();
-            if (printMsg) {
-                System.out.format("   ... download complete: %d of %d bytes transferred (%.2f%%)\n",
-                    transferProgress.getBytesTransferred(),
-                    s3ObjeKeySize,
-                    transferProgress.getPercentTransferred());
-            }
-        }
+    static File getLocalSstableFile(String downloadHomeDir,
+                                    String s3ObjName,
+                                    String keyspaceName,
+                                    String tableName,
+                                    String sstableVersion,
+                                    boolean noTargetDirStruct,
+                                    boolean dse48ver) {
+        int sstblVersionStartPos = s3ObjName.indexOf(sstableVersion);
+        String realSStableName = s3ObjName.substring(sstblVersionStartPos);
+
+        String tmp = s3ObjName.substring(0, sstblVersionStartPos -1 );
+        int lastPathSeperatorPos = tmp.lastIndexOf('/');
+
+        String parentPathStr = tmp.substring(0, lastPathSeperatorPos);
+        parentPathStr = parentPathStr.substring(parentPathStr.indexOf(DseOpscS3RestoreUtils.OPSC_OBJKEY_BASESTR));
+
+        // For DSE 4.8 version, the atual SSTable file name starts with "<keyspace_name>-<table_name>-"
+        if (dse48ver) {
+            realSStableName = keyspaceName + "-" + tableName + "-" + realSStableName;
+        }
+
+        return new File(downloadHomeDir + "/" +
+            ( noTargetDirStruct ? "" :
+                (parentPathStr + "/" + keyspaceName + "/" + tableName + "/") ) +
+            realSStableName );
     }
 
-
     /**
-     * List (and download) Opsc S3 backup objects for a specified host
+     * Restore one SSTable object into its download root: all components of an SSTable set go to
+     * the same root, and the write waits for a free write slot and enough free space on that root
      *
-     * @param fileSizeChk
-     * @param s3Client
-     * @param hostId
-     * @param download
-     * @param threadNum
+     * @param s3ObjKey
+     * @param objSize -1 if unknown
      * @param keyspaceName
      * @param tableName
-     * @param opscBckupTimeGmt
-     * @param clearTargetDownDir
+     * @param sstableVersion
      * @param noTargetDirStruct
+     * @param dse48ver
+     * @return where the object came from, and the bytes fetched from the backup store
+     * @throws Exception
      */
-    static void listDownloadS3ObjForHost(boolean fileSizeChk,
-                                         AmazonS3 s3Client,
-                                         String hostId,
-                                         boolean download,
-                                         int threadNum,
-                                         String keyspaceName,
-                                         String tableName,
-                                         ZonedDateTime opscBckupTimeGmt,
-                                         boolean clearTargetDownDir,
-                                         boolean noTargetDirStruct) {
-        assert (hostId != null);
+    static RestoreResult restoreSstableObj(String s3ObjKey,
+                                  long objSize,
+                                  String keyspaceName,
+                                  String tableName,
+                                  String sstableVersion,
+                                  boolean noTargetDirStruct,
+                                  boolean dse48ver) throws Exception {
+        // Objects not started yet wait while the restore is paused
+        OpscRestoreControl.awaitResumed();
+
+        String sstableSetKey = OpscTokenRangeFilter.getSstableSetKey(keyspaceName, tableName, s3ObjKey, sstableVersion);
+
+        OpscDownloadRoots.DownloadRoot root = downloadRoots.place(sstableSetKey, objSize,
+            candidateRoot -> holdsSstableSetFiles(getLocalSstableFile(
+                candidateRoot.dir, s3ObjKey, keyspaceName, tableName, sstableVersion, noTargetDirStruct, dse48ver)));
+
+        long startMillis = System.currentTimeMillis();
+        String outcome = OpscEventLog.OUTCOME_OK;
+        long byteNum = 0;
 
-        System.out.format("List" +
-            (download ? " and download" : "") +
-            " OpsCenter S3 backup items for specified host (%s) ...\n", hostId);
-
-        String downloadHomeDir = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_LOCAL_DOWNLOAD_HOME);
-
-        if (download) {
-            assert (threadNum > 0);
+        try {
+            File localFile = getLocalSstableFile(
+                root.dir,
+                s3ObjKey,
+                keyspaceName,
+                tableName,
+                sstableVersion,
+                noTargetDirStruct,
+                dse48ver);
 
-            // If non-existing, create local home directory to hold S3 download files
+            root.writeSlots.acquire();
+            boolean reserved = false;
             try {
-                File file = new File(downloadHomeDir);
+                // Hard links take no space: no admission, and no waiting behind downloads for it.
+                // Copies from another file system are admitted like downloads.
+                if (!isLinkableToDownloadRoots(s3ObjKey, objSize, keyspaceName, tableName, sstableVersion, noTargetDirStruct, dse48ver)) {
+                    root.spaceGuard.acquire(objSize, s3ObjKey);
+                    reserved = true;
+                }
 
-                if ( Files.notExists(file.toPath()))  {
-                    FileUtils.forceMkdir(file);
+                if ( (localSstables != null) &&
+                     localSstables.linkTo(backupStore, s3ObjKey, objSize, keyspaceName, tableName, localFile) ) {
+                    outcome = OpscEventLog.OUTCOME_LOCAL_HIT;
+                }
+                else if ( (backupMirror != null) && backupMirror.linkTo(s3ObjKey, objSize, localFile) ) {
+                    outcome = OpscEventLog.OUTCOME_MIRROR_HIT;
                 }
                 else {
-                    if (clearTargetDownDir) {
-                        FileUtils.cleanDirectory(file);
+                    if (!reserved) {
+                        root.spaceGuard.acquire(objSize, s3ObjKey);
+                        reserved = true;
+                    }
+
+                    if (sstableCache != null) {
+                        byteNum = sstableCache.fetch(backupStore, s3ObjKey, objSize, localFile);
+                        if (byteNum == 0) {
+                            outcome = OpscEventLog.OUTCOME_CACHE_HIT;
+                        }
+                    }
+                    else {
+                        byteNum = backupStore.download(s3ObjKey, localFile);
                     }
                 }
             }
-            catch (IOException ioe) {
-                System.out.println("ERROR: failed to create download home directory for S3 objects!");
-                System.exit(-10);
+            finally {
+                if (reserved) {
+                    root.spaceGuard.release(objSize);
+                }
+                root.writeSlots.release();
             }
         }
-
-
-        // First, check OpsCenter records matching the backup time
-        TransferManager transferManager =
-            TransferManagerBuilder.standard().withS3Client(s3Client).build();
-
-        String bktName = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_OPSC_S3_BUCKET_NAME);
-
-        Map<String, String> opscUniquifierToKsTbls = new HashMap<String, String>();
-
-        S3ObjectSummary backupJsonS3ObjSummary = getMyBackupJson(s3Client, hostId, opscBckupTimeGmt);
-
-        if (backupJsonS3ObjSummary == null) {
-            DateTimeFormatter opscObjTimeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm-ss-z");
-            String opscBckupTimeGmtStr = opscBckupTimeGmt.format(opscObjTimeFormatter);
-
-            System.out.format("ERROR: Failed to find %s file for host (%s) at backup time (%s)\n",
-                DseOpscS3RestoreUtils.OPSC_BKUP_METADATA_FILE,
-                hostId,
-                opscBckupTimeGmtStr);
-
-            return;
+        finally {
+            downloadRoots.complete(sstableSetKey, root, objSize, byteNum, System.currentTimeMillis() - startMillis);
         }
-        else {
-            // download backup.json file from S3
-            String objKeyName = backupJsonS3ObjSummary.getKey();
-            String localBackupJsonFile = downloadHomeDir + "/" + objKeyName;
 
-            boolean downloadSucceed = false;
+        return new RestoreResult(outcome, byteNum);
+    }
 
+    /**
+     * Whether restoring a backup SSTable object takes no space on the download roots: it is hard
+     * linked from local SSTables, the mirror, the SSTable cache or the backup directory, on the
+     * file system of a download root. Cross file system copies and cache misses take space.
+     *
+     * @param s3ObjKey
+     * @param objSize
+     * @param keyspaceName
+     * @param tableName
+     * @param sstableVersion
+     * @param noTargetDirStruct
+     * @param dse48ver
+     * @return
+     */
+    static boolean isLinkableToDownloadRoots(String s3ObjKey,
+                                             long objSize,
+                                             String keyspaceName,
+                                             String tableName,
+                                             String sstableVersion,
+                                             boolean noTargetDirStruct,
+                                             boolean dse48ver) {
+        List<Path> linkSources = new ArrayList<>();
+
+        if (localSstables != null) {
+            File localFile = getLocalSstableFile(downloadRoots.getPrimary().dir,
+                s3ObjKey, keyspaceName, tableName, sstableVersion, noTargetDirStruct, dse48ver);
             try {
-                downloadSingleS3Obj(transferManager,
-                    localBackupJsonFile,
-                    bktName,
-                    objKeyName,
-                    backupJsonS3ObjSummary.getSize(),
-                    fileSizeChk,
-                    true);
-
-                downloadSucceed = true;
-
-            } catch (AmazonServiceException e) {
-                // The call was transmitted successfully, but Amazon S3 couldn't process
-                // it, so it returned an error response.
-                e.printStackTrace();
-            } catch (SdkClientException e) {
-                // Amazon S3 couldn't be contacted for a response, or the client
-                // couldn't parse the response from Amazon S3.
-                e.printStackTrace();
+                linkSources.add(localSstables.getLinkSource(backupStore, s3ObjKey, objSize, keyspaceName, tableName, localFile));
+            }
+            catch (IOException ioe) {
+                // Not matched: downloaded
             }
+        }
+        if (backupMirror != null) {
+            linkSources.add(backupMirror.getLinkSource(s3ObjKey, objSize));
+        }
+        if (sstableCache != null) {
+            linkSources.add(sstableCache.getLinkSource(s3ObjKey, objSize));
+        }
+        if (backupStore instanceof OpscFsBackupStore) {
+            linkSources.add(((OpscFsBackupStore) backupStore).getLinkSource(s3ObjKey));
+        }
 
-            // processing backup.json metadata when it is successfully downloaded from S3
-            if (downloadSucceed) {
-                opscUniquifierToKsTbls =
-                    getOpscUniquifierToKsTblMapping(localBackupJsonFile);
+        for (Path linkSource : linkSources) {
+            if ( (linkSource != null) && downloadRoots.isOnRootFileSystem(linkSource) ) {
+                return true;
             }
         }
 
+        return false;
+    }
 
-        if ( opscUniquifierToKsTbls.isEmpty() ) {
-            System.out.println("ERROR: Failed to get backup SSTable file list from " +
-                DseOpscS3RestoreUtils.OPSC_BKUP_METADATA_FILE + " file!");
+    /**
+     * Drop the backup SSTable sets of a host selection from the local SSTable matching
+     *
+     * @param selection
+     */
+    static void unregisterLocalBackupSets(HostSelection selection) {
+        if (localSstables == null) {
             return;
         }
 
-
-        boolean dse48 = false;
-        String dse48Str = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_FILE_DSE_48);
-        if ( (dse48Str != null) && !(dse48Str.isEmpty()) ) {
-            dse48 = Boolean.parseBoolean(dse48Str);
+        BitSet matchedSstables = selection.matchedSstables;
+        for ( int m = matchedSstables.nextSetBit(0); m >= 0; m = matchedSstables.nextSetBit(m + 1) ) {
+            localSstables.unregisterBackupObj(selection.backupManifest.getS3ObjKey(m), selection.backupManifest.getComponent(m));
         }
+    }
 
+    /**
+     * Whether any component of the SSTable set of a local SSTable file exists next to it
+     *
+     * @param localFile
+     * @return
+     */
+    static boolean holdsSstableSetFiles(File localFile) {
+        String fileName = localFile.getName();
+        String setPrefix = fileName.substring(0, fileName.lastIndexOf('-') + 1);
+
+        for (String component : SSTABLE_COMPONENTS) {
+            if (new File(localFile.getParentFile(), setPrefix + component).exists()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Local file of a backup SSTable on whichever download root holds it
+     *
+     * @return the file on the primary root (download home) if no root has it
+     */
+    static File findLocalSstableFile(String s3ObjName,
+                                     String keyspaceName,
+                                     String tableName,
+                                     String sstableVersion,
+                                     boolean noTargetDirStruct,
+                                     boolean dse48ver) {
+        for (OpscDownloadRoots.DownloadRoot root : downloadRoots.getRoots()) {
+            File localFile = getLocalSstableFile(
+                root.dir, s3ObjName, keyspaceName, tableName, sstableVersion, noTargetDirStruct, dse48ver);
+
+            if (localFile.isFile()) {
+                return localFile;
+            }
+        }
+
+        return getLocalSstableFile(downloadRoots.getPrimary().dir,
+            s3ObjName, keyspaceName, tableName, sstableVersion, noTargetDirStruct, dse48ver);
+    }
+
+    /**
+     * Remove the downloaded content of a download root; files kept across runs (hidden metadata
+     * files such as the host ID mapping, and the event log) are not removed
+     *
+     * @param dir
+     * @throws IOException
+     */
+    static void clearDownloadDir(File dir) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+
+        File eventLogFile = (OpscEventLog.getEventLogFile() != null) ?
+            new File(OpscEventLog.getEventLogFile()).getAbsoluteFile() : null;
+
+        for (File child : children) {
+            if ( child.getName().startsWith(".") || child.getAbsoluteFile().equals(eventLogFile) ) {
+                continue;
+            }
+            FileUtils.forceDelete(child);
+        }
+    }
+
+    /**
+     * Backup SSTable objects of a host that are skipped by the token range filter ("-tr") and
+     * the time window filter ("-tw"). The time window filter only reads the SSTables the token
+     * range filter keeps.
+     *
+     * @param s3Client
+     * @param backupManifest
+     * @param keyspaceName
+     * @param tableName
+     * @return indexes of the skipped backup manifest entries; empty when no filter is specified
+     */
+    static BitSet getFilterSkippedSstables(AmazonS3 s3Client,
+                                           OpscBackupManifest backupManifest,
+                                           String keyspaceName,
+                                           String tableName) {
+        String bktName = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_OPSC_S3_BUCKET_NAME);
+        BitSet skippedSstables = new BitSet();
+
+        if (tokenRangeFilter != null) {
+            skippedSstables.or(tokenRangeFilter.findSkippedSstables(
+                s3Client, bktName, backupManifest, keyspaceName, tableName));
+        }
+
+        if (timeWindowFilter != null) {
+            skippedSstables.or(timeWindowFilter.findSkippedSstables(
+                s3Client, bktName, backupManifest, keyspaceName, tableName, skippedSstables));
+        }
+
+        return skippedSstables;
+    }
+
+    /**
+     * Backup SSTable objects of a host selected for a restore, a listing or a plan
+     */
+    static class HostSelection {
+        final String backupJsonKey;
+        final OpscBackupManifest backupManifest;
+
+        // object key -> size; empty when sizes are not needed
+        final Map<String, Long> s3ObjSizes;
+
+        // Manifest entries of the selected keyspaces/tables
+        final BitSet matchedSstables;
+        // ... skipped by the token range / time window filters
+        final BitSet filterSkippedSstables;
+        // ... skipped by delta restore (already downloaded)
+        final BitSet unchangedSstables;
+        // ... to restore
+        final BitSet selectedSstables;
+
+        // Delta restore: downloaded SSTable files that the backup no longer references, by "<keyspace>/<table>"
+        final Map<String, List<File>> unreferencedFiles;
+
+        HostSelection(String backupJsonKey,
+                      OpscBackupManifest backupManifest,
+                      Map<String, Long> s3ObjSizes,
+                      BitSet matchedSstables,
+                      BitSet filterSkippedSstables,
+                      BitSet unchangedSstables,
+                      Map<String, List<File>> unreferencedFiles) {
+            this.backupJsonKey = backupJsonKey;
+            this.backupManifest = backupManifest;
+            this.s3ObjSizes = s3ObjSizes;
+            this.matchedSstables = matchedSstables;
+            this.filterSkippedSstables = filterSkippedSstables;
+            this.unchangedSstables = unchangedSstables;
+            this.unreferencedFiles = unreferencedFiles;
+
+            this.selectedSstables = (BitSet) matchedSstables.clone();
+            this.selectedSstables.andNot(filterSkippedSstables);
+            this.selectedSstables.andNot(unchangedSstables);
+        }
+
+        /**
+         * @param m manifest entry
+         * @return -1 if unknown
+         */
+        long getSize(int m) {
+            Long size = s3ObjSizes.get(backupManifest.getS3ObjKey(m));
+            return (size != null) ? size : -1;
+        }
+    }
+
+    /**
+     * Select the backup SSTable objects of a host: find and load the "backup.json" file that
+     * matches the backup time, get the object sizes, apply the keyspace/table selection, the
+     * token range and time window filters, and (for a delta restore) skip the SSTables that are
+     * already downloaded. Shared by restores, listings and plans.
+     *
+     * @param s3Client
+     * @param transferManager
+     * @param hostId
+     * @param keyspaceName
+     * @param tableName
+     * @param opscBckupTimeGmt
+     * @param withSizes whether object sizes are needed
+     * @param deltaRestore whether this is a delta restore download ("-ref"); downloaded SSTables
+     *                     that the target backup no longer references are collected for
+     *                     removeUnreferencedFiles()
+     * @param noTargetDirStruct
+     * @param printMsg
+     * @param planner LIST requests are counted in the plan if not null
+     * @return null if there's no matching backup or it fails to process "backup.json"
+     */
+    static HostSelection selectHostSstables(AmazonS3 s3Client,
+                                            TransferManager transferManager,
+                                            String hostId,
+                                            String keyspaceName,
+                                            String tableName,
+                                            ZonedDateTime opscBckupTimeGmt,
+                                            boolean withSizes,
+                                            boolean deltaRestore,
+                                            boolean noTargetDirStruct,
+                                            boolean printMsg,
+                                            OpscRestorePlanner planner) {
+        String bktName = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_OPSC_S3_BUCKET_NAME);
+
+        S3ObjectSummary backupJsonS3ObjSummary = getMyBackupJson(s3Client, hostId, opscBckupTimeGmt);
+
+        if (backupJsonS3ObjSummary == null) {
+            System.out.format("ERROR: Failed to find %s file for host (%s) at backup time (%s)\n",
+                DseOpscS3RestoreUtils.OPSC_BKUP_METADATA_FILE,
+                hostId,
+                opscBckupTimeGmt.format(DseOpscS3RestoreUtils.OPSC_BKUP_TIME_DISPLAY_FORMATTER));
+
+            return null;
+        }
+
+        OpscBackupManifest backupManifest =
+            loadBackupManifest(transferManager, hostId, backupJsonS3ObjSummary, printMsg && withSizes, printMsg);
+
+        if ( backupManifest.isEmpty() ) {
+            System.out.println("ERROR: Failed to get backup SSTable file list from " +
+                DseOpscS3RestoreUtils.OPSC_BKUP_METADATA_FILE + " file of host " + hostId + "!");
+            return null;
+        }
+
+        // Sizes of all SSTable objects of the host at once, instead of one LIST per object
+        Map<String, Long> s3ObjSizes = (withSizes || deltaRestore) ?
+            getSstableObjSizes(s3Client, bktName, backupManifest, planner) : new HashMap<>();
+
+        BitSet matchedSstables = backupManifest.select(keyspaceName, tableName);
+
+        // For delta restore, skip SSTables that are shared with the reference backup (and already downloaded),
+        //   and collect downloaded SSTables that are no longer referenced by the target backup; they are only
+        //   removed once the downloads of their table succeeded
+        BitSet unchangedSstables = new BitSet(backupManifest.size());
+        Map<String, List<File>> unreferencedFiles = new HashMap<>();
+
+        if ( deltaRestore && (refBkupTimeOpt != null) ) {
+            String refBackupJsonFile =
+                getRefBackupJsonFile(s3Client, transferManager, hostId, backupJsonS3ObjSummary.getKey());
+
+            OpscBackupManifest refBackupManifest = (refBackupJsonFile != null) ?
+                getOpscBackupManifest(hostId, refBackupJsonFile) : OpscBackupManifest.empty(hostId);
+
+            if ( refBackupManifest.isEmpty() ) {
+                System.out.println("ERROR: Failed to get reference backup SSTable file list for delta restore (" +
+                    refBkupTimeOpt + ")!");
+                return null;
+            }
+
+            boolean dse48 = false;
+            String dse48Str = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_FILE_DSE_48);
+            if ( (dse48Str != null) && !(dse48Str.isEmpty()) ) {
+                dse48 = Boolean.parseBoolean(dse48Str);
+            }
+
+            int numUnreferencedSstables = 0;
+
+            BitSet refSelected = refBackupManifest.select(keyspaceName, tableName);
+
+            for ( int r = refSelected.nextSetBit(0); r >= 0; r = refSelected.nextSetBit(r + 1) ) {
+                String sstableObjName = refBackupManifest.getSstableObjName(r);
+
+                File localFile = findLocalSstableFile(
+                    refBackupManifest.getS3ObjKey(r),
+                    refBackupManifest.getKeyspace(r),
+                    refBackupManifest.getTable(r),
+                    refBackupManifest.getVersion(r),
+                    noTargetDirStruct,
+                    dse48);
+
+                int targetIdx = backupManifest.indexOf(sstableObjName);
+                if (targetIdx >= 0) {
+                    // Only skip when the shared SSTable was actually downloaded before, and completely
+                    Long objSize = s3ObjSizes.get(backupManifest.getS3ObjKey(targetIdx));
+                    if ( localFile.isFile() && (objSize != null) && (localFile.length() == objSize) ) {
+                        unchangedSstables.set(targetIdx);
+                    }
+                }
+                else if (localFile.isFile()) {
+                    unreferencedFiles.computeIfAbsent(
+                        refBackupManifest.getKeyspace(r) + "/" + refBackupManifest.getTable(r),
+                        k -> new ArrayList<>()).add(localFile);
+                    numUnreferencedSstables++;
+                }
+            }
+
+            unchangedSstables.and(matchedSstables);
+
+            System.out.format("  Delta restore against %s: %d unchanged SSTable files skipped, %d unreferenced SSTable files to remove.\n",
+                refBackupJsonFile,
+                unchangedSstables.cardinality(),
+                numUnreferencedSstables);
+        }
+
+        // SSTables outside the requested token ranges ("-tr") or time window ("-tw") are neither listed nor downloaded
+        BitSet filterSkippedSstables =
+            getFilterSkippedSstables(s3Client, backupManifest, keyspaceName, tableName);
+
+        return new HostSelection(
+            backupJsonS3ObjSummary.getKey(),
+            backupManifest,
+            s3ObjSizes,
+            matchedSstables,
+            filterSkippedSstables,
+            unchangedSstables,
+            unreferencedFiles);
+    }
+
+    /**
+     * Delta restore: remove the downloaded SSTable files that the backup no longer references,
+     * for the tables whose downloads all succeeded. A table with a failed download keeps them, so
+     * the previous restore of it stays usable.
+     *
+     * @param selection
+     * @param downloadTotals
+     */
+    static void removeUnreferencedFiles(HostSelection selection, DownloadTotals downloadTotals) {
+        int numRemovedSstables = 0;
+        int numKeptSstables = 0;
+
+        for (Map.Entry<String, List<File>> tableFiles : selection.unreferencedFiles.entrySet()) {
+            if ( downloadTotals.failedTables.contains(tableFiles.getKey()) ) {
+                numKeptSstables += tableFiles.getValue().size();
+                continue;
+            }
+
+            for (File localFile : tableFiles.getValue()) {
+                // Unlink only; hard links of the file elsewhere (e.g. C* data directory) are kept
+                try {
+                    Files.deleteIfExists(localFile.toPath());
+                    numRemovedSstables++;
+                }
+                catch (IOException ioe) {
+                    System.out.println("WARN: Failed to remove unreferenced SSTable file " + localFile.getPath());
+                }
+            }
+        }
+
+        if ( (numRemovedSstables > 0) || (numKeptSstables > 0) ) {
+            System.out.format("  Delta restore: %d unreferenced SSTable files removed, %d kept (tables with failed downloads).\n",
+                numRemovedSstables,
+                numKeptSstables);
+        }
+    }
+
+    /**
+     * Get the "backup.json" file of the reference backup for a delta restore.
+     * - "local": the most recent "backup.json" file of the host that is already in the
+     *            local download home directory (other than the target backup)
+     * - otherwise: the backup that matches the reference backup time (downloaded from S3)
+     *
+     * @param s3Client
+     * @param transferManager
+     * @param hostId
+     * @param targetBackupJsonKey
+     * @return local "backup.json" file path; null if not found
+     */
+    static String getRefBackupJsonFile(AmazonS3 s3Client,
+                                       TransferManager transferManager,
+                                       String hostId,
+                                       String targetBackupJsonKey) {
+        String downloadHomeDir = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_LOCAL_DOWNLOAD_HOME);
+
+        if (refBkupTimeOpt.equalsIgnoreCase(DseOpscS3RestoreUtils.CMD_OPTION_REFBKUP_LOCAL)) {
+            String hostBaseDir = DseOpscS3RestoreUtils.OPSC_OBJKEY_BASESTR + "/" + hostId;
+            File[] opscDirs = new File(downloadHomeDir + "/" + hostBaseDir).listFiles();
+
+            String refBackupJsonKey = null;
+            long refBkupTime = -1;
+
+            if (opscDirs != null) {
+                for (File opscDir : opscDirs) {
+                    String backupJsonKey = hostBaseDir + "/" + opscDir.getName() + "/" +
+                        DseOpscS3RestoreUtils.OPSC_BKUP_METADATA_FILE;
+
+                    if ( opscDir.getName().startsWith(DseOpscS3RestoreUtils.OPSC_OBJKEY_OPSC_MARKER_STR + "_") &&
+                         !backupJsonKey.equals(targetBackupJsonKey) &&
+                         new File(downloadHomeDir + "/" + backupJsonKey).isFile() ) {
+                        long bkupTime = OpscBackupTimeline.parseBackupTime(backupJsonKey);
+                        if (bkupTime > refBkupTime) {
+                            refBkupTime = bkupTime;
+                            refBackupJsonKey = backupJsonKey;
+                        }
+                    }
+                }
+            }
+
+            return (refBackupJsonKey != null) ? (downloadHomeDir + "/" + refBackupJsonKey) : null;
+        }
+        else {
+            ZonedDateTime refBkupTimeGmt;
+            try {
+                refBkupTimeGmt = LocalDateTime.parse(refBkupTimeOpt, DseOpscS3RestoreUtils.OPSC_BKUP_TIME_DISPLAY_FORMATTER)
+                    .atZone(ZoneId.of("UTC"));
+            }
+            catch (DateTimeParseException dte) {
+                System.out.println("ERROR: Incorrect reference backup time (M/d/yyyy h:mm a): " + refBkupTimeOpt);
+                return null;
+            }
+
+            S3ObjectSummary refBackupJsonS3ObjSummary = getMyBackupJson(s3Client, hostId, refBkupTimeGmt);
+            if (refBackupJsonS3ObjSummary == null) {
+                return null;
+            }
+
+            String localBackupJsonFile = downloadHomeDir + "/" + refBackupJsonS3ObjSummary.getKey();
+
+            try {
+                downloadSingleS3Obj(transferManager,
+                    localBackupJsonFile,
+                    CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_OPSC_S3_BUCKET_NAME),
+                    refBackupJsonS3ObjSummary.getKey(),
+                    refBackupJsonS3ObjSummary.getSize(),
+                    false,
+                    true);
+            }
+            catch (SdkClientException e) {
+                System.out.println("ERROR: Failed to download " + refBackupJsonS3ObjSummary.getKey() + ": " + e.getMessage());
+                OpscEventLog.error("download of " + refBackupJsonS3ObjSummary.getKey(), e);
+                return null;
+            }
+
+            return localBackupJsonFile;
+        }
+    }
+
+    /**
+     * Download a single S3 object to a local file.
+     *
+     * @param s3TransferManager
+     * @param localFilePath
+     * @param s3BukcetName
+     * @param s3ObjKeyName
+     * @param s3ObjeKeySize
+     * @param file_size_chk
+     * @param printMsg
+     */
+    static void downloadSingleS3Obj(TransferManager s3TransferManager,
+                                    String localFilePath,
+                                    String s3BukcetName,
+                                    String s3ObjKeyName,
+                                    long s3ObjeKeySize,
+                                    boolean file_size_chk,
+                                    boolean printMsg) {
+        File localFile = new File(localFilePath);
+        GetObjectRequest getObjectRequest = new GetObjectRequest(s3BukcetName, s3ObjKeyName);
+        Download s3Download = s3TransferManager.download(getObjectRequest, localFile);
+
+        try {
+            // wait for download to complete
+            s3Download.waitForCompletion();
+        }
+        catch ( InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            if (printMsg) {
+                System.out.println("   ... Download of [" + s3BukcetName + "] " + s3ObjKeyName + " gets interrupted.");
+            }
+        }
+        catch ( Exception ex ) {
+            if (printMsg) {
+                System.out.println("   ... Download failed - unknown error.");
+            }
+            OpscEventLog.error("download of " + s3ObjKeyName, ex);
+        }
+
+        if (file_size_chk) {
+            TransferProgress transferProgress = s3Download.getProgress();
+            if (printMsg) {
+                System.out.format("   ... download complete: %d of %d bytes transferred (%.2f%%)\n",
+                    transferProgress.getBytesTransferred(),
+                    s3ObjeKeySize,
+                    transferProgress.getPercentTransferred());
+            }
+        }
+    }
+
+
+    /**
+     * List (and download) Opsc S3 backup objects for a specified host
+     *
+     * @param fileSizeChk
+     * @param s3Client
+     * @param hostId
+     * @param download
+     * @param threadNum
+     * @param keyspaceName
+     * @param tableName
+     * @param opscBckupTimeGmt
+     * @param clearTargetDownDir
+     * @param noTargetDirStruct
+     */
+    static void listDownloadS3ObjForHost(boolean fileSizeChk,
+                                         AmazonS3 s3Client,
+                                         String hostId,
+                                         boolean download,
+                                         int threadNum,
+                                         String keyspaceName,
+                                         String tableName,
+                                         ZonedDateTime opscBckupTimeGmt,
+                                         boolean clearTargetDownDir,
+                                         boolean noTargetDirStruct) {
+        assert (hostId != null);
+
+        System.out.format("List" +
+            (download ? " and download" : "") +
+            " OpsCenter S3 backup items for specified host (%s) ...\n", hostId);
+
+        String downloadHomeDir = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_LOCAL_DOWNLOAD_HOME);
+
+        if (download) {
+            assert (threadNum > 0);
+
+            // If non-existing, create local home directory (and other download roots) to hold S3 download files
+            try {
+                for (OpscDownloadRoots.DownloadRoot root : downloadRoots.getRoots()) {
+                    File file = new File(root.dir);
+
+                    if ( Files.notExists(file.toPath()))  {
+                        FileUtils.forceMkdir(file);
+                    }
+                    else {
+                        // Delta restore works on top of the existing download directory content
+                        if (clearTargetDownDir && (refBkupTimeOpt != null)) {
+                            System.out.println("WARN: Download directory " + root.dir + " is not cleared for delta restore.");
+                        }
+                        else if (clearTargetDownDir) {
+                            clearDownloadDir(file);
+                        }
+                    }
+                }
+            }
+            catch (IOException ioe) {
+                throw new RestoreAbortException("failed to create download home directory for S3 objects", -10, ioe);
+            }
+        }
+
+
+        // First, check OpsCenter records matching the backup time
+        TransferManager transferManager =
+            TransferManagerBuilder.standard().withS3Client(s3Client).build();
+
+        String bktName = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_OPSC_S3_BUCKET_NAME);
+
+        HostSelection selection = selectHostSstables(
+            s3Client,
+            transferManager,
+            hostId,
+            keyspaceName,
+            tableName,
+            opscBckupTimeGmt,
+            download || fileSizeChk,
+            download,
+            noTargetDirStruct,
+            true,
+            null);
+
+        if (selection == null) {
+            transferManager.shutdownNow();
+            return;
+        }
+
+        OpscBackupManifest backupManifest = selection.backupManifest;
+        BitSet selectedSstables = selection.selectedSstables;
+        Map<String, Long> s3ObjSizes = selection.s3ObjSizes;
+
+        boolean dse48 = false;
+        String dse48Str = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_FILE_DSE_48);
+        if ( (dse48Str != null) && !(dse48Str.isEmpty()) ) {
+            dse48 = Boolean.parseBoolean(dse48Str);
+        }
+
+        // Whole SSTable sets of the backup (with the table IDs) that local SSTable files are matched against
+        if ( download && (localSstables != null) ) {
+            Map<String, String> backupTableIds = getBackupTableIds(
+                backupStore, selection.backupJsonKey, backupManifest, selection.matchedSstables);
+
+            for ( int m = selection.matchedSstables.nextSetBit(0); m >= 0; m = selection.matchedSstables.nextSetBit(m + 1) ) {
+                localSstables.registerBackupObj(
+                    backupManifest.getS3ObjKey(m),
+                    backupManifest.getComponent(m),
+                    selection.getSize(m),
+                    backupTableIds.get(backupManifest.getKeyspace(m) + "/" + backupManifest.getTable(m)));
+            }
+        }
+
+        // Check the whole download against free disk space up front; objects hard linked into a download
+        // root (from local SSTables, the mirror, the SSTable cache or the backup directory) take no space
+        if (download) {
+            long totalBytes = 0;
+            long unlinkableBytes = 0;
+
+            for ( int m = selectedSstables.nextSetBit(0); m >= 0; m = selectedSstables.nextSetBit(m + 1) ) {
+                long size = selection.getSize(m);
+                if (size < 0) {
+                    continue;
+                }
+
+                totalBytes += size;
+
+                if (!isLinkableToDownloadRoots(
+                        backupManifest.getS3ObjKey(m),
+                        size,
+                        backupManifest.getKeyspace(m),
+                        backupManifest.getTable(m),
+                        backupManifest.getVersion(m),
+                        noTargetDirStruct,
+                        dse48)) {
+                    unlinkableBytes += size;
+                }
+            }
+
+            long shortfall = downloadRoots.getShortfall(unlinkableBytes);
+            if (shortfall > 0) {
+                System.out.format("ERROR: Not enough free disk space on the download roots for the restore: %d bytes to download " +
+                        "(of %d bytes to restore; the rest is hard linked), %d bytes usable, %d more bytes needed " +
+                        "(including \"%s\" per root).\n",
+                    unlinkableBytes, totalBytes, downloadRoots.getUsableBytes(), shortfall,
+                    DseOpscS3RestoreUtils.CFG_KEY_DOWNLOAD_MIN_FREE_MB);
+                unregisterLocalBackupSets(selection);
+                transferManager.shutdownNow();
+                return;
+            }
+        }
+
+        // Download SSTable S3 object items
+        int numSstableBkupItems = 0;
+
+        /**
+         *  Start multiple threads to process data ingestion concurrently
+         */
+        // The thread count can be changed while downloading (see OpscRestoreControl)
+        ThreadPoolExecutor executor =
+            (ThreadPoolExecutor) Executors.newFixedThreadPool(OpscRestoreControl.getDownloadThreadNum(threadNum));
+        OpscRestoreControl.registerDownloadPool(executor);
+
+        long downloadStartMillis = System.currentTimeMillis();
+        DownloadTotals downloadTotals = new DownloadTotals();
+
+        // For sstable download - we use mulitple threads per sstable set. One set includes the following files:
+        // > mc-<#>-big-CompresssionInfo.db
+        // > mc-<#>-big-Data.db
+        // > mc-<#>-big-Filter.db
+        // > mc-<#>-big-Index.db
+        // > mc-<#>-big-Statistics.db
+        // > mc-<#>-big-Summary.db
+        final int SSTABLE_SET_FILENUM = 6;
+
+        String[] s3SstableObjKeyNames = new String[SSTABLE_SET_FILENUM];
+        long[] s3SstableObjKeySizes = new long[SSTABLE_SET_FILENUM];
+        String[] s3SstableKSNames = new String[SSTABLE_SET_FILENUM];
+        String[] s3SstableTBLNames = new String[SSTABLE_SET_FILENUM];
+        String[] s3SstableVersions = new String[SSTABLE_SET_FILENUM];
+
+        int i = 0;
+        int threadId = 0;
+
+        for ( int m = selectedSstables.nextSetBit(0); m >= 0; m = selectedSstables.nextSetBit(m + 1) )  {
+
+            String opscObjName = backupManifest.getS3ObjKey(m);
+
+            String ks = backupManifest.getKeyspace(m);
+            String tbl = backupManifest.getTable(m);
+            String version = backupManifest.getVersion(m);
+
+            numSstableBkupItems++;
+
+            long opscObjSize = selection.getSize(m);
+            if ( (opscObjSize < 0) && fileSizeChk ) {
+                opscObjSize = getS3FileSize(s3Client, bktName, opscObjName);
+            }
+
+            // Download outcomes of the objects go to the event log
+            if (!download) {
+                System.out.println("  - [" + bktName + "] " + opscObjName +
+                    ( !fileSizeChk ? "" : (" (size = " + opscObjSize + " bytes)") ) +
+                    " [keyspace: " + ks + "; table: " + tbl + "]");
+            }
+
+            s3SstableObjKeyNames[i % SSTABLE_SET_FILENUM] = opscObjName;
+            s3SstableObjKeySizes[i % SSTABLE_SET_FILENUM] = opscObjSize;
+            s3SstableKSNames[i % SSTABLE_SET_FILENUM] = ks;
+            s3SstableTBLNames[i % SSTABLE_SET_FILENUM] = tbl;
+            s3SstableVersions[i % SSTABLE_SET_FILENUM] = version;
+
+            if (download) {
+                if ((i > 0) && ((i + 1) % SSTABLE_SET_FILENUM == 0)) {
+                    Runnable worker = new S3ObjDownloadRunnable(
+                        threadId,
+                        backupStore,
+                        fileSizeChk,
+                        downloadHomeDir,
+                        s3SstableObjKeyNames,
+                        s3SstableObjKeySizes,
+                        s3SstableKSNames,
+                        s3SstableTBLNames,
+                        s3SstableVersions,
+                        noTargetDirStruct,
+                        dse48,
+                        sstableCache,
+                        downloadTotals);
+
+                    threadId++;
+
+                    s3SstableObjKeyNames = new String[SSTABLE_SET_FILENUM];
+                    s3SstableObjKeySizes = new long[SSTABLE_SET_FILENUM];
+                    s3SstableKSNames = new String[SSTABLE_SET_FILENUM];
+                    s3SstableTBLNames = new String[SSTABLE_SET_FILENUM];
+                    s3SstableVersions = new String[SSTABLE_SET_FILENUM];
+
+                    executor.execute(worker);
+                }
+
+                i++;
+            }
+        }
+
+        // Remaining items that don't fill up a whole set (e.g. some files skipped by delta restore)
+        int remainingItemNum = i % SSTABLE_SET_FILENUM;
+        if ( download && (remainingItemNum > 0) ) {
+            Runnable worker = new S3ObjDownloadRunnable(
+                threadId,
+                backupStore,
+                fileSizeChk,
+                downloadHomeDir,
+                Arrays.copyOf(s3SstableObjKeyNames, remainingItemNum),
+                Arrays.copyOf(s3SstableObjKeySizes, remainingItemNum),
+                Arrays.copyOf(s3SstableKSNames, remainingItemNum),
+                Arrays.copyOf(s3SstableTBLNames, remainingItemNum),
+                Arrays.copyOf(s3SstableVersions, remainingItemNum),
+                noTargetDirStruct,
+                dse48,
+                sstableCache,
+                downloadTotals);
+
+            executor.execute(worker);
+        }
+
+        executor.shutdown();
+
+        boolean interrupted = false;
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+            }
+        }
+        catch (InterruptedException ie) {
+            // e.g. a cancelled daemon job: stop the download threads, queued SSTable sets are dropped
+            Thread.currentThread().interrupt();
+            System.out.println("WARN: Interrupted while waiting for download threads.");
+            executor.shutdownNow();
+            interrupted = true;
+        }
+        finally {
+            OpscRestoreControl.unregisterDownloadPool(executor);
+
+            if (download) {
+                unregisterLocalBackupSets(selection);
+            }
+        }
+
+        // Not when interrupted: the dropped SSTable sets are not counted as failed
+        if ( download && !interrupted ) {
+            removeUnreferencedFiles(selection, downloadTotals);
+        }
+
+        if (download) {
+            long hostByteNum = downloadTotals.byteNum.get();
+            long hostObjNum = downloadTotals.objNum.get();
+            long hostFailedObjNum = downloadTotals.failedObjNum.get();
+            long hostDurationMillis = System.currentTimeMillis() - downloadStartMillis;
+
+            System.out.format("  %d of %d SSTable objects restored (%d failed), %d bytes downloaded in %d seconds. Details: %s\n",
+                hostObjNum,
+                numSstableBkupItems,
+                hostFailedObjNum,
+                hostByteNum,
+                hostDurationMillis / 1000,
+                OpscEventLog.getEventLogFile());
+
+            OpscEventLog.hostDownload(hostId, hostObjNum, hostFailedObjNum, hostByteNum, hostDurationMillis);
+
+            // Keep the measured throughput for ETA estimates of later restore plans
+            OpscRestorePlanner.writeThroughputProfile(
+                downloadHomeDir,
+                hostByteNum,
+                hostDurationMillis,
+                threadNum);
+        }
+
+        if (numSstableBkupItems == 0) {
+            System.out.println("  - Found no matching backup records for the specified conditions!.");
+        }
+
+        if ( download && (sstableCache != null) ) {
+            System.out.println("  SSTable cache: " + sstableCache.getStats());
+        }
+
+        if ( download && (backupMirror != null) ) {
+            System.out.println("  Mirror: " + backupMirror.getStats());
+        }
+
+        if ( download && (localSstables != null) ) {
+            System.out.println("  Local SSTables: " + localSstables.getStats());
+        }
+
+        if (download) {
+            System.out.print("  Download roots:\n" + downloadRoots.getStats());
+        }
+
+        if ( download && !backupStore.getStats().isEmpty() ) {
+            System.out.print("  Download sources:\n" + backupStore.getStats());
+        }
+
+        if (transferManager != null) {
+            transferManager.shutdownNow();
+        }
+
+        System.out.println("\n");
+
+    }
+
+
+    /**
+     * List (and download) Opsc S3 backup objects for myself - the host that runs this program
+     *
+     * @param dseClusterMetadata
+     * @param s3Client
+     * @param download
+     * @param threadNum
+     * @param hostIDStr
+     * @param keyspaceName
+     * @param tableName
+     * @param opscBckupTimeGmt
+     * @param clearTargetDownDir
+     */
+    static void listDownloadS3ObjForMe(Metadata dseClusterMetadata,
+                                       boolean fileSizeChk,
+                                       AmazonS3 s3Client,
+                                       boolean download,
+                                       int threadNum,
+                                       String hostIDStr,
+                                       String keyspaceName,
+                                       String tableName,
+                                       ZonedDateTime opscBckupTimeGmt,
+                                       boolean clearTargetDownDir,
+                                       boolean noTargetDirStruct) {
+        String myHostId = hostIDStr;
+
+        // When not providing DSE host ID explicitly, find it by checking with DSE cluster
+        if ( (hostIDStr == null) || (hostIDStr.isEmpty()) ) {
+            myHostId = findMyHostID(dseClusterMetadata);
+        }
+
+        if ( myHostId != null && !myHostId.isEmpty() ) {
+            listDownloadS3ObjForHost(
+                fileSizeChk,
+                s3Client,
+                myHostId,
+                download,
+                threadNum,
+                keyspaceName,
+                tableName,
+                opscBckupTimeGmt,
+                clearTargetDownDir,
+                noTargetDirStruct
+            );
+        }
+    }
+
+
+    /**
+     * List Opsc S3 backup objects for all DSE cluster hosts
+     *
+     * @param dseClusterMetadata
+     * @param fileSizeChk
+     * @param s3Client
+     * @param keyspaceName
+     * @param tableName
+     * @param opscBckupTimeGmt
+     */
+    static void listS3ObjtForCluster(Metadata dseClusterMetadata,
+                                     boolean fileSizeChk,
+                                     AmazonS3 s3Client,
+                                     String keyspaceName,
+                                     String tableName,
+                                     ZonedDateTime opscBckupTimeGmt) {
+
+        System.out.format("List OpsCenter S3 backup items for DSE cluster (%s) ...\n", dseClusterMetadata.getClusterName());
+
+        listS3ObjForDC(dseClusterMetadata, fileSizeChk, s3Client, "", keyspaceName, tableName, opscBckupTimeGmt);
+    }
+
+    /**
+     * List Opsc S3 backup objects for all hosts in a specified DC
+     *
+     * @param dseClusterMetadata
+     * @param fileSizeChk
+     * @param s3Client
+     * @param dcName
+     * @param keyspaceName
+     * @param tableName
+     * @param opscBckupTimeGmt
+     */
+    static void listS3ObjForDC(Metadata dseClusterMetadata,
+                               boolean fileSizeChk,
+                               AmazonS3 s3Client,
+                               String dcName,
+                               String keyspaceName,
+                               String tableName,
+                               ZonedDateTime opscBckupTimeGmt) {
+        assert (CONFIGPROP != null);
+        assert ( (keyspaceName != null) && !keyspaceName.isEmpty() );
+        assert (opscBckupTimeGmt != null);
+
+        Set<Host> hosts = dseClusterMetadata.getAllHosts();
+
+        boolean dcOnly = ( (dcName != null) && !dcName.isEmpty() );
+        if ( dcOnly ) {
+            System.out.format("List OpsCenter S3 backup items for specified DC (%s) of DSE cluster (%s) ...\n",
+                dcName,
+                dseClusterMetadata.getClusterName());
+        }
+
+        // Download matching S3 backup.json file to local
+        TransferManager transferManager =
+            TransferManagerBuilder.standard().withS3Client(s3Client).build();
+
+        String bktName = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_OPSC_S3_BUCKET_NAME);
+
+        for ( Host host : hosts ) {
+            int numSstableBkupItems = 0;
+
+            String dc_name = host.getDatacenter();
+            String rack_name = host.getRack();
+            String host_id = host.getHostId().toString();
+
+            // If not displaying for whole cluster (dcName == null),
+            // then only displaying the specified DC
+            if ( !dcOnly || (dc_name.equalsIgnoreCase(dcName)) ) {
+                System.out.format("  Items for Host %s (rack: %s, DC: %s) ...\n",
+                    host_id, rack_name, dc_name, dseClusterMetadata.getClusterName());
+
+
+                // First. get the backup.json file corresponds to the specified host and backup time,
+                //   then check SSTables records matching the backup time, keyspace, and table
+                HostSelection selection = selectHostSstables(
+                    s3Client,
+                    transferManager,
+                    host_id,
+                    keyspaceName,
+                    tableName,
+                    opscBckupTimeGmt,
+                    fileSizeChk,
+                    false,
+                    false,
+                    true,
+                    null);
+
+                if (selection == null) {
+                    transferManager.shutdownNow();
+                    return;
+                }
+
+                OpscBackupManifest backupManifest = selection.backupManifest;
+                BitSet selectedSstables = selection.selectedSstables;
+
+                String sstablePrefixString =
+                    CONFIGPROP.get(DseOpscS3RestoreUtils.CFG_KEY_OPSC_S3_BUCKET_NAME) + "/" +
+                        DseOpscS3RestoreUtils.OPSC_OBJKEY_BASESTR + "/" +
+                        host_id + "/" +
+                        DseOpscS3RestoreUtils.OPSC_OBJKEY_SSTABLES_MARKER_STR;
+
+                for ( int m = selectedSstables.nextSetBit(0); m >= 0; m = selectedSstables.nextSetBit(m + 1) )  {
+
+                    String opscObjName = sstablePrefixString + "/" + backupManifest.getSstableObjName(m);
+
+                    String ks = backupManifest.getKeyspace(m);
+                    String tbl = backupManifest.getTable(m);
+
+                    numSstableBkupItems++;
+
+                    long opscObjSize = -1;
+                    if (fileSizeChk) {
+                        opscObjSize = selection.getSize(m);
+                        if (opscObjSize < 0) {
+                            opscObjSize = getS3FileSize(s3Client, bktName, backupManifest.getS3ObjKey(m));
+                        }
+                    }
+
+                    System.out.println("  - " + opscObjName +
+                        ( !fileSizeChk ? "" : (" (size = " + opscObjSize + " bytes)") ) +
+                        " [keyspace: " + ks + "; table: " + tbl + "]");
+                }
+
+                if (numSstableBkupItems == 0) {
+                    System.out.println("  - Found no matching backup records for the specified conditions!.");
+                }
+            }
+
+            System.out.println();
+        }
+
+        if (transferManager != null) {
+            transferManager.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Get the hosts to process: the specified host only, or all hosts of the cluster (or of a DC)
+     *
+     * @param dseClusterMetadata
+     * @param dcName
+     * @param hostIdStr
+     * @return host_id -> "rack: <rack>, DC: <dc>" (empty description for a specified host ID)
+     */
+    static Map<String, String> getHostsToProcess(Metadata dseClusterMetadata,
+                                                 String dcName,
+                                                 String hostIdStr) {
+        Map<String, String> hostDescs = new LinkedHashMap<>();
+
+        if ( (hostIdStr != null) && !hostIdStr.isEmpty() ) {
+            hostDescs.put(hostIdStr, "");
+        }
+        else {
+            boolean dcOnly = ( (dcName != null) && !dcName.isEmpty() );
+
+            for ( Host host : dseClusterMetadata.getAllHosts() ) {
+                if ( !dcOnly || host.getDatacenter().equalsIgnoreCase(dcName) ) {
+                    hostDescs.put(host.getHostId().toString(),
+                        "rack: " + host.getRack() + ", DC: " + host.getDatacenter());
+                }
+            }
+        }
+
+        return hostDescs;
+    }
+
+    /**
+     * Download "backup.json" of a host backup into the local download home and parse it.
+     * In daemon mode, parsed files are cached (a "backup.json" file never changes) and are not
+     * downloaded again as long as the local copy is there. A mirrored file is read from the
+     * local mirror instead.
+     *
+     * @param transferManager
+     * @param hostId
+     * @param backupJsonS3ObjSummary
+     * @param fileSizeChk
+     * @param printMsg
+     * @return empty when the file can't be downloaded or read
+     */
+    static OpscBackupManifest loadBackupManifest(TransferManager transferManager,
+                                                 String hostId,
+                                                 S3ObjectSummary backupJsonS3ObjSummary,
+                                                 boolean fileSizeChk,
+                                                 boolean printMsg) {
+        String objKeyName = backupJsonS3ObjSummary.getKey();
+        String localBackupJsonFile =
+            CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_LOCAL_DOWNLOAD_HOME) + "/" + objKeyName;
+
+        // A mirrored "backup.json" is read in place
+        boolean mirrored = (backupMirror != null) && backupMirror.getMirrorFile(objKeyName).isFile();
+        if (mirrored) {
+            localBackupJsonFile = backupMirror.getMirrorFile(objKeyName).getPath();
+        }
+
+        if ( (backupManifestCache != null) && new File(localBackupJsonFile).isFile() ) {
+            OpscBackupManifest cachedManifest = backupManifestCache.get(objKeyName);
+            if (cachedManifest != null) {
+                return cachedManifest;
+            }
+        }
+
+        if (!mirrored) {
+            try {
+                downloadSingleS3Obj(transferManager,
+                    localBackupJsonFile,
+                    CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_OPSC_S3_BUCKET_NAME),
+                    objKeyName,
+                    backupJsonS3ObjSummary.getSize(),
+                    fileSizeChk,
+                    printMsg);
+            }
+            catch (SdkClientException e) {
+                // Amazon S3 couldn't be contacted for a response (or couldn't process the request)
+                System.out.println("ERROR: Failed to download " + objKeyName + ": " + e.getMessage());
+                OpscEventLog.error("download of " + objKeyName, e);
+                return OpscBackupManifest.empty(hostId);
+            }
+        }
+
+        OpscBackupManifest backupManifest = getOpscBackupManifest(hostId, localBackupJsonFile);
+
+        if ( (backupManifestCache != null) && !backupManifest.isEmpty() ) {
+            backupManifestCache.put(objKeyName, backupManifest);
+        }
+
+        return backupManifest;
+    }
+
+    /**
+     * Get sizes of all objects under the SSTable prefix of a host backup with (paginated) LIST
+     * requests. Large prefixes are split into key ranges (split keys taken from "backup.json")
+     * that are listed concurrently by "list_threads" threads.
+     *
+     * @param s3Client
+     * @param s3BucketName
+     * @param backupManifest
+     * @param planner LIST requests are counted in the plan if not null
+     * @return object key -> size
+     */
+    static Map<String, Long> listS3ObjSizes(AmazonS3 s3Client,
+                                            String s3BucketName,
+                                            OpscBackupManifest backupManifest,
+                                            OpscRestorePlanner planner) {
+        String prefix = backupManifest.getSstablePrefix() + "/";
+
+        OpscShardedLister lister = new OpscShardedLister(s3Client, listThreadNum);
+
+        List<String> splitKeys = Collections.emptyList();
+        int rangeNum = lister.getRangeNum(backupManifest.size());
+        if (rangeNum > 1) {
+            List<String> sampleKeys = new ArrayList<>(backupManifest.size());
+            for (int i = 0; i < backupManifest.size(); i++) {
+                sampleKeys.add(backupManifest.getS3ObjKey(i));
+            }
+            splitKeys = OpscShardedLister.getSplitKeys(sampleKeys, rangeNum);
+        }
+
+        Map<String, Long> s3ObjSizes;
+        try {
+            s3ObjSizes = lister.listSizes(s3BucketName, prefix, splitKeys);
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            System.out.println("WARN: Listing of " + prefix + " interrupted.");
+            s3ObjSizes = new HashMap<>();
+        }
+
+        if (planner != null) {
+            planner.addListRequests(lister.getListRequestNum());
+        }
+
+        if (debugOpt) {
+            System.out.println("    [DEBUG] listS3ObjSizes() - " + prefix + ": " + s3ObjSizes.size() + " objects, " +
+                (splitKeys.size() + 1) + " key range(s), " + lister.getListRequestNum() + " LIST requests");
+        }
+
+        return s3ObjSizes;
+    }
+
+    /**
+     * Get sizes of the SSTable objects of a host backup: from the S3 inventory index when there
+     * is one, with LIST requests only for the objects that are not in the index (created after the
+     * inventory snapshot); otherwise, LIST of the whole SSTable prefix of the host
+     *
+     * @param s3Client
+     * @param s3BucketName
+     * @param backupManifest
+     * @param planner LIST requests are counted in the plan if not null
+     * @return object key -> size
+     */
+    static Map<String, Long> getSstableObjSizes(AmazonS3 s3Client,
+                                                String s3BucketName,
+                                                OpscBackupManifest backupManifest,
+                                                OpscRestorePlanner planner) {
+        String prefix = backupManifest.getSstablePrefix() + "/";
+
+        if (s3Inventory == null) {
+            return listS3ObjSizes(s3Client, s3BucketName, backupManifest, planner);
+        }
+
+        Map<String, Long> s3ObjSizes = s3Inventory.getSizes(prefix);
+
+        List<String> missingObjKeys = new ArrayList<>();
+        for (int i = 0; i < backupManifest.size(); i++) {
+            if (!s3ObjSizes.containsKey(backupManifest.getS3ObjKey(i))) {
+                missingObjKeys.add(backupManifest.getS3ObjKey(i));
+            }
+        }
+
+        if (debugOpt) {
+            System.out.println("    [DEBUG] getSstableObjSizes() - " + prefix + ": " + s3ObjSizes.size() +
+                " objects from S3 inventory, " + missingObjKeys.size() + " not in inventory");
+        }
+
+        if (missingObjKeys.size() > OpscS3Inventory.MISSING_OBJ_LIST_MAX) {
+            s3ObjSizes.putAll(listS3ObjSizes(s3Client, s3BucketName, backupManifest, planner));
+        }
+        else {
+            for (String missingObjKey : missingObjKeys) {
+                if (planner != null) {
+                    planner.addListRequests(1);
+                }
+
+                long size = getS3FileSize(s3Client, s3BucketName, missingObjKey);
+                if (size >= 0) {
+                    s3ObjSizes.put(missingObjKey, size);
+                }
+            }
+        }
+
+        return s3ObjSizes;
+    }
+
+    /**
+     * Table IDs of the tables of a host backup, from the "schema.json" of each keyspace
+     * ("<backup>/<keyspace>/schema.json", next to "backup.json")
+     *
+     * @param store
+     * @param backupJsonKey
+     * @param backupManifest
+     * @param entries manifest entries of the tables
+     * @return "<keyspace>/<table>" -> table ID ("<32 hex digits>"); tables without a known ID are left out
+     */
+    static Map<String, String> getBackupTableIds(OpscBackupStore store,
+                                                 String backupJsonKey,
+                                                 OpscBackupManifest backupManifest,
+                                                 BitSet entries) {
+        Map<String, String> tableIds = new HashMap<>();
+        Map<String, Object> schemaJsons = new HashMap<>();
+
+        String backupPrefix = backupJsonKey.substring(0, backupJsonKey.lastIndexOf('/') + 1);
+
+        for ( int m = entries.nextSetBit(0); m >= 0; m = entries.nextSetBit(m + 1) ) {
+            String ks = backupManifest.getKeyspace(m);
+            String tbl = backupManifest.getTable(m);
+
+            if (tableIds.containsKey(ks + "/" + tbl)) {
+                continue;
+            }
+
+            if (!schemaJsons.containsKey(ks)) {
+                String schemaObjKey = backupPrefix + ks + "/schema.json";
+                Object schemaJson = null;
+
+                try {
+                    schemaJson = new JSONParser().parse(new String(store.read(schemaObjKey), StandardCharsets.UTF_8));
+                }
+                catch (IOException | org.json.simple.parser.ParseException e) {
+                    System.out.println("WARN: Failed to read " + schemaObjKey + " (" + e.getMessage() +
+                        "); local SSTable directories of keyspace " + ks + " are not checked against the backup table IDs.");
+                }
+
+                schemaJsons.put(ks, schemaJson);
+            }
+
+            String tableId = OpscLocalSstables.findTableId(schemaJsons.get(ks), tbl);
+            if (tableId != null) {
+                tableIds.put(ks + "/" + tbl, tableId);
+            }
+        }
+
+        return tableIds;
+    }
+
+    /**
+     * Dry-run restore plan for the selected hosts: byte totals and object counts per host,
+     * keyspace and table, the largest objects, the expected number of requests and an ETA.
+     * No SSTable data is downloaded.
+     *
+     * @param dseClusterMetadata
+     * @param s3Client
+     * @param dcName
+     * @param hostIdStr
+     * @param keyspaceName
+     * @param tableName
+     * @param opscBckupTimeGmt
+     * @param fileSizeChk
+     * @param threadNum
+     * @param planFormat
+     */
+    static void planRestore(Metadata dseClusterMetadata,
+                            AmazonS3 s3Client,
+                            String dcName,
+                            String hostIdStr,
+                            String keyspaceName,
+                            String tableName,
+                            ZonedDateTime opscBckupTimeGmt,
+                            boolean fileSizeChk,
+                            int threadNum,
+                            String planFormat) {
+        assert (CONFIGPROP != null);
+
+        boolean jsonFormat = planFormat.equalsIgnoreCase(OpscRestorePlanner.PLAN_FORMAT_JSON);
+
+        // Keep stdout clean for JSON output; progress and error messages go to stderr
+        //   (the job log in daemon mode, where System.out is shared by all jobs)
+        PrintStream stdout = System.out;
+        if (jsonFormat) {
+            if (OpscRestoreDaemon.isJobThread()) {
+                OpscRestoreDaemon.setJobOutToLog(true);
+            }
+            else {
+                System.setOut(System.err);
+            }
+        }
+
+        OpscRestorePlanner planner = new OpscRestorePlanner();
+
+        TransferManager transferManager =
+            TransferManagerBuilder.standard().withS3Client(s3Client).build();
+
+        try {
+            Map<String, String> hostDescs = getHostsToProcess(dseClusterMetadata, dcName, hostIdStr);
+
+            for ( String hostId : hostDescs.keySet() ) {
+                System.out.format("Planning restore for host %s ...\n", hostId);
+
+                planner.addHost(hostId);
+
+                // backup timeline LIST + backup.json GET
+                planner.addListRequests(1);
+                planner.addMetadataGets(1);
+
+                HostSelection selection = selectHostSstables(s3Client, transferManager, hostId,
+                    keyspaceName, tableName, opscBckupTimeGmt, true, false, false, false, planner);
+
+                if (selection == null) {
+                    continue;
+                }
+
+                OpscBackupManifest backupManifest = selection.backupManifest;
+                BitSet matchedSstables = selection.matchedSstables;
+
+                for ( int m = matchedSstables.nextSetBit(0); m >= 0; m = matchedSstables.nextSetBit(m + 1) ) {
+                    String ks = backupManifest.getKeyspace(m);
+                    String tbl = backupManifest.getTable(m);
+
+                    // Token range filter: two ranged GETs on the "-Summary.db" of each SSTable
+                    if ( (tokenRangeFilter != null) &&
+                         backupManifest.getComponent(m).equals(OpscTokenRangeFilter.SUMMARY_COMPONENT) ) {
+                        planner.addMetadataGets(2);
+                    }
+
+                    // Time window filter: one GET of the "-Statistics.db" of each SSTable
+                    if ( (timeWindowFilter != null) &&
+                         backupManifest.getComponent(m).equals(OpscTimeWindowFilter.STATISTICS_COMPONENT) ) {
+                        planner.addMetadataGets(1);
+                    }
+
+                    if ( selection.selectedSstables.get(m) ) {
+                        String opscObjName = backupManifest.getS3ObjKey(m);
+
+                        planner.addObject(hostId, ks, tbl, opscObjName, selection.getSize(m));
+
+                        if (fileSizeChk) {
+                            planner.addExtraRequests(1);
+                        }
+                    }
+                }
+            }
+        }
+        finally {
+            transferManager.shutdownNow(false);
+            if (OpscRestoreDaemon.isJobThread()) {
+                OpscRestoreDaemon.setJobOutToLog(false);
+            }
+            else {
+                System.setOut(stdout);
+            }
+        }
+
+        // Throughput: configured value takes precedence over the previously measured one
+        double bytesPerSec = 0;
+        String throughputSource = "none";
+
+        String throughputMbpsStr = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_RESTORE_THROUGHPUT_MBPS);
+        if ( (throughputMbpsStr != null) && !throughputMbpsStr.isEmpty() ) {
+            bytesPerSec = Double.parseDouble(throughputMbpsStr) * 1024 * 1024;
+            throughputSource = "configured";
+        }
+        else {
+            bytesPerSec = OpscRestorePlanner.readThroughputProfile(
+                CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_LOCAL_DOWNLOAD_HOME));
+            if (bytesPerSec > 0) {
+                throughputSource = "measured";
+            }
+        }
+
+        long requestOverheadMs = DseOpscS3RestoreUtils.RESTORE_REQUEST_OVERHEAD_MS;
+        String requestOverheadMsStr = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_RESTORE_REQUEST_OVERHEAD_MS);
+        if ( (requestOverheadMsStr != null) && !requestOverheadMsStr.isEmpty() ) {
+            requestOverheadMs = Long.parseLong(requestOverheadMsStr);
+        }
+
+        if (jsonFormat) {
+            System.out.println(planner.toJSON(bytesPerSec, throughputSource, requestOverheadMs, threadNum).toJSONString());
+        }
+        else {
+            planner.printTable(bytesPerSec, throughputSource, requestOverheadMs, threadNum);
+        }
+    }
+
+
+    /**
+     * Partition-key targeted restore: extract only the partitions of the given keys from the
+     * backup SSTables of the selected hosts (ranged GETs of the chunks that hold them), and write
+     * them as new SSTables (one per backup SSTable holding any of the keys) into
+     * "<download_home>/partitions/<host_id>/<keyspace>/<table>/", ready for "sstableloader".
+     * A "partitions.json" file lists the partitions written.
+     *
+     * @param dseClusterMetadata
+     * @param s3Client
+     * @param dcName
+     * @param hostIdStr
+     * @param keyspaceName
+     * @param tableName
+     * @param opscBckupTimeGmt
+     * @param partitionKeyStrs
+     */
+    @SuppressWarnings("unchecked")
+    static void extractPartitions(Metadata dseClusterMetadata,
+                                  AmazonS3 s3Client,
+                                  String dcName,
+                                  String hostIdStr,
+                                  String keyspaceName,
+                                  String tableName,
+                                  ZonedDateTime opscBckupTimeGmt,
+                                  List<String> partitionKeyStrs) {
+        assert (CONFIGPROP != null);
+
+        List<byte[]> partitionKeys = new ArrayList<>();
+        for ( String partitionKeyStr : partitionKeyStrs ) {
+            partitionKeys.add(OpscPartitionExtractor.parsePartitionKey(partitionKeyStr));
+        }
+
+        TransferManager transferManager =
+            TransferManagerBuilder.standard().withS3Client(s3Client).build();
+
+        String bktName = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_OPSC_S3_BUCKET_NAME);
+        String downloadHomeDir = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_LOCAL_DOWNLOAD_HOME);
+
+        OpscPartitionExtractor extractor = new OpscPartitionExtractor(s3Client, bktName);
+        int foundPartitionNum = 0;
+        int writtenSstableNum = 0;
+
+        try {
+            Map<String, String> hostDescs = getHostsToProcess(dseClusterMetadata, dcName, hostIdStr);
+
+            for ( String hostId : hostDescs.keySet() ) {
+                System.out.format("Extract %d partition(s) from backup SSTables of host %s ...\n", partitionKeys.size(), hostId);
 
-        // Download SSTable S3 object items
-        int numSstableBkupItems = 0;
+                // No object sizes: the extractor only reads the SSTables whose Bloom filter matches
+                HostSelection selection = selectHostSstables(s3Client, transferManager, hostId,
+                    keyspaceName, tableName, opscBckupTimeGmt, false, false, false, false, null);
 
-        /**
-         *  Start multiple threads to process data ingestion concurrently
-         */
-        ExecutorService executor = Executors.newFixedThreadPool(threadNum);
+                if (selection == null) {
+                    continue;
+                }
 
-        // For sstable download - we use mulitple threads per sstable set. One set includes the following files:
-        // > mc-<#>-big-CompresssionInfo.db
-        // > mc-<#>-big-Data.db
-        // > mc-<#>-big-Filter.db
-        // > mc-<#>-big-Index.db
-        // > mc-<#>-big-Statistics.db
-        // > mc-<#>-big-Summary.db
-        final int SSTABLE_SET_FILENUM = 6;
+                OpscBackupManifest backupManifest = selection.backupManifest;
+                BitSet selectedSstables = selection.selectedSstables;
 
-        String[] s3SstableObjKeyNames = new String[SSTABLE_SET_FILENUM];
-        long[] s3SstableObjKeySizes = new long[SSTABLE_SET_FILENUM];
-        String[] s3SstableKSNames = new String[SSTABLE_SET_FILENUM];
-        String[] s3SstableTBLNames = new String[SSTABLE_SET_FILENUM];
-        String[] s3SstableVersions = new String[SSTABLE_SET_FILENUM];
+                // SSTable set key ("<keyspace>/<table>/mc-1-big") -> component ("Data.db", ...) -> object key
+                Map<String, Map<String, String>> sstableSets = new TreeMap<>();
 
-        int i = 0;
-        int threadId = 0;
+                for ( int m = selectedSstables.nextSetBit(0); m >= 0; m = selectedSstables.nextSetBit(m + 1) ) {
+                    String sstableSetKey = OpscTokenRangeFilter.getSstableSetKey(
+                        backupManifest.getKeyspace(m),
+                        backupManifest.getTable(m),
+                        backupManifest.getSstableObjName(m),
+                        backupManifest.getVersion(m));
 
-        String sstablePrefixString =
-            DseOpscS3RestoreUtils.OPSC_OBJKEY_BASESTR + "/" +
-                hostId + "/" +
-                DseOpscS3RestoreUtils.OPSC_OBJKEY_SSTABLES_MARKER_STR;
+                    Map<String, String> components = sstableSets.get(sstableSetKey);
+                    if (components == null) {
+                        components = new HashMap<>();
+                        sstableSets.put(sstableSetKey, components);
+                    }
+                    components.put(backupManifest.getComponent(m), backupManifest.getS3ObjKey(m));
+                }
 
+                // "<keyspace>/<table>" -> partitions written
+                Map<String, JSONArray> tablePartitions = new TreeMap<>();
+                // Output directory -> last SSTable generation used
+                Map<File, Integer> outputGenerations = new HashMap<>();
 
-        for ( String sstableObjName : opscUniquifierToKsTbls.keySet() )  {
+                for ( String sstableSetKey : sstableSets.keySet() ) {
+                    String ksTbl = sstableSetKey.substring(0, sstableSetKey.lastIndexOf('/'));
+                    String sstableName = sstableSetKey.substring(sstableSetKey.lastIndexOf('/') + 1);
 
-            String opscObjName = sstablePrefixString + "/" + sstableObjName;
+                    File outputDir = new File(downloadHomeDir + "/partitions/" + hostId + "/" + ksTbl);
 
-            String[] ksTblUniquifer = opscUniquifierToKsTbls.get(sstableObjName).split(":");
-            String ks = ksTblUniquifer[0];
-            String tbl = ksTblUniquifer[1];
-            String version = ksTblUniquifer[3];
+                    try {
+                        OpscPartitionExtractor.ExtractedSstable extracted =
+                            extractor.extract(sstableName, sstableSets.get(sstableSetKey), partitionKeys);
 
-            boolean filterKsTbl = keyspaceName.equalsIgnoreCase(ks);
-            if ((tableName != null) && !tableName.isEmpty()) {
-                filterKsTbl = filterKsTbl && tableName.equalsIgnoreCase(tbl);
-            }
+                        if (extracted.partitions.isEmpty()) {
+                            continue;
+                        }
 
-            if (filterKsTbl) {
-                numSstableBkupItems++;
+                        FileUtils.forceMkdir(outputDir);
 
-                long opscObjSize = -1;
-                if (fileSizeChk) {
-                    opscObjSize = getS3FileSize(s3Client, bktName, opscObjName);
-                }
+                        // The partition bytes are encoded against the "-Statistics.db" of their source
+                        // SSTable, so each source SSTable gets its own output SSTable, in its format version
+                        Integer generation = outputGenerations.get(outputDir);
+                        if (generation == null) {
+                            generation = getMaxSstableGeneration(outputDir);
+                        }
+                        generation++;
+                        outputGenerations.put(outputDir, generation);
 
-                System.out.println("  - [" + bktName + "] " + opscObjName +
-                    ( !fileSizeChk ? "" : (" (size = " + opscObjSize + " bytes)") ) +
-                    " [keyspace: " + ks + "; table: " + tbl + "]");
+                        String outputSstableName = sstableName.substring(0, sstableName.indexOf('-')) +
+                            "-" + generation + "-big";
 
-                s3SstableObjKeyNames[i % SSTABLE_SET_FILENUM] = opscObjName;
-                s3SstableObjKeySizes[i % SSTABLE_SET_FILENUM] = opscObjSize;
-                s3SstableKSNames[i % SSTABLE_SET_FILENUM] = ks;
-                s3SstableTBLNames[i % SSTABLE_SET_FILENUM] = tbl;
-                s3SstableVersions[i % SSTABLE_SET_FILENUM] = version;
-
-                if (download) {
-                    if ((i > 0) && ((i + 1) % SSTABLE_SET_FILENUM == 0)) {
-                        Runnable worker = new S3ObjDownloadRunnable(
-                            threadId,
-                            transferManager,
-                            fileSizeChk,
-                            bktName,
-                            downloadHomeDir,
-                            s3SstableObjKeyNames,
-                            s3SstableObjKeySizes,
-                            s3SstableKSNames,
-                            s3SstableTBLNames,
-                            s3SstableVersions,
-                            noTargetDirStruct,
-                            dse48);
-
-                        threadId++;
-
-                        s3SstableObjKeyNames = new String[SSTABLE_SET_FILENUM];
-                        s3SstableObjKeySizes = new long[SSTABLE_SET_FILENUM];
-                        s3SstableKSNames = new String[SSTABLE_SET_FILENUM];
-                        s3SstableTBLNames = new String[SSTABLE_SET_FILENUM];
-                        s3SstableVersions[i % SSTABLE_SET_FILENUM] = version;
-
-                        executor.execute(worker);
-                    }
+                        List<OpscSstableWriter.Partition> partitions = new ArrayList<>(extracted.partitions);
+                        partitions.sort((p1, p2) -> OpscPartitionExtractor.compareKeys(p1.token, p1.key, p2.token, p2.key));
+                        for ( int i = partitions.size() - 1; i > 0; i-- ) {
+                            if (Arrays.equals(partitions.get(i).key, partitions.get(i - 1).key)) {
+                                partitions.remove(i);
+                            }
+                        }
 
-                    i++;
-                }
-            }
-        }
+                        OpscSstableWriter.write(outputDir, outputSstableName, partitions,
+                            extracted.statistics, extracted.minIndexInterval);
 
-        if ( download && ( threadId  < (numSstableBkupItems / SSTABLE_SET_FILENUM) ) ) {
-            Runnable worker = new S3ObjDownloadRunnable(
-                threadId,
-                transferManager,
-                fileSizeChk,
-                bktName,
-                downloadHomeDir,
-                s3SstableObjKeyNames,
-                s3SstableObjKeySizes,
-                s3SstableKSNames,
-                s3SstableTBLNames,
-                s3SstableVersions,
-                noTargetDirStruct,
-                dse48);
+                        System.out.format("  - %s: %d partition(s) written to %s\n",
+                            sstableSetKey, partitions.size(), new File(outputDir, outputSstableName).getPath());
 
-            executor.execute(worker);
-        }
+                        if (!tablePartitions.containsKey(ksTbl)) {
+                            tablePartitions.put(ksTbl, new JSONArray());
+                        }
+                        for ( OpscSstableWriter.Partition partition : partitions ) {
+                            JSONObject partitionJson = new JSONObject();
+                            partitionJson.put("key", OpscPartitionExtractor.toHex(partition.key));
+                            partitionJson.put("token", partition.token);
+                            partitionJson.put("source_sstable", sstableName);
+                            partitionJson.put("sstable", outputSstableName);
+                            tablePartitions.get(ksTbl).add(partitionJson);
+                        }
 
-        executor.shutdown();
+                        foundPartitionNum += partitions.size();
+                        writtenSstableNum++;
+                    }
+                    catch (IOException | SdkClientException e) {
+                        System.out.println("WARN: Failed to extract partitions from SSTable " + sstableSetKey + ": " + e.getMessage());
+                    }
+                }
 
-        while (!executor.isTerminated()) {
-        }
+                for ( String ksTbl : tablePartitions.keySet() ) {
+                    File partitionIndexFile = new File(downloadHomeDir + "/partitions/" + hostId + "/" + ksTbl,
+                        OpscPartitionExtractor.PARTITION_INDEX_FILE);
 
-        if (numSstableBkupItems == 0) {
-            System.out.println("  - Found no matching backup records for the specified conditions!.");
+                    try (Writer writer = new FileWriter(partitionIndexFile)) {
+                        tablePartitions.get(ksTbl).writeJSONString(writer);
+                    }
+                    catch (IOException ioe) {
+                        System.out.println("ERROR: Failed to write partition index file " + partitionIndexFile.getPath());
+                    }
+                }
+            }
         }
-
-        if (transferManager != null) {
-            transferManager.shutdownNow();
+        finally {
+            transferManager.shutdownNow(false);
         }
 
-        System.out.println("\n");
+        System.out.format("  %d partition copies written in %d SSTable(s); %d requests, %d bytes fetched (Data.db size of the SSTables read: %d bytes).\n\n",
+            foundPartitionNum, writtenSstableNum, extractor.getRequestNum(), extractor.getFetchedBytes(), extractor.getReadDataBytes());
+    }
+
+    /**
+     * Highest SSTable generation in a directory ("<version>-<generation>-big-<component>"); 0 if none
+     *
+     * @param dir
+     * @return
+     */
+    static int getMaxSstableGeneration(File dir) {
+        int maxGeneration = 0;
+
+        String[] fileNames = dir.list();
+        if (fileNames != null) {
+            for ( String fileName : fileNames ) {
+                String[] parts = fileName.split("-");
+                if ( (parts.length >= 4) && parts[2].equals("big") ) {
+                    try {
+                        maxGeneration = Math.max(maxGeneration, Integer.parseInt(parts[1]));
+                    }
+                    catch (NumberFormatException nfe) {
+                        // Not an SSTable component
+                    }
+                }
+            }
+        }
 
+        return maxGeneration;
     }
 
 
     /**
-     * List (and download) Opsc S3 backup objects for myself - the host that runs this program
+     * Coordinated restore (coordinator): build the work plan of the selected hosts from their
+     * backup manifests and split it into shards under the shared coordination directory.
+     * Workers ("-coord work:<dir>") then claim and process the shards.
      *
      * @param dseClusterMetadata
      * @param s3Client
-     * @param download
-     * @param threadNum
-     * @param hostIDStr
+     * @param dcName
+     * @param hostIdStr
      * @param keyspaceName
      * @param tableName
      * @param opscBckupTimeGmt
-     * @param clearTargetDownDir
+     * @param coordDir
      */
-    static void listDownloadS3ObjForMe(Metadata dseClusterMetadata,
-                                       boolean fileSizeChk,
+    static void planCoordinatedRestore(Metadata dseClusterMetadata,
                                        AmazonS3 s3Client,
-                                       boolean download,
-                                       int threadNum,
-                                       String hostIDStr,
+                                       String dcName,
+                                       String hostIdStr,
                                        String keyspaceName,
                                        String tableName,
                                        ZonedDateTime opscBckupTimeGmt,
-                                       boolean clearTargetDownDir,
-                                       boolean noTargetDirStruct) {
-        String myHostId = hostIDStr;
+                                       String coordDir) {
+        assert (CONFIGPROP != null);
 
-        // When not providing DSE host ID explicitly, find it by checking with DSE cluster
-        if ( (hostIDStr == null) || (hostIDStr.isEmpty()) ) {
-            myHostId = findMyHostID(dseClusterMetadata);
+        TransferManager transferManager =
+            TransferManagerBuilder.standard().withS3Client(s3Client).build();
+
+        List<OpscRestoreCoordinator.WorkItem> workItems = new ArrayList<>();
+
+        try {
+            Map<String, String> hostDescs = getHostsToProcess(dseClusterMetadata, dcName, hostIdStr);
+
+            for ( String hostId : hostDescs.keySet() ) {
+                System.out.format("Building restore work plan for host %s ...\n", hostId);
+
+                HostSelection selection = selectHostSstables(s3Client, transferManager, hostId,
+                    keyspaceName, tableName, opscBckupTimeGmt, true, false, false, false, null);
+
+                if (selection == null) {
+                    continue;
+                }
+
+                OpscBackupManifest backupManifest = selection.backupManifest;
+                BitSet selectedSstables = selection.selectedSstables;
+
+                // Manifest entries are sorted by name, so files of one SSTable set are next to each other
+                for ( int m = selectedSstables.nextSetBit(0); m >= 0; m = selectedSstables.nextSetBit(m + 1) ) {
+                    String opscObjName = backupManifest.getS3ObjKey(m);
+                    long size = selection.getSize(m);
+
+                    if (size < 0) {
+                        System.out.println("WARN: SSTable object not found in bucket, skipped: " + opscObjName);
+                        continue;
+                    }
+
+                    workItems.add(new OpscRestoreCoordinator.WorkItem(
+                        hostId,
+                        opscObjName,
+                        backupManifest.getKeyspace(m),
+                        backupManifest.getTable(m),
+                        backupManifest.getVersion(m),
+                        size));
+                }
+            }
+        }
+        finally {
+            transferManager.shutdownNow(false);
         }
 
-        if ( myHostId != null && !myHostId.isEmpty() ) {
-            listDownloadS3ObjForHost(
-                fileSizeChk,
-                s3Client,
-                myHostId,
-                download,
-                threadNum,
-                keyspaceName,
-                tableName,
-                opscBckupTimeGmt,
-                clearTargetDownDir,
-                noTargetDirStruct
-            );
+        long shardMb = DseOpscS3RestoreUtils.COORD_SHARD_MB;
+        String shardMbStr = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_COORD_SHARD_MB);
+        if ( (shardMbStr != null) && !shardMbStr.isEmpty() ) {
+            shardMb = Long.parseLong(shardMbStr);
+        }
+
+        Map<String, String> planDesc = new LinkedHashMap<>();
+        planDesc.put("keyspace", keyspaceName);
+        planDesc.put("table", ((tableName != null) && !tableName.isEmpty()) ? tableName : "*");
+        planDesc.put("backup_time", opscBckupTimeGmt.format(DseOpscS3RestoreUtils.OPSC_BKUP_TIME_DISPLAY_FORMATTER));
+        planDesc.put("backup_time_match", bkupTimeMatchMode.name().toLowerCase());
+
+        try {
+            new OpscRestoreCoordinator(coordDir).writePlan(workItems, shardMb * 1024 * 1024, planDesc);
+        }
+        catch (IOException ioe) {
+            System.out.println("ERROR: Failed to write restore plan under coordination directory " + coordDir + ": " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Coordinated restore (worker): claim shards from the shared coordination directory and
+     * download their SSTables into the shared download directory of all workers
+     * ("coord_download_home"), with the "snapshots/<host_id>/sstables/<keyspace>/<table>/"
+     * directory structure
+     *
+     * @param coordDir
+     * @param threadNum number of shards processed concurrently
+     */
+    static void runCoordinatedRestoreWorker(String coordDir, int threadNum) {
+        assert (CONFIGPROP != null);
+
+        final String downloadHomeDir = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_LOCAL_DOWNLOAD_HOME);
+
+        boolean dse48 = false;
+        String dse48Str = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_FILE_DSE_48);
+        if ( (dse48Str != null) && !(dse48Str.isEmpty()) ) {
+            dse48 = Boolean.parseBoolean(dse48Str);
+        }
+        final boolean dse48ver = dse48;
+
+        System.out.println("  Download directory (shared by all workers): " + downloadRoots.getPrimary().dir);
+
+        long downloadStartMillis = System.currentTimeMillis();
+        DownloadTotals downloadTotals = new DownloadTotals();
+
+        try {
+            new OpscRestoreCoordinator(coordDir).runWorker(threadNum, workItem -> {
+                long objStartMillis = System.currentTimeMillis();
+                String worker = Thread.currentThread().getName();
+
+                RestoreResult result;
+                try {
+                    result = restoreSstableObj(
+                        workItem.s3ObjKey,
+                        workItem.size,
+                        workItem.keyspaceName,
+                        workItem.tableName,
+                        workItem.sstableVersion,
+                        false,
+                        dse48ver);
+                }
+                catch (Exception e) {
+                    OpscEventLog.objectDownload(worker, workItem.s3ObjKey, workItem.keyspaceName, workItem.tableName,
+                        -1, 0, System.currentTimeMillis() - objStartMillis, OpscEventLog.OUTCOME_FAILED, e);
+                    throw e;
+                }
+
+                File localFile = findLocalSstableFile(
+                    workItem.s3ObjKey,
+                    workItem.keyspaceName,
+                    workItem.tableName,
+                    workItem.sstableVersion,
+                    false,
+                    dse48ver);
+
+                OpscEventLog.objectDownload(worker, workItem.s3ObjKey, workItem.keyspaceName, workItem.tableName,
+                    localFile.length(), result.byteNum, System.currentTimeMillis() - objStartMillis, result.outcome, null);
+
+                downloadTotals.byteNum.addAndGet(result.byteNum);
+                return result.byteNum;
+            });
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            System.out.println("WARN: Restore worker interrupted.");
+        }
+
+        long byteNum = downloadTotals.byteNum.get();
+        long durationMillis = System.currentTimeMillis() - downloadStartMillis;
+
+        System.out.format("  %d bytes downloaded in %d seconds.\n", byteNum, durationMillis / 1000);
+
+        OpscRestorePlanner.writeThroughputProfile(downloadHomeDir, byteNum, durationMillis, threadNum);
+
+        if (sstableCache != null) {
+            System.out.println("  SSTable cache: " + sstableCache.getStats());
+        }
+
+        if (localSstables != null) {
+            System.out.println("  Local SSTables: " + localSstables.getStats());
+        }
+
+        System.out.print("  Download roots:\n" + downloadRoots.getStats());
+
+        if (!backupStore.getStats().isEmpty()) {
+            System.out.print("  Download sources:\n" + backupStore.getStats());
         }
     }
 
 
     /**
-     * List Opsc S3 backup objects for all DSE cluster hosts
+     * List available OpsCenter backup times of the selected hosts, together with
+     * the per-host coverage of each backup time (minute precision, same as "-obt")
      *
      * @param dseClusterMetadata
-     * @param fileSizeChk
      * @param s3Client
-     * @param keyspaceName
-     * @param tableName
-     * @param opscBckupTimeGmt
+     * @param dcName
+     * @param hostIdStr
      */
-    static void listS3ObjtForCluster(Metadata dseClusterMetadata,
-                                     boolean fileSizeChk,
-                                     AmazonS3 s3Client,
-                                     String keyspaceName,
-                                     String tableName,
-                                     ZonedDateTime opscBckupTimeGmt) {
+    static void listBackupTimes(Metadata dseClusterMetadata,
+                                AmazonS3 s3Client,
+                                String dcName,
+                                String hostIdStr) {
+        assert (CONFIGPROP != null);
 
-        System.out.format("List OpsCenter S3 backup items for DSE cluster (%s) ...\n", dseClusterMetadata.getClusterName());
+        Map<String, String> hostDescs = getHostsToProcess(dseClusterMetadata, dcName, hostIdStr);
 
-        listS3ObjForDC(dseClusterMetadata, fileSizeChk, s3Client, "", keyspaceName, tableName, opscBckupTimeGmt);
+        System.out.format("List OpsCenter backup times for %d host(s) ...\n", hostDescs.size());
+
+        DateTimeFormatter fullTimeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss z");
+
+        // backup time (minute) -> hosts having a backup in that minute
+        TreeMap<Long, Set<String>> hostsByBkupMinute = new TreeMap<>();
+
+        for ( String hostId : hostDescs.keySet() ) {
+            OpscBackupTimeline timeline = getBackupTimeline(s3Client, hostId);
+
+            String hostDesc = hostDescs.get(hostId);
+            if (timeline.isEmpty()) {
+                System.out.format("  Host %s%s: no backups found\n", hostId,
+                    hostDesc.isEmpty() ? "" : (" (" + hostDesc + ")"));
+                continue;
+            }
+
+            System.out.format("  Host %s%s: %d backups, earliest %s, latest %s\n",
+                hostId,
+                hostDesc.isEmpty() ? "" : (" (" + hostDesc + ")"),
+                timeline.backupTimes().size(),
+                OpscBackupTimeline.toUtcTime(timeline.backupTimes().first()).format(fullTimeFormatter),
+                OpscBackupTimeline.toUtcTime(timeline.backupTimes().last()).format(fullTimeFormatter));
+
+            for ( long bkupTime : timeline.backupTimes() ) {
+                long bkupMinute = bkupTime - (bkupTime % 60);
+
+                Set<String> hostsInMinute = hostsByBkupMinute.get(bkupMinute);
+                if (hostsInMinute == null) {
+                    hostsInMinute = new HashSet<>();
+                    hostsByBkupMinute.put(bkupMinute, hostsInMinute);
+                }
+                hostsInMinute.add(hostId);
+            }
+        }
+
+        System.out.println();
+        System.out.format("  %-22s %-10s %s\n", "Backup Time (-obt)", "Hosts", "Missing Hosts");
+
+        for ( long bkupMinute : hostsByBkupMinute.keySet() ) {
+            Set<String> hostsInMinute = hostsByBkupMinute.get(bkupMinute);
+
+            StringBuilder missingHosts = new StringBuilder();
+            for ( String hostId : hostDescs.keySet() ) {
+                if (!hostsInMinute.contains(hostId)) {
+                    missingHosts.append((missingHosts.length() > 0) ? ", " : "").append(hostId);
+                }
+            }
+
+            System.out.format("  %-22s %-10s %s\n",
+                OpscBackupTimeline.toUtcTime(bkupMinute).format(DseOpscS3RestoreUtils.OPSC_BKUP_TIME_DISPLAY_FORMATTER),
+                hostsInMinute.size() + "/" + hostDescs.size(),
+                missingHosts.toString());
+        }
+
+        System.out.println();
     }
 
+
     /**
-     * List Opsc S3 backup objects for all hosts in a specified DC
+     * Mirror watch mode: keep the local mirror in sync with the backups of the selected hosts.
+     * All hosts are checked every "mirror_poll_seconds"; hosts with new "backup.json" objects in
+     * the event feed (if any) are checked right away. Runs until the process is stopped.
      *
      * @param dseClusterMetadata
-     * @param fileSizeChk
      * @param s3Client
      * @param dcName
+     * @param hostIdStr
      * @param keyspaceName
      * @param tableName
-     * @param opscBckupTimeGmt
+     * @param threadNum
      */
-    static void listS3ObjForDC(Metadata dseClusterMetadata,
-                               boolean fileSizeChk,
+    static void runMirrorWatch(Metadata dseClusterMetadata,
                                AmazonS3 s3Client,
                                String dcName,
+                               String hostIdStr,
                                String keyspaceName,
                                String tableName,
-                               ZonedDateTime opscBckupTimeGmt) {
+                               int threadNum) {
         assert (CONFIGPROP != null);
-        assert ( (keyspaceName != null) && !keyspaceName.isEmpty() );
-        assert (opscBckupTimeGmt != null);
+        assert (backupMirror != null);
 
-        Set<Host> hosts = dseClusterMetadata.getAllHosts();
+        int retentionDays = DseOpscS3RestoreUtils.MIRROR_RETENTION_DAYS;
+        String retentionDaysStr = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_MIRROR_RETENTION_DAYS);
+        if ( (retentionDaysStr != null) && !retentionDaysStr.isEmpty() ) {
+            retentionDays = Integer.parseInt(retentionDaysStr);
+        }
 
-        boolean dcOnly = ( (dcName != null) && !dcName.isEmpty() );
-        if ( dcOnly ) {
-            System.out.format("List OpsCenter S3 backup items for specified DC (%s) of DSE cluster (%s) ...\n",
-                dcName,
-                dseClusterMetadata.getClusterName());
+        int pollSeconds = DseOpscS3RestoreUtils.MIRROR_POLL_SECONDS;
+        String pollSecondsStr = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_MIRROR_POLL_SECONDS);
+        if ( (pollSecondsStr != null) && !pollSecondsStr.isEmpty() ) {
+            pollSeconds = Integer.parseInt(pollSecondsStr);
         }
 
-        // Download matching S3 backup.json file to local
+        System.out.format("Mirroring OpsCenter backups (keyspace: %s, table: %s) into %s: retention %d days, " +
+                "check every %d seconds%s ...\n",
+            keyspaceName,
+            ((tableName != null) && !tableName.isEmpty()) ? tableName : "all",
+            CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_LOCAL_MIRROR_DIR),
+            retentionDays,
+            pollSeconds,
+            backupMirror.hasEventFeed() ? " and on event feed updates" : "");
+
         TransferManager transferManager =
             TransferManagerBuilder.standard().withS3Client(s3Client).build();
 
-        String bktName = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_OPSC_S3_BUCKET_NAME);
+        ExecutorService executor = Executors.newFixedThreadPool(threadNum);
 
-        for ( Host host : hosts ) {
-            int numSstableBkupItems = 0;
+        try {
+            long nextPollMillis = 0;
 
-            String dc_name = host.getDatacenter();
-            String rack_name = host.getRack();
-            String host_id = host.getHostId().toString();
+            while (true) {
+                Map<String, String> hostDescs = getHostsToProcess(dseClusterMetadata, dcName, hostIdStr);
 
-            // If not displaying for whole cluster (dcName == null),
-            // then only displaying the specified DC
-            if ( !dcOnly || (dc_name.equalsIgnoreCase(dcName)) ) {
-                System.out.format("  Items for Host %s (rack: %s, DC: %s) ...\n",
-                    host_id, rack_name, dc_name, dseClusterMetadata.getClusterName());
+                Set<String> hostIds = backupMirror.readEventFeed();
+                hostIds.retainAll(hostDescs.keySet());
 
+                if (System.currentTimeMillis() >= nextPollMillis) {
+                    hostIds = hostDescs.keySet();
+                    nextPollMillis = System.currentTimeMillis() + pollSeconds * 1000L;
+                }
 
-                // First. get the backup.json file corresponds to the specified host and backup time
+                for (String hostId : hostIds) {
+                    mirrorHostBackups(s3Client, transferManager, executor, hostId, keyspaceName, tableName,
+                        retentionDays * 24L * 3600);
+                }
 
-                Map<String, String> opscUniquifierToKsTbls = new HashMap<>();
+                Thread.sleep( backupMirror.hasEventFeed() ?
+                    DseOpscS3RestoreUtils.MIRROR_FEED_CHECK_MILLIS :
+                    Math.max(0, nextPollMillis - System.currentTimeMillis()) );
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            System.out.println("WARN: Mirror watch interrupted.");
+        }
+        finally {
+            executor.shutdownNow();
+            transferManager.shutdownNow(false);
+        }
+    }
 
-                S3ObjectSummary backupJsonS3ObjSummary = getMyBackupJson(s3Client, host_id, opscBckupTimeGmt);
+    /**
+     * Bring the local mirror of a host up to date: "backup.json" files of the backups in the
+     * retention window (at least the latest backup) and the selected SSTable objects they
+     * reference are downloaded if missing; other mirrored files of the host are pruned.
+     * A "backup.json" that is already mirrored is only read once per mirror watch run.
+     *
+     * @param s3Client
+     * @param transferManager
+     * @param executor
+     * @param hostId
+     * @param keyspaceName
+     * @param tableName
+     * @param retentionSeconds
+     * @throws InterruptedException
+     */
+    static void mirrorHostBackups(AmazonS3 s3Client,
+                                  TransferManager transferManager,
+                                  ExecutorService executor,
+                                  String hostId,
+                                  String keyspaceName,
+                                  String tableName,
+                                  long retentionSeconds) throws InterruptedException {
+        long startMillis = System.currentTimeMillis();
+
+        // Always a fresh timeline: new backups are what we're looking for
+        bkupTimelines.remove(hostId);
+        OpscBackupTimeline timeline = getBackupTimeline(s3Client, hostId);
+
+        if (timeline.isEmpty()) {
+            System.out.println("  - Host " + hostId + ": no OpsCenter backups found.");
+            return;
+        }
 
-                if (backupJsonS3ObjSummary == null) {
-                    DateTimeFormatter opscObjTimeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm-ss-z");
-                    String opscBckupTimeGmtStr = opscBckupTimeGmt.format(opscObjTimeFormatter);
+        NavigableSet<Long> retainedTimes =
+            timeline.backupTimes().tailSet(System.currentTimeMillis() / 1000 - retentionSeconds, true);
+        if (retainedTimes.isEmpty()) {
+            retainedTimes = timeline.backupTimes().tailSet(timeline.backupTimes().last(), true);
+        }
 
-                    System.out.format("ERROR: Failed to find %s file for host (%s) at backup time (%s)\n",
-                        DseOpscS3RestoreUtils.OPSC_BKUP_METADATA_FILE,
-                        host_id,
-                        opscBckupTimeGmtStr);
+        Set<String> keptObjKeys = new HashSet<>();
+        List<String> newObjKeys = new ArrayList<>();
+        boolean allLoaded = true;
 
-                    return;
-                }
-                else {
-                    // download backup.json file from S3
-                    String objKeyName = backupJsonS3ObjSummary.getKey();
-                    String localBackupJsonFile =
-                        CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_LOCAL_DOWNLOAD_HOME) +
-                        "/" +
-                        objKeyName;
+        Set<String> retainedBackupJsonKeys = new HashSet<>();
 
-                    boolean downloadSucceed = false;
+        for (long bkupTime : retainedTimes) {
+            S3ObjectSummary backupJsonS3ObjSummary = timeline.getBackupJson(bkupTime);
+            retainedBackupJsonKeys.add(backupJsonS3ObjSummary.getKey());
 
-                    try {
-                        downloadSingleS3Obj(transferManager,
-                            localBackupJsonFile,
-                            bktName,
-                            objKeyName,
-                            backupJsonS3ObjSummary.getSize(),
-                            fileSizeChk,
-                            true);
-
-                        downloadSucceed = true;
-
-                    } catch (AmazonServiceException e) {
-                        // The call was transmitted successfully, but Amazon S3 couldn't process
-                        // it, so it returned an error response.
-                        e.printStackTrace();
-                    } catch (SdkClientException e) {
-                        // Amazon S3 couldn't be contacted for a response, or the client
-                        // couldn't parse the response from Amazon S3.
-                        e.printStackTrace();
-                    }
+            // Already mirrored and read: only check for objects still missing (e.g. failed last time)
+            List<String> backupObjKeys = mirroredBackupObjKeys.get(backupJsonS3ObjSummary.getKey());
+            if ( (backupObjKeys != null) && backupMirror.getMirrorFile(backupJsonS3ObjSummary.getKey()).isFile() ) {
+                keptObjKeys.add(backupJsonS3ObjSummary.getKey());
 
-                    // processing backup.json metadata when it is successfully downloaded from S3
-                    if (downloadSucceed) {
-                        opscUniquifierToKsTbls =
-                            getOpscUniquifierToKsTblMapping(localBackupJsonFile);
+                for (String opscObjName : backupObjKeys) {
+                    if ( keptObjKeys.add(opscObjName) && !backupMirror.getMirrorFile(opscObjName).isFile() ) {
+                        newObjKeys.add(opscObjName);
                     }
                 }
+                continue;
+            }
+
+            OpscBackupManifest backupManifest =
+                loadBackupManifest(transferManager, hostId, backupJsonS3ObjSummary, false, false);
+
+            if (backupManifest.isEmpty()) {
+                System.out.println("ERROR: Failed to load " + backupJsonS3ObjSummary.getKey() + "; mirror of host " +
+                    hostId + " is not pruned this time.");
+                allLoaded = false;
+                continue;
+            }
 
+            try {
+                backupMirror.add(backupJsonS3ObjSummary.getKey(), new File(
+                    CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_LOCAL_DOWNLOAD_HOME) + "/" + backupJsonS3ObjSummary.getKey()));
+            }
+            catch (IOException ioe) {
+                System.out.println("ERROR: Failed to mirror " + backupJsonS3ObjSummary.getKey() + " (" + ioe.getMessage() + ")");
+            }
+            keptObjKeys.add(backupJsonS3ObjSummary.getKey());
 
-                if ( opscUniquifierToKsTbls.isEmpty() ) {
-                    System.out.println("ERROR: Failed to get backup SSTable file list from " +
-                        DseOpscS3RestoreUtils.OPSC_BKUP_METADATA_FILE + " file!");
-                    return;
+            backupObjKeys = new ArrayList<>();
+            BitSet selectedSstables = backupManifest.select(keyspaceName, tableName);
+            for ( int m = selectedSstables.nextSetBit(0); m >= 0; m = selectedSstables.nextSetBit(m + 1) ) {
+                String opscObjName = backupManifest.getS3ObjKey(m);
+                backupObjKeys.add(opscObjName);
+
+                if ( keptObjKeys.add(opscObjName) && !backupMirror.getMirrorFile(opscObjName).isFile() ) {
+                    newObjKeys.add(opscObjName);
                 }
+            }
 
+            if (backupMirror.getMirrorFile(backupJsonS3ObjSummary.getKey()).isFile()) {
+                mirroredBackupObjKeys.put(backupJsonS3ObjSummary.getKey(), backupObjKeys);
+            }
+        }
 
-                // Second, check SSTables records matching the backup time, keyspace, and table
+        // Forget the backups of this host that are out of retention
+        String hostBackupPrefix = DseOpscS3RestoreUtils.OPSC_OBJKEY_BASESTR + "/" + hostId + "/";
+        mirroredBackupObjKeys.keySet().removeIf(backupJsonKey ->
+            backupJsonKey.startsWith(hostBackupPrefix) && !retainedBackupJsonKeys.contains(backupJsonKey));
 
-                String sstablePrefixString =
-                    CONFIGPROP.get(DseOpscS3RestoreUtils.CFG_KEY_OPSC_S3_BUCKET_NAME) + "/" +
-                        DseOpscS3RestoreUtils.OPSC_OBJKEY_BASESTR + "/" +
-                        host_id + "/" +
-                        DseOpscS3RestoreUtils.OPSC_OBJKEY_SSTABLES_MARKER_STR;
+        // Download the new objects
+        List<Future<Long>> mirrorResults = new ArrayList<>();
+        for (String opscObjName : newObjKeys) {
+            mirrorResults.add(executor.submit(() -> backupMirror.mirror(backupStore, opscObjName)));
+        }
 
-                for ( String sstableObjName : opscUniquifierToKsTbls.keySet() )  {
+        long byteNum = 0;
+        int failedObjNum = 0;
+        for (int i = 0; i < mirrorResults.size(); i++) {
+            try {
+                byteNum += mirrorResults.get(i).get();
+            }
+            catch (ExecutionException ee) {
+                failedObjNum++;
+                System.out.println("ERROR: Failed to mirror " + newObjKeys.get(i) + " (" + ee.getCause().getMessage() + ")");
+            }
+            catch (InterruptedException ie) {
+                for (Future<Long> mirrorResult : mirrorResults) {
+                    mirrorResult.cancel(true);
+                }
+                throw ie;
+            }
+        }
 
-                    String opscObjName = sstablePrefixString + "/" + sstableObjName;
+        // Prune only with the full picture of what is still referenced
+        long prunedNum = 0;
+        if (allLoaded) {
+            try {
+                prunedNum = backupMirror.prune(hostId, keptObjKeys);
+            }
+            catch (IOException ioe) {
+                System.out.println("ERROR: Failed to prune mirror of host " + hostId + " (" + ioe.getMessage() + ")");
+            }
+        }
 
-                    if (opscUniquifierToKsTbls.containsKey(sstableObjName)) {
-                        String[] ksTblUniquifer = opscUniquifierToKsTbls.get(sstableObjName).split(":");
-                        String ks = ksTblUniquifer[0];
-                        String tbl = ksTblUniquifer[1];
+        System.out.format("  - Host %s: %d backup(s) since %s, %d objects mirrored (%d new, %d failed, %d bytes), " +
+                "%d files pruned, %d ms.\n",
+            hostId,
+            retainedTimes.size(),
+            OpscBackupTimeline.toUtcTime(retainedTimes.first()).format(DseOpscS3RestoreUtils.OPSC_BKUP_TIME_DISPLAY_FORMATTER),
+            keptObjKeys.size() - retainedTimes.size(),
+            newObjKeys.size() - failedObjNum,
+            failedObjNum,
+            byteNum,
+            prunedNum,
+            System.currentTimeMillis() - startMillis);
+    }
 
-                        boolean filterKsTbl = keyspaceName.equalsIgnoreCase(ks);
-                        if ((tableName != null) && !tableName.isEmpty()) {
-                            filterKsTbl = filterKsTbl && tableName.equalsIgnoreCase(tbl);
-                        }
+    /**
+     * Run the restore daemon: the S3 clients, the DSE cluster metadata and the backup metadata
+     * caches stay warm across jobs
+     *
+     * @param dseClusterMetadata null if not available
+     * @param s3Client
+     * @param myHostId
+     * @param fileSizeChk
+     * @param threadNum default download threads per job
+     * @param port
+     */
+    static void runRestoreDaemon(Metadata dseClusterMetadata,
+                                 AmazonS3 s3Client,
+                                 String myHostId,
+                                 boolean fileSizeChk,
+                                 int threadNum,
+                                 int port) {
+        assert (CONFIGPROP != null);
 
-                        if (filterKsTbl) {
-                            numSstableBkupItems++;
+        int jobNum = DseOpscS3RestoreUtils.DAEMON_JOB_NUM;
+        String jobNumStr = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_DAEMON_JOBS);
+        if ( (jobNumStr != null) && !jobNumStr.isEmpty() ) {
+            jobNum = Integer.parseInt(jobNumStr);
+        }
 
-                            long opscObjSize = -1;
-                            if (fileSizeChk) {
-                                opscObjSize = getS3FileSize(s3Client, bktName, opscObjName);
-                            }
+        String bandwidthMbpsStr = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_DAEMON_BANDWIDTH_MBPS);
+        if ( (bandwidthMbpsStr != null) && !bandwidthMbpsStr.isEmpty() ) {
+            bandwidthBudget = new OpscBandwidthBudget((long) (Double.parseDouble(bandwidthMbpsStr) * 1024 * 1024));
+            backupStore.setBandwidthBudget(bandwidthBudget);
+            OpscRestoreControl.setBandwidthBudget(bandwidthBudget);
+        }
 
-                            System.out.println("  - " + opscObjName +
-                                ( !fileSizeChk ? "" : (" (size = " + opscObjSize + " bytes)") ) +
-                                " [keyspace: " + ks + "; table: " + tbl + "]");
-                        }
-                    }
+        // Warm caches: backup timelines expire (new backups keep coming), "backup.json" files don't change
+        bkupTimelineTtlMillis = OpscRestoreDaemon.BKUP_TIMELINE_TTL_MILLIS;
+        backupManifestCache = Collections.synchronizedMap(
+            new LinkedHashMap<String, OpscBackupManifest>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, OpscBackupManifest> eldest) {
+                    return size() > OpscRestoreDaemon.BACKUP_MANIFEST_CACHE_SIZE;
                 }
+            });
 
-                if (numSstableBkupItems == 0) {
-                    System.out.println("  - Found no matching backup records for the specified conditions!.");
-                }
-            }
+        OpscRestoreDaemon daemon = new OpscRestoreDaemon(
+            dseClusterMetadata,
+            s3Client,
+            myHostId,
+            fileSizeChk,
+            threadNum,
+            jobNum,
+            bandwidthBudget);
 
-            System.out.println();
+        try {
+            daemon.run(port);
         }
-
-        if (transferManager != null) {
-            transferManager.shutdownNow();
+        catch (IOException ioe) {
+            throw new RestoreAbortException("Failed to start restore daemon on port " + port + ": " + ioe.getMessage(), -70, ioe);
         }
     }
 
@@ -977,17 +2804,67 @@ public class DseOpscS3Restore {
             DseOpscS3RestoreUtils.CMD_OPTION_KEYSPACE_SHORT,
             DseOpscS3RestoreUtils.CMD_OPTION_KEYSPACE_LONG,
             true,
-            "Keyspace name to be restored");
+            "Keyspace name(s) to be restored (\"<name|glob|/regex/>[,...]\"; \"!\" prefix excludes)");
         Option tableOption = new Option(
             DseOpscS3RestoreUtils.CMD_OPTION_TABLE_SHORT,
             DseOpscS3RestoreUtils.CMD_OPTION_TABLE_LONG,
             true,
-            "Table name to be restored");
+            "Table name(s) to be restored (\"[<keyspace>.]<name|glob|/regex/>[,...]\"; \"!\" prefix excludes)");
         Option opscBkupTimeOption = new Option(
             DseOpscS3RestoreUtils.CMD_OPTION_BACKUPTIME_SHORT,
             DseOpscS3RestoreUtils.CMD_OPTION_BACKUPTIME_LONG,
             true,
             "OpsCetner backup datetime");
+        Option opscBkupTimeMatchOption = new Option(
+            DseOpscS3RestoreUtils.CMD_OPTION_BACKUPTIME_MATCH_SHORT,
+            DseOpscS3RestoreUtils.CMD_OPTION_BACKUPTIME_MATCH_LONG,
+            true,
+            "OpsCenter backup datetime matching mode (exact | before | after; default: exact)");
+        Option listBkupTimesOption = new Option(
+            DseOpscS3RestoreUtils.CMD_OPTION_LISTBKUPTIME_SHORT,
+            DseOpscS3RestoreUtils.CMD_OPTION_LISTBKUPTIME_LONG,
+            false,
+            "List available OpsCenter backup datetimes (and per-host coverage) instead of backup items");
+        Option refBkupOption = new Option(
+            DseOpscS3RestoreUtils.CMD_OPTION_REFBKUP_SHORT,
+            DseOpscS3RestoreUtils.CMD_OPTION_REFBKUP_LONG,
+            true,
+            "Delta restore against a reference backup (local | \"<reference_backup_time>\")");
+        Option planOption = new Option(
+            DseOpscS3RestoreUtils.CMD_OPTION_PLAN_SHORT,
+            DseOpscS3RestoreUtils.CMD_OPTION_PLAN_LONG,
+            true,
+            "Dry-run restore plan with byte totals and ETA, no download (table | json)");
+        Option tokenRangeOption = new Option(
+            DseOpscS3RestoreUtils.CMD_OPTION_TOKENRANGE_SHORT,
+            DseOpscS3RestoreUtils.CMD_OPTION_TOKENRANGE_LONG,
+            true,
+            "Only restore SSTables that overlap the token range(s) (<start_token>:<end_token>[,<start_token>:<end_token>...])");
+        Option timeWindowOption = new Option(
+            DseOpscS3RestoreUtils.CMD_OPTION_TIMEWINDOW_SHORT,
+            DseOpscS3RestoreUtils.CMD_OPTION_TIMEWINDOW_LONG,
+            true,
+            "Only restore SSTables with cell timestamps in the time window (\"<start_time>,<end_time>\", M/d/yyyy h:mm a, UTC)");
+        Option partitionKeyOption = new Option(
+            DseOpscS3RestoreUtils.CMD_OPTION_PARTITIONKEY_SHORT,
+            DseOpscS3RestoreUtils.CMD_OPTION_PARTITIONKEY_LONG,
+            true,
+            "Only extract these partitions of the table (\"[text|int|bigint|uuid|hex:]<key>[,...]\")");
+        Option coordOption = new Option(
+            DseOpscS3RestoreUtils.CMD_OPTION_COORD_SHORT,
+            DseOpscS3RestoreUtils.CMD_OPTION_COORD_LONG,
+            true,
+            "Coordinated multi-process restore through a shared directory (plan | work | status):\"<shared_dir>\"");
+        Option daemonOption = new Option(
+            DseOpscS3RestoreUtils.CMD_OPTION_DAEMON_SHORT,
+            DseOpscS3RestoreUtils.CMD_OPTION_DAEMON_LONG,
+            true,
+            "Run as a restore daemon that takes list/plan/restore jobs over a local HTTP/JSON API on the port");
+        Option mirrorOption = new Option(
+            DseOpscS3RestoreUtils.CMD_OPTION_MIRROR_SHORT,
+            DseOpscS3RestoreUtils.CMD_OPTION_MIRROR_LONG,
+            false,
+            "Keep the local mirror (\"local_mirror_dir\") in sync with new backups of the hosts selected by \"-l\", until stopped");
         Option clsTargetDirOption = new Option(
             DseOpscS3RestoreUtils.CMD_OPTION_CLSDOWNDIR_SHORT,
             DseOpscS3RestoreUtils.CMD_OPTION_CLSDOWNDIR_LONG,
@@ -1021,6 +2898,16 @@ public class DseOpscS3Restore {
         options.addOption(keyspaceOption);
         options.addOption(tableOption);
         options.addOption(opscBkupTimeOption);
+        options.addOption(opscBkupTimeMatchOption);
+        options.addOption(listBkupTimesOption);
+        options.addOption(refBkupOption);
+        options.addOption(planOption);
+        options.addOption(tokenRangeOption);
+        options.addOption(timeWindowOption);
+        options.addOption(partitionKeyOption);
+        options.addOption(coordOption);
+        options.addOption(daemonOption);
+        options.addOption(mirrorOption);
         options.addOption(clsTargetDirOption);
         options.addOption(noDirStructOption);
         options.addOption(userOption);
@@ -1048,7 +2935,8 @@ public class DseOpscS3Restore {
             System.out.println();
         }
         catch ( Exception e ) {
-            e.printStackTrace();
+            // Usage may be printed before the event log location is known
+            System.out.println("ERROR: Failed to print the usage: " + e);
         }
         finally
         {
@@ -1095,6 +2983,51 @@ public class DseOpscS3Restore {
             usageAndExit(20);
         }
 
+        // "-coord" option is optional: plan | work | status:"<shared_dir>"
+        //     "work" and "status" modes take everything else from the plan; "-l", "-k" and "-obt" are not needed.
+        String coordMode = null;
+        String coordDir = null;
+        String coordOptValue = cmd.getOptionValue(DseOpscS3RestoreUtils.CMD_OPTION_COORD_SHORT);
+        if ( coordOptValue != null ) {
+            int sepPos = coordOptValue.indexOf(':');
+            if (sepPos > 0) {
+                coordMode = coordOptValue.substring(0, sepPos).toLowerCase();
+                coordDir = coordOptValue.substring(sepPos + 1);
+            }
+
+            if ( (coordMode == null) || coordDir.isEmpty() ||
+                 !( coordMode.equals(OpscRestoreCoordinator.COORD_MODE_PLAN) ||
+                    coordMode.equals(OpscRestoreCoordinator.COORD_MODE_WORK) ||
+                    coordMode.equals(OpscRestoreCoordinator.COORD_MODE_STATUS) ) ) {
+                System.out.println("\nERROR: Please specify proper value for \"-" +
+                    DseOpscS3RestoreUtils.CMD_OPTION_COORD_SHORT + "\" option -- " +
+                    OpscRestoreCoordinator.COORD_MODE_PLAN + " | " +
+                    OpscRestoreCoordinator.COORD_MODE_WORK + " | " +
+                    OpscRestoreCoordinator.COORD_MODE_STATUS + ":\"<shared_dir>\".\n");
+                usageAndExit(25);
+            }
+        }
+        boolean coordWorker = (coordMode != null) && !coordMode.equals(OpscRestoreCoordinator.COORD_MODE_PLAN);
+
+        // "-daemon" option is optional: <port>
+        //     Jobs come with their own host, keyspace, table and backup time; "-l", "-k" and "-obt" are not needed.
+        int daemonPort = -1;
+        String daemonOptValue = cmd.getOptionValue(DseOpscS3RestoreUtils.CMD_OPTION_DAEMON_SHORT);
+        if ( daemonOptValue != null ) {
+            try {
+                daemonPort = Integer.parseInt(daemonOptValue);
+                if ( (daemonPort <= 0) || (daemonPort > 65535) ) {
+                    throw new NumberFormatException();
+                }
+            }
+            catch (NumberFormatException nfe) {
+                System.out.println("\nERROR: Please specify a valid port number (1-65535) as the \"-" +
+                    DseOpscS3RestoreUtils.CMD_OPTION_DAEMON_SHORT + "\" option value.\n");
+                usageAndExit(27);
+            }
+        }
+        boolean daemonMode = (daemonPort > 0);
+
         // "-l" option (ALL | DC:"<DC_Name>" | me[:"<C*_node_host_id>" is a must!
         boolean listCluster = false;
         boolean listDC = false;
@@ -1105,15 +3038,16 @@ public class DseOpscS3Restore {
 
         String lOptVal = cmd.getOptionValue(DseOpscS3RestoreUtils.CMD_OPTION_LIST_SHORT);
         if ( (lOptVal == null) || lOptVal.isEmpty() ) {
-            System.out.println("\nERROR: Please specify proper value for \"-" +
-                DseOpscS3RestoreUtils.CMD_OPTION_LIST_SHORT + "\" option -- " +
-                DseOpscS3RestoreUtils.CMD_OPTION_LIST_ALL + " | " +
-                DseOpscS3RestoreUtils.CMD_OPTION_LIST_DC + ":\"<DC_Name>\" | " +
-                DseOpscS3RestoreUtils.CMD_OPTION_LIST_ME + "[:\"<host_id>\"].\n");
-            usageAndExit(30);
+            if ( !coordWorker && !daemonMode ) {
+                System.out.println("\nERROR: Please specify proper value for \"-" +
+                    DseOpscS3RestoreUtils.CMD_OPTION_LIST_SHORT + "\" option -- " +
+                    DseOpscS3RestoreUtils.CMD_OPTION_LIST_ALL + " | " +
+                    DseOpscS3RestoreUtils.CMD_OPTION_LIST_DC + ":\"<DC_Name>\" | " +
+                    DseOpscS3RestoreUtils.CMD_OPTION_LIST_ME + "[:\"<host_id>\"].\n");
+                usageAndExit(30);
+            }
         }
-
-        if ( lOptVal.equalsIgnoreCase(DseOpscS3RestoreUtils.CMD_OPTION_LIST_ALL) ) {
+        else if ( lOptVal.equalsIgnoreCase(DseOpscS3RestoreUtils.CMD_OPTION_LIST_ALL) ) {
             listCluster = true;
         }
         else if ( lOptVal.toUpperCase().startsWith(DseOpscS3RestoreUtils.CMD_OPTION_LIST_DC) ) {
@@ -1173,9 +3107,16 @@ public class DseOpscS3Restore {
             }
         }
 
+        // "-lbt" option is optional. When specified, only backup times are listed;
+        //     "-k" and "-obt" options are not needed.
+        boolean listBkupTimes = cmd.hasOption(DseOpscS3RestoreUtils.CMD_OPTION_LISTBKUPTIME_SHORT);
+
+        // "-mirror" option is optional. Mirrors all backups in the retention window; "-obt" is not needed.
+        boolean mirrorWatch = cmd.hasOption(DseOpscS3RestoreUtils.CMD_OPTION_MIRROR_SHORT);
+
         // "-k" option (Keyspace name) is a must
         String keyspaceName = cmd.getOptionValue(DseOpscS3RestoreUtils.CMD_OPTION_KEYSPACE_SHORT);
-        if ( (keyspaceName == null) || keyspaceName.isEmpty() ) {
+        if ( !listBkupTimes && !coordWorker && !daemonMode && ((keyspaceName == null) || keyspaceName.isEmpty()) ) {
             System.out.println("\nERROR: Please specify proper keypsace name as the \"-" +
                 DseOpscS3RestoreUtils.CMD_OPTION_KEYSPACE_SHORT + "\" option value.\n");
             usageAndExit(70);
@@ -1184,30 +3125,136 @@ public class DseOpscS3Restore {
         // "-t" option (Table name) is optional. If not specified, all Tables of the specified keyspaces will be processed.
         String tableName = cmd.getOptionValue(DseOpscS3RestoreUtils.CMD_OPTION_TABLE_SHORT);
 
+        // Both take lists and patterns: all selected tables are restored in one pass
+        try {
+            OpscKsTblMatcher.compile(keyspaceName, tableName);
+        }
+        catch (IllegalArgumentException iae) {
+            System.out.println("\nERROR: Please specify proper keyspace/table names or patterns for the \"-" +
+                DseOpscS3RestoreUtils.CMD_OPTION_KEYSPACE_SHORT + "\" and \"-" + DseOpscS3RestoreUtils.CMD_OPTION_TABLE_SHORT +
+                "\" options (" + iae.getMessage() + ").");
+            usageAndExit(150);
+        }
+
         // "-obt" option is a must
         // OpsCenter Backup Date Time String (Can get  from OpsCenter Backup Service Window)
         String obtOptOptValue = cmd.getOptionValue(DseOpscS3RestoreUtils.CMD_OPTION_BACKUPTIME_SHORT);
 
-        if ( (obtOptOptValue == null) || (obtOptOptValue.isEmpty()) ) {
+        if ( !listBkupTimes && !coordWorker && !daemonMode && !mirrorWatch && ((obtOptOptValue == null) || (obtOptOptValue.isEmpty())) ) {
             System.out.println("\nERROR: Please specify proper OpsCenter backup time string (M/d/yyyy h:mm a) as the \"-" +
                 DseOpscS3RestoreUtils.CMD_OPTION_BACKUPTIME_SHORT + "\" option value.");
             usageAndExit(80);
         }
 
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("M/d/yyyy h:mm a");
+        DateTimeFormatter formatter = DseOpscS3RestoreUtils.OPSC_BKUP_TIME_DISPLAY_FORMATTER;
         ZonedDateTime opscBackupTime_gmt = null;
-        try {
-            LocalDateTime ldt = LocalDateTime.parse(obtOptOptValue, formatter);
+        if ( (obtOptOptValue != null) && !obtOptOptValue.isEmpty() ) {
+            try {
+                LocalDateTime ldt = LocalDateTime.parse(obtOptOptValue, formatter);
+
+                ZoneId gmtZoneId = ZoneId.of("UTC");
+                opscBackupTime_gmt = ldt.atZone(gmtZoneId);
+            }
+            catch (DateTimeParseException dte) {
+                System.out.println("\nERROR: " + dte.getMessage());
+                System.out.println("\nERROR: Please specify correct time string format (M/d/yyyy h:mm a) for \"-" +
+                    DseOpscS3RestoreUtils.CMD_OPTION_BACKUPTIME_SHORT + "\" option.");
+                usageAndExit(90);
+            }
+        }
+
+        // "-obtm" option is optional (default: exact)
+        String obtmOptValue = cmd.getOptionValue(DseOpscS3RestoreUtils.CMD_OPTION_BACKUPTIME_MATCH_SHORT);
+        if ( (obtmOptValue != null) && !obtmOptValue.isEmpty() ) {
+            try {
+                bkupTimeMatchMode = OpscBackupTimeline.MatchMode.valueOf(obtmOptValue.toUpperCase());
+            }
+            catch (IllegalArgumentException iae) {
+                System.out.println("\nERROR: Please specify proper value for \"-" +
+                    DseOpscS3RestoreUtils.CMD_OPTION_BACKUPTIME_MATCH_SHORT + "\" option -- exact | before | after.");
+                usageAndExit(95);
+            }
+        }
+
+        // "-ref" option is optional. ONLY works for "-l me" with "-d" option.
+        String refOptValue = cmd.getOptionValue(DseOpscS3RestoreUtils.CMD_OPTION_REFBKUP_SHORT);
+        if ( (refOptValue != null) && !refOptValue.isEmpty() ) {
+            if ( !refOptValue.equalsIgnoreCase(DseOpscS3RestoreUtils.CMD_OPTION_REFBKUP_LOCAL) ) {
+                try {
+                    LocalDateTime.parse(refOptValue, formatter);
+                }
+                catch (DateTimeParseException dte) {
+                    System.out.println("\nERROR: Please specify \"" + DseOpscS3RestoreUtils.CMD_OPTION_REFBKUP_LOCAL +
+                        "\" or correct time string format (M/d/yyyy h:mm a) for \"-" +
+                        DseOpscS3RestoreUtils.CMD_OPTION_REFBKUP_SHORT + "\" option.");
+                    usageAndExit(97);
+                }
+            }
+            refBkupTimeOpt = refOptValue;
+        }
+
+        // "-plan" option is optional
+        String planFormat = cmd.getOptionValue(DseOpscS3RestoreUtils.CMD_OPTION_PLAN_SHORT);
+        if ( (planFormat != null) &&
+             !planFormat.equalsIgnoreCase(OpscRestorePlanner.PLAN_FORMAT_TABLE) &&
+             !planFormat.equalsIgnoreCase(OpscRestorePlanner.PLAN_FORMAT_JSON) ) {
+            System.out.println("\nERROR: Please specify proper value for \"-" +
+                DseOpscS3RestoreUtils.CMD_OPTION_PLAN_SHORT + "\" option -- " +
+                OpscRestorePlanner.PLAN_FORMAT_TABLE + " | " + OpscRestorePlanner.PLAN_FORMAT_JSON + ".");
+            usageAndExit(98);
+        }
+
+        // "-tr" option is optional: (<start_token>, <end_token>] ranges, Murmur3Partitioner
+        String trOptValue = cmd.getOptionValue(DseOpscS3RestoreUtils.CMD_OPTION_TOKENRANGE_SHORT);
+        if ( (trOptValue != null) && !trOptValue.isEmpty() ) {
+            try {
+                tokenRangeFilter = new OpscTokenRangeFilter(OpscTokenRangeFilter.parseTokenRanges(trOptValue));
+            }
+            catch (NumberFormatException nfe) {
+                System.out.println("\nERROR: Please specify proper value for \"-" +
+                    DseOpscS3RestoreUtils.CMD_OPTION_TOKENRANGE_SHORT + "\" option -- " +
+                    "<start_token>:<end_token>[,<start_token>:<end_token>...].");
+                usageAndExit(99);
+            }
+        }
 
-            ZoneId gmtZoneId = ZoneId.of("UTC");
-            opscBackupTime_gmt = ldt.atZone(gmtZoneId);
+        // "-tw" option is optional: "<start_time>,<end_time>" (UTC) of the cell timestamps to restore
+        String twOptValue = cmd.getOptionValue(DseOpscS3RestoreUtils.CMD_OPTION_TIMEWINDOW_SHORT);
+        if ( (twOptValue != null) && !twOptValue.isEmpty() ) {
+            try {
+                timeWindowFilter = OpscTimeWindowFilter.parseTimeWindow(twOptValue);
+            }
+            catch (DateTimeParseException | IllegalArgumentException e) {
+                System.out.println("\nERROR: Please specify proper value for \"-" +
+                    DseOpscS3RestoreUtils.CMD_OPTION_TIMEWINDOW_SHORT + "\" option -- " +
+                    "\"<start_time>,<end_time>\" (M/d/yyyy h:mm a, UTC; start before end).");
+                usageAndExit(145);
+            }
         }
-        catch (DateTimeParseException dte) {
-            dte.printStackTrace();
 
-            System.out.println("\nERROR: Please specify correct time string format (M/d/yyyy h:mm a) for \"-" +
-                DseOpscS3RestoreUtils.CMD_OPTION_BACKUPTIME_SHORT + "\" option.");
-            usageAndExit(90);
+        // "-pk" option is optional. ONLY works with "-t" option (partition keys of a single table).
+        List<String> partitionKeyStrs = null;
+        String pkOptValue = cmd.getOptionValue(DseOpscS3RestoreUtils.CMD_OPTION_PARTITIONKEY_SHORT);
+        if ( (pkOptValue != null) && !pkOptValue.isEmpty() ) {
+            if ( !OpscKsTblMatcher.isSingleTable(keyspaceName, tableName) ) {
+                System.out.println("\nERROR: \"-" + DseOpscS3RestoreUtils.CMD_OPTION_PARTITIONKEY_SHORT +
+                    "\" option requires a single keyspace (\"-" + DseOpscS3RestoreUtils.CMD_OPTION_KEYSPACE_SHORT +
+                    "\") and table (\"-" + DseOpscS3RestoreUtils.CMD_OPTION_TABLE_SHORT + "\") name, without lists or patterns.");
+                usageAndExit(96);
+            }
+
+            partitionKeyStrs = Arrays.asList(pkOptValue.split(","));
+            try {
+                for ( String partitionKeyStr : partitionKeyStrs ) {
+                    OpscPartitionExtractor.parsePartitionKey(partitionKeyStr);
+                }
+            }
+            catch (IllegalArgumentException iae) {
+                System.out.println("\nERROR: Please specify proper value for \"-" +
+                    DseOpscS3RestoreUtils.CMD_OPTION_PARTITIONKEY_SHORT + "\" option -- " +
+                    "[text|int|bigint|uuid|hex:]<key>[,...] (" + iae.getMessage() + ").");
+                usageAndExit(96);
+            }
         }
 
         // "-cls" option is optional
@@ -1223,7 +3270,7 @@ public class DseOpscS3Restore {
         }
 
         // "-nds" option is optional.
-        // ONLY works when "-t"/"--table" option is provided;
+        // ONLY works when "-k"/"-t" select a single table (no lists or patterns);
         //    Otherwise, target directory structure is automatically maintained.
         boolean noTargetDirStruct = false;
         String ndsOptOptValue = cmd.getOptionValue(DseOpscS3RestoreUtils.CMD_OPTION_NODIR_SHORT);
@@ -1232,7 +3279,7 @@ public class DseOpscS3Restore {
             try {
                 noTargetDirStruct = Boolean.parseBoolean(ndsOptOptValue);
 
-                if  ( (tableName == null) || tableName.isEmpty() ) {
+                if  ( !OpscKsTblMatcher.isSingleTable(keyspaceName, tableName) ) {
                     noTargetDirStruct = false;
                 }
             }
@@ -1265,6 +3312,21 @@ public class DseOpscS3Restore {
             usageAndExit(100);
         }
 
+        // Before anything (e.g. the DSE driver) initializes logback
+        OpscEventLog.init(CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_LOCAL_DOWNLOAD_HOME));
+
+        // Coordinated restore progress only needs the shared coordination directory
+        if ( OpscRestoreCoordinator.COORD_MODE_STATUS.equals(coordMode) ) {
+            try {
+                new OpscRestoreCoordinator(coordDir).printStatus();
+            }
+            catch (IOException ioe) {
+                System.out.println("\nERROR: Failed to read coordination directory " + coordDir + ": " + ioe.getMessage());
+                System.exit(-60);
+            }
+            System.exit(0);
+        }
+
         // Check whether "use_ssl" config file parameter is true (default false).
         // - If so, java system properties "-Djavax.net.ssl.trustStore" and "-Djavax.net.ssl.trustStorePassword" must be set.
         boolean useSsl = false;
@@ -1332,45 +3394,220 @@ public class DseOpscS3Restore {
             usageAndExit(120);
         }
 
+        long minFreeMb = DseOpscS3RestoreUtils.DOWNLOAD_MIN_FREE_MB;
+        String minFreeMbStr = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_DOWNLOAD_MIN_FREE_MB);
+        if ( (minFreeMbStr != null) && !minFreeMbStr.isEmpty() ) {
+            minFreeMb = Long.parseLong(minFreeMbStr);
+        }
+
         /**
-         * Verify AWS credential
+         * Additional download roots (optional), e.g. one per JBOD disk: same checks as the download home
          */
+        List<String> extraDownloadDirs = OpscDownloadRoots.parseDownloadDirs(
+            CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_LOCAL_DOWNLOAD_DIRS));
+        for (String extraDownloadDir : extraDownloadDirs) {
+            File extraDir = new File(extraDownloadDir);
+            if ( extraDir.exists() &&
+                ( !extraDir.isDirectory() || !(extraDir.canRead() && extraDir.canWrite() && extraDir.canExecute()) ) ) {
+                System.out.println("\nERROR: [Config File] Specified additional local download directory (" + extraDownloadDir +
+                    ") is not correct (non-directory, or no Read/Write privilege)!");
+                usageAndExit(120);
+            }
+        }
 
-        AWSCredentials credentials = null;
+        int diskThreadNum = DseOpscS3RestoreUtils.DOWNLOAD_DISK_THREADS;
+        String diskThreadNumStr = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_DOWNLOAD_DISK_THREADS);
+        if ( (diskThreadNumStr != null) && !diskThreadNumStr.isEmpty() ) {
+            diskThreadNum = Integer.parseInt(diskThreadNumStr);
+        }
 
-        // Check AWS credential from default credential profile file
-        try {
-            credentials = new ProfileCredentialsProvider("default").getCredentials();
+        // Coordinated restore workers process shards of all hosts: they all write to one shared target
+        if ( OpscRestoreCoordinator.COORD_MODE_WORK.equals(coordMode) ) {
+            String coordDownloadHome = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_COORD_DOWNLOAD_HOME);
+            if ( (coordDownloadHome == null) || coordDownloadHome.isEmpty() ) {
+                coordDownloadHome = Paths.get(coordDir, DseOpscS3RestoreUtils.COORD_DOWNLOAD_HOME_SUBDIR).toString();
+            }
+
+            downloadRoots = new OpscDownloadRoots(coordDownloadHome,
+                Collections.emptyList(), minFreeMb * 1024 * 1024, diskThreadNum);
+        }
+        else {
+            downloadRoots = new OpscDownloadRoots(localDownloadHomePath.toString(),
+                extraDownloadDirs, minFreeMb * 1024 * 1024, diskThreadNum);
+        }
+
+        String listThreadNumStr = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_LIST_THREADS);
+        if ( (listThreadNumStr != null) && !listThreadNumStr.isEmpty() ) {
+            listThreadNum = Integer.parseInt(listThreadNumStr);
         }
-        catch ( Exception e) {
 
+        String dropPageCacheStr = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_DOWNLOAD_DROP_PAGE_CACHE);
+        if ( (dropPageCacheStr != null) && Boolean.parseBoolean(dropPageCacheStr) ) {
+            if (OpscPageCacheGuard.isSupported()) {
+                OpscPageCacheGuard.ENABLED = true;
+            }
+            else {
+                System.out.println("WARN: \"" + DseOpscS3RestoreUtils.CFG_KEY_DOWNLOAD_DROP_PAGE_CACHE +
+                    "\" is only supported on 64-bit Linux; downloads are written through the page cache.");
+            }
+        }
+
+        /**
+         * Set up local SSTable cache (optional)
+         */
+        String sstableCacheDir = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_LOCAL_CACHE_DIR);
+        if ( (sstableCacheDir != null) && !sstableCacheDir.isEmpty() ) {
+            long sstableCacheMaxMb = DseOpscS3RestoreUtils.LOCAL_CACHE_MAX_MB;
+            String sstableCacheMaxMbStr = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_LOCAL_CACHE_MAX_MB);
+            if ( (sstableCacheMaxMbStr != null) && !sstableCacheMaxMbStr.isEmpty() ) {
+                sstableCacheMaxMb = Long.parseLong(sstableCacheMaxMbStr);
+            }
+
+            try {
+                sstableCache = new OpscSstableCache(sstableCacheDir, sstableCacheMaxMb * 1024 * 1024);
+            }
+            catch (IOException ioe) {
+                System.out.println("\nERROR: [Config File] Failed to set up local SSTable cache directory (" + sstableCacheDir +
+                    "): " + ioe.getMessage() + "!");
+                usageAndExit(130);
+            }
         }
 
-        // When failed, check whether AWS credential is provided from Java system properties:
-        // -Daws.accessKeyId=<AWS_access_key>, and
-        // -Daws.secretKey=<AWS_secret_key>
-        if (credentials == null) {
+        /**
+         * Set up local backup mirror (optional)
+         */
+        String mirrorDir = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_LOCAL_MIRROR_DIR);
+        if ( (mirrorDir != null) && !mirrorDir.isEmpty() ) {
             try {
-                credentials = new SystemPropertiesCredentialsProvider().getCredentials();
+                backupMirror = new OpscBackupMirror(mirrorDir,
+                    CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_MIRROR_EVENT_FEED));
+            }
+            catch (IOException ioe) {
+                System.out.println("\nERROR: [Config File] Failed to set up local mirror directory (" + mirrorDir + ")!");
+                usageAndExit(135);
             }
-            catch ( Exception e ) {
+        }
+        else if (mirrorWatch) {
+            System.out.println("\nERROR: \"-" + DseOpscS3RestoreUtils.CMD_OPTION_MIRROR_SHORT +
+                "\" option requires configuration file parameter \"" + DseOpscS3RestoreUtils.CFG_KEY_LOCAL_MIRROR_DIR + "\".");
+            usageAndExit(135);
+        }
+
+        /**
+         * Reuse of SSTable files still on this node (optional)
+         */
+        String localSstableDirs = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_LOCAL_SSTABLE_DIRS);
+        if ( (localSstableDirs != null) && !localSstableDirs.isEmpty() ) {
+            String localSstableChecksumStr = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_LOCAL_SSTABLE_CHECKSUM);
+            localSstables = new OpscLocalSstables(localSstableDirs,
+                (localSstableChecksumStr != null) && Boolean.parseBoolean(localSstableChecksumStr));
+        }
+
+        /**
+         * Backups on a file system (optional): no S3 connection
+         */
+        AmazonS3 s3Client = null;
 
+        String backupDir = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_OPSC_BACKUP_DIR);
+        if ( (backupDir != null) && !backupDir.isEmpty() ) {
+            try {
+                OpscFsBackupStore fsBackupStore = new OpscFsBackupStore(backupDir, listThreadNum);
+                s3Client = fsBackupStore;
+                backupStore = fsBackupStore;
+
+                // Bucket names are ignored by the backup directory; the directory is shown instead
+                String bktName = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_OPSC_S3_BUCKET_NAME);
+                if ( (bktName == null) || bktName.isEmpty() ) {
+                    CONFIGPROP.setProperty(DseOpscS3RestoreUtils.CFG_KEY_OPSC_S3_BUCKET_NAME, fsBackupStore.getBackupDir().toString());
+                }
+            }
+            catch (IOException ioe) {
+                System.out.println("\nERROR: [Config File] Failed to open backup directory (" + backupDir + "): " + ioe.getMessage());
+                usageAndExit(140);
             }
         }
+        else {
+            /**
+             * Verify AWS credential
+             */
+
+            AWSCredentials credentials = null;
 
-        if (credentials == null) {
-            System.err.println("\nERROR: Failed to set up AWS S3 connection! Please check provided AWS access key and secret key!");
-            usageAndExit(-50);
+            // Check AWS credential from default credential profile file
+            try {
+                credentials = new ProfileCredentialsProvider("default").getCredentials();
+            }
+            catch ( Exception e) {
+
+            }
+
+            // When failed, check whether AWS credential is provided from Java system properties:
+            // -Daws.accessKeyId=<AWS_access_key>, and
+            // -Daws.secretKey=<AWS_secret_key>
+            if (credentials == null) {
+                try {
+                    credentials = new SystemPropertiesCredentialsProvider().getCredentials();
+                }
+                catch ( Exception e ) {
+
+                }
+            }
+
+            if (credentials == null) {
+                System.err.println("\nERROR: Failed to set up AWS S3 connection! Please check provided AWS access key and secret key!");
+                usageAndExit(-50);
+            }
+
+            /**
+             * Set up AWS S3 connection
+             */
+            s3Client = OpscS3SourcePool.buildS3Client(
+                credentials,
+                CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_OPSC_S3_AWS_REGION),
+                CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_OPSC_S3_ENDPOINT));
+
+            backupStore = OpscS3SourcePool.build(CONFIGPROP, credentials, s3Client);
         }
 
         /**
-         * Set up AWS S3 connection
+         * Live controls (JMX, and the optional control file) of the downloads
+         */
+        OpscRestoreControl.start(backupStore, downloadRoots,
+            CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_RESTORE_CONTROL_FILE));
+
+        /**
+         * Load the S3 inventory index (optional); LIST requests are used when it can't be loaded
          */
-        AmazonS3 s3Client = AmazonS3ClientBuilder.standard()
-            .withClientConfiguration(new ClientConfiguration().withProtocol(Protocol.HTTP))
-            .withCredentials(new AWSStaticCredentialsProvider(credentials))
-            .withRegion(CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_OPSC_S3_AWS_REGION))
-            .build();
+        String inventoryManifest = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_OPSC_S3_INVENTORY_MANIFEST);
+        if ( (inventoryManifest != null) && !inventoryManifest.isEmpty() && (backupStore instanceof OpscFsBackupStore) ) {
+            System.out.println("WARN: S3 inventory " + inventoryManifest + " is not used with backup directory " + backupDir + ".");
+        }
+        else if ( (inventoryManifest != null) && !inventoryManifest.isEmpty() ) {
+            try {
+                long loadStartMillis = System.currentTimeMillis();
+
+                s3Inventory = OpscS3Inventory.load(s3Client, inventoryManifest);
+
+                String bktName = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_OPSC_S3_BUCKET_NAME);
+                if ( (s3Inventory.getSourceBucket() != null) && !s3Inventory.getSourceBucket().equals(bktName) ) {
+                    System.out.println("WARN: S3 inventory " + inventoryManifest + " is for bucket " +
+                        s3Inventory.getSourceBucket() + ", not " + bktName + "; using LIST requests instead.");
+                    s3Inventory = null;
+                }
+                else {
+                    System.out.format("S3 inventory of %s loaded: %d backup objects (%s), %d ms.\n",
+                        Instant.ofEpochMilli(s3Inventory.getCreationMillis()),
+                        s3Inventory.size(),
+                        inventoryManifest,
+                        System.currentTimeMillis() - loadStartMillis);
+                }
+            }
+            catch (IOException | SdkClientException e) {
+                System.out.println("WARN: Failed to load S3 inventory " + inventoryManifest +
+                    " (" + e.getMessage() + "); using LIST requests instead.");
+                s3Inventory = null;
+            }
+        }
 
 
         /**
@@ -1409,13 +3646,34 @@ public class DseOpscS3Restore {
         // dseCluster.connect();    /* NO NEED for acutal connection */
         Metadata dseClusterMetadata = null;
 
+        AuthProvider authProvider = userAuth ? new PlainTextAuthProvider(userName, passWord) : null;
+
+        int dseNativePort = ProtocolOptions.DEFAULT_PORT;
+        String dseNativePortStr = CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_DSE_NATIVE_PORT);
+        if ( (dseNativePortStr != null) && !dseNativePortStr.isEmpty() ) {
+            dseNativePort = Integer.parseInt(dseNativePortStr);
+        }
+
+        // For "-l me" (and daemon jobs for "me") without host ID, try to resolve my host ID without
+        //   the full cluster metadata ("system.local" of the local node, or the cached mapping file)
+        if ( (listMe || daemonMode) && ((myHostID == null) || myHostID.isEmpty()) ) {
+            myHostID = OpscHostIdResolver.resolve(
+                CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_LOCAL_DOWNLOAD_HOME),
+                getLocalIP(CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_IP_MATCHING_NIC)),
+                dseNativePort,
+                useSsl,
+                authProvider);
+        }
+
         // Do NOT check cluster metadata for "-l me:<dse_host_id>" option
-        boolean checkDseMetadata = listCluster || listDC || (listMe && ((myHostID == null) || myHostID.isEmpty()) );
+        //   The daemon keeps it (when available) for jobs on a DC or the whole cluster
+        boolean checkDseMetadata = listCluster || listDC || daemonMode || (listMe && ((myHostID == null) || myHostID.isEmpty()) );
         if (checkDseMetadata) {
 
             try {
                 DseCluster.Builder clusterBuilder = DseCluster.builder()
                     .addContactPoint(CONFIGPROP.getProperty(DseOpscS3RestoreUtils.CFG_KEY_CONTACT_POINT))
+                    .withPort(dseNativePort)
                     .withQueryOptions(queryOptions);
 
 
@@ -1423,8 +3681,7 @@ public class DseOpscS3Restore {
                     clusterBuilder.withSSL();
                 }
 
-                if (userAuth) {
-                    AuthProvider authProvider = new PlainTextAuthProvider(userName, passWord);
+                if (authProvider != null) {
                     clusterBuilder.withAuthProvider(authProvider);
                 }
 
@@ -1432,53 +3689,175 @@ public class DseOpscS3Restore {
                 dseClusterMetadata = dseCluster.getMetadata();
             }
             catch (NoHostAvailableException nhae) {
-                System.out.println("\nERROR: Failed to check DSE cluster metadata. " +
-                    "Please check DSE cluster status and/or connection requirements (e.g. SSL/TLS, username/password)!");
-                usageAndExit(120);
+                if (daemonMode) {
+                    System.out.println("WARN: DSE cluster metadata is not available; " +
+                        "daemon jobs can only be for this node (with known host ID) or a specified host ID.");
+                }
+                else {
+                    System.out.println("\nERROR: Failed to check DSE cluster metadata. " +
+                        "Please check DSE cluster status and/or connection requirements (e.g. SSL/TLS, username/password)!");
+                    usageAndExit(120);
+                }
             }
             catch (Exception e) {
-                System.out.println("\nERROR: Unknown error when checking DSE cluster metadata!");
-                e.printStackTrace();
+                System.out.println("\nERROR: Unknown error when checking DSE cluster metadata: " + e);
+                OpscEventLog.error("check of DSE cluster metadata", e);
                 usageAndExit(125);
             }
         }
 
 
-        // List Opsc S3 backup items for all Dse Cluster hosts
-        if ( listCluster ) {
-            listS3ObjtForCluster(
-                dseClusterMetadata,
-                fileSizeChk,
-                s3Client,
-                keyspaceName,
-                tableName,
-                opscBackupTime_gmt);
+        try {
+            // Restore daemon: serve jobs until shut down ("-obtm", "-tr", "-ref" apply to all jobs)
+            if ( daemonMode ) {
+                runRestoreDaemon(
+                    dseClusterMetadata,
+                    s3Client,
+                    myHostID,
+                    fileSizeChk,
+                    downloadS3ObjThreadNum,
+                    daemonPort);
+            }
+            // Keep the local mirror in sync with new backups
+            else if ( mirrorWatch ) {
+                String hostIdToMirror = myHostID;
+                if ( listMe && ((myHostID == null) || myHostID.isEmpty()) ) {
+                    hostIdToMirror = findMyHostID(dseClusterMetadata);
+                }
+
+                if ( !listMe || ((hostIdToMirror != null) && !hostIdToMirror.isEmpty()) ) {
+                    runMirrorWatch(
+                        dseClusterMetadata,
+                        s3Client,
+                        dcNameToList,
+                        hostIdToMirror,
+                        keyspaceName,
+                        tableName,
+                        downloadS3ObjThreadNum);
+                }
+            }
+            // Coordinated restore: split the cluster-wide work into shards
+            else if ( OpscRestoreCoordinator.COORD_MODE_PLAN.equals(coordMode) ) {
+                String hostIdToPlan = myHostID;
+                if ( listMe && ((myHostID == null) || myHostID.isEmpty()) ) {
+                    hostIdToPlan = findMyHostID(dseClusterMetadata);
+                }
+
+                if ( !listMe || ((hostIdToPlan != null) && !hostIdToPlan.isEmpty()) ) {
+                    planCoordinatedRestore(
+                        dseClusterMetadata,
+                        s3Client,
+                        dcNameToList,
+                        hostIdToPlan,
+                        keyspaceName,
+                        tableName,
+                        opscBackupTime_gmt,
+                        coordDir);
+                }
+            }
+            // Coordinated restore: claim and process shards
+            else if ( OpscRestoreCoordinator.COORD_MODE_WORK.equals(coordMode) ) {
+                runCoordinatedRestoreWorker(coordDir, downloadS3ObjThreadNum);
+            }
+            // List available OpsCenter backup times (instead of backup items)
+            else if ( listBkupTimes ) {
+                String hostIdToList = myHostID;
+                if ( listMe && ((myHostID == null) || myHostID.isEmpty()) ) {
+                    hostIdToList = findMyHostID(dseClusterMetadata);
+                }
+
+                if ( !listMe || ((hostIdToList != null) && !hostIdToList.isEmpty()) ) {
+                    listBackupTimes(
+                        dseClusterMetadata,
+                        s3Client,
+                        dcNameToList,
+                        hostIdToList);
+                }
+            }
+            // Dry-run restore plan
+            else if ( planFormat != null ) {
+                String hostIdToPlan = myHostID;
+                if ( listMe && ((myHostID == null) || myHostID.isEmpty()) ) {
+                    hostIdToPlan = findMyHostID(dseClusterMetadata);
+                }
+
+                if ( !listMe || ((hostIdToPlan != null) && !hostIdToPlan.isEmpty()) ) {
+                    planRestore(
+                        dseClusterMetadata,
+                        s3Client,
+                        dcNameToList,
+                        hostIdToPlan,
+                        keyspaceName,
+                        tableName,
+                        opscBackupTime_gmt,
+                        fileSizeChk,
+                        downloadS3ObjThreadNum,
+                        planFormat);
+                }
+            }
+            // Partition-key targeted restore
+            else if ( partitionKeyStrs != null ) {
+                String hostIdToExtract = myHostID;
+                if ( listMe && ((myHostID == null) || myHostID.isEmpty()) ) {
+                    hostIdToExtract = findMyHostID(dseClusterMetadata);
+                }
+
+                if ( !listMe || ((hostIdToExtract != null) && !hostIdToExtract.isEmpty()) ) {
+                    extractPartitions(
+                        dseClusterMetadata,
+                        s3Client,
+                        dcNameToList,
+                        hostIdToExtract,
+                        keyspaceName,
+                        tableName,
+                        opscBackupTime_gmt,
+                        partitionKeyStrs);
+                }
+            }
+            // List Opsc S3 backup items for all Dse Cluster hosts
+            else if ( listCluster ) {
+                listS3ObjtForCluster(
+                    dseClusterMetadata,
+                    fileSizeChk,
+                    s3Client,
+                    keyspaceName,
+                    tableName,
+                    opscBackupTime_gmt);
+            }
+            // List OpsCenter backup SSTables for all hosts in a specified DC of the Dse cluster
+            else if ( listDC ) {
+                listS3ObjForDC(
+                    dseClusterMetadata,
+                    fileSizeChk,
+                    s3Client,
+                    dcNameToList,
+                    keyspaceName,
+                    tableName,
+                    opscBackupTime_gmt);
+            }
+            // List (and download) Opsc S3 backup items for myself (the host that runs this program)
+            else if ( listMe ) {
+                listDownloadS3ObjForMe(
+                    dseClusterMetadata,
+                    fileSizeChk,
+                    s3Client,
+                    downloadS3Obj,
+                    downloadS3ObjThreadNum,
+                    myHostID,
+                    keyspaceName,
+                    tableName,
+                    opscBackupTime_gmt,
+                    clearTargetDownDir,
+                    noTargetDirStruct );
+            }
         }
-        // List OpsCenter backup SSTables for all hosts in a specified DC of the Dse cluster
-        else if ( listDC ) {
-            listS3ObjForDC(
-                dseClusterMetadata,
-                fileSizeChk,
-                s3Client,
-                dcNameToList,
-                keyspaceName,
-                tableName,
-                opscBackupTime_gmt);
+        catch (RestoreAbortException rae) {
+            System.out.println("\nERROR: " + rae.getMessage() + "!");
+            System.exit(rae.exitCode);
         }
-        // List (and download) Opsc S3 backup items for myself (the host that runs this program)
-        else if ( listMe ) {
-            listDownloadS3ObjForMe(
-                dseClusterMetadata,
-                fileSizeChk,
-                s3Client,
-                downloadS3Obj,
-                downloadS3ObjThreadNum,
-                myHostID,
-                keyspaceName,
-                tableName,
-                opscBackupTime_gmt,
-                clearTargetDownDir,
-                noTargetDirStruct );
+
+        if (backupStore != null) {
+            backupStore.shutdown();
         }
 
         if (s3Client != null) {
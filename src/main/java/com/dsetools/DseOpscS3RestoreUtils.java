@@ -3,20 +3,49 @@ package com.dsetools;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.format.DateTimeFormatter;
 import java.util.Properties;
 
 public class DseOpscS3RestoreUtils {
 
     // Key string in Yaml config file
     static String CFG_KEY_CONTACT_POINT = "dse_contact_point";
+    static String CFG_KEY_DSE_NATIVE_PORT = "dse_native_port";
     static String CFG_KEY_LOCAL_DOWNLOAD_HOME = "local_download_home";
     static String CFG_KEY_OPSC_S3_AWS_REGION = "opsc_s3_aws_region";
     static String CFG_KEY_OPSC_S3_BUCKET_NAME = "opsc_s3_bucket_name";
+    static String CFG_KEY_OPSC_S3_ENDPOINT = "opsc_s3_endpoint";
+    static String CFG_KEY_OPSC_S3_REPLICA_SOURCES = "opsc_s3_replica_sources";
+    static String CFG_KEY_OPSC_S3_INVENTORY_MANIFEST = "opsc_s3_inventory_manifest";
+    static String CFG_KEY_DOWNLOAD_PART_SIZE_MB = "download_part_size_mb";
+    static String CFG_KEY_DOWNLOAD_PART_THREADS = "download_part_threads";
     static String CFG_KEY_IP_MATCHING_NIC = "ip_matching_nic";
     static String CFG_KEY_USE_SSL = "use_ssl";
     static String CFG_KEY_USER_AUTH = "user_auth";
     static String CFG_KEY_FILE_SIZE_CHK = "file_size_chk";
     static String CFG_KEY_FILE_DSE_48 = "DSE_48";
+    static String CFG_KEY_LOCAL_CACHE_DIR = "local_cache_dir";
+    static String CFG_KEY_LOCAL_CACHE_MAX_MB = "local_cache_max_mb";
+    static String CFG_KEY_RESTORE_THROUGHPUT_MBPS = "restore_throughput_mbps";
+    static String CFG_KEY_RESTORE_REQUEST_OVERHEAD_MS = "restore_request_overhead_ms";
+    static String CFG_KEY_COORD_SHARD_MB = "coord_shard_mb";
+    static String CFG_KEY_COORD_DOWNLOAD_HOME = "coord_download_home";
+    static String CFG_KEY_DOWNLOAD_MIN_FREE_MB = "download_min_free_mb";
+    static String CFG_KEY_LOCAL_DOWNLOAD_DIRS = "local_download_dirs";
+    static String CFG_KEY_DOWNLOAD_DISK_THREADS = "download_disk_threads";
+    static String CFG_KEY_LIST_THREADS = "list_threads";
+    static String CFG_KEY_DAEMON_JOBS = "daemon_jobs";
+    static String CFG_KEY_DAEMON_BANDWIDTH_MBPS = "daemon_bandwidth_mbps";
+    static String CFG_KEY_LOCAL_MIRROR_DIR = "local_mirror_dir";
+    static String CFG_KEY_MIRROR_RETENTION_DAYS = "mirror_retention_days";
+    static String CFG_KEY_MIRROR_POLL_SECONDS = "mirror_poll_seconds";
+    static String CFG_KEY_MIRROR_EVENT_FEED = "mirror_event_feed";
+    static String CFG_KEY_OPSC_BACKUP_DIR = "opsc_backup_dir";
+    static String CFG_KEY_DOWNLOAD_DROP_PAGE_CACHE = "download_drop_page_cache";
+    static String CFG_KEY_DOWNLOAD_BUFFER_MB = "download_buffer_mb";
+    static String CFG_KEY_LOCAL_SSTABLE_DIRS = "local_sstable_dirs";
+    static String CFG_KEY_LOCAL_SSTABLE_CHECKSUM = "local_sstable_checksum";
+    static String CFG_KEY_RESTORE_CONTROL_FILE = "restore_control_file";
 
     static String JAVA_SSL_TRUSTSTORE_PROP = "javax.net.ssl.trustStore";
     static String JAVA_SSL_TRUSTSTORE_PASS_PROP = "javax.net.ssl.trustStorePassword";
@@ -27,8 +56,25 @@ public class DseOpscS3RestoreUtils {
     static String OPSC_OBJKEY_SSTABLES_MARKER_STR = "sstables";
     static String OPSC_BKUP_METADATA_FILE = "backup.json";
 
+    // Same format as "-obt" option value
+    static DateTimeFormatter OPSC_BKUP_TIME_DISPLAY_FORMATTER = DateTimeFormatter.ofPattern("M/d/yyyy h:mm a");
+
     static String CASSANDRA_SSTABLE_FILE_CODE = "mc";
     static int DOWNLOAD_THREAD_POOL_SIZE = 5;
+    static long LOCAL_CACHE_MAX_MB = 100 * 1024;
+    static long RESTORE_REQUEST_OVERHEAD_MS = 20;
+    static long DOWNLOAD_PART_SIZE_MB = 64;
+    static int DOWNLOAD_PART_THREAD_NUM = 8;
+    static long DOWNLOAD_BUFFER_MB = 64;
+    static long COORD_SHARD_MB = 4 * 1024;
+    static String COORD_DOWNLOAD_HOME_SUBDIR = "data";
+    static long DOWNLOAD_MIN_FREE_MB = 1024;
+    static int DOWNLOAD_DISK_THREADS = 4;
+    static int LIST_THREAD_NUM = 8;
+    static int DAEMON_JOB_NUM = 2;
+    static int MIRROR_RETENTION_DAYS = 7;
+    static int MIRROR_POLL_SECONDS = 300;
+    static long MIRROR_FEED_CHECK_MILLIS = 5000;
 
     static String CMD_OPTION_HELP_SHORT = "h";
     static String CMD_OPTION_HELP_LONG = "help";
@@ -47,6 +93,27 @@ public class DseOpscS3RestoreUtils {
     static String CMD_OPTION_TABLE_LONG = "table";
     static String CMD_OPTION_BACKUPTIME_SHORT = "obt";
     static String CMD_OPTION_BACKUPTIME_LONG = "opscBkupTime";
+    static String CMD_OPTION_BACKUPTIME_MATCH_SHORT = "obtm";
+    static String CMD_OPTION_BACKUPTIME_MATCH_LONG = "opscBkupTimeMatch";
+    static String CMD_OPTION_LISTBKUPTIME_SHORT = "lbt";
+    static String CMD_OPTION_LISTBKUPTIME_LONG = "listBkupTimes";
+    static String CMD_OPTION_REFBKUP_SHORT = "ref";
+    static String CMD_OPTION_REFBKUP_LONG = "refBkup";
+    static String CMD_OPTION_REFBKUP_LOCAL = "local";
+    static String CMD_OPTION_PLAN_SHORT = "plan";
+    static String CMD_OPTION_PLAN_LONG = "restorePlan";
+    static String CMD_OPTION_TOKENRANGE_SHORT = "tr";
+    static String CMD_OPTION_TOKENRANGE_LONG = "tokenRange";
+    static String CMD_OPTION_TIMEWINDOW_SHORT = "tw";
+    static String CMD_OPTION_TIMEWINDOW_LONG = "timeWindow";
+    static String CMD_OPTION_PARTITIONKEY_SHORT = "pk";
+    static String CMD_OPTION_PARTITIONKEY_LONG = "partitionKeys";
+    static String CMD_OPTION_COORD_SHORT = "coord";
+    static String CMD_OPTION_COORD_LONG = "coordinator";
+    static String CMD_OPTION_DAEMON_SHORT = "daemon";
+    static String CMD_OPTION_DAEMON_LONG = "daemonPort";
+    static String CMD_OPTION_MIRROR_SHORT = "mirror";
+    static String CMD_OPTION_MIRROR_LONG = "mirrorWatch";
     static String CMD_OPTION_CLSDOWNDIR_SHORT = "cls";
     static String CMD_OPTION_CLSDOWNDIR_LONG = "clsDownDir";
     static String CMD_OPTION_NODIR_SHORT = "nds";
@@ -70,12 +137,29 @@ public class DseOpscS3RestoreUtils {
             configProps.load(inputStream);
 
             String dseContactPoint = configProps.getProperty(CFG_KEY_CONTACT_POINT);
+            String dseNativePortStr = configProps.getProperty(CFG_KEY_DSE_NATIVE_PORT);
             String localDownloadHome = configProps.getProperty(CFG_KEY_LOCAL_DOWNLOAD_HOME);
             String s3BucketName = configProps.getProperty(CFG_KEY_OPSC_S3_BUCKET_NAME);
+            String backupDir = configProps.getProperty(CFG_KEY_OPSC_BACKUP_DIR);
             String ipMatchingNic = configProps.getProperty(CFG_KEY_IP_MATCHING_NIC);
             String useSslStr = configProps.getProperty(CFG_KEY_USE_SSL);
             String userAuthStr = configProps.getProperty(CFG_KEY_USER_AUTH);
             String fileSizeMonStr = configProps.getProperty(CFG_KEY_FILE_SIZE_CHK);
+            String localCacheMaxMbStr = configProps.getProperty(CFG_KEY_LOCAL_CACHE_MAX_MB);
+            String throughputMbpsStr = configProps.getProperty(CFG_KEY_RESTORE_THROUGHPUT_MBPS);
+            String requestOverheadMsStr = configProps.getProperty(CFG_KEY_RESTORE_REQUEST_OVERHEAD_MS);
+            String replicaSourcesStr = configProps.getProperty(CFG_KEY_OPSC_S3_REPLICA_SOURCES);
+            String partSizeMbStr = configProps.getProperty(CFG_KEY_DOWNLOAD_PART_SIZE_MB);
+            String partThreadsStr = configProps.getProperty(CFG_KEY_DOWNLOAD_PART_THREADS);
+            String bufferMbStr = configProps.getProperty(CFG_KEY_DOWNLOAD_BUFFER_MB);
+            String coordShardMbStr = configProps.getProperty(CFG_KEY_COORD_SHARD_MB);
+            String minFreeMbStr = configProps.getProperty(CFG_KEY_DOWNLOAD_MIN_FREE_MB);
+            String diskThreadsStr = configProps.getProperty(CFG_KEY_DOWNLOAD_DISK_THREADS);
+            String listThreadsStr = configProps.getProperty(CFG_KEY_LIST_THREADS);
+            String daemonJobsStr = configProps.getProperty(CFG_KEY_DAEMON_JOBS);
+            String mirrorRetentionDaysStr = configProps.getProperty(CFG_KEY_MIRROR_RETENTION_DAYS);
+            String mirrorPollSecondsStr = configProps.getProperty(CFG_KEY_MIRROR_POLL_SECONDS);
+            String daemonBandwidthMbpsStr = configProps.getProperty(CFG_KEY_DAEMON_BANDWIDTH_MBPS);
 
             // An active DSE contact point is not a must for all cases. Log a warning message if not specified.
             if ( (dseContactPoint == null) || dseContactPoint.isEmpty() ) {
@@ -88,8 +172,9 @@ public class DseOpscS3RestoreUtils {
                 configProps = null;
             }
 
-            // S3 bucket name is a must. If not specified, error out
-            if ( (s3BucketName == null) || s3BucketName.isEmpty() ) {
+            // S3 bucket name is a must, unless the backups are read from a file system. If not specified, error out
+            if ( ( (s3BucketName == null) || s3BucketName.isEmpty() ) &&
+                 ( (backupDir == null) || backupDir.isEmpty() ) ) {
                 System.out.println("ERROR: Empty value for configuration file parameter \"" + CFG_KEY_OPSC_S3_BUCKET_NAME + "\".");
                 configProps = null;
             }
@@ -131,10 +216,114 @@ public class DseOpscS3RestoreUtils {
                     configProps = null;
                 }
             }
+
+            // When "local_cache_max_mb" is specified, it must be a positive integer. Otherwise, error out.
+            if ( (localCacheMaxMbStr != null) && (!localCacheMaxMbStr.isEmpty()) ) {
+                try {
+                    if (Long.parseLong(localCacheMaxMbStr) <= 0) {
+                        throw new NumberFormatException();
+                    }
+                }
+                catch (NumberFormatException nfe) {
+                    System.out.println("ERROR: Incorrect value for configuration file parameter  \"" + CFG_KEY_LOCAL_CACHE_MAX_MB + "\".");
+                    configProps = null;
+                }
+            }
+
+            // When "restore_throughput_mbps" is specified, it must be a positive number. Otherwise, error out.
+            if ( (throughputMbpsStr != null) && (!throughputMbpsStr.isEmpty()) ) {
+                try {
+                    if (Double.parseDouble(throughputMbpsStr) <= 0) {
+                        throw new NumberFormatException();
+                    }
+                }
+                catch (NumberFormatException nfe) {
+                    System.out.println("ERROR: Incorrect value for configuration file parameter  \"" + CFG_KEY_RESTORE_THROUGHPUT_MBPS + "\".");
+                    configProps = null;
+                }
+            }
+
+            // When "daemon_bandwidth_mbps" is specified, it must be a positive number. Otherwise, error out.
+            if ( (daemonBandwidthMbpsStr != null) && (!daemonBandwidthMbpsStr.isEmpty()) ) {
+                try {
+                    if (Double.parseDouble(daemonBandwidthMbpsStr) <= 0) {
+                        throw new NumberFormatException();
+                    }
+                }
+                catch (NumberFormatException nfe) {
+                    System.out.println("ERROR: Incorrect value for configuration file parameter  \"" + CFG_KEY_DAEMON_BANDWIDTH_MBPS + "\".");
+                    configProps = null;
+                }
+            }
+
+            // When "restore_request_overhead_ms" is specified, it must be a non-negative integer. Otherwise, error out.
+            if ( (requestOverheadMsStr != null) && (!requestOverheadMsStr.isEmpty()) ) {
+                try {
+                    if (Long.parseLong(requestOverheadMsStr) < 0) {
+                        throw new NumberFormatException();
+                    }
+                }
+                catch (NumberFormatException nfe) {
+                    System.out.println("ERROR: Incorrect value for configuration file parameter  \"" + CFG_KEY_RESTORE_REQUEST_OVERHEAD_MS + "\".");
+                    configProps = null;
+                }
+            }
+
+            // When "download_min_free_mb" is specified, it must be a non-negative integer. Otherwise, error out.
+            if ( (minFreeMbStr != null) && (!minFreeMbStr.isEmpty()) ) {
+                try {
+                    if (Long.parseLong(minFreeMbStr) < 0) {
+                        throw new NumberFormatException();
+                    }
+                }
+                catch (NumberFormatException nfe) {
+                    System.out.println("ERROR: Incorrect value for configuration file parameter  \"" + CFG_KEY_DOWNLOAD_MIN_FREE_MB + "\".");
+                    configProps = null;
+                }
+            }
+
+            // When "opsc_s3_replica_sources" is specified, each source must be "<bucket>@<region>[@<endpoint>]"
+            if ( (replicaSourcesStr != null) && (!replicaSourcesStr.isEmpty()) ) {
+                for (String replicaSourceStr : replicaSourcesStr.split(",")) {
+                    String[] sourceFields = replicaSourceStr.trim().split("@");
+                    if ( (sourceFields.length < 2) || (sourceFields.length > 3) ||
+                         sourceFields[0].isEmpty() || sourceFields[1].isEmpty() ) {
+                        System.out.println("ERROR: Incorrect value for configuration file parameter  \"" + CFG_KEY_OPSC_S3_REPLICA_SOURCES + "\".");
+                        configProps = null;
+                        break;
+                    }
+                }
+            }
+
+            // When "download_part_size_mb", "download_part_threads", "download_buffer_mb", "coord_shard_mb",
+            // "download_disk_threads", "list_threads", "daemon_jobs", "mirror_retention_days" or
+            // "mirror_poll_seconds" is specified, it must be a positive integer.
+            for (String[] keyValue : new String[][] { {CFG_KEY_DOWNLOAD_PART_SIZE_MB, partSizeMbStr},
+                                                      {CFG_KEY_DOWNLOAD_PART_THREADS, partThreadsStr},
+                                                      {CFG_KEY_DOWNLOAD_BUFFER_MB, bufferMbStr},
+                                                      {CFG_KEY_COORD_SHARD_MB, coordShardMbStr},
+                                                      {CFG_KEY_DOWNLOAD_DISK_THREADS, diskThreadsStr},
+                                                      {CFG_KEY_DSE_NATIVE_PORT, dseNativePortStr},
+                                                      {CFG_KEY_LIST_THREADS, listThreadsStr},
+                                                      {CFG_KEY_DAEMON_JOBS, daemonJobsStr},
+                                                      {CFG_KEY_MIRROR_RETENTION_DAYS, mirrorRetentionDaysStr},
+                                                      {CFG_KEY_MIRROR_POLL_SECONDS, mirrorPollSecondsStr} }) {
+                if ( (keyValue[1] != null) && (!keyValue[1].isEmpty()) ) {
+                    try {
+                        if (Integer.parseInt(keyValue[1]) <= 0) {
+                            throw new NumberFormatException();
+                        }
+                    }
+                    catch (NumberFormatException nfe) {
+                        System.out.println("ERROR: Incorrect value for configuration file parameter  \"" + keyValue[0] + "\".");
+                        configProps = null;
+                    }
+                }
+            }
         }
         catch (IOException ioe) {
-            System.out.format("ERROR: failed to read/process configuration file (%s)\n.", configFilePath);
-            ioe.printStackTrace();
+            // Before the event log location is known (it comes from this file)
+            System.out.format("ERROR: failed to read/process configuration file (%s): %s\n", configFilePath, ioe.getMessage());
         }
 
         return configProps;
@@ -0,0 +1,413 @@
+package com.dsetools;
+
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+
+/**
+ * Compact, read-only SSTable list of one OpsCenter backup ("backup.json") of a host.
+ *
+ * Entries are kept in columns, sorted by SSTable object name:
+ * - object name = "<base>-<component>" (e.g. "<uniquifier>-mc-1-big" + "Data.db"); base names
+ *   are shared by all components of an SSTable and components come from a small dictionary
+ * - keyspace/table and SSTable version are dictionary IDs
+ * - the "snapshots/<host_id>/sstables/" object key prefix is stored once
+ *
+ * "backup.json" is parsed in a streaming fashion without building the JSON tree. Filtering by
+ * keyspace/table is done per dictionary entry and returns a BitSet of entry indexes.
+ */
+class OpscBackupManifest {
+
+    private final String hostId;
+    private final String sstablePrefix;
+
+    // Dictionaries
+    private final String[] keyspaceNames;   // by table ID
+    private final String[] tableNames;      // by table ID
+    private final String[] versions;
+    private final String[] components;
+
+    // Columns, by entry index
+    private final String[] baseNames;
+    private final int[] componentIds;
+    private final int[] tableIds;
+    private final int[] versionIds;
+
+    private OpscBackupManifest(String hostId,
+                               String[] keyspaceNames,
+                               String[] tableNames,
+                               String[] versions,
+                               String[] components,
+                               String[] baseNames,
+                               int[] componentIds,
+                               int[] tableIds,
+                               int[] versionIds) {
+        this.hostId = hostId;
+        this.sstablePrefix = DseOpscS3RestoreUtils.OPSC_OBJKEY_BASESTR + "/" + hostId + "/" +
+            DseOpscS3RestoreUtils.OPSC_OBJKEY_SSTABLES_MARKER_STR;
+        this.keyspaceNames = keyspaceNames;
+        this.tableNames = tableNames;
+        this.versions = versions;
+        this.components = components;
+        this.baseNames = baseNames;
+        this.componentIds = componentIds;
+        this.tableIds = tableIds;
+        this.versionIds = versionIds;
+    }
+
+    static OpscBackupManifest empty(String hostId) {
+        return new Builder(hostId).build();
+    }
+
+    /**
+     * Load the SSTable list from a local "backup.json" file
+     *
+     * @param hostId
+     * @param backupJsonFileName
+     * @return empty manifest if the file can't be read or parsed
+     */
+    static OpscBackupManifest load(String hostId, String backupJsonFileName) {
+        Builder builder = new Builder(hostId);
+
+        try (Reader reader = new BufferedReader(new FileReader(backupJsonFileName))) {
+            new JSONParser().parse(reader, new BackupJsonHandler(builder));
+        }
+        catch (IOException | ParseException e) {
+            System.out.println("ERROR: Failed to read " + backupJsonFileName + ": " + e.getMessage());
+            OpscEventLog.error("read of " + backupJsonFileName, e);
+            return empty(hostId);
+        }
+
+        return builder.build();
+    }
+
+    String getHostId() {
+        return hostId;
+    }
+
+    /**
+     * "snapshots/<host_id>/sstables"
+     */
+    String getSstablePrefix() {
+        return sstablePrefix;
+    }
+
+    int size() {
+        return baseNames.length;
+    }
+
+    boolean isEmpty() {
+        return baseNames.length == 0;
+    }
+
+    String getSstableObjName(int i) {
+        return baseNames[i] + "-" + components[componentIds[i]];
+    }
+
+    String getS3ObjKey(int i) {
+        return sstablePrefix + "/" + getSstableObjName(i);
+    }
+
+    /**
+     * SSTable component, e.g. "Data.db"
+     */
+    String getComponent(int i) {
+        return components[componentIds[i]];
+    }
+
+    String getKeyspace(int i) {
+        return keyspaceNames[tableIds[i]];
+    }
+
+    String getTable(int i) {
+        return tableNames[tableIds[i]];
+    }
+
+    String getVersion(int i) {
+        return versions[versionIds[i]];
+    }
+
+    /**
+     * Entries of the specified keyspaces (and tables, if specified); names or patterns, see
+     * OpscKsTblMatcher
+     *
+     * @param keyspaceName
+     * @param tableName
+     * @return
+     */
+    BitSet select(String keyspaceName, String tableName) {
+        OpscKsTblMatcher ksTblMatcher = OpscKsTblMatcher.compile(keyspaceName, tableName);
+
+        boolean[] tableMatches = new boolean[keyspaceNames.length];
+        for (int tableId = 0; tableId < keyspaceNames.length; tableId++) {
+            tableMatches[tableId] = ksTblMatcher.matches(keyspaceNames[tableId], tableNames[tableId]);
+        }
+
+        BitSet selected = new BitSet(size());
+        for (int i = 0; i < size(); i++) {
+            if (tableMatches[tableIds[i]]) {
+                selected.set(i);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Index of an SSTable object name; -1 if it's not in the backup
+     *
+     * @param sstableObjName
+     * @return
+     */
+    int indexOf(String sstableObjName) {
+        int componentPos = sstableObjName.lastIndexOf('-');
+        if (componentPos < 0) {
+            return -1;
+        }
+
+        String baseName = sstableObjName.substring(0, componentPos);
+        String component = sstableObjName.substring(componentPos + 1);
+
+        int low = 0;
+        int high = size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+
+            int cmp = baseNames[mid].compareTo(baseName);
+            if (cmp == 0) {
+                cmp = components[componentIds[mid]].compareTo(component);
+            }
+
+            if (cmp < 0) {
+                low = mid + 1;
+            }
+            else if (cmp > 0) {
+                high = mid - 1;
+            }
+            else {
+                return mid;
+            }
+        }
+
+        return -1;
+    }
+
+    boolean contains(String sstableObjName) {
+        return indexOf(sstableObjName) >= 0;
+    }
+
+
+    /**
+     * Collects entries with interned dictionary values, then sorts them into columns
+     */
+    private static class Builder {
+        private final String hostId;
+
+        private final Map<String, Integer> tableIdMap = new HashMap<>();
+        private final List<String> keyspaceNames = new ArrayList<>();
+        private final List<String> tableNames = new ArrayList<>();
+        private final Map<String, Integer> versionIdMap = new LinkedHashMap<>();
+        private final Map<String, Integer> componentIdMap = new LinkedHashMap<>();
+        private final Map<String, String> baseNamePool = new HashMap<>();
+
+        private String[] baseNames = new String[1024];
+        private int[] componentIds = new int[1024];
+        private int[] tableIds = new int[1024];
+        private int[] versionIds = new int[1024];
+        private int entryNum = 0;
+
+        Builder(String hostId) {
+            this.hostId = hostId;
+        }
+
+        private static int intern(Map<String, Integer> idMap, String value) {
+            Integer id = idMap.get(value);
+            if (id == null) {
+                id = idMap.size();
+                idMap.put(value, id);
+            }
+            return id;
+        }
+
+        void add(String sstableObjName, String keyspaceName, String tableName, String version) {
+            if (entryNum == baseNames.length) {
+                int capacity = entryNum * 2;
+                baseNames = Arrays.copyOf(baseNames, capacity);
+                componentIds = Arrays.copyOf(componentIds, capacity);
+                tableIds = Arrays.copyOf(tableIds, capacity);
+                versionIds = Arrays.copyOf(versionIds, capacity);
+            }
+
+            int componentPos = sstableObjName.lastIndexOf('-');
+            String baseName = (componentPos > 0) ? sstableObjName.substring(0, componentPos) : sstableObjName;
+            String component = (componentPos > 0) ? sstableObjName.substring(componentPos + 1) : "";
+
+            String pooledBaseName = baseNamePool.get(baseName);
+            if (pooledBaseName == null) {
+                pooledBaseName = baseName;
+                baseNamePool.put(baseName, baseName);
+            }
+
+            // keyspace and table names can't contain ':'
+            String ksTbl = keyspaceName + ":" + tableName;
+            Integer tableId = tableIdMap.get(ksTbl);
+            if (tableId == null) {
+                tableId = keyspaceNames.size();
+                tableIdMap.put(ksTbl, tableId);
+                keyspaceNames.add(keyspaceName);
+                tableNames.add(tableName);
+            }
+
+            baseNames[entryNum] = pooledBaseName;
+            componentIds[entryNum] = intern(componentIdMap, component);
+            tableIds[entryNum] = tableId;
+            versionIds[entryNum] = intern(versionIdMap, version);
+            entryNum++;
+        }
+
+        OpscBackupManifest build() {
+            String[] componentDict = componentIdMap.keySet().toArray(new String[0]);
+
+            // Sort by object name: base name, then component
+            Integer[] order = new Integer[entryNum];
+            for (int i = 0; i < entryNum; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (i1, i2) -> {
+                int cmp = baseNames[i1].compareTo(baseNames[i2]);
+                return (cmp != 0) ? cmp : componentDict[componentIds[i1]].compareTo(componentDict[componentIds[i2]]);
+            });
+
+            String[] sortedBaseNames = new String[entryNum];
+            int[] sortedComponentIds = new int[entryNum];
+            int[] sortedTableIds = new int[entryNum];
+            int[] sortedVersionIds = new int[entryNum];
+
+            for (int i = 0; i < entryNum; i++) {
+                sortedBaseNames[i] = baseNames[order[i]];
+                sortedComponentIds[i] = componentIds[order[i]];
+                sortedTableIds[i] = tableIds[order[i]];
+                sortedVersionIds[i] = versionIds[order[i]];
+            }
+
+            return new OpscBackupManifest(
+                hostId,
+                keyspaceNames.toArray(new String[0]),
+                tableNames.toArray(new String[0]),
+                versionIdMap.keySet().toArray(new String[0]),
+                componentDict,
+                sortedBaseNames,
+                sortedComponentIds,
+                sortedTableIds,
+                sortedVersionIds);
+        }
+    }
+
+    /**
+     * Streaming handler for "backup.json": only the items of the top level "sstables" array
+     * ("name", "keyspace", "cf", "version") are kept
+     */
+    private static class BackupJsonHandler implements ContentHandler {
+        private final Builder builder;
+
+        private int objectDepth = 0;
+        private int arrayDepth = 0;
+        private boolean inSstables = false;
+        private String currentKey = null;
+
+        private String name;
+        private String keyspace;
+        private String table;
+        private String version;
+
+        BackupJsonHandler(Builder builder) {
+            this.builder = builder;
+        }
+
+        @Override
+        public void startJSON() {
+        }
+
+        @Override
+        public void endJSON() {
+        }
+
+        @Override
+        public boolean startObject() {
+            objectDepth++;
+            if ( inSstables && (objectDepth == 2) ) {
+                name = "";
+                keyspace = "";
+                table = "";
+                version = "";
+            }
+            return true;
+        }
+
+        @Override
+        public boolean endObject() {
+            if ( inSstables && (objectDepth == 2) ) {
+                builder.add(name, keyspace, table, version);
+            }
+            objectDepth--;
+            return true;
+        }
+
+        @Override
+        public boolean startObjectEntry(String key) {
+            currentKey = key;
+            if ( (objectDepth == 1) && (arrayDepth == 0) ) {
+                inSstables = key.equals(DseOpscS3RestoreUtils.OPSC_OBJKEY_SSTABLES_MARKER_STR);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean endObjectEntry() {
+            if ( (objectDepth == 1) && (arrayDepth == 0) ) {
+                inSstables = false;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean startArray() {
+            arrayDepth++;
+            return true;
+        }
+
+        @Override
+        public boolean endArray() {
+            arrayDepth--;
+            return true;
+        }
+
+        @Override
+        public boolean primitive(Object value) {
+            if ( !inSstables || (objectDepth != 2) || (arrayDepth != 1) || (value == null) ) {
+                return true;
+            }
+
+            String valueStr = value.toString();
+
+            if (currentKey.equalsIgnoreCase("name")) {
+                name = valueStr;
+            }
+            else if (currentKey.equalsIgnoreCase("keyspace")) {
+                keyspace = valueStr;
+            }
+            else if (currentKey.equalsIgnoreCase("cf")) {
+                table = valueStr;
+            }
+            else if (currentKey.equalsIgnoreCase("version")) {
+                version = valueStr;
+            }
+            return true;
+        }
+    }
+}
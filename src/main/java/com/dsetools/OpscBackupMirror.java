@@ -0,0 +1,360 @@
+package com.dsetools;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Local mirror ("local_mirror_dir") of OpsCenter backups: a warm standby of the "backup.json"
+ * files of recent backups and the SSTable objects they reference, for the selected keyspaces.
+ *
+ * The mirror has the layout of the backup bucket ("<mirror_dir>/<object_key>"). Objects are
+ * written to a temporary file first and renamed when complete, so a mirrored file is always
+ * whole. Restores take SSTable objects and "backup.json" files from the mirror when it has them,
+ * as hard links (or copies, across file systems), instead of downloading them.
+ *
+ * Optionally, new backups are picked up from a local event feed ("mirror_event_feed"), e.g. S3
+ * event notifications appended to a file: one object key, or one S3 event notification JSON
+ * document ("Records[].s3.object.key"), per line.
+ */
+class OpscBackupMirror {
+
+    private static final String MIRROR_TMP_FILE_SUFFIX = ".tmp";
+
+    // Temporary files not written to for this long are left over from interrupted downloads
+    static long MIRROR_TMP_MAX_AGE_MILLIS = 60 * 60 * 1000;
+
+    private final Path mirrorDir;
+
+    // Event feed file and the read position
+    private final File eventFeedFile;
+    private long eventFeedOffset = 0;
+
+    private final AtomicLong hitNum = new AtomicLong();
+    private final AtomicLong hitBytes = new AtomicLong();
+
+    /**
+     * @param mirrorDirStr
+     * @param eventFeedFileStr null if there's no event feed
+     * @throws IOException
+     */
+    OpscBackupMirror(String mirrorDirStr, String eventFeedFileStr) throws IOException {
+        this.mirrorDir = Paths.get(mirrorDirStr);
+        this.eventFeedFile = ( (eventFeedFileStr != null) && !eventFeedFileStr.isEmpty() ) ? new File(eventFeedFileStr) : null;
+
+        Files.createDirectories(mirrorDir);
+
+        // Events from before this run are covered by the first full sync
+        if (eventFeedFile != null) {
+            eventFeedOffset = eventFeedFile.length();
+        }
+    }
+
+    File getMirrorFile(String s3ObjKey) {
+        return mirrorDir.resolve(s3ObjKey).toFile();
+    }
+
+    boolean hasEventFeed() {
+        return (eventFeedFile != null);
+    }
+
+    /**
+     * Mirrored file that linkTo() would use for an object
+     *
+     * @param s3ObjKey
+     * @param objSize expected size; negative if unknown
+     * @return null if the mirror doesn't have the object (or has a different size)
+     */
+    Path getLinkSource(String s3ObjKey, long objSize) {
+        Path mirrorFile = getMirrorFile(s3ObjKey).toPath();
+
+        try {
+            return ( (objSize < 0) || (Files.size(mirrorFile) == objSize) ) ? mirrorFile : null;
+        }
+        catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    /**
+     * Hard link (or copy) a mirrored object to the target file
+     *
+     * @param s3ObjKey
+     * @param objSize expected size; negative if unknown
+     * @param localFile
+     * @return false if the mirror doesn't have the object (or has a different size)
+     * @throws IOException
+     */
+    boolean linkTo(String s3ObjKey, long objSize, File localFile) throws IOException {
+        Path mirrorFile = getMirrorFile(s3ObjKey).toPath();
+
+        long mirrorFileSize;
+        try {
+            mirrorFileSize = Files.size(mirrorFile);
+        }
+        catch (NoSuchFileException nsfe) {
+            return false;
+        }
+
+        if ( (objSize >= 0) && (mirrorFileSize != objSize) ) {
+            return false;
+        }
+
+        Path targetFile = localFile.toPath();
+
+        Files.createDirectories(targetFile.toAbsolutePath().getParent());
+        Files.deleteIfExists(targetFile);
+
+        try {
+            Files.createLink(targetFile, mirrorFile);
+        }
+        catch (IOException | UnsupportedOperationException e) {
+            try {
+                Files.copy(mirrorFile, targetFile);
+            }
+            catch (NoSuchFileException nsfe) {
+                // Pruned in the meantime
+                return false;
+            }
+        }
+
+        hitNum.incrementAndGet();
+        hitBytes.addAndGet(mirrorFileSize);
+
+        return true;
+    }
+
+    /**
+     * Download an object into the mirror unless it is already there
+     *
+     * @param backupStore
+     * @param s3ObjKey
+     * @return bytes downloaded; 0 if already mirrored
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    long mirror(OpscBackupStore backupStore, String s3ObjKey) throws IOException, InterruptedException {
+        File mirrorFile = getMirrorFile(s3ObjKey);
+        if (mirrorFile.isFile()) {
+            return 0;
+        }
+
+        Files.createDirectories(mirrorFile.toPath().getParent());
+
+        Path tmpFile = mirrorFile.toPath().resolveSibling(
+            mirrorFile.getName() + "." + Thread.currentThread().getId() + MIRROR_TMP_FILE_SUFFIX);
+        try {
+            long byteNum = backupStore.download(s3ObjKey, tmpFile.toFile());
+            Files.move(tmpFile, mirrorFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return byteNum;
+        }
+        finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    /**
+     * Copy a local file (e.g. a downloaded "backup.json") into the mirror
+     *
+     * @param s3ObjKey
+     * @param localFile
+     * @throws IOException
+     */
+    void add(String s3ObjKey, File localFile) throws IOException {
+        Path mirrorFile = getMirrorFile(s3ObjKey).toPath();
+        if (Files.isRegularFile(mirrorFile)) {
+            return;
+        }
+
+        Files.createDirectories(mirrorFile.getParent());
+
+        Path tmpFile = mirrorFile.resolveSibling(mirrorFile.getFileName() + MIRROR_TMP_FILE_SUFFIX);
+        Files.copy(localFile.toPath(), tmpFile, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tmpFile, mirrorFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Remove the mirrored objects of a host that are not in the given set: SSTable objects no
+     * retained backup references, the backup directories of backups out of retention, and
+     * stale temporary files of interrupted downloads
+     *
+     * @param hostId
+     * @param keptObjKeys object keys ("backup.json" and SSTable objects) to keep
+     * @return number of files removed
+     * @throws IOException
+     */
+    long prune(String hostId, Set<String> keptObjKeys) throws IOException {
+        Path hostDir = mirrorDir.resolve(DseOpscS3RestoreUtils.OPSC_OBJKEY_BASESTR).resolve(hostId);
+        if (!Files.isDirectory(hostDir)) {
+            return 0;
+        }
+
+        List<Path> files;
+        try (Stream<Path> fileStream = Files.walk(hostDir)) {
+            files = new ArrayList<>();
+            fileStream.filter(Files::isRegularFile).forEach(files::add);
+        }
+
+        long prunedNum = 0;
+        for (Path file : files) {
+            String objKey = mirrorDir.relativize(file).toString().replace(File.separatorChar, '/');
+
+            // Temporary files of downloads in progress are left alone; stale ones are removed
+            boolean prunable = objKey.endsWith(MIRROR_TMP_FILE_SUFFIX) ?
+                isStaleTmpFile(file) :
+                !keptObjKeys.contains(objKey);
+
+            if (prunable && Files.deleteIfExists(file)) {
+                prunedNum++;
+            }
+        }
+
+        // Empty backup directories ("opscenter_<id>_<time>/")
+        try (DirectoryStream<Path> dirStream = Files.newDirectoryStream(hostDir)) {
+            for (Path dir : dirStream) {
+                if (Files.isDirectory(dir)) {
+                    try (Stream<Path> entries = Files.list(dir)) {
+                        if (!entries.findAny().isPresent()) {
+                            Files.deleteIfExists(dir);
+                        }
+                    }
+                }
+            }
+        }
+
+        return prunedNum;
+    }
+
+    private static boolean isStaleTmpFile(Path file) {
+        try {
+            return System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis() > MIRROR_TMP_MAX_AGE_MILLIS;
+        }
+        catch (IOException ioe) {
+            // e.g. the download completed (renamed) in the meantime
+            return false;
+        }
+    }
+
+    /**
+     * Host IDs with new "backup.json" objects in the event feed since the last call
+     *
+     * @return empty if there's no event feed or nothing new
+     */
+    Set<String> readEventFeed() {
+        Set<String> hostIds = new LinkedHashSet<>();
+
+        if ( (eventFeedFile == null) || !eventFeedFile.isFile() ) {
+            return hostIds;
+        }
+
+        // Truncated or rotated
+        if (eventFeedFile.length() < eventFeedOffset) {
+            eventFeedOffset = 0;
+        }
+
+        try (RandomAccessFile feedReader = new RandomAccessFile(eventFeedFile, "r")) {
+            feedReader.seek(eventFeedOffset);
+
+            byte[] newBytes = new byte[(int) Math.min(Integer.MAX_VALUE, feedReader.length() - eventFeedOffset)];
+            feedReader.readFully(newBytes);
+
+            // Only complete lines; a partly written line is read next time
+            String newStr = new String(newBytes, StandardCharsets.UTF_8);
+            int lastNewLine = newStr.lastIndexOf('\n');
+            if (lastNewLine < 0) {
+                return hostIds;
+            }
+
+            eventFeedOffset += newStr.substring(0, lastNewLine + 1).getBytes(StandardCharsets.UTF_8).length;
+
+            for (String line : newStr.substring(0, lastNewLine).split("\n")) {
+                for (String objKey : parseEventFeedLine(line.trim())) {
+                    String hostId = getBackupJsonHostId(objKey);
+                    if (hostId != null) {
+                        hostIds.add(hostId);
+                    }
+                }
+            }
+        }
+        catch (IOException ioe) {
+            System.out.println("WARN: Failed to read mirror event feed " + eventFeedFile + ": " + ioe.getMessage());
+        }
+
+        return hostIds;
+    }
+
+    /**
+     * Object keys of an event feed line: a plain object key, or an S3 event notification
+     *
+     * @param line
+     * @return
+     */
+    static List<String> parseEventFeedLine(String line) {
+        List<String> objKeys = new ArrayList<>();
+
+        if (line.isEmpty()) {
+            return objKeys;
+        }
+
+        if (!line.startsWith("{")) {
+            objKeys.add(line);
+            return objKeys;
+        }
+
+        try {
+            Object records = ((JSONObject) new JSONParser().parse(line)).get("Records");
+            if (records instanceof JSONArray) {
+                for (Object record : (JSONArray) records) {
+                    JSONObject s3Json = (JSONObject) ((JSONObject) record).get("s3");
+                    JSONObject objectJson = (s3Json != null) ? (JSONObject) s3Json.get("object") : null;
+                    Object key = (objectJson != null) ? objectJson.get("key") : null;
+
+                    if (key instanceof String) {
+                        // Event notification keys are URL encoded
+                        objKeys.add(URLDecoder.decode((String) key, "UTF-8"));
+                    }
+                }
+            }
+        }
+        catch (ParseException | ClassCastException | UnsupportedEncodingException e) {
+            System.out.println("WARN: Skipping unrecognized mirror event feed line: " + line);
+        }
+
+        return objKeys;
+    }
+
+    /**
+     * Host ID of a "snapshots/<host_id>/opscenter_.../backup.json" key
+     *
+     * @param objKey
+     * @return null for other keys
+     */
+    static String getBackupJsonHostId(String objKey) {
+        String[] keyParts = objKey.split("/");
+
+        if ( (keyParts.length == 4) &&
+             keyParts[0].equals(DseOpscS3RestoreUtils.OPSC_OBJKEY_BASESTR) &&
+             keyParts[2].startsWith(DseOpscS3RestoreUtils.OPSC_OBJKEY_OPSC_MARKER_STR) &&
+             keyParts[3].equals(DseOpscS3RestoreUtils.OPSC_BKUP_METADATA_FILE) ) {
+            return keyParts[1];
+        }
+
+        return null;
+    }
+
+    String getStats() {
+        return String.format("%d objects (%d bytes) taken from the mirror", hitNum.get(), hitBytes.get());
+    }
+}
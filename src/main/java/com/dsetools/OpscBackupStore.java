@@ -0,0 +1,91 @@
+package com.dsetools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Where the OpsCenter backup objects are downloaded from: the S3 backup bucket (and its
+ * replicas, see OpscS3SourcePool), or a backup directory on a local or network file system
+ * (see OpscFsBackupStore).
+ *
+ * The store is the storage backend of the restore: listing, metadata (HEAD), whole and ranged
+ * reads, and whole-object transfers to local files, which each backend does its own way. Code
+ * that reads backup objects goes through this interface rather than AmazonS3 calls, which a
+ * backup directory only partly supports.
+ */
+interface OpscBackupStore {
+
+    /**
+     * List the objects under a key prefix
+     *
+     * @param prefix
+     * @return object key -> size, in key order
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    Map<String, Long> listSizes(String prefix) throws IOException, InterruptedException;
+
+    /**
+     * @param objKey
+     * @return object size; -1 if there's no such object
+     * @throws IOException
+     */
+    long getSize(String objKey) throws IOException;
+
+    /**
+     * Read a whole (small) object
+     *
+     * @param objKey
+     * @return
+     * @throws java.io.FileNotFoundException if there's no such object
+     * @throws IOException
+     */
+    byte[] read(String objKey) throws IOException;
+
+    /**
+     * Read a byte range of an object
+     *
+     * @param objKey
+     * @param start
+     * @param end inclusive; cut at the end of the object
+     * @return
+     * @throws java.io.FileNotFoundException if there's no such object
+     * @throws IOException
+     */
+    byte[] read(String objKey, long start, long end) throws IOException;
+
+    /**
+     * Download an object to a local file
+     *
+     * @param objKey
+     * @param localFile
+     * @return number of bytes transferred
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    long download(String objKey, File localFile) throws IOException, InterruptedException;
+
+    /**
+     * @param objKey
+     * @return ETag, or another value that changes when the object changes
+     * @throws IOException
+     */
+    String getETag(String objKey) throws IOException;
+
+    /**
+     * Limit the download bandwidth (daemon mode)
+     *
+     * @param bandwidthBudget
+     */
+    void setBandwidthBudget(OpscBandwidthBudget bandwidthBudget);
+
+    /**
+     * Per-source transfer statistics, one indented line per source
+     *
+     * @return empty when there's nothing to add to the download totals
+     */
+    String getStats();
+
+    void shutdown();
+}
@@ -0,0 +1,263 @@
+package com.dsetools;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Sorted index of all OpsCenter backups ("opscenter_*" and "opscenter_adhoc_*")
+ * of a single DSE host, keyed by backup time (epoch seconds, UTC).
+ */
+class OpscBackupTimeline {
+
+    /**
+     * How a requested backup time is matched against the backup times of a host:
+     * - EXACT:  the backup time truncated to the minute must equal the requested time
+     * - BEFORE: the latest backup taken at or before the requested time (minute)
+     * - AFTER:  the earliest backup taken at or after the requested time
+     */
+    enum MatchMode { EXACT, BEFORE, AFTER }
+
+    // "yyyy-MM-dd-HH-mm-ss-UTC"
+    static final int OPSC_BKUP_TIME_STR_LEN = 23;
+
+    private static final DateTimeFormatter OPSC_BKUP_TIME_FORMATTER =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm-ss");
+
+    // Backups this much older than an inventory snapshot may still be missing from it
+    static long INVENTORY_LAG_SECONDS = 48 * 3600;
+
+    private final String hostId;
+    private final TreeMap<Long, S3ObjectSummary> backupJsonByTime = new TreeMap<>();
+
+    // When the timeline was built (cache expiry in daemon mode)
+    private final long buildMillis = System.currentTimeMillis();
+
+    OpscBackupTimeline(String hostId) {
+        this.hostId = hostId;
+    }
+
+    String getHostId() {
+        return hostId;
+    }
+
+    long getBuildMillis() {
+        return buildMillis;
+    }
+
+    /**
+     * Build the backup timeline of a host by (paginated) listing all "backup.json" files
+     * under "snapshots/<host_id>/opscenter_"
+     *
+     * @param s3Client
+     * @param bktName
+     * @param hostId
+     * @return
+     */
+    static OpscBackupTimeline build(AmazonS3 s3Client, String bktName, String hostId) {
+        OpscBackupTimeline timeline = new OpscBackupTimeline(hostId);
+
+        String opscPrefixString = DseOpscS3RestoreUtils.OPSC_OBJKEY_BASESTR + "/" + hostId + "/" +
+            DseOpscS3RestoreUtils.OPSC_OBJKEY_OPSC_MARKER_STR + "_";
+
+        ObjectListing objectListing = s3Client.listObjects(
+            new ListObjectsRequest()
+                .withBucketName(bktName)
+                .withPrefix(opscPrefixString));
+
+        while (true) {
+            for (S3ObjectSummary objectSummary : objectListing.getObjectSummaries()) {
+                timeline.add(objectSummary);
+            }
+
+            if (!objectListing.isTruncated()) {
+                break;
+            }
+
+            objectListing = s3Client.listNextBatchOfObjects(objectListing);
+        }
+
+        return timeline;
+    }
+
+    /**
+     * Build the backup timeline of a host from an S3 Inventory index. Backups taken after the
+     * inventory snapshot are found with LIST requests that start after the inventory time, one
+     * per backup schedule (and one for ad-hoc backups) known from the inventory.
+     *
+     * @param inventory
+     * @param s3Client
+     * @param bktName
+     * @param hostId
+     * @return
+     */
+    static OpscBackupTimeline build(OpscS3Inventory inventory, AmazonS3 s3Client, String bktName, String hostId) {
+        OpscBackupTimeline timeline = new OpscBackupTimeline(hostId);
+
+        String opscPrefixString = DseOpscS3RestoreUtils.OPSC_OBJKEY_BASESTR + "/" + hostId + "/" +
+            DseOpscS3RestoreUtils.OPSC_OBJKEY_OPSC_MARKER_STR + "_";
+
+        // "snapshots/<host_id>/opscenter_<schedule_time_uuid_string>_" and "snapshots/<host_id>/opscenter_adhoc_"
+        TreeSet<String> schedulePrefixes = new TreeSet<>();
+        schedulePrefixes.add(DseOpscS3RestoreUtils.OPSC_OBJKEY_BASESTR + "/" + hostId + "/" +
+            DseOpscS3RestoreUtils.OPSC_OBJKEY_OPSC_MARKER_STR_ADHOC + "_");
+
+        for (S3ObjectSummary objectSummary : inventory.list(opscPrefixString)) {
+            if (timeline.add(objectSummary)) {
+                String key = objectSummary.getKey();
+                schedulePrefixes.add(key.substring(0,
+                    key.length() - DseOpscS3RestoreUtils.OPSC_BKUP_METADATA_FILE.length() - 1 - OPSC_BKUP_TIME_STR_LEN));
+            }
+        }
+
+        String startAfterTimeStr = toUtcTime(inventory.getCreationMillis() / 1000 - INVENTORY_LAG_SECONDS)
+            .format(OPSC_BKUP_TIME_FORMATTER);
+
+        try {
+            for (String schedulePrefix : schedulePrefixes) {
+                ListObjectsV2Request listRequest = new ListObjectsV2Request()
+                    .withBucketName(bktName)
+                    .withPrefix(schedulePrefix)
+                    .withStartAfter(schedulePrefix + startAfterTimeStr);
+
+                while (true) {
+                    ListObjectsV2Result listResult = s3Client.listObjectsV2(listRequest);
+
+                    for (S3ObjectSummary objectSummary : listResult.getObjectSummaries()) {
+                        timeline.add(objectSummary);
+                    }
+
+                    if (!listResult.isTruncated()) {
+                        break;
+                    }
+
+                    listRequest.setContinuationToken(listResult.getNextContinuationToken());
+                }
+            }
+        }
+        catch (SdkClientException sce) {
+            System.out.println("WARN: Failed to list backups of host " + hostId +
+                " taken after the S3 inventory snapshot (" + sce.getMessage() + ").");
+        }
+
+        return timeline;
+    }
+
+    /**
+     * Add a "backup.json" object into the timeline. Other objects are ignored.
+     *
+     * @param objectSummary
+     * @return whether the object is a recognized "backup.json" file
+     */
+    boolean add(S3ObjectSummary objectSummary) {
+        long bkupTime = parseBackupTime(objectSummary.getKey());
+
+        if (bkupTime < 0) {
+            return false;
+        }
+
+        // Keep the first one in listing order when two backups share the same second
+        if (!backupJsonByTime.containsKey(bkupTime)) {
+            backupJsonByTime.put(bkupTime, objectSummary);
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the backup time (epoch seconds) from a "backup.json" object key:
+     *   snapshots/<host_id>/opscenter_<schedule_time_uuid_string>_yyyy-MM-dd-HH-mm-ss-UTC/backup.json
+     *   snapshots/<host_id>/opscenter_adhoc_yyyy-MM-dd-HH-mm-ss-UTC/backup.json
+     *
+     * @param opscObjName
+     * @return backup time in epoch seconds; -1 if the key is not a "backup.json" file
+     */
+    static long parseBackupTime(String opscObjName) {
+        String suffix = "/" + DseOpscS3RestoreUtils.OPSC_BKUP_METADATA_FILE;
+
+        if (!opscObjName.endsWith(suffix)) {
+            return -1;
+        }
+
+        int startOfTimeStampPos = opscObjName.length() - suffix.length() - OPSC_BKUP_TIME_STR_LEN;
+        if (startOfTimeStampPos < 0) {
+            return -1;
+        }
+
+        try {
+            // Drop the trailing "-UTC"
+            LocalDateTime ldt = LocalDateTime.parse(
+                opscObjName.substring(startOfTimeStampPos, startOfTimeStampPos + 19),
+                OPSC_BKUP_TIME_FORMATTER);
+
+            return ldt.atZone(ZoneId.of("UTC")).toEpochSecond();
+        }
+        catch (DateTimeParseException dte) {
+            return -1;
+        }
+    }
+
+    /**
+     * Find the "backup.json" file that matches the requested backup time (minute precision)
+     *
+     * @param opscBckupTimeGmt
+     * @param matchMode
+     * @return null if no backup matches
+     */
+    S3ObjectSummary lookup(ZonedDateTime opscBckupTimeGmt, MatchMode matchMode) {
+        long minuteStart = opscBckupTimeGmt.withSecond(0).withNano(0).toEpochSecond();
+        long minuteEnd = minuteStart + 59;
+
+        Map.Entry<Long, S3ObjectSummary> entry;
+
+        switch (matchMode) {
+            case BEFORE:
+                entry = backupJsonByTime.floorEntry(minuteEnd);
+                break;
+            case AFTER:
+                entry = backupJsonByTime.ceilingEntry(minuteStart);
+                break;
+            default:
+                entry = backupJsonByTime.ceilingEntry(minuteStart);
+                if ( (entry != null) && (entry.getKey() > minuteEnd) ) {
+                    entry = null;
+                }
+        }
+
+        return (entry != null) ? entry.getValue() : null;
+    }
+
+    /**
+     * All backup times (epoch seconds) of this host, in ascending order
+     */
+    NavigableSet<Long> backupTimes() {
+        return backupJsonByTime.navigableKeySet();
+    }
+
+    S3ObjectSummary getBackupJson(long bkupTime) {
+        return backupJsonByTime.get(bkupTime);
+    }
+
+    boolean isEmpty() {
+        return backupJsonByTime.isEmpty();
+    }
+
+    static ZonedDateTime toUtcTime(long bkupTime) {
+        return Instant.ofEpochSecond(bkupTime).atZone(ZoneId.of("UTC"));
+    }
+}
@@ -0,0 +1,149 @@
+package com.dsetools;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Download bandwidth budget shared by concurrent restore jobs (daemon mode), or of a restore run
+ * capped at runtime (see OpscRestoreControl).
+ *
+ * A token bucket refilled at the budget rate limits the total; the bucket may go into debt by
+ * one chunk, so chunk sizes don't need to match the bucket size. Among the active jobs (waiting,
+ * or took bytes within ACTIVE_MILLIS), the one that has consumed the fewest bytes goes first
+ * (fair queueing), no matter how many download threads each job has. A job that joins late or
+ * comes back from being idle (e.g. listing) starts at the lowest consumption of the active jobs,
+ * so it gets its fair share from then on instead of catching up for the time it wasn't there.
+ */
+class OpscBandwidthBudget {
+
+    // Bucket size: this much of the budget can be used in one burst
+    static long BURST_MILLIS = 1000;
+
+    // A job that took bytes this recently is still downloading (between two reads)
+    static long ACTIVE_MILLIS = 50;
+
+    // Owner of downloads outside daemon jobs (a restore run, the mirror)
+    static String DEFAULT_OWNER = "restore";
+
+    private double bytesPerMilli;
+
+    private double availableBytes;
+    private long lastRefillMillis;
+
+    // Owners (jobs) -> bytes consumed, last time bytes were taken, waiting threads
+    private final Map<String, Long> consumedBytes = new HashMap<>();
+    private final Map<String, Long> lastAcquireMillis = new HashMap<>();
+    private final Map<String, Integer> waiterNums = new HashMap<>();
+
+    /**
+     * @param bytesPerSec total budget
+     */
+    OpscBandwidthBudget(long bytesPerSec) {
+        assert (bytesPerSec > 0);
+
+        this.bytesPerMilli = bytesPerSec / 1000.0;
+        this.availableBytes = bytesPerMilli * BURST_MILLIS;
+        this.lastRefillMillis = System.currentTimeMillis();
+    }
+
+    synchronized long getBytesPerSec() {
+        return (long) (bytesPerMilli * 1000);
+    }
+
+    /**
+     * Change the budget (see OpscRestoreControl); waiting threads go on at the new rate
+     *
+     * @param bytesPerSec
+     */
+    synchronized void setBytesPerSec(long bytesPerSec) {
+        assert (bytesPerSec > 0);
+
+        refill();
+        bytesPerMilli = bytesPerSec / 1000.0;
+        availableBytes = Math.min(availableBytes, bytesPerMilli * BURST_MILLIS);
+        notifyAll();
+    }
+
+    /**
+     * Owner charged for the downloads of the current thread: its daemon job, if any
+     *
+     * @return
+     */
+    static String getCurrentOwner() {
+        String jobId = OpscRestoreDaemon.getCurrentJobId();
+        return (jobId != null) ? jobId : DEFAULT_OWNER;
+    }
+
+    private void refill() {
+        long nowMillis = System.currentTimeMillis();
+        availableBytes = Math.min(bytesPerMilli * BURST_MILLIS,
+            availableBytes + (nowMillis - lastRefillMillis) * bytesPerMilli);
+        lastRefillMillis = nowMillis;
+    }
+
+    private boolean isActive(String owner, long nowMillis) {
+        Long lastMillis = lastAcquireMillis.get(owner);
+        return waiterNums.containsKey(owner) || ( (lastMillis != null) && (nowMillis - lastMillis < ACTIVE_MILLIS) );
+    }
+
+    private long getMinActiveConsumedBytes(String excludedOwner, long nowMillis) {
+        long minConsumedBytes = Long.MAX_VALUE;
+        for (Map.Entry<String, Long> entry : consumedBytes.entrySet()) {
+            if ( !entry.getKey().equals(excludedOwner) && isActive(entry.getKey(), nowMillis) ) {
+                minConsumedBytes = Math.min(minConsumedBytes, entry.getValue());
+            }
+        }
+        return minConsumedBytes;
+    }
+
+    /**
+     * Take bytes out of the budget; blocks until the bucket has tokens and it is the owner's turn
+     *
+     * @param owner job ID
+     * @param bytes
+     * @throws InterruptedException
+     */
+    synchronized void acquire(String owner, long bytes) throws InterruptedException {
+        if (!isActive(owner, System.currentTimeMillis())) {
+            long minConsumedBytes = getMinActiveConsumedBytes(owner, System.currentTimeMillis());
+            long ownConsumedBytes = consumedBytes.getOrDefault(owner, 0L);
+            consumedBytes.put(owner,
+                (minConsumedBytes == Long.MAX_VALUE) ? ownConsumedBytes : Math.max(ownConsumedBytes, minConsumedBytes));
+        }
+
+        waiterNums.merge(owner, 1, Integer::sum);
+        try {
+            while (true) {
+                refill();
+
+                long nowMillis = System.currentTimeMillis();
+                if ( (availableBytes > 0) && (consumedBytes.get(owner) <= getMinActiveConsumedBytes(owner, nowMillis)) ) {
+                    availableBytes -= bytes;
+                    consumedBytes.put(owner, consumedBytes.get(owner) + bytes);
+                    lastAcquireMillis.put(owner, nowMillis);
+                    return;
+                }
+
+                long waitMillis = (availableBytes > 0) ? 1 : (long) Math.ceil(-availableBytes / bytesPerMilli);
+                wait(Math.max(1, waitMillis));
+            }
+        }
+        finally {
+            if (waiterNums.merge(owner, -1, Integer::sum) == 0) {
+                waiterNums.remove(owner);
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Forget an owner (job finished)
+     *
+     * @param owner
+     */
+    synchronized void remove(String owner) {
+        consumedBytes.remove(owner);
+        lastAcquireMillis.remove(owner);
+        notifyAll();
+    }
+}
@@ -0,0 +1,224 @@
+package com.dsetools;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompress "-Data.db" chunks of compressed SSTables, for the compressors of Cassandra 3.x:
+ *
+ *   LZ4Compressor:     uncompressed length (4 bytes, little endian) + LZ4 block
+ *   SnappyCompressor:  raw Snappy (varint uncompressed length + elements)
+ *   DeflateCompressor: zlib stream
+ *
+ * Decoders are plain Java so that no native compression library is needed; partition
+ * extraction only decompresses a few chunks.
+ */
+class OpscChunkDecompressor {
+
+    private final String compressorName;
+
+    /**
+     * @param compressorClassName compressor class from "-CompressionInfo.db"
+     *                            (e.g. "org.apache.cassandra.io.compress.LZ4Compressor")
+     * @throws IOException if the compressor is not supported
+     */
+    OpscChunkDecompressor(String compressorClassName) throws IOException {
+        compressorName = compressorClassName.substring(compressorClassName.lastIndexOf('.') + 1);
+
+        switch (compressorName) {
+            case "LZ4Compressor":
+            case "SnappyCompressor":
+            case "DeflateCompressor":
+                break;
+            default:
+                throw new IOException("Unsupported SSTable compressor " + compressorClassName);
+        }
+    }
+
+    /**
+     * @param src
+     * @param offset
+     * @param length compressed length (without the chunk CRC)
+     * @param uncompressedLength expected uncompressed length of the chunk
+     * @return
+     * @throws IOException if the chunk is corrupted
+     */
+    byte[] decompress(byte[] src, int offset, int length, int uncompressedLength) throws IOException {
+        byte[] dest;
+
+        try {
+            switch (compressorName) {
+                case "LZ4Compressor":
+                    dest = decompressLz4(src, offset, length);
+                    break;
+                case "SnappyCompressor":
+                    dest = decompressSnappy(src, offset, length);
+                    break;
+                default:
+                    dest = inflate(src, offset, length, uncompressedLength);
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException | NegativeArraySizeException | DataFormatException e) {
+            throw new IOException("Corrupted " + compressorName + " chunk", e);
+        }
+
+        if (dest.length != uncompressedLength) {
+            throw new IOException("Corrupted " + compressorName + " chunk: " + dest.length +
+                " bytes uncompressed, " + uncompressedLength + " expected");
+        }
+
+        return dest;
+    }
+
+    private static byte[] decompressLz4(byte[] src, int offset, int length) {
+        int destLength = (src[offset] & 0xff) |
+                         ((src[offset + 1] & 0xff) << 8) |
+                         ((src[offset + 2] & 0xff) << 16) |
+                         ((src[offset + 3] & 0xff) << 24);
+        byte[] dest = new byte[destLength];
+
+        int srcPos = offset + 4;
+        int srcEnd = offset + length;
+        int destPos = 0;
+
+        while (srcPos < srcEnd) {
+            int token = src[srcPos++] & 0xff;
+
+            // Literals
+            int literalLength = token >>> 4;
+            if (literalLength == 15) {
+                int b;
+                do {
+                    b = src[srcPos++] & 0xff;
+                    literalLength += b;
+                } while (b == 255);
+            }
+            System.arraycopy(src, srcPos, dest, destPos, literalLength);
+            srcPos += literalLength;
+            destPos += literalLength;
+
+            // The last sequence has literals only
+            if (srcPos >= srcEnd) {
+                break;
+            }
+
+            // Match (may overlap its own output)
+            int matchOffset = (src[srcPos] & 0xff) | ((src[srcPos + 1] & 0xff) << 8);
+            srcPos += 2;
+
+            int matchLength = token & 0x0f;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    b = src[srcPos++] & 0xff;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += 4;
+
+            int matchPos = destPos - matchOffset;
+            if ( (matchOffset == 0) || (matchPos < 0) ) {
+                throw new ArrayIndexOutOfBoundsException("LZ4 match offset " + matchOffset);
+            }
+            for (int i = 0; i < matchLength; i++) {
+                dest[destPos++] = dest[matchPos + i];
+            }
+        }
+
+        return (destPos == dest.length) ? dest : Arrays.copyOf(dest, destPos);
+    }
+
+    private static byte[] decompressSnappy(byte[] src, int offset, int length) {
+        int srcPos = offset;
+        int srcEnd = offset + length;
+
+        // Uncompressed length: little endian base 128 varint
+        int destLength = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = src[srcPos++] & 0xff;
+            destLength |= (b & 0x7f) << shift;
+            if (b < 0x80) {
+                break;
+            }
+        }
+
+        byte[] dest = new byte[destLength];
+        int destPos = 0;
+
+        while (srcPos < srcEnd) {
+            int tag = src[srcPos++] & 0xff;
+            int copyLength;
+            int copyOffset;
+
+            switch (tag & 3) {
+                case 0:
+                    // Literal; lengths above 60 follow the tag in 1 to 4 bytes
+                    int literalLength = tag >>> 2;
+                    if (literalLength >= 60) {
+                        int byteNum = literalLength - 59;
+                        literalLength = 0;
+                        for (int i = 0; i < byteNum; i++) {
+                            literalLength |= (src[srcPos++] & 0xff) << (i * 8);
+                        }
+                    }
+                    literalLength += 1;
+
+                    System.arraycopy(src, srcPos, dest, destPos, literalLength);
+                    srcPos += literalLength;
+                    destPos += literalLength;
+                    continue;
+                case 1:
+                    copyLength = ((tag >>> 2) & 7) + 4;
+                    copyOffset = ((tag >>> 5) << 8) | (src[srcPos++] & 0xff);
+                    break;
+                case 2:
+                    copyLength = (tag >>> 2) + 1;
+                    copyOffset = (src[srcPos] & 0xff) | ((src[srcPos + 1] & 0xff) << 8);
+                    srcPos += 2;
+                    break;
+                default:
+                    copyLength = (tag >>> 2) + 1;
+                    copyOffset = (src[srcPos] & 0xff) |
+                                 ((src[srcPos + 1] & 0xff) << 8) |
+                                 ((src[srcPos + 2] & 0xff) << 16) |
+                                 ((src[srcPos + 3] & 0xff) << 24);
+                    srcPos += 4;
+            }
+
+            int copyPos = destPos - copyOffset;
+            if ( (copyOffset <= 0) || (copyPos < 0) ) {
+                throw new ArrayIndexOutOfBoundsException("Snappy copy offset " + copyOffset);
+            }
+            for (int i = 0; i < copyLength; i++) {
+                dest[destPos++] = dest[copyPos + i];
+            }
+        }
+
+        return (destPos == dest.length) ? dest : Arrays.copyOf(dest, destPos);
+    }
+
+    private static byte[] inflate(byte[] src, int offset, int length, int uncompressedLength)
+        throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(src, offset, length);
+
+            byte[] dest = new byte[uncompressedLength];
+            int destPos = 0;
+            while ( (destPos < dest.length) && !inflater.finished() ) {
+                int inflated = inflater.inflate(dest, destPos, dest.length - destPos);
+                if ( (inflated == 0) && (inflater.needsInput() || inflater.needsDictionary()) ) {
+                    break;
+                }
+                destPos += inflated;
+            }
+
+            return (destPos == dest.length) ? dest : Arrays.copyOf(dest, destPos);
+        }
+        finally {
+            inflater.end();
+        }
+    }
+}
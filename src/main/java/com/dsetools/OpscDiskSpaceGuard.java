@@ -0,0 +1,131 @@
+package com.dsetools;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Disk space admission for downloads into one local file system.
+ *
+ * A download thread reserves the size of an object before downloading it and releases the
+ * reservation when the object is done. An object is only admitted when the usable space, minus
+ * all outstanding reservations, still leaves "download_min_free_mb" free. Otherwise the thread
+ * pauses (re-checking periodically) until other downloads complete or space is freed outside
+ * of this utility, instead of failing half way with a full disk. An object that doesn't fit
+ * even with nothing else reserved fails right away: waiting for other downloads can't help it.
+ *
+ * Reservations are released only when an object is complete, so space taken by in-flight
+ * (partially written) objects is counted twice; admission is conservative by design.
+ */
+class OpscDiskSpaceGuard {
+
+    static long RECHECK_INTERVAL_MILLIS = 1000;
+    static long PAUSE_WARN_INTERVAL_MILLIS = 60 * 1000;
+
+    private final File root;
+    private final long minFreeBytes;
+
+    private long reservedBytes = 0;
+    private long pauseNum = 0;
+    private long pausedMillis = 0;
+
+    OpscDiskSpaceGuard(File root, long minFreeBytes) {
+        this.root = root;
+        this.minFreeBytes = minFreeBytes;
+    }
+
+    File getRoot() {
+        return root;
+    }
+
+    /**
+     * Usable bytes of the file system of the root directory (or of its nearest existing parent,
+     * when the root is not created yet)
+     */
+    long getUsableBytes() {
+        File dir = root.getAbsoluteFile();
+        while ( (dir != null) && !dir.exists() ) {
+            dir = dir.getParentFile();
+        }
+        return (dir != null) ? dir.getUsableSpace() : 0;
+    }
+
+    /**
+     * Usable bytes over the minimum free space
+     */
+    long getFreeAboveMinimum() {
+        return Math.max(0, getUsableBytes() - minFreeBytes);
+    }
+
+    /**
+     * Bytes missing to fit the given total (plus the minimum free space); 0 if it fits
+     *
+     * @param totalBytes
+     * @return
+     */
+    long getShortfall(long totalBytes) {
+        return Math.max(0, totalBytes + minFreeBytes - getUsableBytes());
+    }
+
+    /**
+     * Reserve space for an object; blocks while there is not enough free space
+     *
+     * @param bytes object size; unknown (negative) sizes only check the minimum free space
+     * @param objName for the pause message
+     * @throws IOException if the object doesn't fit with no other reservation outstanding
+     * @throws InterruptedException
+     */
+    synchronized void acquire(long bytes, String objName) throws IOException, InterruptedException {
+        long reserveBytes = Math.max(bytes, 0);
+        long pauseStartMillis = 0;
+        long lastWarnMillis = 0;
+
+        while (getUsableBytes() - reservedBytes - minFreeBytes < reserveBytes) {
+            if (reservedBytes == 0) {
+                if (pauseStartMillis > 0) {
+                    pausedMillis += System.currentTimeMillis() - pauseStartMillis;
+                }
+
+                throw new IOException(String.format("Not enough disk space under %s for \"%s\" (%d bytes; " +
+                        "%d bytes usable, %d bytes minimum free)",
+                    root.getPath(), objName, reserveBytes, getUsableBytes(), minFreeBytes));
+            }
+
+            long nowMillis = System.currentTimeMillis();
+
+            if (pauseStartMillis == 0) {
+                pauseStartMillis = nowMillis;
+                pauseNum++;
+            }
+
+            if (nowMillis - lastWarnMillis >= PAUSE_WARN_INTERVAL_MILLIS) {
+                System.out.format("WARN: Low disk space under %s (%d bytes usable, %d bytes reserved, %d bytes minimum free); " +
+                        "download of \"%s\" (%d bytes) paused.\n",
+                    root.getPath(), getUsableBytes(), reservedBytes, minFreeBytes, objName, reserveBytes);
+                lastWarnMillis = nowMillis;
+            }
+
+            wait(RECHECK_INTERVAL_MILLIS);
+        }
+
+        if (pauseStartMillis > 0) {
+            pausedMillis += System.currentTimeMillis() - pauseStartMillis;
+        }
+
+        reservedBytes += reserveBytes;
+    }
+
+    /**
+     * Release the reservation of a completed (or failed) object
+     *
+     * @param bytes same value as passed to acquire()
+     */
+    synchronized void release(long bytes) {
+        reservedBytes -= Math.max(bytes, 0);
+        notifyAll();
+    }
+
+    synchronized String getStats() {
+        return String.format("%d bytes usable under %s, %d download pause(s), %d seconds paused",
+            getUsableBytes(), root.getPath(), pauseNum, pausedMillis / 1000);
+    }
+}
@@ -0,0 +1,375 @@
+package com.dsetools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local download roots: "local_download_home" plus the optional "local_download_dirs"
+ * (e.g. one directory per JBOD disk, next to each Cassandra data_file_directories entry).
+ *
+ * Every root has the same layout as the download home (see getLocalSstableFile()), so each disk
+ * ends up with its own "<keyspace>/<table>" subtrees, like per-disk Cassandra data directories.
+ * All components of one SSTable set are placed on the same root. A new set goes to the root
+ * that is expected to drain its queued bytes first (queued bytes / observed write throughput)
+ * among the roots with enough free space. Each root has its own limit of concurrent writes; roots
+ * on the same file system share one disk space admission, so their space is only counted once.
+ *
+ * A placement is dropped when the last placed component of its set completes. Components of a
+ * set that are restored one after the other are kept together by placing a set on the root that
+ * already holds some of its files.
+ */
+class OpscDownloadRoots {
+
+    /**
+     * Write slots whose number can be lowered while slots are taken
+     */
+    static class WriteSlots extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        private int slotNum;
+
+        WriteSlots(int slotNum) {
+            super(slotNum, true);
+            this.slotNum = slotNum;
+        }
+
+        /**
+         * Fewer slots take effect as taken slots are released
+         *
+         * @param newSlotNum
+         */
+        synchronized void resize(int newSlotNum) {
+            if (newSlotNum > slotNum) {
+                release(newSlotNum - slotNum);
+            }
+            else if (newSlotNum < slotNum) {
+                reducePermits(slotNum - newSlotNum);
+            }
+            slotNum = newSlotNum;
+        }
+    }
+
+    static class DownloadRoot {
+        final String dir;
+        // Shared by the roots on the same file system
+        final OpscDiskSpaceGuard spaceGuard;
+        final WriteSlots writeSlots;
+
+        // Placed, not yet completed bytes
+        final AtomicLong queuedBytes = new AtomicLong();
+        // Same, for all the roots on the same file system
+        private final AtomicLong fileSystemQueuedBytes;
+
+        // Observed writes (for throughput)
+        final AtomicLong writtenBytes = new AtomicLong();
+        final AtomicLong writeMillis = new AtomicLong();
+
+        DownloadRoot(String dir, OpscDiskSpaceGuard spaceGuard, AtomicLong fileSystemQueuedBytes, int writeThreadNum) {
+            this.dir = dir;
+            this.spaceGuard = spaceGuard;
+            this.fileSystemQueuedBytes = fileSystemQueuedBytes;
+            this.writeSlots = new WriteSlots(writeThreadNum);
+        }
+
+        /**
+         * Observed write throughput in bytes per millisecond; 0 if nothing is measured yet
+         */
+        double getThroughput() {
+            long millis = writeMillis.get();
+            return (millis > 0) ? ((double) writtenBytes.get() / millis) : 0;
+        }
+
+        long getAvailableBytes() {
+            return spaceGuard.getUsableBytes() - fileSystemQueuedBytes.get();
+        }
+    }
+
+    /**
+     * Root of an SSTable set, and its placed components not completed yet
+     */
+    private static class Placement {
+        final DownloadRoot root;
+        int pendingNum = 0;
+
+        Placement(DownloadRoot root) {
+            this.root = root;
+        }
+    }
+
+    private final List<DownloadRoot> roots = new ArrayList<>();
+
+    // One per file system
+    private final List<OpscDiskSpaceGuard> spaceGuards = new ArrayList<>();
+
+    // File systems of the roots
+    private final Set<FileStore> fileStores = new HashSet<>();
+
+    // SSTable set key -> placement; guarded by this
+    private final Map<String, Placement> placements = new HashMap<>();
+
+    /**
+     * @param downloadHomeDir primary root; also holds backup metadata ("backup.json", ...)
+     * @param extraDirs additional roots; may be null
+     * @param minFreeBytes minimum free space kept on each root
+     * @param writeThreadNum concurrent writes per root
+     */
+    OpscDownloadRoots(String downloadHomeDir, List<String> extraDirs, long minFreeBytes, int writeThreadNum) {
+        List<String> dirs = new ArrayList<>();
+        dirs.add(downloadHomeDir);
+
+        if (extraDirs != null) {
+            for (String extraDir : extraDirs) {
+                if (!new File(extraDir).getAbsolutePath().equals(new File(downloadHomeDir).getAbsolutePath())) {
+                    dirs.add(extraDir);
+                }
+            }
+        }
+
+        // File system -> space guard and queued bytes of the roots on it
+        Map<FileStore, OpscDiskSpaceGuard> storeGuards = new HashMap<>();
+        Map<OpscDiskSpaceGuard, AtomicLong> guardQueuedBytes = new HashMap<>();
+
+        for (String dir : dirs) {
+            FileStore fileStore = getFileStore(dir);
+
+            OpscDiskSpaceGuard spaceGuard = (fileStore != null) ? storeGuards.get(fileStore) : null;
+            if (spaceGuard == null) {
+                spaceGuard = new OpscDiskSpaceGuard(new File(dir), minFreeBytes);
+                spaceGuards.add(spaceGuard);
+                guardQueuedBytes.put(spaceGuard, new AtomicLong());
+
+                if (fileStore != null) {
+                    storeGuards.put(fileStore, spaceGuard);
+                    fileStores.add(fileStore);
+                }
+            }
+
+            roots.add(new DownloadRoot(dir, spaceGuard, guardQueuedBytes.get(spaceGuard), writeThreadNum));
+        }
+    }
+
+    /**
+     * File system of a directory (or of its nearest existing parent, when it is not created yet)
+     *
+     * @param dir
+     * @return null if it can't be determined
+     */
+    private static FileStore getFileStore(String dir) {
+        Path path = Paths.get(dir).toAbsolutePath();
+        while ( (path != null) && !Files.exists(path) ) {
+            path = path.getParent();
+        }
+
+        try {
+            return (path != null) ? Files.getFileStore(path) : null;
+        }
+        catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    /**
+     * Whether a file is on the file system of a root, i.e. can be hard linked into that root
+     *
+     * @param file
+     * @return false if the file doesn't exist
+     */
+    boolean isOnRootFileSystem(Path file) {
+        try {
+            return fileStores.contains(Files.getFileStore(file));
+        }
+        catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    /**
+     * Parse "<dir>[,<dir>...]"
+     *
+     * @param downloadDirsStr
+     * @return
+     */
+    static List<String> parseDownloadDirs(String downloadDirsStr) {
+        List<String> downloadDirs = new ArrayList<>();
+
+        if ( (downloadDirsStr != null) && !downloadDirsStr.trim().isEmpty() ) {
+            for (String downloadDir : downloadDirsStr.split(",")) {
+                if (!downloadDir.trim().isEmpty()) {
+                    downloadDirs.add(downloadDir.trim());
+                }
+            }
+        }
+
+        return downloadDirs;
+    }
+
+    /**
+     * Change the limit of concurrent writes of every root (see OpscRestoreControl)
+     *
+     * @param writeThreadNum
+     */
+    void setWriteThreadNum(int writeThreadNum) {
+        for (DownloadRoot root : roots) {
+            root.writeSlots.resize(writeThreadNum);
+        }
+    }
+
+    List<DownloadRoot> getRoots() {
+        return Collections.unmodifiableList(roots);
+    }
+
+    DownloadRoot getPrimary() {
+        return roots.get(0);
+    }
+
+    /**
+     * Root of an SSTable set; a new set is placed on the root that already holds some of its
+     * files, or else on the root that can take it soonest
+     *
+     * @param sstableSetKey
+     * @param objBytes size of the object being placed (negative if unknown)
+     * @param holdsSet whether a root already holds files of the set
+     * @return
+     */
+    DownloadRoot place(String sstableSetKey, long objBytes, Predicate<DownloadRoot> holdsSet) {
+        DownloadRoot root;
+
+        synchronized (this) {
+            Placement placement = placements.get(sstableSetKey);
+            if (placement == null) {
+                placement = new Placement(chooseRoot(Math.max(objBytes, 0), holdsSet));
+                placements.put(sstableSetKey, placement);
+            }
+
+            placement.pendingNum++;
+            root = placement.root;
+        }
+
+        root.queuedBytes.addAndGet(Math.max(objBytes, 0));
+        root.fileSystemQueuedBytes.addAndGet(Math.max(objBytes, 0));
+        return root;
+    }
+
+    private DownloadRoot chooseRoot(long objBytes, Predicate<DownloadRoot> holdsSet) {
+        if (roots.size() == 1) {
+            return roots.get(0);
+        }
+
+        for (DownloadRoot root : roots) {
+            if (holdsSet.test(root)) {
+                return root;
+            }
+        }
+
+        // Roots without a measurement yet count as fast as the average measured root
+        double throughputSum = 0;
+        int measuredNum = 0;
+        for (DownloadRoot root : roots) {
+            if (root.getThroughput() > 0) {
+                throughputSum += root.getThroughput();
+                measuredNum++;
+            }
+        }
+        double defaultThroughput = (measuredNum > 0) ? (throughputSum / measuredNum) : 1;
+
+        DownloadRoot bestRoot = null;
+        double bestDrainTime = Double.MAX_VALUE;
+        DownloadRoot mostFreeRoot = roots.get(0);
+
+        for (DownloadRoot root : roots) {
+            long availableBytes = root.getAvailableBytes();
+
+            if (availableBytes > mostFreeRoot.getAvailableBytes()) {
+                mostFreeRoot = root;
+            }
+
+            if (root.spaceGuard.getShortfall(root.fileSystemQueuedBytes.get() + objBytes) > 0) {
+                continue;
+            }
+
+            double throughput = (root.getThroughput() > 0) ? root.getThroughput() : defaultThroughput;
+            double drainTime = (root.queuedBytes.get() + objBytes) / throughput;
+
+            if (drainTime < bestDrainTime) {
+                bestDrainTime = drainTime;
+                bestRoot = root;
+            }
+        }
+
+        // Nothing fits: the root with most free space (admission control pauses the download there)
+        return (bestRoot != null) ? bestRoot : mostFreeRoot;
+    }
+
+    /**
+     * Record a completed (or failed) write of a placed object
+     *
+     * @param sstableSetKey same value as passed to place()
+     * @param root
+     * @param objBytes same value as passed to place()
+     * @param writtenBytes bytes actually written
+     * @param millis
+     */
+    void complete(String sstableSetKey, DownloadRoot root, long objBytes, long writtenBytes, long millis) {
+        root.queuedBytes.addAndGet(-Math.max(objBytes, 0));
+        root.fileSystemQueuedBytes.addAndGet(-Math.max(objBytes, 0));
+
+        synchronized (this) {
+            Placement placement = placements.get(sstableSetKey);
+            if ( (placement != null) && (--placement.pendingNum <= 0) ) {
+                placements.remove(sstableSetKey);
+            }
+        }
+
+        if (writtenBytes > 0) {
+            root.writtenBytes.addAndGet(writtenBytes);
+            root.writeMillis.addAndGet(Math.max(millis, 1));
+        }
+    }
+
+    /**
+     * Bytes missing on all roots together to fit the given total; 0 if it fits
+     *
+     * @param totalBytes
+     * @return
+     */
+    long getShortfall(long totalBytes) {
+        long availableBytes = 0;
+        for (OpscDiskSpaceGuard spaceGuard : spaceGuards) {
+            availableBytes += spaceGuard.getFreeAboveMinimum();
+        }
+        return Math.max(0, totalBytes - availableBytes);
+    }
+
+    /**
+     * Usable bytes of the file systems of all roots, each file system counted once
+     */
+    long getUsableBytes() {
+        long usableBytes = 0;
+        for (OpscDiskSpaceGuard spaceGuard : spaceGuards) {
+            usableBytes += spaceGuard.getUsableBytes();
+        }
+        return usableBytes;
+    }
+
+    String getStats() {
+        StringBuilder stats = new StringBuilder();
+
+        for (DownloadRoot root : roots) {
+            stats.append(String.format("    %s: %s, %d bytes written (%.1f MB/s)\n",
+                root.dir,
+                root.spaceGuard.getStats(),
+                root.writtenBytes.get(),
+                root.getThroughput() * 1000 / (1024 * 1024)));
+        }
+
+        return stats.toString();
+    }
+}
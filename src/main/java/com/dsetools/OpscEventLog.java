@@ -0,0 +1,158 @@
+package com.dsetools;
+
+import org.json.simple.JSONValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Structured restore event log: one JSON object per line, per SSTable object and per host, and
+ * for unexpected errors (with the stack trace).
+ *
+ * Records go through the "com.dsetools.events" logger, which "logback.xml" routes to a bounded
+ * AsyncAppender in front of a buffered file appender. Worker threads only enqueue a pre-formatted
+ * line; formatting of console output and file I/O stay off the download path.
+ * The event log file is "<local_download_home>/opsc_restore_events.jsonl" unless the Java system
+ * property "opsc.event.log" is set.
+ */
+class OpscEventLog {
+
+    static String EVENT_LOGGER_NAME = "com.dsetools.events";
+    static String EVENT_LOG_FILE_PROP = "opsc.event.log";
+    static String EVENT_LOG_FILE = "opsc_restore_events.jsonl";
+
+    static String EVENT_OBJ_DOWNLOAD = "object_download";
+    static String EVENT_HOST_DOWNLOAD = "host_download";
+    static String EVENT_ERROR = "error";
+
+    static String OUTCOME_OK = "ok";
+    static String OUTCOME_CACHE_HIT = "cache_hit";
+    static String OUTCOME_MIRROR_HIT = "mirror_hit";
+    static String OUTCOME_LOCAL_HIT = "local_hit";
+    static String OUTCOME_FAILED = "failed";
+    static String OUTCOME_INTERRUPTED = "interrupted";
+
+    // Created lazily: the event log file location must be set before logback initializes
+    private static volatile Logger eventLogger = null;
+
+    /**
+     * Set the event log file location; must be called before the first event (and before
+     * anything else initializes logback)
+     *
+     * @param downloadHomeDir
+     */
+    static void init(String downloadHomeDir) {
+        if (System.getProperty(EVENT_LOG_FILE_PROP) == null) {
+            System.setProperty(EVENT_LOG_FILE_PROP, new File(downloadHomeDir, EVENT_LOG_FILE).getPath());
+        }
+    }
+
+    static String getEventLogFile() {
+        return System.getProperty(EVENT_LOG_FILE_PROP);
+    }
+
+    private static Logger getEventLogger() {
+        if (eventLogger == null) {
+            synchronized (OpscEventLog.class) {
+                if (eventLogger == null) {
+                    eventLogger = LoggerFactory.getLogger(EVENT_LOGGER_NAME);
+                }
+            }
+        }
+        return eventLogger;
+    }
+
+    private static Map<String, Object> newRecord(String event) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("ts", Instant.now().toString());
+        record.put("event", event);
+        return record;
+    }
+
+    private static void write(Map<String, Object> record) {
+        Logger logger = getEventLogger();
+        if (logger.isInfoEnabled()) {
+            logger.info(JSONValue.toJSONString(record));
+        }
+    }
+
+    /**
+     * Outcome of one SSTable object download
+     *
+     * @param worker download thread (or coordinated restore worker) ID
+     * @param s3ObjKey
+     * @param keyspaceName
+     * @param tableName
+     * @param objSize size of the restored local file; -1 if failed
+     * @param byteNum bytes fetched from S3 (0 for a cache hit)
+     * @param durationMillis
+     * @param outcome
+     * @param error null unless failed
+     */
+    static void objectDownload(String worker,
+                               String s3ObjKey,
+                               String keyspaceName,
+                               String tableName,
+                               long objSize,
+                               long byteNum,
+                               long durationMillis,
+                               String outcome,
+                               Throwable error) {
+        Map<String, Object> record = newRecord(EVENT_OBJ_DOWNLOAD);
+        record.put("worker", worker);
+        record.put("key", s3ObjKey);
+        record.put("keyspace", keyspaceName);
+        record.put("table", tableName);
+        record.put("size", objSize);
+        record.put("fetched", byteNum);
+        record.put("duration_ms", durationMillis);
+        record.put("outcome", outcome);
+        if (error != null) {
+            record.put("error", error.getClass().getSimpleName() + ": " + error.getMessage());
+        }
+        write(record);
+    }
+
+    /**
+     * Totals of the download run for one host
+     *
+     * @param hostId
+     * @param objNum
+     * @param failedObjNum
+     * @param byteNum
+     * @param durationMillis
+     */
+    static void hostDownload(String hostId, long objNum, long failedObjNum, long byteNum, long durationMillis) {
+        Map<String, Object> record = newRecord(EVENT_HOST_DOWNLOAD);
+        record.put("host_id", hostId);
+        record.put("objects", objNum);
+        record.put("failed", failedObjNum);
+        record.put("size", byteNum);
+        record.put("duration_ms", durationMillis);
+        record.put("outcome", (failedObjNum == 0) ? OUTCOME_OK : OUTCOME_FAILED);
+        write(record);
+    }
+
+    /**
+     * Unexpected error, with its stack trace
+     *
+     * @param context what failed (e.g. "download of <key>")
+     * @param error
+     */
+    static void error(String context, Throwable error) {
+        StringWriter stackTrace = new StringWriter();
+        error.printStackTrace(new PrintWriter(stackTrace));
+
+        Map<String, Object> record = newRecord(EVENT_ERROR);
+        record.put("context", context);
+        record.put("error", error.getClass().getSimpleName() + ": " + error.getMessage());
+        record.put("stack", stackTrace.toString());
+        write(record);
+    }
+}
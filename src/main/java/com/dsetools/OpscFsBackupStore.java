@@ -0,0 +1,688 @@
+package com.dsetools;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.*;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * OpsCenter backups on a local or network (NFS) file system ("opsc_backup_dir"), in the layout
+ * of the backup bucket: the object "<key>" is the file "<opsc_backup_dir>/<key>".
+ *
+ * The store is an AmazonS3 client for the requests the restore sends (LIST, HEAD, ranged GET),
+ * so everything that works on the backup bucket works on the backup directory; bucket names are
+ * ignored. LIST pages are served from directory snapshots: the entries of a directory are stat'ed
+ * concurrently (per-file metadata calls dominate on NFS), and the subdirectories a LIST will
+ * descend into are loaded concurrently as well. A snapshot is reused while the directory
+ * modification time stays the same, for SNAPSHOT_TTL_MILLIS at most.
+ *
+ * Downloads are hard links when the backup directory and the download directory are on the same
+ * file system (backup files are never modified in place), and kernel-side copies
+ * (FileChannel.transferTo()) otherwise.
+ */
+class OpscFsBackupStore extends AbstractAmazonS3 implements OpscBackupStore {
+
+    static int DEFAULT_MAX_KEYS = 1000;
+
+    // Directories with fewer entries than this are stat'ed by the calling thread
+    static int PARALLEL_STAT_MIN_ENTRIES = 64;
+
+    // Subdirectories loaded ahead of a LIST
+    static int PREFETCH_DIR_NUM = 256;
+
+    static long SNAPSHOT_TTL_MILLIS = 30000;
+
+    // Unit of a copy, and of the bandwidth budget charges
+    static long COPY_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    private static class DirEntry {
+        // Directory names end with "/", so entries sort in object key order
+        final String name;
+        final boolean isDir;
+        final long size;
+        final long lastModifiedMillis;
+
+        DirEntry(String name, boolean isDir, long size, long lastModifiedMillis) {
+            this.name = name;
+            this.isDir = isDir;
+            this.size = size;
+            this.lastModifiedMillis = lastModifiedMillis;
+        }
+    }
+
+    private static class DirSnapshot {
+        final FileTime dirModifiedTime;
+        final long loadMillis;
+        final DirEntry[] entries;
+
+        DirSnapshot(FileTime dirModifiedTime, DirEntry[] entries) {
+            this.dirModifiedTime = dirModifiedTime;
+            this.loadMillis = System.currentTimeMillis();
+            this.entries = entries;
+        }
+    }
+
+    private final Path backupDir;
+    private final ForkJoinPool listPool;
+
+    private final Map<Path, DirSnapshot> dirSnapshots = new ConcurrentHashMap<>();
+
+    private volatile OpscBandwidthBudget bandwidthBudget = null;
+
+    private final AtomicLong linkNum = new AtomicLong();
+    private final AtomicLong copyNum = new AtomicLong();
+    private final AtomicLong copiedBytes = new AtomicLong();
+
+    /**
+     * @param backupDirStr
+     * @param listThreadNum threads for directory listings
+     * @throws IOException when the backup directory can't be read
+     */
+    OpscFsBackupStore(String backupDirStr, int listThreadNum) throws IOException {
+        assert (listThreadNum > 0);
+
+        this.backupDir = Paths.get(backupDirStr).toAbsolutePath().normalize();
+
+        if ( !Files.isDirectory(backupDir) || !Files.isReadable(backupDir) ) {
+            throw new IOException(backupDir + " is not a readable directory");
+        }
+
+        this.listPool = new ForkJoinPool(listThreadNum);
+    }
+
+    Path getBackupDir() {
+        return backupDir;
+    }
+
+    /**
+     * File of an object key; keys that point outside of the backup directory are not found
+     */
+    private Path toPath(String objKey) {
+        Path file = backupDir.resolve(objKey).normalize();
+        if (!file.startsWith(backupDir)) {
+            throw notFound(objKey);
+        }
+        return file;
+    }
+
+    private static AmazonS3Exception notFound(String objKey) {
+        AmazonS3Exception notFoundException = new AmazonS3Exception("No such backup file: " + objKey);
+        notFoundException.setStatusCode(404);
+        notFoundException.setErrorCode("NoSuchKey");
+        return notFoundException;
+    }
+
+    private BasicFileAttributes readFileAttributes(String objKey, Path file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            if (attrs.isRegularFile()) {
+                return attrs;
+            }
+        }
+        catch (IOException ioe) {
+            // Not found
+        }
+        throw notFound(objKey);
+    }
+
+    private static String toETag(long size, long lastModifiedMillis) {
+        // Not an MD5: the dash makes S3 clients treat it like a multipart upload ETag
+        return String.format("%x-%x", size, lastModifiedMillis);
+    }
+
+    private static ObjectMetadata toObjectMetadata(long size, long lastModifiedMillis) {
+        ObjectMetadata objectMetadata = new ObjectMetadata();
+        objectMetadata.setContentLength(size);
+        objectMetadata.setLastModified(new Date(lastModifiedMillis));
+        objectMetadata.setHeader(Headers.ETAG, toETag(size, lastModifiedMillis));
+        return objectMetadata;
+    }
+
+    /**
+     * Sorted entries of a directory
+     *
+     * @param dir
+     * @return null if the directory doesn't exist
+     */
+    private DirSnapshot getDirSnapshot(Path dir) {
+        FileTime dirModifiedTime;
+        try {
+            dirModifiedTime = Files.getLastModifiedTime(dir);
+        }
+        catch (IOException ioe) {
+            dirSnapshots.remove(dir);
+            return null;
+        }
+
+        DirSnapshot snapshot = dirSnapshots.get(dir);
+        if ( (snapshot != null) &&
+             snapshot.dirModifiedTime.equals(dirModifiedTime) &&
+             (System.currentTimeMillis() - snapshot.loadMillis < SNAPSHOT_TTL_MILLIS) ) {
+            return snapshot;
+        }
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> dirStream = Files.newDirectoryStream(dir)) {
+            for (Path file : dirStream) {
+                files.add(file);
+            }
+        }
+        catch (IOException ioe) {
+            return null;
+        }
+
+        DirEntry[] entries = new DirEntry[files.size()];
+
+        Runnable statTask = () -> {
+            IntStream statStream = IntStream.range(0, files.size());
+            if (files.size() >= PARALLEL_STAT_MIN_ENTRIES) {
+                statStream = statStream.parallel();
+            }
+
+            statStream.forEach(i -> {
+                Path file = files.get(i);
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                    entries[i] = new DirEntry(
+                        file.getFileName().toString() + (attrs.isDirectory() ? "/" : ""),
+                        attrs.isDirectory(),
+                        attrs.size(),
+                        attrs.lastModifiedTime().toMillis());
+                }
+                catch (IOException ioe) {
+                    // Removed since the directory was read
+                }
+            });
+        };
+
+        // Parallel streams run in the pool of the thread that starts them
+        if ( (files.size() < PARALLEL_STAT_MIN_ENTRIES) || (ForkJoinTask.getPool() == listPool) ) {
+            statTask.run();
+        }
+        else if (!runInListPool(statTask)) {
+            return null;
+        }
+
+        DirEntry[] existingEntries = Arrays.stream(entries)
+            .filter(Objects::nonNull)
+            .sorted(Comparator.comparing((DirEntry entry) -> entry.name))
+            .toArray(DirEntry[]::new);
+
+        snapshot = new DirSnapshot(dirModifiedTime, existingEntries);
+        dirSnapshots.put(dir, snapshot);
+
+        return snapshot;
+    }
+
+    /**
+     * Run a task (with parallel streams) on the listing threads
+     *
+     * @param task
+     * @return false if interrupted or failed
+     */
+    private boolean runInListPool(Runnable task) {
+        try {
+            listPool.submit(task).get();
+            return true;
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch (ExecutionException | RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Whether a LIST with the prefix, after the start key, can have keys under the directory key
+     */
+    private static boolean isDirInRange(String dirKey, String prefix, String startAfter) {
+        if ( !dirKey.startsWith(prefix) && !prefix.startsWith(dirKey) ) {
+            return false;
+        }
+        return (startAfter == null) || (dirKey.compareTo(startAfter) > 0) || startAfter.startsWith(dirKey);
+    }
+
+    /**
+     * List one directory (recursively) in key order
+     *
+     * @return true when there are more keys than maxKeys
+     */
+    private boolean listDir(Path dir,
+                            String dirKey,
+                            String prefix,
+                            String startAfter,
+                            int maxKeys,
+                            List<S3ObjectSummary> objectSummaries) {
+        DirSnapshot snapshot = getDirSnapshot(dir);
+        if (snapshot == null) {
+            return false;
+        }
+
+        // Load the subdirectories the listing descends into concurrently
+        List<Path> subDirs = new ArrayList<>();
+        for (DirEntry entry : snapshot.entries) {
+            if ( entry.isDir && isDirInRange(dirKey + entry.name, prefix, startAfter) ) {
+                subDirs.add(dir.resolve(entry.name.substring(0, entry.name.length() - 1)));
+                if (subDirs.size() >= PREFETCH_DIR_NUM) {
+                    break;
+                }
+            }
+        }
+
+        if (subDirs.size() > 1) {
+            runInListPool(() -> subDirs.parallelStream().forEach(this::getDirSnapshot));
+        }
+
+        for (DirEntry entry : snapshot.entries) {
+            String objKey = dirKey + entry.name;
+
+            if (entry.isDir) {
+                if ( isDirInRange(objKey, prefix, startAfter) &&
+                     listDir(dir.resolve(entry.name.substring(0, entry.name.length() - 1)),
+                         objKey, prefix, startAfter, maxKeys, objectSummaries) ) {
+                    return true;
+                }
+            }
+            else if ( objKey.startsWith(prefix) && ( (startAfter == null) || (objKey.compareTo(startAfter) > 0) ) ) {
+                if (objectSummaries.size() >= maxKeys) {
+                    return true;
+                }
+
+                S3ObjectSummary objectSummary = new S3ObjectSummary();
+                objectSummary.setKey(objKey);
+                objectSummary.setSize(entry.size);
+                objectSummary.setLastModified(new Date(entry.lastModifiedMillis));
+                objectSummary.setETag(toETag(entry.size, entry.lastModifiedMillis));
+                objectSummaries.add(objectSummary);
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * One LIST page: the keys under the prefix after the start key, in key order
+     *
+     * @return true when the page is truncated
+     */
+    private boolean listPage(String bktName,
+                             String prefix,
+                             String startAfter,
+                             Integer maxKeys,
+                             List<S3ObjectSummary> objectSummaries) {
+        String keyPrefix = (prefix != null) ? prefix : "";
+
+        // Start at the deepest directory that holds the whole prefix
+        String dirKey = keyPrefix.substring(0, keyPrefix.lastIndexOf('/') + 1);
+
+        Path dir;
+        try {
+            dir = toPath(dirKey);
+        }
+        catch (AmazonS3Exception e) {
+            return false;
+        }
+
+        boolean truncated = listDir(dir, dirKey, keyPrefix, startAfter,
+            ( (maxKeys != null) && (maxKeys > 0) ) ? maxKeys : DEFAULT_MAX_KEYS,
+            objectSummaries);
+
+        for (S3ObjectSummary objectSummary : objectSummaries) {
+            objectSummary.setBucketName(bktName);
+        }
+
+        return truncated;
+    }
+
+    @Override
+    public ObjectListing listObjects(String bucketName, String prefix) {
+        return listObjects(new ListObjectsRequest().withBucketName(bucketName).withPrefix(prefix));
+    }
+
+    @Override
+    public ObjectListing listObjects(ListObjectsRequest listObjectsRequest) {
+        ObjectListing objectListing = new ObjectListing();
+        objectListing.setBucketName(listObjectsRequest.getBucketName());
+        objectListing.setPrefix(listObjectsRequest.getPrefix());
+        objectListing.setMarker(listObjectsRequest.getMarker());
+        objectListing.setMaxKeys( (listObjectsRequest.getMaxKeys() != null) ? listObjectsRequest.getMaxKeys() : DEFAULT_MAX_KEYS );
+
+        List<S3ObjectSummary> objectSummaries = objectListing.getObjectSummaries();
+        boolean truncated = listPage(listObjectsRequest.getBucketName(),
+            listObjectsRequest.getPrefix(),
+            listObjectsRequest.getMarker(),
+            listObjectsRequest.getMaxKeys(),
+            objectSummaries);
+
+        objectListing.setTruncated(truncated);
+        if ( truncated && !objectSummaries.isEmpty() ) {
+            objectListing.setNextMarker(objectSummaries.get(objectSummaries.size() - 1).getKey());
+        }
+
+        return objectListing;
+    }
+
+    @Override
+    public ObjectListing listNextBatchOfObjects(ObjectListing previousObjectListing) {
+        if (!previousObjectListing.isTruncated()) {
+            ObjectListing emptyListing = new ObjectListing();
+            emptyListing.setBucketName(previousObjectListing.getBucketName());
+            emptyListing.setPrefix(previousObjectListing.getPrefix());
+            emptyListing.setMarker(previousObjectListing.getNextMarker());
+            return emptyListing;
+        }
+
+        return listObjects(new ListObjectsRequest()
+            .withBucketName(previousObjectListing.getBucketName())
+            .withPrefix(previousObjectListing.getPrefix())
+            .withMarker(previousObjectListing.getNextMarker())
+            .withMaxKeys(previousObjectListing.getMaxKeys()));
+    }
+
+    @Override
+    public ListObjectsV2Result listObjectsV2(ListObjectsV2Request listObjectsV2Request) {
+        ListObjectsV2Result listResult = new ListObjectsV2Result();
+        listResult.setBucketName(listObjectsV2Request.getBucketName());
+        listResult.setPrefix(listObjectsV2Request.getPrefix());
+        listResult.setStartAfter(listObjectsV2Request.getStartAfter());
+        listResult.setContinuationToken(listObjectsV2Request.getContinuationToken());
+
+        // The continuation token is the last key of the previous page
+        String startAfter = listObjectsV2Request.getStartAfter();
+        String continuationToken = listObjectsV2Request.getContinuationToken();
+        if ( (continuationToken != null) && ( (startAfter == null) || (continuationToken.compareTo(startAfter) > 0) ) ) {
+            startAfter = continuationToken;
+        }
+
+        List<S3ObjectSummary> objectSummaries = listResult.getObjectSummaries();
+        boolean truncated = listPage(listObjectsV2Request.getBucketName(),
+            listObjectsV2Request.getPrefix(),
+            startAfter,
+            listObjectsV2Request.getMaxKeys(),
+            objectSummaries);
+
+        listResult.setKeyCount(objectSummaries.size());
+        listResult.setTruncated(truncated);
+        if ( truncated && !objectSummaries.isEmpty() ) {
+            listResult.setNextContinuationToken(objectSummaries.get(objectSummaries.size() - 1).getKey());
+        }
+
+        return listResult;
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(String bucketName, String key) {
+        BasicFileAttributes attrs = readFileAttributes(key, toPath(key));
+        return toObjectMetadata(attrs.size(), attrs.lastModifiedTime().toMillis());
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(GetObjectMetadataRequest getObjectMetadataRequest) {
+        return getObjectMetadata(getObjectMetadataRequest.getBucketName(), getObjectMetadataRequest.getKey());
+    }
+
+    @Override
+    public boolean doesObjectExist(String bucketName, String objectName) {
+        return Files.isRegularFile(toPath(objectName));
+    }
+
+    @Override
+    public S3Object getObject(String bucketName, String key) {
+        return getObject(new GetObjectRequest(bucketName, key));
+    }
+
+    @Override
+    public S3Object getObject(GetObjectRequest getObjectRequest) {
+        String objKey = getObjectRequest.getKey();
+        Path file = toPath(objKey);
+        BasicFileAttributes attrs = readFileAttributes(objKey, file);
+
+        long size = attrs.size();
+        long start = 0;
+        long end = size - 1;
+
+        long[] range = getObjectRequest.getRange();
+        if (range != null) {
+            start = range[0];
+            end = Math.min(range[1], size - 1);
+
+            if ( (start >= size) && (size > 0) ) {
+                AmazonS3Exception rangeException = new AmazonS3Exception(
+                    "Range " + start + "- is past the end of " + objKey + " (" + size + " bytes)");
+                rangeException.setStatusCode(416);
+                rangeException.setErrorCode("InvalidRange");
+                throw rangeException;
+            }
+        }
+
+        long contentLength = Math.max(0, end - start + 1);
+
+        InputStream contentStream;
+        try {
+            FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ);
+            fileChannel.position(start);
+            contentStream = new BoundedInputStream(Channels.newInputStream(fileChannel), contentLength);
+        }
+        catch (NoSuchFileException nsfe) {
+            throw notFound(objKey);
+        }
+        catch (IOException ioe) {
+            throw new AmazonS3Exception("Failed to read backup file " + file + ": " + ioe.getMessage(), ioe);
+        }
+
+        ObjectMetadata objectMetadata = toObjectMetadata(size, attrs.lastModifiedTime().toMillis());
+        objectMetadata.setContentLength(contentLength);
+        if (range != null) {
+            objectMetadata.setHeader(Headers.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+        }
+
+        S3Object s3Object = new S3Object();
+        s3Object.setBucketName(getObjectRequest.getBucketName());
+        s3Object.setKey(objKey);
+        s3Object.setObjectMetadata(objectMetadata);
+        s3Object.setObjectContent(contentStream);
+
+        return s3Object;
+    }
+
+    @Override
+    public long download(String objKey, File localFile) throws IOException, InterruptedException {
+        Path backupFile = toPath(objKey);
+        Path targetFile = localFile.toPath().toAbsolutePath();
+
+        Files.createDirectories(targetFile.getParent());
+        Files.deleteIfExists(targetFile);
+
+        // Same file system: nothing to copy
+        try {
+            Files.createLink(targetFile, backupFile);
+            linkNum.incrementAndGet();
+            return Files.size(targetFile);
+        }
+        catch (NoSuchFileException nsfe) {
+            throw new IOException("No such backup file: " + backupFile, nsfe);
+        }
+        catch (IOException | UnsupportedOperationException e) {
+            // Another file system (or no hard links): copy
+        }
+
+        String budgetOwner = OpscBandwidthBudget.getCurrentOwner();
+        OpscBandwidthBudget budget = bandwidthBudget;
+
+        try (FileChannel backupChannel = FileChannel.open(backupFile, StandardOpenOption.READ);
+             FileChannel targetChannel = FileChannel.open(targetFile,
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             // null unless the downloads are kept out of the page cache
+             OpscPageCacheGuard backupPageCacheGuard = OpscPageCacheGuard.open(backupFile, false);
+             OpscPageCacheGuard targetPageCacheGuard = OpscPageCacheGuard.open(targetFile, true)) {
+
+            long size = backupChannel.size();
+            long position = 0;
+
+            OpscPageCacheGuard.Writer targetPageCacheWriter = null;
+            if (targetPageCacheGuard != null) {
+                targetPageCacheGuard.preallocate(size);
+                targetPageCacheWriter = targetPageCacheGuard.writer(0);
+            }
+
+            while (position < size) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+
+                OpscRestoreControl.awaitResumed();
+
+                long chunkSize = Math.min(COPY_CHUNK_SIZE, size - position);
+                if (budget != null) {
+                    budget.acquire(budgetOwner, chunkSize);
+                }
+
+                // sendfile() (or an mmap copy) in the kernel, without going through the heap
+                long transferredNum = backupChannel.transferTo(position, chunkSize, targetChannel);
+                if (transferredNum <= 0) {
+                    throw new IOException("Backup file " + backupFile + " shrank to " + backupChannel.size() + " bytes while copying");
+                }
+
+                if (backupPageCacheGuard != null) {
+                    backupPageCacheGuard.drop(position, position + transferredNum);
+                }
+
+                position += transferredNum;
+
+                if (targetPageCacheWriter != null) {
+                    targetPageCacheWriter.written(position);
+                }
+            }
+
+            if (targetPageCacheWriter != null) {
+                targetPageCacheWriter.finish(position);
+            }
+
+            copyNum.incrementAndGet();
+            copiedBytes.addAndGet(size);
+
+            return size;
+        }
+    }
+
+    /**
+     * Backup file that download() would link (or copy) for an object
+     *
+     * @param objKey
+     * @return null if there's no such file
+     */
+    Path getLinkSource(String objKey) {
+        try {
+            Path file = toPath(objKey);
+            return Files.isRegularFile(file) ? file : null;
+        }
+        catch (AmazonS3Exception e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String getObjectAsString(String bucketName, String key) {
+        try (S3Object s3Object = getObject(bucketName, key)) {
+            return IOUtils.toString(s3Object.getObjectContent(), StandardCharsets.UTF_8);
+        }
+        catch (IOException ioe) {
+            throw new AmazonS3Exception("Failed to read backup file " + toPath(key) + ": " + ioe.getMessage(), ioe);
+        }
+    }
+
+    @Override
+    public Map<String, Long> listSizes(String prefix) throws IOException, InterruptedException {
+        try {
+            return new OpscShardedLister(this, 1).listSizes(null, prefix, Collections.emptyList());
+        }
+        catch (AmazonS3Exception e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public long getSize(String objKey) throws IOException {
+        try {
+            Path file = toPath(objKey);
+            return Files.isRegularFile(file) ? Files.size(file) : -1;
+        }
+        catch (AmazonS3Exception e) {
+            // Outside of the backup directory
+            return -1;
+        }
+        catch (NoSuchFileException nsfe) {
+            return -1;
+        }
+    }
+
+    @Override
+    public byte[] read(String objKey) throws IOException {
+        return read(objKey, 0, Long.MAX_VALUE - 1);
+    }
+
+    @Override
+    public byte[] read(String objKey, long start, long end) throws IOException {
+        try (S3Object s3Object = getObject(new GetObjectRequest(null, objKey).withRange(start, end))) {
+            return IOUtils.toByteArray(s3Object.getObjectContent());
+        }
+        catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404) {
+                throw new FileNotFoundException("No such backup file: " + objKey);
+            }
+            if ( (e.getStatusCode() == 416) && (start == 0) ) {
+                return new byte[0];
+            }
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String getETag(String objKey) throws IOException {
+        try {
+            return getObjectMetadata(null, objKey).getETag();
+        }
+        catch (AmazonS3Exception e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void setBandwidthBudget(OpscBandwidthBudget bandwidthBudget) {
+        this.bandwidthBudget = bandwidthBudget;
+    }
+
+    @Override
+    public String getStats() {
+        return String.format("    %s: %d files hard-linked, %d files copied (%d bytes)\n",
+            backupDir, linkNum.get(), copyNum.get(), copiedBytes.get());
+    }
+
+    @Override
+    public void shutdown() {
+        listPool.shutdownNow();
+        dirSnapshots.clear();
+    }
+}
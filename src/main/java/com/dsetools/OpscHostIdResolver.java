@@ -0,0 +1,219 @@
+package com.dsetools;
+
+import com.datastax.driver.core.*;
+import com.datastax.driver.core.policies.RoundRobinPolicy;
+import com.datastax.driver.core.policies.WhiteListPolicy;
+import com.datastax.driver.dse.DseCluster;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * Lightweight DSE host ID resolution for "-l me" (without a host ID), so that no full cluster
+ * metadata bootstrap (node list, token map and schema) is needed:
+ * 1) "system.local" of the local node, queried with a single connection and schema/token
+ *    metadata disabled
+ * 2) when the local node can't be queried (e.g. DSE is stopped for the restore), the cached
+ *    "local IP -> host ID" mapping file under the local download home directory
+ *
+ * A host ID read from "system.local" is recorded in the mapping file (and in memory). The
+ * mapping file is only a fallback: the local IP may since have been given to a replaced node.
+ */
+class OpscHostIdResolver {
+
+    // Mapping file (under local download home): <local_ip>=<host_id>
+    static String HOST_ID_CACHE_FILE = ".dse_host_id";
+
+    static int QUERY_CONNECT_TIMEOUT_MS = 2000;
+    static int QUERY_READ_TIMEOUT_MS = 3000;
+
+    private static String resolvedHostId = null;
+
+    /**
+     * Resolve the host ID of the local DSE node
+     *
+     * @param downloadHomeDir
+     * @param localIp
+     * @param nativePort CQL native transport port
+     * @param useSsl
+     * @param authProvider null when no authentication is needed
+     * @return null if it can't be resolved without the full cluster metadata
+     */
+    static synchronized String resolve(String downloadHomeDir,
+                                       String localIp,
+                                       int nativePort,
+                                       boolean useSsl,
+                                       AuthProvider authProvider) {
+        if (resolvedHostId != null) {
+            return resolvedHostId;
+        }
+
+        if (localIp == null) {
+            return null;
+        }
+
+        String hostId = querySystemLocal(localIp, nativePort, useSsl, authProvider);
+
+        if (hostId != null) {
+            cacheHostId(downloadHomeDir, localIp, hostId);
+        }
+        else {
+            hostId = readCachedHostId(downloadHomeDir, localIp);
+
+            if (hostId != null) {
+                System.out.println("WARN: Using host ID " + hostId + " recorded for " + localIp + " in " +
+                    new File(downloadHomeDir, HOST_ID_CACHE_FILE).getPath() + "; it can't be checked against the local DSE node.");
+            }
+            else {
+                System.out.println("WARN: No host ID recorded for " + localIp + "; falling back to DSE cluster metadata.");
+            }
+        }
+
+        resolvedHostId = hostId;
+
+        return hostId;
+    }
+
+    /**
+     * Get the host ID of a local IP from the mapping file
+     *
+     * @param downloadHomeDir
+     * @param localIp
+     * @return null if there is no (valid) mapping
+     */
+    static String readCachedHostId(String downloadHomeDir, String localIp) {
+        File cacheFile = new File(downloadHomeDir, HOST_ID_CACHE_FILE);
+
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+
+        try (InputStream inputStream = new FileInputStream(cacheFile)) {
+            Properties mappingProps = new Properties();
+            mappingProps.load(inputStream);
+
+            String hostId = mappingProps.getProperty(localIp);
+            if (hostId == null) {
+                return null;
+            }
+
+            return UUID.fromString(hostId.trim()).toString();
+        }
+        catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Add (or update) the mapping of a local IP in the mapping file. The file is replaced
+     * atomically, so it can be shared by hosts with a common download home directory.
+     *
+     * @param downloadHomeDir
+     * @param localIp
+     * @param hostId
+     */
+    static void cacheHostId(String downloadHomeDir, String localIp, String hostId) {
+        if ( (downloadHomeDir == null) || (localIp == null) || (hostId == null) ) {
+            return;
+        }
+
+        File downloadHome = new File(downloadHomeDir);
+        File cacheFile = new File(downloadHome, HOST_ID_CACHE_FILE);
+
+        Properties mappingProps = new Properties();
+
+        try {
+            if (!downloadHome.isDirectory()) {
+                Files.createDirectories(downloadHome.toPath());
+            }
+
+            if (cacheFile.isFile()) {
+                try (InputStream inputStream = new FileInputStream(cacheFile)) {
+                    mappingProps.load(inputStream);
+                }
+            }
+
+            if (hostId.equals(mappingProps.getProperty(localIp))) {
+                return;
+            }
+
+            mappingProps.setProperty(localIp, hostId);
+
+            File tmpFile = File.createTempFile(HOST_ID_CACHE_FILE, ".tmp", downloadHome);
+            try (OutputStream outputStream = new FileOutputStream(tmpFile)) {
+                mappingProps.store(outputStream, "DSE host IDs by local IP address");
+            }
+
+            Files.move(tmpFile.toPath(), cacheFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException ioe) {
+            System.out.println("WARN: Failed to write DSE host ID mapping file " + cacheFile.getPath());
+        }
+    }
+
+    /**
+     * Read "host_id" from "system.local" of the DSE node listening on the local IP
+     *
+     * @param localIp
+     * @param nativePort
+     * @param useSsl
+     * @param authProvider
+     * @return null if the query fails
+     */
+    static String querySystemLocal(String localIp, int nativePort, boolean useSsl, AuthProvider authProvider) {
+        QueryOptions queryOptions = new QueryOptions();
+        queryOptions.setConsistencyLevel(ConsistencyLevel.ONE);
+        queryOptions.setMetadataEnabled(false);
+
+        PoolingOptions poolingOptions = new PoolingOptions();
+        poolingOptions.setCoreConnectionsPerHost(HostDistance.LOCAL, 1);
+        poolingOptions.setMaxConnectionsPerHost(HostDistance.LOCAL, 1);
+
+        SocketOptions socketOptions = new SocketOptions();
+        socketOptions.setConnectTimeoutMillis(QUERY_CONNECT_TIMEOUT_MS);
+        socketOptions.setReadTimeoutMillis(QUERY_READ_TIMEOUT_MS);
+
+        DseCluster.Builder clusterBuilder = DseCluster.builder()
+            .addContactPoint(localIp)
+            .withPort(nativePort)
+            .withQueryOptions(queryOptions)
+            .withPoolingOptions(poolingOptions)
+            .withSocketOptions(socketOptions)
+            .withoutMetrics()
+            .withoutJMXReporting();
+
+        // "system.local" is per node: only ever talk to the local node
+        clusterBuilder.withLoadBalancingPolicy(new WhiteListPolicy(
+            new RoundRobinPolicy(),
+            Collections.singletonList(new InetSocketAddress(localIp, nativePort))));
+
+        if (useSsl) {
+            clusterBuilder.withSSL();
+        }
+
+        if (authProvider != null) {
+            clusterBuilder.withAuthProvider(authProvider);
+        }
+
+        try (Cluster cluster = clusterBuilder.build();
+             Session session = cluster.connect()) {
+            Row row = session.execute("SELECT host_id FROM system.local WHERE key = 'local'").one();
+
+            if ( (row != null) && (row.getUUID("host_id") != null) ) {
+                return row.getUUID("host_id").toString();
+            }
+        }
+        catch (Exception e) {
+            System.out.println("WARN: Failed to read host ID from system.local of " + localIp +
+                " (" + e.getMessage() + ").");
+        }
+
+        return null;
+    }
+}
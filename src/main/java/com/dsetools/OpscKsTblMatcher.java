@@ -0,0 +1,173 @@
+package com.dsetools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Keyspace/table selection of "-k" and "-t" (and of daemon jobs), compiled once per selection.
+ *
+ * Both options take a comma separated list of patterns, matched case-insensitively:
+ * - "name": exact name
+ * - "glob": "*" and "?" wildcards (e.g. "events_*")
+ * - "/regex/": Java regular expression on the whole name (no commas)
+ * - "!pattern": exclusion of any of the above
+ *
+ * A table pattern may be qualified with a keyspace glob ("<keyspace>.<table>", e.g.
+ * "app.users,metrics_*.daily"); it then only applies to tables of matching keyspaces. A name is
+ * selected when it matches at least one inclusion (or there are only exclusions) and no
+ * exclusion. An empty table list selects all tables of the selected keyspaces.
+ */
+class OpscKsTblMatcher {
+
+    private static final String REGEX_DELIMITER = "/";
+    private static final String EXCLUSION_PREFIX = "!";
+
+    private static class Entry {
+        final Pattern keyspacePattern;  // null: any keyspace
+        final Pattern namePattern;
+        final boolean exclusion;
+
+        Entry(Pattern keyspacePattern, Pattern namePattern, boolean exclusion) {
+            this.keyspacePattern = keyspacePattern;
+            this.namePattern = namePattern;
+            this.exclusion = exclusion;
+        }
+
+        boolean matches(String ks, String name) {
+            return ( (keyspacePattern == null) || keyspacePattern.matcher(ks).matches() ) &&
+                namePattern.matcher(name).matches();
+        }
+    }
+
+    private final List<Entry> keyspaceEntries;
+    private final List<Entry> tableEntries;
+
+    private OpscKsTblMatcher(List<Entry> keyspaceEntries, List<Entry> tableEntries) {
+        this.keyspaceEntries = keyspaceEntries;
+        this.tableEntries = tableEntries;
+    }
+
+    /**
+     * @param keyspacePatterns "-k" value
+     * @param tablePatterns "-t" value; null or empty for all tables
+     * @return
+     * @throws IllegalArgumentException for an invalid pattern
+     */
+    static OpscKsTblMatcher compile(String keyspacePatterns, String tablePatterns) {
+        return new OpscKsTblMatcher(
+            parsePatterns(keyspacePatterns, false),
+            parsePatterns(tablePatterns, true));
+    }
+
+    private static List<Entry> parsePatterns(String patternsStr, boolean qualified) {
+        List<Entry> entries = new ArrayList<>();
+
+        if ( (patternsStr == null) || patternsStr.isEmpty() ) {
+            return entries;
+        }
+
+        for (String patternStr : patternsStr.split(",")) {
+            patternStr = patternStr.trim();
+
+            boolean exclusion = patternStr.startsWith(EXCLUSION_PREFIX);
+            if (exclusion) {
+                patternStr = patternStr.substring(EXCLUSION_PREFIX.length()).trim();
+            }
+
+            if (patternStr.isEmpty()) {
+                throw new IllegalArgumentException("Empty keyspace/table pattern in \"" + patternsStr + "\"");
+            }
+
+            Pattern keyspacePattern = null;
+            Pattern namePattern;
+
+            if ( (patternStr.length() > 1) && patternStr.startsWith(REGEX_DELIMITER) && patternStr.endsWith(REGEX_DELIMITER) ) {
+                try {
+                    namePattern = Pattern.compile(patternStr.substring(1, patternStr.length() - 1), Pattern.CASE_INSENSITIVE);
+                }
+                catch (PatternSyntaxException pse) {
+                    throw new IllegalArgumentException("Invalid regular expression " + patternStr + ": " + pse.getDescription());
+                }
+            }
+            else {
+                // Keyspace and table names have no dots
+                int qualifierPos = qualified ? patternStr.indexOf('.') : -1;
+                if (qualifierPos >= 0) {
+                    keyspacePattern = globToPattern(patternStr.substring(0, qualifierPos));
+                    patternStr = patternStr.substring(qualifierPos + 1);
+                }
+                namePattern = globToPattern(patternStr);
+            }
+
+            entries.add(new Entry(keyspacePattern, namePattern, exclusion));
+        }
+
+        return entries;
+    }
+
+    private static Pattern globToPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+
+        for (char c : glob.toCharArray()) {
+            if ( (c == '*') || (c == '?') ) {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append( (c == '*') ? ".*" : "." );
+            }
+            else {
+                literal.append(c);
+            }
+        }
+
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE);
+    }
+
+    private static boolean matches(List<Entry> entries, String ks, String name) {
+        boolean hasInclusion = false;
+        boolean included = false;
+
+        for (Entry entry : entries) {
+            if (entry.exclusion) {
+                if (entry.matches(ks, name)) {
+                    return false;
+                }
+            }
+            else {
+                hasInclusion = true;
+                included = included || entry.matches(ks, name);
+            }
+        }
+
+        return included || !hasInclusion;
+    }
+
+    boolean matches(String ks, String tbl) {
+        return matches(keyspaceEntries, ks, ks) && matches(tableEntries, ks, tbl);
+    }
+
+    /**
+     * Whether the selection is one plain keyspace name and one plain table name (no lists or
+     * patterns), as required by "-pk" and "-nds"
+     *
+     * @param keyspacePatterns
+     * @param tablePatterns
+     * @return
+     */
+    static boolean isSingleTable(String keyspacePatterns, String tablePatterns) {
+        return isPlainName(keyspacePatterns) && isPlainName(tablePatterns);
+    }
+
+    private static boolean isPlainName(String patternsStr) {
+        return (patternsStr != null) && !patternsStr.isEmpty() &&
+            patternsStr.matches("[^,*?!/.]+");
+    }
+}
@@ -0,0 +1,653 @@
+package com.dsetools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SSTable files that are still on this node ("local_sstable_dirs"): the live data directories,
+ * snapshots and incremental backups of the Cassandra data directories. Backup SSTable objects
+ * are hard linked (or copied, across file systems) into the restore target instead of downloaded
+ * when their whole SSTable set is still there, in one directory: a local set is only used when
+ * every component of the backup set (registered by the restore with registerBackupObj()) is in
+ * that directory with the same size, and the small digest components ("Digest.crc32", ...) have
+ * the same bytes as in the backup store. File names and sizes alone don't identify an SSTable:
+ * generations restart per table directory, e.g. after a table was dropped and re-created. When
+ * several directories hold a matching set, the one of the table ID in the "schema.json" of the
+ * backup is preferred. The decision is made once per set, so the components of a set all come
+ * from the same directory (or are all downloaded).
+ *
+ * With "local_sstable_checksum", the MD5 of each local file must also match the ETag of the
+ * object. The ETag of a multipart upload is the MD5 of the part MD5s; the part size is not
+ * recorded, so the object size divided by the part count (rounded up to a whole MB) and common
+ * uploader part sizes are tried. Objects whose ETag is not an MD5 (e.g. objects of
+ * "opsc_backup_dir") are always downloaded in this mode.
+ *
+ * Data directory layout: "<data_dir>/<keyspace>/<table>-<table_id>/" with "snapshots/<tag>/"
+ * and "backups/" below. Secondary index directories (".<index>") are not scanned. The directories
+ * are scanned on first use and again when the scan is older than RESCAN_MILLIS; files removed
+ * since (e.g. by compaction) are downloaded.
+ */
+class OpscLocalSstables {
+
+    static long RESCAN_MILLIS = 60 * 1000;
+
+    // Table directory "<table>-<32 hex digit table ID>"
+    private static final int TABLE_ID_SUFFIX_LEN = 33;
+
+    private static final int MB = 1024 * 1024;
+
+    // Part sizes tried for multipart ETags, after the one derived from the part count
+    static long[] MULTIPART_PART_SIZES_MB = { 5, 8, 16, 32, 64, 100, 128 };
+
+    // Components compared byte for byte with the backup store (fetched with a GET each)
+    static String[] BYTE_VERIFIED_COMPONENTS = { "Digest.crc32", "Digest.adler32", "Digest.sha1" };
+
+    // Fields of a table entry in "schema.json" with the table name / table ID
+    private static final String[] SCHEMA_TABLE_NAME_KEYS = { "name", "table_name", "columnfamily_name" };
+    private static final String[] SCHEMA_TABLE_ID_KEYS = { "id", "table_id", "cf_id" };
+
+    private final List<Path> dataDirs;
+    private final boolean verifyChecksum;
+
+    // "<keyspace>/<table>/<file_name>" -> files (live and snapshot copies)
+    private Map<String, List<Path>> index = new HashMap<>();
+    private volatile long indexFileNum = 0;
+    private long scanMillis = -1;
+
+    // Object key prefix of a backup SSTable set ("<...>-mc-1-big-") -> the set, while it is restored
+    private final Map<String, BackupSet> backupSets = new ConcurrentHashMap<>();
+
+    private final AtomicLong hitNum = new AtomicLong();
+    private final AtomicLong hitBytes = new AtomicLong();
+    private final AtomicLong mismatchNum = new AtomicLong();
+
+    /**
+     * @param dataDirsStr comma separated Cassandra data directories
+     * @param verifyChecksum
+     */
+    OpscLocalSstables(String dataDirsStr, boolean verifyChecksum) {
+        this.dataDirs = new ArrayList<>();
+        for (String dataDirStr : dataDirsStr.split(",")) {
+            if (!dataDirStr.trim().isEmpty()) {
+                dataDirs.add(Paths.get(dataDirStr.trim()));
+            }
+        }
+        this.verifyChecksum = verifyChecksum;
+    }
+
+    private synchronized Map<String, List<Path>> getIndex() {
+        if ( (scanMillis < 0) || (System.currentTimeMillis() - scanMillis > RESCAN_MILLIS) ) {
+            scan();
+        }
+        return index;
+    }
+
+    private void scan() {
+        Map<String, List<Path>> newIndex = new HashMap<>();
+        long fileNum = 0;
+
+        for (Path dataDir : dataDirs) {
+            File[] keyspaceDirs = dataDir.toFile().listFiles(File::isDirectory);
+            if (keyspaceDirs == null) {
+                System.out.println("WARN: Failed to read local SSTable directory " + dataDir + "; skipped.");
+                continue;
+            }
+
+            for (File keyspaceDir : keyspaceDirs) {
+                File[] tableDirs = keyspaceDir.listFiles(File::isDirectory);
+                if (tableDirs == null) {
+                    continue;
+                }
+
+                for (File tableDir : tableDirs) {
+                    String keyPrefix = keyspaceDir.getName() + "/" + getTableName(tableDir.getName()) + "/";
+
+                    try {
+                        fileNum += indexTableDir(tableDir.toPath(), keyPrefix, newIndex);
+                    }
+                    catch (IOException ioe) {
+                        System.out.println("WARN: Failed to read local SSTable directory " + tableDir +
+                            " (" + ioe.getMessage() + "); skipped.");
+                    }
+                }
+            }
+        }
+
+        index = newIndex;
+        indexFileNum = fileNum;
+        scanMillis = System.currentTimeMillis();
+    }
+
+    private static long indexTableDir(Path tableDir,
+                                      String keyPrefix,
+                                      Map<String, List<Path>> newIndex) throws IOException {
+        long[] fileNum = { 0 };
+
+        Files.walkFileTree(tableDir, EnumSet.noneOf(FileVisitOption.class), 3, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                // Secondary index SSTables belong to the index, not the table
+                return ( !dir.equals(tableDir) && dir.getFileName().toString().startsWith(".") ) ?
+                    FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    newIndex.computeIfAbsent(keyPrefix + file.getFileName(), k -> new ArrayList<>()).add(file);
+                    fileNum[0]++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException ioe) {
+                // Removed during the scan (e.g. compaction, snapshot clean-up)
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return fileNum[0];
+    }
+
+    /**
+     * "<table>-<table_id>" -> "<table>"
+     */
+    static String getTableName(String tableDirName) {
+        int idPos = tableDirName.length() - TABLE_ID_SUFFIX_LEN;
+
+        if ( (idPos > 0) && (tableDirName.charAt(idPos) == '-') &&
+             tableDirName.substring(idPos + 1).matches("[0-9a-f]{32}") ) {
+            return tableDirName.substring(0, idPos);
+        }
+
+        return tableDirName;
+    }
+
+    /**
+     * Components of a backup SSTable set, and the local directory whose set matches it
+     */
+    private static class BackupSet {
+        // component ("Data.db", ...) -> object size; negative if unknown
+        final Map<String, Long> componentSizes = new ConcurrentHashMap<>();
+        // "<32 hex digits>"; null if unknown
+        volatile String tableId;
+
+        private boolean matched = false;
+        private Path matchedDir = null;
+    }
+
+    /**
+     * Object key prefix shared by all components of a backup SSTable set
+     *
+     * @param s3ObjKey
+     * @param component
+     * @return
+     */
+    static String getSetObjKeyPrefix(String s3ObjKey, String component) {
+        return s3ObjKey.substring(0, s3ObjKey.length() - component.length());
+    }
+
+    /**
+     * Register a component of a backup SSTable set to be restored; only registered sets are
+     * taken from local files
+     *
+     * @param s3ObjKey
+     * @param component e.g. "Data.db"
+     * @param objSize negative if unknown (the set is then always downloaded)
+     * @param tableId table ID of the backup ("<32 hex digits>"); null if unknown
+     */
+    void registerBackupObj(String s3ObjKey, String component, long objSize, String tableId) {
+        BackupSet backupSet = backupSets.computeIfAbsent(getSetObjKeyPrefix(s3ObjKey, component), k -> new BackupSet());
+        backupSet.componentSizes.put(component, objSize);
+        if (tableId != null) {
+            backupSet.tableId = tableId;
+        }
+    }
+
+    /**
+     * Forget the backup SSTable set of an object once its restore is over
+     *
+     * @param s3ObjKey
+     * @param component
+     */
+    void unregisterBackupObj(String s3ObjKey, String component) {
+        backupSets.remove(getSetObjKeyPrefix(s3ObjKey, component));
+    }
+
+    /**
+     * Local file that linkTo() would use for a backup SSTable object: the file of the local set
+     * that matches the whole backup set (matched on first use)
+     *
+     * @param backupStore for the digest components (and the ETags, when checksums are verified)
+     * @param s3ObjKey
+     * @param objSize expected size; negative if unknown (never matched)
+     * @param keyspaceName
+     * @param tableName
+     * @param localFile target file; its name is the SSTable file name
+     * @return null if there's no matching local set
+     * @throws IOException
+     */
+    Path getLinkSource(OpscBackupStore backupStore,
+                       String s3ObjKey,
+                       long objSize,
+                       String keyspaceName,
+                       String tableName,
+                       File localFile) throws IOException {
+        if (objSize < 0) {
+            return null;
+        }
+
+        String fileName = localFile.getName();
+        int componentPos = fileName.lastIndexOf('-');
+        String setObjKeyPrefix = getSetObjKeyPrefix(s3ObjKey, fileName.substring(componentPos + 1));
+
+        BackupSet backupSet = backupSets.get(setObjKeyPrefix);
+        if (backupSet == null) {
+            return null;
+        }
+
+        Path sourceDir;
+        synchronized (backupSet) {
+            if (!backupSet.matched) {
+                backupSet.matchedDir = matchSet(backupStore, setObjKeyPrefix, backupSet, keyspaceName, tableName,
+                    fileName.substring(0, componentPos + 1), localFile.getAbsoluteFile().getParentFile());
+                backupSet.matched = true;
+            }
+            sourceDir = backupSet.matchedDir;
+        }
+
+        return (sourceDir != null) ? sourceDir.resolve(fileName) : null;
+    }
+
+    /**
+     * Hard link (or copy) the local file of a backup SSTable object to the target file, when the
+     * whole SSTable set of the object matches a local set
+     *
+     * @param backupStore for the digest components (and the ETags, when checksums are verified)
+     * @param s3ObjKey
+     * @param objSize expected size; negative if unknown (never matched)
+     * @param keyspaceName
+     * @param tableName
+     * @param localFile target file; its name is the SSTable file name
+     * @return false if there's no matching local set
+     * @throws IOException
+     */
+    boolean linkTo(OpscBackupStore backupStore,
+                   String s3ObjKey,
+                   long objSize,
+                   String keyspaceName,
+                   String tableName,
+                   File localFile) throws IOException {
+        Path sourceFile = getLinkSource(backupStore, s3ObjKey, objSize, keyspaceName, tableName, localFile);
+        if (sourceFile == null) {
+            return false;
+        }
+
+        Path targetFile = localFile.toPath();
+
+        try {
+            if (Files.size(sourceFile) != objSize) {
+                return false;
+            }
+
+            // Restoring into the data directory itself: nothing to do, and nothing to delete
+            if ( !(Files.exists(targetFile) && Files.isSameFile(targetFile, sourceFile)) ) {
+                Files.createDirectories(targetFile.toAbsolutePath().getParent());
+                Files.deleteIfExists(targetFile);
+
+                try {
+                    Files.createLink(targetFile, sourceFile);
+                }
+                catch (NoSuchFileException nsfe) {
+                    throw nsfe;
+                }
+                catch (IOException | UnsupportedOperationException e) {
+                    Files.copy(sourceFile, targetFile);
+                }
+            }
+        }
+        catch (NoSuchFileException nsfe) {
+            // Removed since the set was matched (e.g. compaction): the backup copy is the same file
+            return false;
+        }
+
+        hitNum.incrementAndGet();
+        hitBytes.addAndGet(objSize);
+
+        return true;
+    }
+
+    /**
+     * Find the local directory that holds the whole backup SSTable set
+     *
+     * @param setFilePrefix local file name of the set without the component ("mc-1-big-")
+     * @param workDir where the digest components are fetched to
+     * @return null if no local set matches
+     */
+    private Path matchSet(OpscBackupStore backupStore,
+                          String setObjKeyPrefix,
+                          BackupSet backupSet,
+                          String keyspaceName,
+                          String tableName,
+                          String setFilePrefix,
+                          File workDir) throws IOException {
+        Map<String, Long> componentSizes = new HashMap<>(backupSet.componentSizes);
+        if ( componentSizes.isEmpty() || componentSizes.values().contains(-1L) ) {
+            return null;
+        }
+
+        // Directories with any component of the set, the ones of the backup table ID first
+        Set<Path> candidateDirs = new LinkedHashSet<>();
+        Map<String, List<Path>> localIndex = getIndex();
+        for (String component : componentSizes.keySet()) {
+            List<Path> files = localIndex.get(keyspaceName + "/" + tableName + "/" + setFilePrefix + component);
+            if (files != null) {
+                for (Path file : files) {
+                    candidateDirs.add(file.getParent());
+                }
+            }
+        }
+
+        if (candidateDirs.isEmpty()) {
+            return null;
+        }
+
+        List<Path> orderedDirs = new ArrayList<>();
+        for (Path dir : candidateDirs) {
+            if (isTableIdDir(dir, tableName, backupSet.tableId)) {
+                orderedDirs.add(dir);
+            }
+        }
+        for (Path dir : candidateDirs) {
+            if (!orderedDirs.contains(dir)) {
+                orderedDirs.add(dir);
+            }
+        }
+
+        // Digest components of the backup, fetched on first use
+        Map<String, byte[]> backupDigests = null;
+
+        for (Path dir : orderedDirs) {
+            try {
+                if (!matchesSizes(dir, setFilePrefix, componentSizes)) {
+                    continue;
+                }
+
+                if (backupDigests == null) {
+                    backupDigests = fetchDigests(backupStore, setObjKeyPrefix, componentSizes.keySet(), workDir);
+                }
+
+                boolean matched = true;
+                for (Map.Entry<String, byte[]> backupDigest : backupDigests.entrySet()) {
+                    if (!Arrays.equals(Files.readAllBytes(dir.resolve(setFilePrefix + backupDigest.getKey())),
+                                       backupDigest.getValue())) {
+                        matched = false;
+                        break;
+                    }
+                }
+
+                if (verifyChecksum) {
+                    for (Map.Entry<String, Long> componentSize : componentSizes.entrySet()) {
+                        if (!matched) {
+                            break;
+                        }
+                        matched = matchesETag(dir.resolve(setFilePrefix + componentSize.getKey()),
+                            componentSize.getValue(), backupStore.getETag(setObjKeyPrefix + componentSize.getKey()));
+                    }
+                }
+
+                if (matched) {
+                    return dir;
+                }
+            }
+            catch (NoSuchFileException nsfe) {
+                // Removed since the scan
+            }
+        }
+
+        mismatchNum.incrementAndGet();
+        return null;
+    }
+
+    private static boolean matchesSizes(Path dir, String setFilePrefix, Map<String, Long> componentSizes) throws IOException {
+        for (Map.Entry<String, Long> componentSize : componentSizes.entrySet()) {
+            Path file = dir.resolve(setFilePrefix + componentSize.getKey());
+            if ( !Files.isRegularFile(file) || (Files.size(file) != componentSize.getValue()) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Content of the digest components of a backup SSTable set
+     *
+     * @param components components of the set
+     * @param workDir where the objects are downloaded to (and removed from)
+     * @return component -> bytes
+     * @throws IOException
+     */
+    private static Map<String, byte[]> fetchDigests(OpscBackupStore backupStore,
+                                                    String setObjKeyPrefix,
+                                                    Set<String> components,
+                                                    File workDir) throws IOException {
+        Map<String, byte[]> digests = new HashMap<>();
+
+        for (String component : BYTE_VERIFIED_COMPONENTS) {
+            if (!components.contains(component)) {
+                continue;
+            }
+
+            Files.createDirectories(workDir.toPath());
+            Path tmpFile = Files.createTempFile(workDir.toPath(), ".digest-", ".tmp");
+            try {
+                backupStore.download(setObjKeyPrefix + component, tmpFile.toFile());
+                digests.put(component, Files.readAllBytes(tmpFile));
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while fetching " + setObjKeyPrefix + component);
+            }
+            finally {
+                Files.deleteIfExists(tmpFile);
+            }
+        }
+
+        return digests;
+    }
+
+    /**
+     * Whether a local SSTable directory is below the table directory "<table>-<table_id>"
+     */
+    private static boolean isTableIdDir(Path dir, String tableName, String tableId) {
+        if (tableId == null) {
+            return false;
+        }
+
+        for (Path name : dir) {
+            if (name.toString().equals(tableName + "-" + tableId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Table ID of a table in the parsed "schema.json" of a keyspace backup: the ID field of the
+     * JSON object that names the table, or of the object under the table name
+     *
+     * @param schemaJson
+     * @param tableName
+     * @return "<32 hex digits>"; null if not found
+     */
+    static String findTableId(Object schemaJson, String tableName) {
+        if (schemaJson instanceof Map) {
+            Map<?, ?> schemaMap = (Map<?, ?>) schemaJson;
+
+            for (String nameKey : SCHEMA_TABLE_NAME_KEYS) {
+                if (tableName.equals(schemaMap.get(nameKey))) {
+                    String tableId = getTableIdField(schemaMap);
+                    if (tableId != null) {
+                        return tableId;
+                    }
+                }
+            }
+
+            Object tableJson = schemaMap.get(tableName);
+            if (tableJson instanceof Map) {
+                String tableId = getTableIdField((Map<?, ?>) tableJson);
+                if (tableId != null) {
+                    return tableId;
+                }
+            }
+
+            for (Object value : schemaMap.values()) {
+                String tableId = findTableId(value, tableName);
+                if (tableId != null) {
+                    return tableId;
+                }
+            }
+        }
+        else if (schemaJson instanceof List) {
+            for (Object value : (List<?>) schemaJson) {
+                String tableId = findTableId(value, tableName);
+                if (tableId != null) {
+                    return tableId;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static String getTableIdField(Map<?, ?> tableJson) {
+        for (String idKey : SCHEMA_TABLE_ID_KEYS) {
+            Object id = tableJson.get(idKey);
+            if (id != null) {
+                String tableId = id.toString().replace("-", "").toLowerCase();
+                if (tableId.matches("[0-9a-f]{32}")) {
+                    return tableId;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compare the MD5 of a file with an S3 ETag (plain or multipart)
+     *
+     * @param file
+     * @param size
+     * @param eTag
+     * @return false if the ETag is not an MD5
+     * @throws IOException
+     */
+    static boolean matchesETag(Path file, long size, String eTag) throws IOException {
+        if (eTag == null) {
+            return false;
+        }
+
+        eTag = eTag.replace("\"", "").toLowerCase();
+
+        int partSepPos = eTag.indexOf('-');
+        String md5Hex = (partSepPos < 0) ? eTag : eTag.substring(0, partSepPos);
+        if (!md5Hex.matches("[0-9a-f]{32}")) {
+            return false;
+        }
+
+        if (partSepPos < 0) {
+            return md5Hex.equals(toHex(md5(file, 0, size)));
+        }
+
+        long partNum;
+        try {
+            partNum = Long.parseLong(eTag.substring(partSepPos + 1));
+        }
+        catch (NumberFormatException nfe) {
+            return false;
+        }
+
+        if ( (partNum <= 0) || (size <= 0) ) {
+            return false;
+        }
+
+        // The smallest whole-MB part size that gives the part count, then common uploader part sizes
+        Set<Long> partSizes = new LinkedHashSet<>();
+        partSizes.add(((size + partNum - 1) / partNum + MB - 1) / MB * MB);
+        for (long partSizeMb : MULTIPART_PART_SIZES_MB) {
+            partSizes.add(partSizeMb * MB);
+        }
+
+        for (long partSize : partSizes) {
+            if ((size + partSize - 1) / partSize != partNum) {
+                continue;
+            }
+
+            MessageDigest partMd5s = newMd5();
+            for (long partStart = 0; partStart < size; partStart += partSize) {
+                partMd5s.update(md5(file, partStart, Math.min(partSize, size - partStart)));
+            }
+
+            if (md5Hex.equals(toHex(partMd5s.digest()))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static byte[] md5(Path file, long start, long length) throws IOException {
+        MessageDigest md5 = newMd5();
+
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            if (inputStream.skip(start) != start) {
+                throw new IOException("Failed to read " + file);
+            }
+
+            byte[] buffer = new byte[64 * 1024];
+            long remaining = length;
+            while (remaining > 0) {
+                int readNum = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (readNum < 0) {
+                    throw new IOException("Failed to read " + file);
+                }
+                md5.update(buffer, 0, readNum);
+                remaining -= readNum;
+            }
+        }
+
+        return md5.digest();
+    }
+
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    String getStats() {
+        return String.format("%d objects (%d bytes) taken from local SSTable files, %d SSTable sets not matching (%d files indexed)",
+            hitNum.get(), hitBytes.get(), mismatchNum.get(), indexFileNum);
+    }
+}
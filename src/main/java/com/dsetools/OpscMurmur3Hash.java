@@ -0,0 +1,124 @@
+package com.dsetools;
+
+/**
+ * Port of Cassandra's MurmurHash3 (x64, 128-bit) as used by Murmur3Partitioner and the
+ * SSTable Bloom filters.
+ *
+ * NOTE: Cassandra's implementation sign-extends the tail bytes ("(long) key[i] << n" without
+ * "& 0xff"), which differs from the reference MurmurHash3. It is kept as is here, otherwise
+ * tokens of keys whose length is not a multiple of 16 would not match the cluster's tokens.
+ */
+class OpscMurmur3Hash {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private static long getBlock(byte[] key, int offset, int index) {
+        int blockOffset = offset + (index << 3);
+
+        return ((long) key[blockOffset] & 0xff) +
+            (((long) key[blockOffset + 1] & 0xff) << 8) +
+            (((long) key[blockOffset + 2] & 0xff) << 16) +
+            (((long) key[blockOffset + 3] & 0xff) << 24) +
+            (((long) key[blockOffset + 4] & 0xff) << 32) +
+            (((long) key[blockOffset + 5] & 0xff) << 40) +
+            (((long) key[blockOffset + 6] & 0xff) << 48) +
+            (((long) key[blockOffset + 7] & 0xff) << 56);
+    }
+
+    private static long rotl64(long v, int n) {
+        return ((v << n) | (v >>> (64 - n)));
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /**
+     * 128-bit hash of key[offset, offset + length)
+     *
+     * @param key
+     * @param offset
+     * @param length
+     * @param seed
+     * @return the two 64-bit halves of the hash
+     */
+    // The tail switch falls through on purpose, as in the reference implementation
+    @SuppressWarnings("fallthrough")
+    static long[] hash3_x64_128(byte[] key, int offset, int length, long seed) {
+        final int nblocks = length >> 4;
+
+        long h1 = seed;
+        long h2 = seed;
+
+        for (int i = 0; i < nblocks; i++) {
+            long k1 = getBlock(key, offset, i * 2);
+            long k2 = getBlock(key, offset, i * 2 + 1);
+
+            k1 *= C1; k1 = rotl64(k1, 31); k1 *= C2; h1 ^= k1;
+            h1 = rotl64(h1, 27); h1 += h2; h1 = h1 * 5 + 0x52dce729;
+
+            k2 *= C2; k2 = rotl64(k2, 33); k2 *= C1; h2 ^= k2;
+            h2 = rotl64(h2, 31); h2 += h1; h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        offset += nblocks * 16;
+
+        long k1 = 0;
+        long k2 = 0;
+
+        // Tail: signed bytes on purpose (see class comment). Every case falls through to the
+        //   next one, so that the remaining 1-15 bytes are all mixed in
+        switch (length & 15) {
+            case 15: k2 ^= ((long) key[offset + 14]) << 48;
+            case 14: k2 ^= ((long) key[offset + 13]) << 40;
+            case 13: k2 ^= ((long) key[offset + 12]) << 32;
+            case 12: k2 ^= ((long) key[offset + 11]) << 24;
+            case 11: k2 ^= ((long) key[offset + 10]) << 16;
+            case 10: k2 ^= ((long) key[offset + 9]) << 8;
+            case 9:  k2 ^= ((long) key[offset + 8]);
+                k2 *= C2; k2 = rotl64(k2, 33); k2 *= C1; h2 ^= k2;
+            case 8:  k1 ^= ((long) key[offset + 7]) << 56;
+            case 7:  k1 ^= ((long) key[offset + 6]) << 48;
+            case 6:  k1 ^= ((long) key[offset + 5]) << 40;
+            case 5:  k1 ^= ((long) key[offset + 4]) << 32;
+            case 4:  k1 ^= ((long) key[offset + 3]) << 24;
+            case 3:  k1 ^= ((long) key[offset + 2]) << 16;
+            case 2:  k1 ^= ((long) key[offset + 1]) << 8;
+            case 1:  k1 ^= ((long) key[offset]);
+                k1 *= C1; k1 = rotl64(k1, 31); k1 *= C2; h1 ^= k1;
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+
+        h1 += h2;
+        h2 += h1;
+
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+
+        h1 += h2;
+        h2 += h1;
+
+        return new long[] { h1, h2 };
+    }
+
+    /**
+     * Murmur3Partitioner token of a (serialized) partition key
+     *
+     * @param partitionKey
+     * @return
+     */
+    static long getToken(byte[] partitionKey) {
+        long hash = hash3_x64_128(partitionKey, 0, partitionKey.length, 0)[0];
+
+        // Long.MIN_VALUE is reserved as the minimum token
+        return (hash == Long.MIN_VALUE) ? Long.MAX_VALUE : hash;
+    }
+}
@@ -0,0 +1,215 @@
+package com.dsetools;
+
+import jnr.ffi.LibraryLoader;
+import jnr.ffi.Platform;
+
+import java.nio.file.Path;
+
+/**
+ * Keeps restore downloads ("download_drop_page_cache") from pushing the working set of a live
+ * node out of the page cache.
+ *
+ * Each writer (e.g. one download part) hands its written bytes to the kernel for write-back with
+ * sync_file_range() every SYNC_BYTES, waits for the previous window to be on disk, and drops it
+ * from the page cache with posix_fadvise(POSIX_FADV_DONTNEED). A file then never has more than
+ * two windows per writer in the page cache, and the dirty pages are written behind the download
+ * instead of in a burst at the kernel's dirty limits. Target files are preallocated with
+ * fallocate() (without changing the file size, so a failed download still shows its real size);
+ * on close, the blocks preallocated past the end of a file that was not completely written are
+ * given back, so failed downloads don't hold disk space the space admission no longer counts.
+ *
+ * The native calls go to a file descriptor of its own for the file: the page cache, write-back
+ * and allocation are per file, whatever descriptor they come through. Linux (64 bit) only,
+ * through jnr-ffi. When the native calls are not available, files are written through the page
+ * cache as before.
+ */
+class OpscPageCacheGuard implements AutoCloseable {
+
+    // Write-back window of a writer
+    static long SYNC_BYTES = 8 * 1024 * 1024;
+
+    // Set from "download_drop_page_cache" when supported
+    static boolean ENABLED = false;
+
+    private static final int O_RDONLY = 0;
+    private static final int O_WRONLY = 1;
+    private static final int O_CLOEXEC = 02000000;
+
+    private static final int POSIX_FADV_DONTNEED = 4;
+
+    private static final int SYNC_FILE_RANGE_WAIT_BEFORE = 1;
+    private static final int SYNC_FILE_RANGE_WRITE = 2;
+    private static final int SYNC_FILE_RANGE_WAIT_AFTER = 4;
+
+    private static final int FALLOC_FL_KEEP_SIZE = 1;
+    private static final int FALLOC_FL_PUNCH_HOLE = 2;
+
+    public interface LibC {
+        int open(String path, int flags);
+        int close(int fd);
+        int posix_fadvise(int fd, long offset, long len, int advice);
+        int sync_file_range(int fd, long offset, long nbytes, int flags);
+        int fallocate(int fd, int mode, long offset, long len);
+    }
+
+    private static final LibC LIBC;
+
+    static {
+        LibC libC = null;
+
+        try {
+            Platform platform = Platform.getNativePlatform();
+            if ( (platform.getOS() == Platform.OS.LINUX) &&
+                 ((platform.getCPU() == Platform.CPU.X86_64) || (platform.getCPU() == Platform.CPU.AARCH64)) ) {
+                libC = LibraryLoader.create(LibC.class).load(platform.getStandardCLibraryName());
+            }
+        }
+        catch (Throwable t) {
+            // jnr-ffi or the C library not available
+            libC = null;
+        }
+
+        LIBC = libC;
+    }
+
+    static boolean isSupported() {
+        return (LIBC != null);
+    }
+
+    /**
+     * @param file
+     * @param write true for a file being written, false for one being read (drop() only)
+     * @return null when not enabled or the file can't be opened
+     */
+    static OpscPageCacheGuard open(Path file, boolean write) {
+        if ( !ENABLED || !isSupported() ) {
+            return null;
+        }
+
+        int fd = LIBC.open(file.toAbsolutePath().toString(), (write ? O_WRONLY : O_RDONLY) | O_CLOEXEC);
+        return (fd >= 0) ? new OpscPageCacheGuard(file, fd) : null;
+    }
+
+    private final Path file;
+    private final int fd;
+
+    // End of the preallocated blocks; 0 if none
+    private long preallocatedSize = 0;
+
+    private OpscPageCacheGuard(Path file, int fd) {
+        this.file = file;
+        this.fd = fd;
+    }
+
+    /**
+     * Allocate the disk blocks of the whole file up front (best effort)
+     *
+     * @param size
+     */
+    void preallocate(long size) {
+        if ( (size > 0) && (LIBC.fallocate(fd, FALLOC_FL_KEEP_SIZE, 0, size) == 0) ) {
+            preallocatedSize = size;
+        }
+    }
+
+    /**
+     * Give back the blocks preallocated past the end of the file (a failed or interrupted
+     * download); nothing to do when the file was written completely
+     */
+    private void releasePreallocated() {
+        if (preallocatedSize == 0) {
+            return;
+        }
+
+        long size = file.toFile().length();
+        if (size < preallocatedSize) {
+            LIBC.fallocate(fd, FALLOC_FL_PUNCH_HOLE | FALLOC_FL_KEEP_SIZE, size, preallocatedSize - size);
+        }
+        preallocatedSize = 0;
+    }
+
+    /**
+     * Drop a range from the page cache (e.g. the source file of a copy, after reading it)
+     *
+     * @param start
+     * @param end exclusive
+     */
+    void drop(long start, long end) {
+        if (end > start) {
+            LIBC.posix_fadvise(fd, start, end - start, POSIX_FADV_DONTNEED);
+        }
+    }
+
+    @Override
+    public void close() {
+        releasePreallocated();
+        LIBC.close(fd);
+    }
+
+    /**
+     * Write-behind of one sequential writer
+     *
+     * @param startPos
+     * @return
+     */
+    Writer writer(long startPos) {
+        return new Writer(startPos);
+    }
+
+    class Writer {
+        // Start of the bytes not handed to write-back yet
+        private long pendingStart;
+
+        // Window handed to write-back and not dropped yet
+        private long flushingStart = -1;
+        private long flushingEnd = -1;
+
+        private Writer(long startPos) {
+            this.pendingStart = startPos;
+        }
+
+        /**
+         * @param pos end of the bytes written so far
+         */
+        void written(long pos) {
+            if (pos - pendingStart >= SYNC_BYTES) {
+                flush(pos);
+            }
+        }
+
+        /**
+         * @param pos end of all bytes written
+         */
+        void finish(long pos) {
+            flush(pos);
+            completeFlushing();
+        }
+
+        private void flush(long pos) {
+            if (pos <= pendingStart) {
+                return;
+            }
+
+            // Start write-back of the new window, then wait for the previous one and drop it
+            LIBC.sync_file_range(fd, pendingStart, pos - pendingStart, SYNC_FILE_RANGE_WRITE);
+            completeFlushing();
+
+            flushingStart = pendingStart;
+            flushingEnd = pos;
+            pendingStart = pos;
+        }
+
+        private void completeFlushing() {
+            if (flushingStart < 0) {
+                return;
+            }
+
+            LIBC.sync_file_range(fd, flushingStart, flushingEnd - flushingStart,
+                SYNC_FILE_RANGE_WAIT_BEFORE | SYNC_FILE_RANGE_WRITE | SYNC_FILE_RANGE_WAIT_AFTER);
+            drop(flushingStart, flushingEnd);
+
+            flushingStart = -1;
+            flushingEnd = -1;
+        }
+    }
+}
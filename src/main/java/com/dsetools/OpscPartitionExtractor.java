@@ -0,0 +1,574 @@
+package com.dsetools;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Extract a few partitions from backup SSTables (format "mc", Murmur3Partitioner) with ranged
+ * GETs only, instead of downloading whole SSTables:
+ *
+ *   1. "-Filter.db":          Bloom filter bits of each key (one 8-byte GET per bit word)
+ *   2. "-Summary.db":         index summary, to find the "-Index.db" section of each key
+ *   3. "-Index.db":           that section only, to find the "-Data.db" position and the
+ *                             promoted index of each key
+ *   4. "-CompressionInfo.db": header and the offsets of the needed chunks only
+ *   5. "-Data.db":            the chunks that hold each partition, checked against their CRC
+ *                             and decompressed
+ *   6. "-Statistics.db":      whole, if any partition was found
+ *
+ * The partitions found are returned as uncompressed partition bytes, to be written as a new
+ * SSTable with OpscSstableWriter.
+ */
+class OpscPartitionExtractor {
+
+    static String FILTER_COMPONENT = "Filter.db";
+    static String SUMMARY_COMPONENT = "Summary.db";
+    static String INDEX_COMPONENT = "Index.db";
+    static String COMPRESSION_INFO_COMPONENT = "CompressionInfo.db";
+    static String DATA_COMPONENT = "Data.db";
+    static String STATISTICS_COMPONENT = "Statistics.db";
+
+    static String PARTITION_INDEX_FILE = "partitions.json";
+
+    // Index.db entry: key length (short) + key + position (vint, up to 9 bytes) + promoted index size (vint)
+    private static int MAX_INDEX_ENTRY_HEADER_SIZE = 2 + 0xffff + 9 + 9;
+
+    // Enough for compressor class name, options, chunk length, data length and chunk count
+    private static int COMPRESSION_INFO_HEADER_FETCH_SIZE = 4096;
+
+    /**
+     * Partitions found in one SSTable, with what is needed to write them as a new SSTable
+     */
+    static class ExtractedSstable {
+        final List<OpscSstableWriter.Partition> partitions = new ArrayList<>();
+        int minIndexInterval;
+        byte[] statistics;
+    }
+
+    /**
+     * Parse a partition key given as "[text|int|bigint|uuid|hex:]<value>" (default: text).
+     * Composite partition keys can be given in "hex" form.
+     *
+     * @param keyStr
+     * @return serialized partition key
+     * @throws IllegalArgumentException
+     */
+    static byte[] parsePartitionKey(String keyStr) {
+        int sepPos = keyStr.indexOf(':');
+        String type = (sepPos > 0) ? keyStr.substring(0, sepPos).toLowerCase() : "text";
+        String value = (sepPos > 0) ? keyStr.substring(sepPos + 1) : keyStr;
+
+        switch (type) {
+            case "int":
+                return ByteBuffer.allocate(4).putInt(Integer.parseInt(value)).array();
+            case "bigint":
+                return ByteBuffer.allocate(8).putLong(Long.parseLong(value)).array();
+            case "uuid":
+                UUID uuid = UUID.fromString(value);
+                return ByteBuffer.allocate(16)
+                    .putLong(uuid.getMostSignificantBits())
+                    .putLong(uuid.getLeastSignificantBits()).array();
+            case "hex":
+                if (value.length() % 2 != 0) {
+                    throw new IllegalArgumentException("Odd number of hex digits: " + value);
+                }
+                byte[] bytes = new byte[value.length() / 2];
+                for (int i = 0; i < bytes.length; i++) {
+                    bytes[i] = (byte) Integer.parseInt(value.substring(i * 2, i * 2 + 2), 16);
+                }
+                return bytes;
+            case "text":
+                return value.getBytes(StandardCharsets.UTF_8);
+            default:
+                // No known type prefix; the whole string is a text key (e.g. "a:b")
+                return keyStr.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Partition order within an SSTable: token first, then unsigned key bytes
+     */
+    static int compareKeys(long token1, byte[] key1, long token2, byte[] key2) {
+        int cmp = Long.compare(token1, token2);
+        if (cmp != 0) {
+            return cmp;
+        }
+
+        for (int i = 0; i < Math.min(key1.length, key2.length); i++) {
+            cmp = Integer.compare(key1[i] & 0xff, key2[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(key1.length, key2.length);
+    }
+
+    private final AmazonS3 s3Client;
+    private final String bktName;
+
+    private long requestNum = 0;
+    private long fetchedBytes = 0;
+    private long readDataBytes = 0;
+
+    OpscPartitionExtractor(AmazonS3 s3Client, String bktName) {
+        this.s3Client = s3Client;
+        this.bktName = bktName;
+    }
+
+    long getRequestNum() {
+        return requestNum;
+    }
+
+    long getFetchedBytes() {
+        return fetchedBytes;
+    }
+
+    /**
+     * @return "-Data.db" size of the SSTables that partitions were read from
+     */
+    long getReadDataBytes() {
+        return readDataBytes;
+    }
+
+    /**
+     * Ranged GET of [start, end] (inclusive); to the end of the object when end < 0
+     */
+    private byte[] getRange(String s3ObjKey, long start, long end) throws IOException {
+        GetObjectRequest request = new GetObjectRequest(bktName, s3ObjKey);
+        if (end >= 0) {
+            request.withRange(start, end);
+        }
+        else {
+            request.withRange(start);
+        }
+
+        try (S3Object s3Object = s3Client.getObject(request)) {
+            byte[] bytes = IOUtils.toByteArray(s3Object.getObjectContent());
+
+            requestNum++;
+            fetchedBytes += bytes.length;
+            return bytes;
+        }
+    }
+
+    private long getSize(String s3ObjKey) {
+        requestNum++;
+        return s3Client.getObjectMetadata(bktName, s3ObjKey).getContentLength();
+    }
+
+    /**
+     * Extract the partitions of the given keys from one SSTable
+     *
+     * @param sstableName SSTable name (e.g. "mc-1-big"), for messages
+     * @param componentObjKeys component ("Data.db", "Index.db", ...) -> S3 object key
+     * @param partitionKeys
+     * @return partitions found in the SSTable (none if the SSTable has none of the keys)
+     * @throws IOException
+     */
+    ExtractedSstable extract(String sstableName,
+                             Map<String, String> componentObjKeys,
+                             List<byte[]> partitionKeys) throws IOException {
+        ExtractedSstable extracted = new ExtractedSstable();
+
+        for (String component : new String[] { SUMMARY_COMPONENT, INDEX_COMPONENT, DATA_COMPONENT, STATISTICS_COMPONENT }) {
+            if (!componentObjKeys.containsKey(component)) {
+                throw new IOException("Missing SSTable component " + component + " of " + sstableName);
+            }
+        }
+
+        // 1. Bloom filter
+        List<byte[]> candidateKeys = new ArrayList<>();
+        String filterObjKey = componentObjKeys.get(FILTER_COMPONENT);
+        if (filterObjKey != null) {
+            BloomFilter bloomFilter = new BloomFilter(filterObjKey);
+            for (byte[] partitionKey : partitionKeys) {
+                if (bloomFilter.mightContain(partitionKey)) {
+                    candidateKeys.add(partitionKey);
+                }
+            }
+        }
+        else {
+            candidateKeys.addAll(partitionKeys);
+        }
+
+        if (candidateKeys.isEmpty()) {
+            return extracted;
+        }
+
+        // 2. + 3. Summary and Index: uncompressed Data.db position and length of each partition
+        IndexSummary summary = new IndexSummary(getRange(componentObjKeys.get(SUMMARY_COMPONENT), 0, -1));
+        String indexObjKey = componentObjKeys.get(INDEX_COMPONENT);
+        long indexSize = getSize(indexObjKey);
+
+        CompressionInfo compressionInfo = null;
+        OpscChunkDecompressor decompressor = null;
+        String compressionInfoObjKey = componentObjKeys.get(COMPRESSION_INFO_COMPONENT);
+        if (compressionInfoObjKey != null) {
+            compressionInfo = new CompressionInfo(compressionInfoObjKey);
+            decompressor = new OpscChunkDecompressor(compressionInfo.compressorName);
+        }
+
+        String dataObjKey = componentObjKeys.get(DATA_COMPONENT);
+        long dataSize = getSize(dataObjKey);
+        long uncompressedDataSize = (compressionInfo != null) ? compressionInfo.dataLength : dataSize;
+        readDataBytes += dataSize;
+
+        for (byte[] partitionKey : candidateKeys) {
+            long token = OpscMurmur3Hash.getToken(partitionKey);
+
+            long[] indexSection = summary.getIndexSection(token, partitionKey, indexSize);
+            if (indexSection == null) {
+                continue;
+            }
+
+            IndexEntry indexEntry = findIndexEntry(indexObjKey, indexSection[0], indexSection[1], indexSize,
+                partitionKey, uncompressedDataSize);
+            if (indexEntry == null) {
+                // Bloom filter false positive
+                continue;
+            }
+
+            // 4. + 5. Data.db bytes: the chunks of the partition, or the plain range for an uncompressed SSTable
+            byte[] partitionBytes;
+
+            if (compressionInfo != null) {
+                partitionBytes = readCompressedRange(dataObjKey, dataSize, compressionInfo, decompressor,
+                    indexEntry.dataStart, indexEntry.dataEnd);
+            }
+            else {
+                partitionBytes = getRange(dataObjKey, indexEntry.dataStart, indexEntry.dataEnd - 1);
+            }
+
+            extracted.partitions.add(new OpscSstableWriter.Partition(partitionKey, partitionBytes, indexEntry.promotedIndex));
+        }
+
+        // 6. Statistics: serialization header the partition bytes are encoded against
+        if (!extracted.partitions.isEmpty()) {
+            extracted.minIndexInterval = summary.minIndexInterval;
+            extracted.statistics = getRange(componentObjKeys.get(STATISTICS_COMPONENT), 0, -1);
+        }
+
+        return extracted;
+    }
+
+    /**
+     * Uncompressed bytes [start, end) of a compressed "-Data.db"
+     */
+    private byte[] readCompressedRange(String dataObjKey,
+                                       long dataSize,
+                                       CompressionInfo compressionInfo,
+                                       OpscChunkDecompressor decompressor,
+                                       long start,
+                                       long end) throws IOException {
+        int firstChunk = (int) (start / compressionInfo.chunkLength);
+        int lastChunk = (int) ((end - 1) / compressionInfo.chunkLength);
+        long[] chunkOffsets = compressionInfo.getChunkOffsets(firstChunk, lastChunk, dataSize);
+
+        byte[] chunkBytes = getRange(dataObjKey, chunkOffsets[0], chunkOffsets[chunkOffsets.length - 1] - 1);
+
+        ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        CRC32 chunkCrc = new CRC32();
+
+        for (int i = 0; i <= lastChunk - firstChunk; i++) {
+            // Compressed chunk followed by the CRC32 of the compressed bytes
+            int offset = (int) (chunkOffsets[i] - chunkOffsets[0]);
+            int length = (int) (chunkOffsets[i + 1] - chunkOffsets[i]) - 4;
+
+            chunkCrc.reset();
+            chunkCrc.update(chunkBytes, offset, length);
+            if ((int) chunkCrc.getValue() != ByteBuffer.wrap(chunkBytes, offset + length, 4).getInt()) {
+                throw new IOException("CRC mismatch of " + DATA_COMPONENT + " chunk " + (firstChunk + i) + " of " + dataObjKey);
+            }
+
+            long chunkStart = (long) (firstChunk + i) * compressionInfo.chunkLength;
+            int uncompressedLength = (int) Math.min(compressionInfo.chunkLength, compressionInfo.dataLength - chunkStart);
+
+            uncompressed.write(decompressor.decompress(chunkBytes, offset, length, uncompressedLength));
+        }
+
+        long rangeStart = (long) firstChunk * compressionInfo.chunkLength;
+        byte[] uncompressedBytes = uncompressed.toByteArray();
+        return Arrays.copyOfRange(uncompressedBytes, (int) (start - rangeStart), (int) (end - rangeStart));
+    }
+
+    /**
+     * "-Index.db" entry of a partition: uncompressed "-Data.db" range and promoted index
+     */
+    private static class IndexEntry {
+        final long dataStart;
+        final long dataEnd;
+        final byte[] promotedIndex;
+
+        IndexEntry(long dataStart, long dataEnd, byte[] promotedIndex) {
+            this.dataStart = dataStart;
+            this.dataEnd = dataEnd;
+            this.promotedIndex = promotedIndex;
+        }
+    }
+
+    /**
+     * Scan an "-Index.db" section for the key
+     *
+     * @return index entry of the partition; null if not found
+     */
+    private IndexEntry findIndexEntry(String indexObjKey,
+                                      long sectionStart,
+                                      long sectionEnd,
+                                      long indexSize,
+                                      byte[] partitionKey,
+                                      long uncompressedDataSize) throws IOException {
+        DataInputStream sectionStream = new DataInputStream(
+            new ByteArrayInputStream(getRange(indexObjKey, sectionStart, sectionEnd - 1)));
+
+        long position = -1;
+        byte[] promotedIndex = null;
+
+        while (sectionStream.available() > 0) {
+            byte[] key = new byte[sectionStream.readUnsignedShort()];
+            sectionStream.readFully(key);
+            long dataPosition = readUnsignedVInt(sectionStream);
+            int promotedIndexSize = (int) readUnsignedVInt(sectionStream);
+
+            if (position >= 0) {
+                // The partition ends where the next one starts
+                return new IndexEntry(position, dataPosition, promotedIndex);
+            }
+
+            if (Arrays.equals(key, partitionKey)) {
+                position = dataPosition;
+                promotedIndex = new byte[promotedIndexSize];
+                sectionStream.readFully(promotedIndex);
+            }
+            else {
+                sectionStream.skipBytes(promotedIndexSize);
+            }
+        }
+
+        if (position < 0) {
+            return null;
+        }
+
+        // The partition is the last one of the section: read the first entry of the next section
+        if (sectionEnd >= indexSize) {
+            return new IndexEntry(position, uncompressedDataSize, promotedIndex);
+        }
+
+        DataInputStream nextEntryStream = new DataInputStream(new ByteArrayInputStream(
+            getRange(indexObjKey, sectionEnd, Math.min(sectionEnd + MAX_INDEX_ENTRY_HEADER_SIZE, indexSize) - 1)));
+        nextEntryStream.skipBytes(nextEntryStream.readUnsignedShort());
+
+        return new IndexEntry(position, readUnsignedVInt(nextEntryStream), promotedIndex);
+    }
+
+    /**
+     * Cassandra unsigned variable-length integer: the number of leading 1 bits of the first
+     * byte is the number of extra bytes
+     */
+    static long readUnsignedVInt(DataInput input) throws IOException {
+        int firstByte = input.readByte();
+        if (firstByte >= 0) {
+            return firstByte;
+        }
+
+        int extraByteNum = Integer.numberOfLeadingZeros(~firstByte) - 24;
+        long value = firstByte & (0xff >> extraByteNum);
+        for (int i = 0; i < extraByteNum; i++) {
+            value <<= 8;
+            value |= input.readByte() & 0xff;
+        }
+        return value;
+    }
+
+
+    /**
+     * "-Filter.db": hash count (int), bit set size in longs (int), bit set words (long).
+     * Only the words holding the bits of the looked-up keys are fetched.
+     */
+    private class BloomFilter {
+        private final String filterObjKey;
+        private final int hashCount;
+        private final long bitNum;
+        private final Map<Long, Long> words = new HashMap<>();
+
+        BloomFilter(String filterObjKey) throws IOException {
+            this.filterObjKey = filterObjKey;
+
+            DataInputStream headerStream = new DataInputStream(new ByteArrayInputStream(getRange(filterObjKey, 0, 7)));
+            hashCount = headerStream.readInt();
+            bitNum = (long) headerStream.readInt() * 64;
+        }
+
+        boolean mightContain(byte[] partitionKey) throws IOException {
+            if (bitNum == 0) {
+                return true;
+            }
+
+            for (long bitIndex : OpscSstableWriter.getFilterBitIndexes(partitionKey, hashCount, bitNum)) {
+                long wordIndex = bitIndex >>> 6;
+                Long word = words.get(wordIndex);
+                if (word == null) {
+                    word = ByteBuffer.wrap(getRange(filterObjKey, 8 + wordIndex * 8, 8 + wordIndex * 8 + 7)).getLong();
+                    words.put(wordIndex, word);
+                }
+
+                if (((word >>> (bitIndex & 63)) & 1) == 0) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * "-Summary.db": header, entry offsets and entries (key + Index.db position), both in the
+     * native byte order of the node that wrote it
+     */
+    private static class IndexSummary {
+        private final ByteBuffer entries;
+        private final int entryNum;
+        final int minIndexInterval;
+
+        IndexSummary(byte[] summaryBytes) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(summaryBytes);
+            minIndexInterval = buffer.getInt();
+            entryNum = buffer.getInt();
+            long offHeapSize = buffer.getLong();
+            buffer.getInt();                            // sampling level
+            buffer.getInt();                            // size at full sampling
+
+            int regionStart = OpscTokenRangeFilter.SUMMARY_HEADER_SIZE;
+            entries = ByteBuffer.wrap(summaryBytes, regionStart, (int) offHeapSize).slice();
+
+            // The first offset always points right after the offsets; use it to detect the byte order
+            entries.order(ByteOrder.LITTLE_ENDIAN);
+            if ( (entryNum > 0) && (entries.getInt(0) != entryNum * 4) ) {
+                entries.order(ByteOrder.BIG_ENDIAN);
+                if (entries.getInt(0) != entryNum * 4) {
+                    throw new IOException("Unrecognized " + SUMMARY_COMPONENT + " layout");
+                }
+            }
+        }
+
+        private int entryStart(int i) {
+            return entries.getInt(i * 4);
+        }
+
+        private int entryEnd(int i) {
+            return (i + 1 < entryNum) ? entries.getInt((i + 1) * 4) : entries.capacity();
+        }
+
+        private byte[] getKey(int i) {
+            byte[] key = new byte[entryEnd(i) - entryStart(i) - 8];
+            for (int j = 0; j < key.length; j++) {
+                key[j] = entries.get(entryStart(i) + j);
+            }
+            return key;
+        }
+
+        private long getIndexPosition(int i) {
+            return entries.getLong(entryEnd(i) - 8);
+        }
+
+        /**
+         * "-Index.db" section [start, end) that would hold the key; null if the key sorts
+         * before the first partition of the SSTable
+         */
+        long[] getIndexSection(long token, byte[] partitionKey, long indexSize) {
+            int low = 0;
+            int high = entryNum - 1;
+            int found = -1;
+
+            // Last entry <= key
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                byte[] midKey = getKey(mid);
+                if (compareKeys(OpscMurmur3Hash.getToken(midKey), midKey, token, partitionKey) <= 0) {
+                    found = mid;
+                    low = mid + 1;
+                }
+                else {
+                    high = mid - 1;
+                }
+            }
+
+            if (found < 0) {
+                return null;
+            }
+
+            return new long[] {
+                getIndexPosition(found),
+                (found + 1 < entryNum) ? getIndexPosition(found + 1) : indexSize };
+        }
+    }
+
+    /**
+     * "-CompressionInfo.db": compressor class name, options, chunk length, uncompressed data
+     * length, chunk count and chunk offsets (long each)
+     */
+    private class CompressionInfo {
+        private final String compressionInfoObjKey;
+        final String compressorName;
+        final int chunkLength;
+        final long dataLength;
+        final int chunkNum;
+        final long offsetsStart;
+
+        CompressionInfo(String compressionInfoObjKey) throws IOException {
+            this.compressionInfoObjKey = compressionInfoObjKey;
+
+            byte[] headerBytes = getRange(compressionInfoObjKey, 0, COMPRESSION_INFO_HEADER_FETCH_SIZE - 1);
+            DataInputStream headerStream = new DataInputStream(new ByteArrayInputStream(headerBytes));
+
+            compressorName = headerStream.readUTF();
+            int optionNum = headerStream.readInt();
+            for (int i = 0; i < optionNum; i++) {
+                headerStream.readUTF();
+                headerStream.readUTF();
+            }
+            chunkLength = headerStream.readInt();
+            dataLength = headerStream.readLong();
+            chunkNum = headerStream.readInt();
+
+            offsetsStart = headerBytes.length - headerStream.available();
+        }
+
+        /**
+         * Compressed offsets of chunks firstChunk .. lastChunk + 1 (the end of the last one)
+         */
+        long[] getChunkOffsets(int firstChunk, int lastChunk, long compressedDataSize) throws IOException {
+            int endChunk = Math.min(lastChunk + 1, chunkNum - 1);
+
+            ByteBuffer offsetBytes = ByteBuffer.wrap(getRange(compressionInfoObjKey,
+                offsetsStart + (long) firstChunk * 8,
+                offsetsStart + (long) endChunk * 8 + 7));
+
+            long[] chunkOffsets = new long[lastChunk - firstChunk + 2];
+            for (int i = 0; i <= endChunk - firstChunk; i++) {
+                chunkOffsets[i] = offsetBytes.getLong();
+            }
+            if (lastChunk + 1 >= chunkNum) {
+                chunkOffsets[chunkOffsets.length - 1] = compressedDataSize;
+            }
+
+            return chunkOffsets;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package com.dsetools;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Live controls of a running restore (or daemon), through JMX ("com.dsetools:type=RestoreControl")
+ * and an optional control file ("restore_control_file"):
+ * - "download_threads": SSTable set download threads of each host download
+ * - "bandwidth_mbps": download bandwidth cap in MB/s (0: no cap)
+ * - "disk_write_threads": concurrent writes per download root
+ * - "paused": true | false
+ *
+ * Changes apply without dropping transfers in flight. A smaller thread count takes effect as
+ * threads finish their current SSTable set, fewer write slots as writes complete, and a pause
+ * stops new objects and download parts from starting while the running ones complete. A larger
+ * thread count starts new threads for queued SSTable sets right away.
+ *
+ * The control file ("<key>: <value>" lines) is polled every CONTROL_FILE_POLL_MILLIS. Only the
+ * values that changed since the last read of the file are applied, so a JMX change stays in
+ * effect until the file changes the same value.
+ */
+class OpscRestoreControl {
+
+    static long CONTROL_FILE_POLL_MILLIS = 1000;
+
+    static String MBEAN_NAME = "com.dsetools:type=RestoreControl";
+
+    static final String KEY_DOWNLOAD_THREADS = "download_threads";
+    static final String KEY_BANDWIDTH_MBPS = "bandwidth_mbps";
+    static final String KEY_DISK_WRITE_THREADS = "disk_write_threads";
+    static final String KEY_PAUSED = "paused";
+
+    public interface RestoreControlMBean {
+        int getDownloadThreads();
+        void setDownloadThreads(int threadNum);
+        double getBandwidthMbps();
+        void setBandwidthMbps(double mbps);
+        int getDiskWriteThreads();
+        void setDiskWriteThreads(int threadNum);
+        boolean isPaused();
+        void pause();
+        void resume();
+        int getActiveDownloadPools();
+    }
+
+    private static OpscBackupStore backupStore = null;
+    private static OpscDownloadRoots downloadRoots = null;
+
+    // Guarded by the class lock; null means no cap
+    private static OpscBandwidthBudget bandwidthBudget = null;
+
+    // 0 means as configured ("-d", "download_disk_threads")
+    private static volatile int downloadThreadNum = 0;
+    private static volatile int diskWriteThreadNum = 0;
+
+    private static final Set<ThreadPoolExecutor> downloadPools = ConcurrentHashMap.newKeySet();
+
+    private static final Object pauseLock = new Object();
+    private static volatile boolean paused = false;
+
+    /**
+     * Register the JMX bean and start watching the control file
+     *
+     * @param store
+     * @param roots
+     * @param controlFileStr null or empty if there's no control file
+     */
+    static void start(OpscBackupStore store, OpscDownloadRoots roots, String controlFileStr) {
+        backupStore = store;
+        downloadRoots = roots;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                new StandardMBean(new Control(), RestoreControlMBean.class), new ObjectName(MBEAN_NAME));
+        }
+        catch (JMException jme) {
+            System.out.println("WARN: Failed to register JMX restore control " + MBEAN_NAME + " (" + jme.getMessage() + ").");
+        }
+
+        if ( (controlFileStr != null) && !controlFileStr.isEmpty() ) {
+            File controlFile = new File(controlFileStr);
+
+            Thread watcher = new Thread(() -> watchControlFile(controlFile), "restore-control");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+    }
+
+    /**
+     * Bandwidth budget set up at start (daemon mode); changed or created by "bandwidth_mbps"
+     *
+     * @param budget
+     */
+    static synchronized void setBandwidthBudget(OpscBandwidthBudget budget) {
+        bandwidthBudget = budget;
+    }
+
+    static synchronized OpscBandwidthBudget getBandwidthBudget() {
+        return bandwidthBudget;
+    }
+
+    /**
+     * Thread count for a new download pool
+     *
+     * @param configuredThreadNum
+     * @return
+     */
+    static int getDownloadThreadNum(int configuredThreadNum) {
+        int threadNum = downloadThreadNum;
+        return (threadNum > 0) ? threadNum : configuredThreadNum;
+    }
+
+    static void registerDownloadPool(ThreadPoolExecutor downloadPool) {
+        downloadPools.add(downloadPool);
+    }
+
+    static void unregisterDownloadPool(ThreadPoolExecutor downloadPool) {
+        downloadPools.remove(downloadPool);
+    }
+
+    static void setDownloadThreads(int threadNum) {
+        if (threadNum <= 0) {
+            throw new IllegalArgumentException(KEY_DOWNLOAD_THREADS + " must be a positive integer");
+        }
+
+        downloadThreadNum = threadNum;
+
+        for (ThreadPoolExecutor downloadPool : downloadPools) {
+            resize(downloadPool, threadNum);
+        }
+
+        System.out.println("Restore control: " + KEY_DOWNLOAD_THREADS + " = " + threadNum +
+            " (" + downloadPools.size() + " active download pools)");
+    }
+
+    private static void resize(ThreadPoolExecutor pool, int threadNum) {
+        // The core size may never be above the maximum size
+        synchronized (pool) {
+            if (threadNum > pool.getMaximumPoolSize()) {
+                pool.setMaximumPoolSize(threadNum);
+                pool.setCorePoolSize(threadNum);
+            }
+            else {
+                pool.setCorePoolSize(threadNum);
+                pool.setMaximumPoolSize(threadNum);
+            }
+        }
+    }
+
+    static synchronized void setBandwidthMbps(double mbps) {
+        if ( (mbps < 0) || Double.isNaN(mbps) ) {
+            throw new IllegalArgumentException(KEY_BANDWIDTH_MBPS + " must be 0 (no cap) or positive");
+        }
+
+        if (mbps == 0) {
+            bandwidthBudget = null;
+        }
+        else if (bandwidthBudget == null) {
+            bandwidthBudget = new OpscBandwidthBudget((long) (mbps * 1024 * 1024));
+        }
+        else {
+            bandwidthBudget.setBytesPerSec((long) (mbps * 1024 * 1024));
+        }
+
+        if (backupStore != null) {
+            backupStore.setBandwidthBudget(bandwidthBudget);
+        }
+
+        System.out.println("Restore control: " + KEY_BANDWIDTH_MBPS + " = " + ((mbps == 0) ? "no cap" : mbps));
+    }
+
+    static synchronized double getBandwidthMbps() {
+        return (bandwidthBudget != null) ? (bandwidthBudget.getBytesPerSec() / 1024.0 / 1024.0) : 0;
+    }
+
+    static void setDiskWriteThreads(int threadNum) {
+        if (threadNum <= 0) {
+            throw new IllegalArgumentException(KEY_DISK_WRITE_THREADS + " must be a positive integer");
+        }
+
+        diskWriteThreadNum = threadNum;
+
+        if (downloadRoots != null) {
+            downloadRoots.setWriteThreadNum(threadNum);
+        }
+
+        System.out.println("Restore control: " + KEY_DISK_WRITE_THREADS + " = " + threadNum);
+    }
+
+    static void setPaused(boolean pause) {
+        synchronized (pauseLock) {
+            if (paused == pause) {
+                return;
+            }
+
+            paused = pause;
+            pauseLock.notifyAll();
+        }
+
+        System.out.println("Restore control: " + (pause ? "paused; transfers in flight complete" : "resumed"));
+    }
+
+    /**
+     * Wait while paused; called before starting an object or a download part
+     *
+     * @throws InterruptedException
+     */
+    static void awaitResumed() throws InterruptedException {
+        if (!paused) {
+            return;
+        }
+
+        synchronized (pauseLock) {
+            while (paused) {
+                pauseLock.wait();
+            }
+        }
+    }
+
+    private static void watchControlFile(File controlFile) {
+        long lastModified = -1;
+        long lastLength = -1;
+        Map<String, String> lastValues = new HashMap<>();
+
+        while (true) {
+            if ( controlFile.isFile() &&
+                 ((controlFile.lastModified() != lastModified) || (controlFile.length() != lastLength)) ) {
+                lastModified = controlFile.lastModified();
+                lastLength = controlFile.length();
+
+                Properties controlProps = new Properties();
+                try (Reader reader = new FileReader(controlFile)) {
+                    controlProps.load(reader);
+                }
+                catch (IOException ioe) {
+                    System.out.println("WARN: Failed to read restore control file " + controlFile + ": " + ioe.getMessage());
+                }
+
+                for (String key : controlProps.stringPropertyNames()) {
+                    String value = controlProps.getProperty(key).trim();
+                    if (!value.equals(lastValues.put(key, value))) {
+                        apply(controlFile, key, value);
+                    }
+                }
+            }
+
+            try {
+                Thread.sleep(CONTROL_FILE_POLL_MILLIS);
+            }
+            catch (InterruptedException ie) {
+                return;
+            }
+        }
+    }
+
+    private static void apply(File controlFile, String key, String value) {
+        try {
+            switch (key) {
+                case KEY_DOWNLOAD_THREADS:
+                    setDownloadThreads(Integer.parseInt(value));
+                    break;
+                case KEY_BANDWIDTH_MBPS:
+                    setBandwidthMbps(Double.parseDouble(value));
+                    break;
+                case KEY_DISK_WRITE_THREADS:
+                    setDiskWriteThreads(Integer.parseInt(value));
+                    break;
+                case KEY_PAUSED:
+                    setPaused(Boolean.parseBoolean(value));
+                    break;
+                default:
+                    System.out.println("WARN: Unknown key \"" + key + "\" in restore control file " + controlFile + "; ignored.");
+            }
+        }
+        catch (IllegalArgumentException iae) {
+            // NumberFormatException included
+            System.out.println("WARN: Incorrect value \"" + value + "\" for \"" + key +
+                "\" in restore control file " + controlFile + "; ignored.");
+        }
+    }
+
+    /**
+     * JMX view of the controls
+     */
+    private static class Control implements RestoreControlMBean {
+        @Override
+        public int getDownloadThreads() {
+            return downloadThreadNum;
+        }
+
+        @Override
+        public void setDownloadThreads(int threadNum) {
+            OpscRestoreControl.setDownloadThreads(threadNum);
+        }
+
+        @Override
+        public double getBandwidthMbps() {
+            return OpscRestoreControl.getBandwidthMbps();
+        }
+
+        @Override
+        public void setBandwidthMbps(double mbps) {
+            OpscRestoreControl.setBandwidthMbps(mbps);
+        }
+
+        @Override
+        public int getDiskWriteThreads() {
+            return diskWriteThreadNum;
+        }
+
+        @Override
+        public void setDiskWriteThreads(int threadNum) {
+            OpscRestoreControl.setDiskWriteThreads(threadNum);
+        }
+
+        @Override
+        public boolean isPaused() {
+            return paused;
+        }
+
+        @Override
+        public void pause() {
+            setPaused(true);
+        }
+
+        @Override
+        public void resume() {
+            setPaused(false);
+        }
+
+        @Override
+        public int getActiveDownloadPools() {
+            return downloadPools.size();
+        }
+    }
+}
@@ -0,0 +1,781 @@
+package com.dsetools;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Coordinated multi-process restore through lease files on a shared file system.
+ *
+ * The coordinator ("plan") splits the cluster-wide restore work into shards. Workers (other
+ * invocations of this utility, "work") claim shards by atomically creating lease files, keep
+ * the leases alive by touching them, and report progress per shard. Shards with an expired
+ * lease are taken over (and resumed) by other workers; an idle worker steals the second half
+ * of the remaining items of the slowest shard, from an SSTable set boundary on. "status"
+ * summarizes the progress.
+ *
+ * Lease and steal files are created complete and exclusively (a hard link to a temporary file),
+ * so the coordination directory must support hard links. A worker checks that it still holds
+ * the lease before each item, and stops processing a shard as soon as another worker took it
+ * over. All workers write to the same shared target directory.
+ *
+ * Items that fail are not lost when their shard is done: they go to a retry shard
+ * ("<shard>-r<attempt>"), which any worker claims (or steals from) like the other shards, until
+ * an item has failed MAX_ITEM_ATTEMPTS times.
+ *
+ * Directory layout:
+ *   <coord_dir>/plan.json                    restore plan summary
+ *   <coord_dir>/shards/<shard>.json           work items of a shard
+ *   <coord_dir>/leases/<shard>.lease          lease (worker ID; last modified time = heartbeat)
+ *   <coord_dir>/progress/<shard>.progress     next item index, bytes done and failed items
+ *   <coord_dir>/steals/<shard>.steal          item index from which a shard has been stolen
+ *   <coord_dir>/done/<shard>.done             completion marker
+ */
+class OpscRestoreCoordinator {
+
+    static String COORD_MODE_PLAN = "plan";
+    static String COORD_MODE_WORK = "work";
+    static String COORD_MODE_STATUS = "status";
+
+    static String PLAN_FILE = "plan.json";
+    static String SHARD_DIR = "shards";
+    static String LEASE_DIR = "leases";
+    static String PROGRESS_DIR = "progress";
+    static String STEAL_DIR = "steals";
+    static String DONE_DIR = "done";
+
+    static String SHARD_FILE_SUFFIX = ".json";
+    static String LEASE_FILE_SUFFIX = ".lease";
+    static String PROGRESS_FILE_SUFFIX = ".progress";
+    static String STEAL_FILE_SUFFIX = ".steal";
+    static String DONE_FILE_SUFFIX = ".done";
+
+    static long LEASE_TIMEOUT_MILLIS = 120 * 1000;
+    static long HEARTBEAT_INTERVAL_MILLIS = 10 * 1000;
+    static long IDLE_WAIT_MILLIS = 5 * 1000;
+
+    // Don't bother stealing from a shard with fewer remaining items than this
+    static int MIN_STEAL_ITEM_NUM = 4;
+
+    // Attempts of an item (its shard, then retry shards) before it is given up
+    static int MAX_ITEM_ATTEMPTS = 3;
+
+    private static final String RETRY_SHARD_MARKER = "-r";
+    private static final Pattern RETRY_SHARD_PATTERN = Pattern.compile("-r([0-9]+)(-s[0-9]+)*$");
+
+    /**
+     * One SSTable object to restore
+     */
+    static class WorkItem {
+        final String hostId;
+        final String s3ObjKey;
+        final String keyspaceName;
+        final String tableName;
+        final String sstableVersion;
+        final long size;
+
+        WorkItem(String hostId, String s3ObjKey, String keyspaceName, String tableName, String sstableVersion, long size) {
+            this.hostId = hostId;
+            this.s3ObjKey = s3ObjKey;
+            this.keyspaceName = keyspaceName;
+            this.tableName = tableName;
+            this.sstableVersion = sstableVersion;
+            this.size = size;
+        }
+
+        @SuppressWarnings("unchecked")
+        JSONObject toJSON() {
+            JSONObject itemJson = new JSONObject();
+            itemJson.put("host", hostId);
+            itemJson.put("key", s3ObjKey);
+            itemJson.put("keyspace", keyspaceName);
+            itemJson.put("table", tableName);
+            itemJson.put("version", sstableVersion);
+            itemJson.put("size", size);
+            return itemJson;
+        }
+
+        static WorkItem fromJSON(JSONObject itemJson) {
+            return new WorkItem(
+                (String) itemJson.get("host"),
+                (String) itemJson.get("key"),
+                (String) itemJson.get("keyspace"),
+                (String) itemJson.get("table"),
+                (String) itemJson.get("version"),
+                (Long) itemJson.get("size"));
+        }
+    }
+
+    private final Path coordDir;
+
+    OpscRestoreCoordinator(String coordDirStr) {
+        this.coordDir = Paths.get(coordDirStr);
+    }
+
+    private Path shardFile(String shard) {
+        return coordDir.resolve(SHARD_DIR).resolve(shard + SHARD_FILE_SUFFIX);
+    }
+
+    private Path leaseFile(String shard) {
+        return coordDir.resolve(LEASE_DIR).resolve(shard + LEASE_FILE_SUFFIX);
+    }
+
+    private Path progressFile(String shard) {
+        return coordDir.resolve(PROGRESS_DIR).resolve(shard + PROGRESS_FILE_SUFFIX);
+    }
+
+    private Path stealFile(String shard) {
+        return coordDir.resolve(STEAL_DIR).resolve(shard + STEAL_FILE_SUFFIX);
+    }
+
+    private Path doneFile(String shard) {
+        return coordDir.resolve(DONE_DIR).resolve(shard + DONE_FILE_SUFFIX);
+    }
+
+
+    /**
+     * Coordinator: split the work items into shards and write the plan. Items of one SSTable set
+     * (same generation) stay in the same shard.
+     *
+     * @param workItems items grouped by host and SSTable generation
+     * @param shardBytes target shard size
+     * @param planDesc plan description (backup time, keyspace, table, ...)
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    void writePlan(List<WorkItem> workItems, long shardBytes, Map<String, String> planDesc) throws IOException {
+        for (String subDir : new String[] { SHARD_DIR, LEASE_DIR, PROGRESS_DIR, STEAL_DIR, DONE_DIR }) {
+            Path dir = coordDir.resolve(subDir);
+            Files.createDirectories(dir);
+
+            // A new plan replaces the previous one
+            try (DirectoryStream<Path> dirStream = Files.newDirectoryStream(dir)) {
+                for (Path file : dirStream) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+
+        int shardNum = 0;
+        long totalBytes = 0;
+
+        JSONArray shardItemsJson = new JSONArray();
+        long shardItemBytes = 0;
+        String lastGeneration = null;
+
+        for (WorkItem workItem : workItems) {
+            String generation = workItem.hostId + "/" + getGeneration(workItem.s3ObjKey);
+
+            // Only cut a shard at an SSTable set boundary
+            if ( (shardItemBytes >= shardBytes) && !generation.equals(lastGeneration) ) {
+                writeShard(String.format("shard-%06d", shardNum++), shardItemsJson);
+                shardItemsJson = new JSONArray();
+                shardItemBytes = 0;
+            }
+
+            shardItemsJson.add(workItem.toJSON());
+            shardItemBytes += Math.max(workItem.size, 0);
+            totalBytes += Math.max(workItem.size, 0);
+            lastGeneration = generation;
+        }
+
+        if (!shardItemsJson.isEmpty()) {
+            writeShard(String.format("shard-%06d", shardNum++), shardItemsJson);
+        }
+
+        JSONObject planJson = new JSONObject();
+        planJson.putAll(planDesc);
+        planJson.put("created_at", Instant.now().toString());
+        planJson.put("shards", (long) shardNum);
+        planJson.put("items", (long) workItems.size());
+        planJson.put("bytes", totalBytes);
+        writeFileAtomically(coordDir.resolve(PLAN_FILE), planJson.toJSONString());
+
+        System.out.format("Restore plan written to %s: %d items, %d bytes in %d shards.\n",
+            coordDir, workItems.size(), totalBytes, shardNum);
+    }
+
+    /**
+     * SSTable generation of an object key: the file name without the component part
+     * (e.g. "<uniquifier>-mc-1-big" of "<uniquifier>-mc-1-big-Data.db")
+     */
+    static String getGeneration(String s3ObjKey) {
+        String fileName = s3ObjKey.substring(s3ObjKey.lastIndexOf('/') + 1);
+        int componentPos = fileName.lastIndexOf('-');
+        return (componentPos > 0) ? fileName.substring(0, componentPos) : fileName;
+    }
+
+    private void writeShard(String shard, JSONArray shardItemsJson) throws IOException {
+        writeFileAtomically(shardFile(shard), shardItemsJson.toJSONString());
+    }
+
+    private static void writeFileAtomically(Path file, String content) throws IOException {
+        Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp-" + UUID.randomUUID());
+        Files.write(tmpFile, content.getBytes(StandardCharsets.UTF_8));
+        Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Create a file with its content, unless it exists: a hard link to a complete temporary file
+     * either appears with all the content or fails, so readers never see an empty or partly
+     * written file
+     *
+     * @param file
+     * @param props
+     * @return false if the file already exists
+     * @throws IOException
+     */
+    private static boolean createPropsFileExclusively(Path file, Properties props) throws IOException {
+        StringWriter writer = new StringWriter();
+        props.store(writer, null);
+
+        Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp-" + UUID.randomUUID());
+        Files.write(tmpFile, writer.toString().getBytes(StandardCharsets.UTF_8));
+
+        try {
+            Files.createLink(file, tmpFile);
+            return true;
+        }
+        catch (FileAlreadyExistsException faee) {
+            return false;
+        }
+        catch (UnsupportedOperationException uoe) {
+            throw new IOException("Coordination directory without hard link support: " + file.getParent());
+        }
+        finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    private List<WorkItem> readShard(String shard) throws IOException {
+        List<WorkItem> workItems = new ArrayList<>();
+
+        try (Reader reader = Files.newBufferedReader(shardFile(shard), StandardCharsets.UTF_8)) {
+            JSONArray shardItemsJson = (JSONArray) new JSONParser().parse(reader);
+            for (Object itemJson : shardItemsJson) {
+                workItems.add(WorkItem.fromJSON((JSONObject) itemJson));
+            }
+        }
+        catch (org.json.simple.parser.ParseException pe) {
+            throw new IOException("Corrupted shard file " + shardFile(shard), pe);
+        }
+
+        return workItems;
+    }
+
+    private List<String> listShards() throws IOException {
+        List<String> shards = new ArrayList<>();
+
+        try (DirectoryStream<Path> dirStream =
+                 Files.newDirectoryStream(coordDir.resolve(SHARD_DIR), "*" + SHARD_FILE_SUFFIX)) {
+            for (Path file : dirStream) {
+                String fileName = file.getFileName().toString();
+                shards.add(fileName.substring(0, fileName.length() - SHARD_FILE_SUFFIX.length()));
+            }
+        }
+
+        Collections.sort(shards);
+        return shards;
+    }
+
+    private Properties readProps(Path file) {
+        Properties props = new Properties();
+
+        if (Files.exists(file)) {
+            try (InputStream inputStream = Files.newInputStream(file)) {
+                props.load(inputStream);
+            }
+            catch (IOException ioe) {
+                // Treat as missing; it is being rewritten
+            }
+        }
+
+        return props;
+    }
+
+    private void writeProps(Path file, Properties props) throws IOException {
+        StringWriter writer = new StringWriter();
+        props.store(writer, null);
+        writeFileAtomically(file, writer.toString());
+    }
+
+    private int getNextItemIndex(String shard) {
+        return Integer.parseInt(readProps(progressFile(shard)).getProperty("next_item", "0"));
+    }
+
+    private int getStealIndex(String shard) {
+        Properties stealProps = readProps(stealFile(shard));
+        return Integer.parseInt(stealProps.getProperty("from_item", String.valueOf(Integer.MAX_VALUE)));
+    }
+
+    /**
+     * Whether a worker (thread) still holds the lease of a shard
+     */
+    private boolean isLeaseOwner(String shard, String workerId) {
+        return workerId.equals(readProps(leaseFile(shard)).getProperty("worker"));
+    }
+
+    private boolean isLeaseExpired(String shard) {
+        try {
+            long heartbeatMillis = Files.getLastModifiedTime(leaseFile(shard)).toMillis();
+            return (System.currentTimeMillis() - heartbeatMillis) > LEASE_TIMEOUT_MILLIS;
+        }
+        catch (IOException ioe) {
+            return false;
+        }
+    }
+
+
+    /**
+     * Worker: claim and process shards with the given number of threads until all shards are done
+     *
+     * @param threadNum
+     * @param shardProcessor downloads one work item
+     * @throws InterruptedException
+     */
+    void runWorker(int threadNum, WorkItemProcessor shardProcessor) throws InterruptedException {
+        String workerId = getWorkerId();
+
+        System.out.format("Starting restore worker %s with %d threads (coordination directory: %s) ...\n",
+            workerId, threadNum, coordDir);
+
+        // shard -> worker thread holding its lease
+        Map<String, String> heldShards = new ConcurrentHashMap<>();
+
+        // Heartbeat: keep all held leases alive
+        Thread heartbeatThread = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                for (Map.Entry<String, String> heldShard : heldShards.entrySet()) {
+                    // A lease taken over by another worker is not kept alive; the owner thread notices on its own
+                    if (!isLeaseOwner(heldShard.getKey(), heldShard.getValue())) {
+                        continue;
+                    }
+
+                    try {
+                        Files.setLastModifiedTime(leaseFile(heldShard.getKey()), FileTime.fromMillis(System.currentTimeMillis()));
+                    }
+                    catch (IOException ioe) {
+                        // Lease lost in the meantime
+                    }
+                }
+
+                try {
+                    Thread.sleep(HEARTBEAT_INTERVAL_MILLIS);
+                }
+                catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }, "lease-heartbeat");
+        heartbeatThread.setDaemon(true);
+        heartbeatThread.start();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadNum);
+        for (int i = 0; i < threadNum; i++) {
+            final String threadWorkerId = workerId + "#" + i;
+            executor.execute(() -> {
+                // Identifies the worker thread in the restore event log
+                Thread.currentThread().setName(threadWorkerId);
+                runWorkerThread(threadWorkerId, heldShards, shardProcessor);
+            });
+        }
+
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        heartbeatThread.interrupt();
+
+        System.out.format("Restore worker %s finished: no more shards to process.\n", workerId);
+    }
+
+    interface WorkItemProcessor {
+        /**
+         * @return number of bytes downloaded
+         */
+        long process(WorkItem workItem) throws Exception;
+    }
+
+    private void runWorkerThread(String workerId, Map<String, String> heldShards, WorkItemProcessor shardProcessor) {
+        while (true) {
+            String shard;
+            try {
+                shard = acquireShard(workerId);
+            }
+            catch (IOException ioe) {
+                System.out.println("ERROR: Failed to access coordination directory " + coordDir + ": " + ioe.getMessage());
+                return;
+            }
+
+            if (shard == null) {
+                if (allShardsDone()) {
+                    return;
+                }
+
+                // Others still working; wait for leases to expire or shards to become stealable
+                try {
+                    Thread.sleep(IDLE_WAIT_MILLIS);
+                }
+                catch (InterruptedException ie) {
+                    return;
+                }
+                continue;
+            }
+
+            heldShards.put(shard, workerId);
+            try {
+                processShard(workerId, shard, shardProcessor);
+            }
+            catch (IOException ioe) {
+                System.out.format("ERROR: [%s] Failed to process shard %s: %s\n", workerId, shard, ioe.getMessage());
+            }
+            finally {
+                heldShards.remove(shard);
+            }
+        }
+    }
+
+    /**
+     * Acquire a shard: an unclaimed one first, then one with an expired lease, and finally the
+     * second half of the remaining items of the busiest shard
+     *
+     * @param workerId
+     * @return null if there is nothing to do at the moment
+     * @throws IOException
+     */
+    private synchronized String acquireShard(String workerId) throws IOException {
+        List<String> shards = listShards();
+
+        // 1. Unclaimed shard
+        for (String shard : shards) {
+            if ( !Files.exists(doneFile(shard)) && tryCreateLease(shard, workerId) ) {
+                return shard;
+            }
+        }
+
+        // 2. Shard with an expired lease (worker gone); resume from its progress
+        for (String shard : shards) {
+            if ( !Files.exists(doneFile(shard)) && Files.exists(leaseFile(shard)) && isLeaseExpired(shard) ) {
+                Path expiredLeaseFile = leaseFile(shard).resolveSibling(
+                    leaseFile(shard).getFileName() + ".expired-" + UUID.randomUUID());
+                try {
+                    // Only one worker wins the rename
+                    Files.move(leaseFile(shard), expiredLeaseFile, StandardCopyOption.ATOMIC_MOVE);
+                    Files.deleteIfExists(expiredLeaseFile);
+                }
+                catch (IOException ioe) {
+                    continue;
+                }
+
+                if (tryCreateLease(shard, workerId)) {
+                    System.out.format("  [%s] Took over shard %s with expired lease.\n", workerId, shard);
+                    return shard;
+                }
+            }
+        }
+
+        // 3. Steal the tail of the shard with the most remaining items
+        String busiestShard = null;
+        int busiestRemainingNum = 0;
+        int busiestItemNum = 0;
+
+        for (String shard : shards) {
+            if ( Files.exists(doneFile(shard)) || !Files.exists(leaseFile(shard)) || Files.exists(stealFile(shard)) ) {
+                continue;
+            }
+
+            int itemNum = readShard(shard).size();
+            int remainingNum = itemNum - getNextItemIndex(shard);
+            if (remainingNum > busiestRemainingNum) {
+                busiestShard = shard;
+                busiestRemainingNum = remainingNum;
+                busiestItemNum = itemNum;
+            }
+        }
+
+        if ( (busiestShard != null) && (busiestRemainingNum >= MIN_STEAL_ITEM_NUM) ) {
+            List<WorkItem> workItems = readShard(busiestShard);
+
+            // Never split an SSTable set: move the steal point forward to the next set
+            int stealIndex = busiestItemNum - (busiestRemainingNum / 2);
+            while ( (stealIndex < busiestItemNum) && isSameSstableSet(workItems.get(stealIndex - 1), workItems.get(stealIndex)) ) {
+                stealIndex++;
+            }
+
+            if (stealIndex >= busiestItemNum) {
+                return null;
+            }
+
+            Properties stealProps = new Properties();
+            stealProps.setProperty("from_item", String.valueOf(stealIndex));
+            stealProps.setProperty("worker", workerId);
+
+            // Only one steal per shard; the owner stops at "from_item"
+            if (!createPropsFileExclusively(stealFile(busiestShard), stealProps)) {
+                return null;
+            }
+
+            String stolenShard = busiestShard + "-s" + stealIndex;
+            writeShard(stolenShard, toJSON(workItems.subList(stealIndex, workItems.size())));
+
+            if (tryCreateLease(stolenShard, workerId)) {
+                System.out.format("  [%s] Took over items %d-%d of shard %s.\n",
+                    workerId, stealIndex, busiestItemNum - 1, busiestShard);
+                return stolenShard;
+            }
+        }
+
+        return null;
+    }
+
+    // JSONArray is a raw ArrayList
+    @SuppressWarnings("unchecked")
+    private static JSONArray toJSON(List<WorkItem> workItems) {
+        JSONArray itemsJson = new JSONArray();
+        for (WorkItem workItem : workItems) {
+            itemsJson.add(workItem.toJSON());
+        }
+        return itemsJson;
+    }
+
+    private static boolean isSameSstableSet(WorkItem workItem, WorkItem otherWorkItem) {
+        return workItem.hostId.equals(otherWorkItem.hostId) &&
+            getGeneration(workItem.s3ObjKey).equals(getGeneration(otherWorkItem.s3ObjKey));
+    }
+
+    private boolean tryCreateLease(String shard, String workerId) throws IOException {
+        Properties leaseProps = new Properties();
+        leaseProps.setProperty("worker", workerId);
+
+        return createPropsFileExclusively(leaseFile(shard), leaseProps);
+    }
+
+    private void processShard(String workerId, String shard, WorkItemProcessor shardProcessor) throws IOException {
+        List<WorkItem> workItems = readShard(shard);
+
+        Properties progressProps = readProps(progressFile(shard));
+        int nextItem = Integer.parseInt(progressProps.getProperty("next_item", "0"));
+        long doneBytes = Long.parseLong(progressProps.getProperty("bytes", "0"));
+        int failedNum = Integer.parseInt(progressProps.getProperty("failed", "0"));
+
+        // Indexes of the failed items, for the retry shard
+        List<Integer> failedItems = new ArrayList<>();
+        for (String failedItem : progressProps.getProperty("failed_items", "").split(",")) {
+            if (!failedItem.isEmpty()) {
+                failedItems.add(Integer.parseInt(failedItem));
+            }
+        }
+
+        System.out.format("  [%s] Processing shard %s (items %d-%d) ...\n", workerId, shard, nextItem, workItems.size() - 1);
+
+        while (nextItem < workItems.size()) {
+            // Fencing: stop as soon as the lease has been taken over (e.g. after a long pause of this worker)
+            if (!isLeaseOwner(shard, workerId)) {
+                System.out.format("WARN: [%s] Lost the lease of shard %s at item %d; stopped.\n", workerId, shard, nextItem);
+                return;
+            }
+
+            // Stop where another worker took over the rest of the shard
+            if (nextItem >= getStealIndex(shard)) {
+                break;
+            }
+
+            WorkItem workItem = workItems.get(nextItem);
+            try {
+                doneBytes += shardProcessor.process(workItem);
+            }
+            catch (Exception e) {
+                failedNum++;
+                failedItems.add(nextItem);
+                System.out.format("  [%s] download of \"%s\" failed: %s\n", workerId, workItem.s3ObjKey, e.getMessage());
+            }
+
+            nextItem++;
+
+            progressProps.setProperty("worker", workerId);
+            progressProps.setProperty("next_item", String.valueOf(nextItem));
+            progressProps.setProperty("bytes", String.valueOf(doneBytes));
+            progressProps.setProperty("failed", String.valueOf(failedNum));
+            progressProps.setProperty("failed_items", joinIndexes(failedItems));
+            progressProps.setProperty("updated_at", Instant.now().toString());
+            writeProps(progressFile(shard), progressProps);
+        }
+
+        if (!isLeaseOwner(shard, workerId)) {
+            System.out.format("WARN: [%s] Lost the lease of shard %s before completing it.\n", workerId, shard);
+            return;
+        }
+
+        // Failed items are picked up again through a retry shard, written before the shard is marked done
+        String retryNote = "";
+        if (!failedItems.isEmpty()) {
+            int attempt = getAttempt(shard);
+
+            if (attempt < MAX_ITEM_ATTEMPTS) {
+                List<WorkItem> retryItems = new ArrayList<>();
+                for (int failedItem : failedItems) {
+                    retryItems.add(workItems.get(failedItem));
+                }
+
+                String retryShard = getRetryShard(shard, attempt + 1);
+                writeShard(retryShard, toJSON(retryItems));
+                retryNote = "; to be retried in shard " + retryShard;
+            }
+            else {
+                retryNote = "; given up after " + attempt + " attempts";
+                System.out.format("WARN: [%s] %d item(s) of shard %s failed %d times; not retried.\n",
+                    workerId, failedItems.size(), shard, attempt);
+            }
+        }
+
+        Files.write(doneFile(shard), workerId.getBytes(StandardCharsets.UTF_8));
+        Files.deleteIfExists(leaseFile(shard));
+
+        System.out.format("  [%s] Shard %s done (%d bytes, %d failed%s).\n", workerId, shard, doneBytes, failedNum, retryNote);
+    }
+
+    /**
+     * Attempt number of the items of a shard: 1 for a planned shard, n for the retry shard
+     * "<shard>-r<n>" and the shards stolen from it ("<shard>-r<n>-s<index>")
+     */
+    static int getAttempt(String shard) {
+        Matcher matcher = RETRY_SHARD_PATTERN.matcher(shard);
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : 1;
+    }
+
+    /**
+     * @param shard
+     * @param attempt
+     * @return retry shard of the failed items of a shard
+     */
+    static String getRetryShard(String shard, int attempt) {
+        return shard + RETRY_SHARD_MARKER + attempt;
+    }
+
+    private static String joinIndexes(List<Integer> indexes) {
+        StringBuilder sb = new StringBuilder();
+        for (int index : indexes) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(index);
+        }
+        return sb.toString();
+    }
+
+    private boolean allShardsDone() {
+        try {
+            for (String shard : listShards()) {
+                if (!Files.exists(doneFile(shard))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    private static String getWorkerId() {
+        String hostName;
+        try {
+            hostName = InetAddress.getLocalHost().getHostName();
+        }
+        catch (IOException ioe) {
+            hostName = "unknown";
+        }
+
+        // "<pid>@<host>" from the JVM name
+        String jvmName = ManagementFactory.getRuntimeMXBean().getName();
+        return hostName + ":" + jvmName.substring(0, Math.max(jvmName.indexOf('@'), 0));
+    }
+
+
+    /**
+     * Print the restore progress: shards done, in progress (with worker and heartbeat age), unclaimed
+     */
+    void printStatus() throws IOException {
+        Path planFile = coordDir.resolve(PLAN_FILE);
+        if (!Files.exists(planFile)) {
+            System.out.println("ERROR: No restore plan found under " + coordDir);
+            return;
+        }
+
+        JSONObject planJson;
+        try (Reader reader = Files.newBufferedReader(planFile, StandardCharsets.UTF_8)) {
+            planJson = (JSONObject) new JSONParser().parse(reader);
+        }
+        catch (org.json.simple.parser.ParseException pe) {
+            throw new IOException("Corrupted plan file " + planFile, pe);
+        }
+
+        System.out.println("Restore plan: " + planJson.toJSONString());
+
+        int doneNum = 0;
+        int leasedNum = 0;
+        int unclaimedNum = 0;
+        long doneBytes = 0;
+        Map<String, Long> workerBytes = new TreeMap<>();
+
+        System.out.format("  %-24s %-12s %-40s %12s %18s %10s\n", "Shard", "State", "Worker", "Items", "Bytes Done", "Heartbeat");
+
+        for (String shard : listShards()) {
+            int itemNum = readShard(shard).size();
+            Properties progressProps = readProps(progressFile(shard));
+            int nextItem = Integer.parseInt(progressProps.getProperty("next_item", "0"));
+            long bytes = Long.parseLong(progressProps.getProperty("bytes", "0"));
+            String worker = progressProps.getProperty("worker", "");
+
+            // Items past a steal point are accounted for in the stolen shard
+            itemNum = Math.min(itemNum, getStealIndex(shard));
+
+            String state;
+            String heartbeat = "";
+            if (Files.exists(doneFile(shard))) {
+                state = "done";
+                doneNum++;
+            }
+            else if (Files.exists(leaseFile(shard))) {
+                state = isLeaseExpired(shard) ? "expired" : "leased";
+                worker = readProps(leaseFile(shard)).getProperty("worker", worker);
+                heartbeat = ((System.currentTimeMillis() - Files.getLastModifiedTime(leaseFile(shard)).toMillis()) / 1000) + "s ago";
+                leasedNum++;
+            }
+            else {
+                state = "unclaimed";
+                unclaimedNum++;
+            }
+
+            doneBytes += bytes;
+            if (!worker.isEmpty()) {
+                String workerProcess = worker.contains("#") ? worker.substring(0, worker.indexOf('#')) : worker;
+                workerBytes.merge(workerProcess, bytes, Long::sum);
+            }
+
+            System.out.format("  %-24s %-12s %-40s %12s %18d %10s\n",
+                shard, state, worker, Math.min(nextItem, itemNum) + "/" + itemNum, bytes, heartbeat);
+        }
+
+        System.out.println();
+        System.out.format("  Shards: %d done, %d in progress, %d unclaimed; %d of %s bytes done\n",
+            doneNum, leasedNum, unclaimedNum, doneBytes, planJson.get("bytes"));
+        for (String worker : workerBytes.keySet()) {
+            System.out.format("  Worker %s: %d bytes\n", worker, workerBytes.get(worker));
+        }
+        System.out.println();
+    }
+}
@@ -0,0 +1,652 @@
+package com.dsetools;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.datastax.driver.core.Metadata;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Restore daemon ("-daemon <port>"): one long-running process that keeps the S3 clients, the
+ * DSE cluster metadata, the backup timelines and the parsed "backup.json" files warm, and runs
+ * list / plan / restore jobs submitted over a local HTTP/JSON API.
+ *
+ *   POST   /jobs        submit a job (JSON body, see Job parameters below); returns the job
+ *   GET    /jobs        all jobs (most recent JOB_HISTORY_MAX), and the download buffer usage
+ *   GET    /jobs/<id>   one job, with its output
+ *   DELETE /jobs/<id>   cancel a job
+ *   POST   /shutdown    stop the daemon
+ *
+ * Job parameters: "type" (list | plan | restore | backup_times), "host" (me | <host_id> |
+ * dc:<dc_name> | all), "keyspace", "table", "backup_time" (M/d/yyyy h:mm a), "threads",
+ * "no_dir_struct", "format" (plan: table | json).
+ *
+ * The server only listens on the loopback interface. Jobs run concurrently (up to "daemon_jobs");
+ * everything a job prints goes to the job's output instead of the daemon's console, and all jobs
+ * share the download bandwidth budget ("daemon_bandwidth_mbps").
+ */
+class OpscRestoreDaemon {
+
+    static final String JOB_TYPE_LIST = "list";
+    static final String JOB_TYPE_PLAN = "plan";
+    static final String JOB_TYPE_RESTORE = "restore";
+    static final String JOB_TYPE_BACKUP_TIMES = "backup_times";
+
+    static final String JOB_STATUS_QUEUED = "queued";
+    static final String JOB_STATUS_RUNNING = "running";
+    static final String JOB_STATUS_DONE = "done";
+    static final String JOB_STATUS_FAILED = "failed";
+    static final String JOB_STATUS_CANCELLED = "cancelled";
+
+    static final String HOST_ALL = "all";
+    static final String HOST_DC_PREFIX = "dc:";
+
+    // Finished jobs kept for GET /jobs
+    static int JOB_HISTORY_MAX = 100;
+
+    // Output kept per job (stdout and stderr each); the rest is dropped
+    static int JOB_OUTPUT_MAX_BYTES = 4 * 1024 * 1024;
+
+    // Warm caches: backup timelines are rebuilt after this long, so new backups show up
+    static long BKUP_TIMELINE_TTL_MILLIS = 5 * 60 * 1000;
+    static int BACKUP_MANIFEST_CACHE_SIZE = 32;
+
+    // Job of the current thread; inherited by the threads a job starts (e.g. download threads)
+    private static final InheritableThreadLocal<Job> CURRENT_JOB = new InheritableThreadLocal<>();
+
+    /**
+     * ID of the job the current thread works for; null outside of daemon jobs
+     */
+    static String getCurrentJobId() {
+        Job job = CURRENT_JOB.get();
+        return (job != null) ? job.id : null;
+    }
+
+    static boolean isJobThread() {
+        return (CURRENT_JOB.get() != null);
+    }
+
+    /**
+     * Detach the current thread from its job (shared pool threads created by a job thread)
+     */
+    static void clearCurrentJob() {
+        CURRENT_JOB.remove();
+    }
+
+    /**
+     * Send the stdout of the current job to its log (stderr) buffer, e.g. while a JSON plan is
+     * being built; no-op outside of daemon jobs
+     *
+     * @param outToLog
+     */
+    static void setJobOutToLog(boolean outToLog) {
+        Job job = CURRENT_JOB.get();
+        if (job != null) {
+            job.outToLog = outToLog;
+        }
+    }
+
+    static class Job {
+        final String id;
+        final String type;
+        final JSONObject params;
+        final long submitMillis = System.currentTimeMillis();
+
+        volatile String status = JOB_STATUS_QUEUED;
+        volatile long startMillis = -1;
+        volatile long finishMillis = -1;
+        volatile String errorMsg = null;
+
+        volatile boolean cancelRequested = false;
+        volatile boolean outToLog = false;
+        volatile Thread thread = null;
+        volatile Future<?> future = null;
+
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        private boolean truncated = false;
+
+        Job(String id, String type, JSONObject params) {
+            this.id = id;
+            this.type = type;
+            this.params = params;
+        }
+
+        synchronized void append(boolean toLog, byte[] b, int off, int len) {
+            ByteArrayOutputStream buffer = (toLog || outToLog) ? log : output;
+
+            int keepLen = Math.min(len, JOB_OUTPUT_MAX_BYTES - buffer.size());
+            if (keepLen > 0) {
+                buffer.write(b, off, keepLen);
+            }
+            if (keepLen < len) {
+                truncated = true;
+            }
+        }
+
+        synchronized String getOutput() {
+            return new String(output.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        synchronized String getLog() {
+            return new String(log.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        boolean isFinished() {
+            return status.equals(JOB_STATUS_DONE) || status.equals(JOB_STATUS_FAILED) || status.equals(JOB_STATUS_CANCELLED);
+        }
+
+        @SuppressWarnings("unchecked")
+        JSONObject toJson(boolean withOutput) {
+            JSONObject jobJson = new JSONObject();
+
+            jobJson.put("id", id);
+            jobJson.put("type", type);
+            jobJson.put("status", status);
+            jobJson.put("params", params);
+            jobJson.put("submitted", Instant.ofEpochMilli(submitMillis).toString());
+            jobJson.put("started", (startMillis >= 0) ? Instant.ofEpochMilli(startMillis).toString() : null);
+            jobJson.put("finished", (finishMillis >= 0) ? Instant.ofEpochMilli(finishMillis).toString() : null);
+            jobJson.put("error", errorMsg);
+
+            String outputStr = getOutput();
+            String logStr = getLog();
+
+            // Per-object failures are reported as "ERROR:" lines, not as a failed job
+            long errorLineNum = 0;
+            for (String line : (outputStr + "\n" + logStr).split("\n")) {
+                if (line.trim().startsWith("ERROR:")) {
+                    errorLineNum++;
+                }
+            }
+            jobJson.put("error_lines", errorLineNum);
+
+            if (withOutput) {
+                jobJson.put("output", outputStr);
+                jobJson.put("log", logStr);
+                jobJson.put("output_truncated", truncated);
+            }
+
+            return jobJson;
+        }
+    }
+
+    /**
+     * System.out / System.err of the daemon: job threads write into their job, other threads to
+     * the original stream
+     */
+    private static class JobOutputStream extends OutputStream {
+        private final PrintStream consoleStream;
+        private final boolean isLog;
+
+        JobOutputStream(PrintStream consoleStream, boolean isLog) {
+            this.consoleStream = consoleStream;
+            this.isLog = isLog;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            Job job = CURRENT_JOB.get();
+            if (job != null) {
+                job.append(isLog, b, off, len);
+            }
+            else {
+                consoleStream.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() {
+            if (CURRENT_JOB.get() == null) {
+                consoleStream.flush();
+            }
+        }
+    }
+
+    private final Metadata dseClusterMetadata;
+    private final AmazonS3 s3Client;
+    private final String myHostId;
+    private final boolean fileSizeChk;
+    private final int defaultThreadNum;
+    private final OpscBandwidthBudget bandwidthBudget;
+
+    private final ExecutorService jobExecutor;
+    private final AtomicLong jobSeq = new AtomicLong();
+
+    // Job ID -> job, in submission order
+    private final LinkedHashMap<String, Job> jobs = new LinkedHashMap<>();
+
+    private final CountDownLatch shutdownLatch = new CountDownLatch(1);
+
+    /**
+     * @param dseClusterMetadata null if not available ("host": "dc:..." and "all" are rejected)
+     * @param s3Client
+     * @param myHostId host ID for "host": "me"; empty to find it in the cluster metadata
+     * @param fileSizeChk
+     * @param defaultThreadNum download threads of jobs that don't specify "threads"
+     * @param jobNum concurrent jobs
+     * @param bandwidthBudget null if not limited
+     */
+    OpscRestoreDaemon(Metadata dseClusterMetadata,
+                      AmazonS3 s3Client,
+                      String myHostId,
+                      boolean fileSizeChk,
+                      int defaultThreadNum,
+                      int jobNum,
+                      OpscBandwidthBudget bandwidthBudget) {
+        assert (jobNum > 0);
+
+        this.dseClusterMetadata = dseClusterMetadata;
+        this.s3Client = s3Client;
+        this.myHostId = myHostId;
+        this.fileSizeChk = fileSizeChk;
+        this.defaultThreadNum = defaultThreadNum;
+        this.bandwidthBudget = bandwidthBudget;
+
+        this.jobExecutor = Executors.newFixedThreadPool(jobNum, runnable -> {
+            Thread thread = new Thread(runnable, "restore-job");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Serve the API until POST /shutdown
+     *
+     * @param port
+     * @throws IOException when the port can't be bound
+     */
+    void run(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+
+        server.createContext("/jobs", this::handleJobs);
+        server.createContext("/shutdown", this::handleShutdown);
+
+        PrintStream consoleOut = System.out;
+        PrintStream consoleErr = System.err;
+
+        System.setOut(new PrintStream(new JobOutputStream(consoleOut, false), true));
+        System.setErr(new PrintStream(new JobOutputStream(consoleErr, true), true));
+
+        server.start();
+
+        System.out.format("Restore daemon listening on http://%s:%d/jobs (%d concurrent jobs%s).\n",
+            server.getAddress().getAddress().getHostAddress(),
+            server.getAddress().getPort(),
+            ((ThreadPoolExecutor) jobExecutor).getMaximumPoolSize(),
+            (bandwidthBudget != null) ? (", " + bandwidthBudget.getBytesPerSec() + " bytes/s bandwidth budget") : "");
+
+        try {
+            shutdownLatch.await();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+
+        server.stop(1);
+        jobExecutor.shutdownNow();
+
+        System.setOut(consoleOut);
+        System.setErr(consoleErr);
+
+        System.out.println("Restore daemon stopped.");
+    }
+
+    private void handleShutdown(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            sendError(exchange, 405, "Method not allowed");
+            return;
+        }
+
+        sendJson(exchange, 200, new JSONObject());
+        shutdownLatch.countDown();
+    }
+
+    private void handleJobs(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+
+            String jobId = path.replaceFirst("^/jobs/?", "");
+
+            if (jobId.isEmpty() && method.equals("POST")) {
+                submitJob(exchange);
+            }
+            else if (jobId.isEmpty() && method.equals("GET")) {
+                listJobs(exchange);
+            }
+            else if (!jobId.isEmpty() && (method.equals("GET") || method.equals("DELETE"))) {
+                Job job;
+                synchronized (jobs) {
+                    job = jobs.get(jobId);
+                }
+
+                if (job == null) {
+                    sendError(exchange, 404, "No such job: " + jobId);
+                }
+                else if (method.equals("DELETE")) {
+                    cancelJob(job);
+                    sendJson(exchange, 200, job.toJson(false));
+                }
+                else {
+                    sendJson(exchange, 200, job.toJson(true));
+                }
+            }
+            else {
+                sendError(exchange, 405, "Method not allowed");
+            }
+        }
+        catch (RuntimeException re) {
+            sendError(exchange, 500, re.toString());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void listJobs(HttpExchange exchange) throws IOException {
+        JSONArray jobsJson = new JSONArray();
+
+        synchronized (jobs) {
+            for (Job job : jobs.values()) {
+                jobsJson.add(job.toJson(false));
+            }
+        }
+
+        JSONObject responseJson = new JSONObject();
+        responseJson.put("jobs", jobsJson);
+
+        // Occupancy of the download buffers shared by all jobs
+        OpscWriteBehind writeBehind = DseOpscS3Restore.getWriteBehind();
+        if (writeBehind != null) {
+            responseJson.put("download_buffers", writeBehind.getStatsJson());
+        }
+
+        sendJson(exchange, 200, responseJson);
+    }
+
+    private void submitJob(HttpExchange exchange) throws IOException {
+        JSONObject params;
+        try (Reader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+            Object paramsObj = new JSONParser().parse(reader);
+            if (!(paramsObj instanceof JSONObject)) {
+                sendError(exchange, 400, "Job parameters must be a JSON object");
+                return;
+            }
+            params = (JSONObject) paramsObj;
+        }
+        catch (ParseException pe) {
+            sendError(exchange, 400, "Malformed JSON: " + pe);
+            return;
+        }
+
+        Runnable jobTask;
+        try {
+            jobTask = buildJobTask(params);
+        }
+        catch (IllegalArgumentException iae) {
+            sendError(exchange, 400, iae.getMessage());
+            return;
+        }
+
+        Job job = new Job("job-" + jobSeq.incrementAndGet(), (String) params.get("type"), params);
+
+        synchronized (jobs) {
+            jobs.put(job.id, job);
+            trimJobHistory();
+        }
+
+        job.future = jobExecutor.submit(() -> runJob(job, jobTask));
+
+        sendJson(exchange, 202, job.toJson(false));
+    }
+
+    // Caller holds the "jobs" lock
+    private void trimJobHistory() {
+        Iterator<Job> jobIter = jobs.values().iterator();
+        while ( (jobs.size() > JOB_HISTORY_MAX) && jobIter.hasNext() ) {
+            if (jobIter.next().isFinished()) {
+                jobIter.remove();
+            }
+        }
+    }
+
+    private void cancelJob(Job job) {
+        job.cancelRequested = true;
+
+        synchronized (job) {
+            if (job.status.equals(JOB_STATUS_QUEUED)) {
+                job.future.cancel(false);
+                job.status = JOB_STATUS_CANCELLED;
+                job.finishMillis = System.currentTimeMillis();
+            }
+            else if ( job.status.equals(JOB_STATUS_RUNNING) && (job.thread != null) ) {
+                job.thread.interrupt();
+            }
+        }
+    }
+
+    private void runJob(Job job, Runnable jobTask) {
+        synchronized (job) {
+            if (job.cancelRequested) {
+                return;
+            }
+            job.status = JOB_STATUS_RUNNING;
+            job.startMillis = System.currentTimeMillis();
+            job.thread = Thread.currentThread();
+        }
+
+        CURRENT_JOB.set(job);
+        try {
+            jobTask.run();
+            job.status = job.cancelRequested ? JOB_STATUS_CANCELLED : JOB_STATUS_DONE;
+        }
+        catch (Exception e) {
+            job.errorMsg = e.toString();
+            job.status = job.cancelRequested ? JOB_STATUS_CANCELLED : JOB_STATUS_FAILED;
+            OpscEventLog.error("daemon job " + job.id, e);
+        }
+        finally {
+            synchronized (job) {
+                job.thread = null;
+                job.finishMillis = System.currentTimeMillis();
+            }
+
+            // Clear an interrupt of a cancellation before the pool thread takes the next job
+            Thread.interrupted();
+
+            CURRENT_JOB.remove();
+
+            // The budget may have been changed at runtime (see OpscRestoreControl)
+            OpscBandwidthBudget jobBandwidthBudget = OpscRestoreControl.getBandwidthBudget();
+            if (jobBandwidthBudget != null) {
+                jobBandwidthBudget.remove(job.id);
+            }
+        }
+    }
+
+    /**
+     * Validate the job parameters and build the job
+     *
+     * @param params
+     * @return
+     * @throws IllegalArgumentException for incorrect parameters
+     */
+    private Runnable buildJobTask(JSONObject params) {
+        String type = getStringParam(params, "type", null);
+        if ( !JOB_TYPE_LIST.equals(type) && !JOB_TYPE_PLAN.equals(type) &&
+             !JOB_TYPE_RESTORE.equals(type) && !JOB_TYPE_BACKUP_TIMES.equals(type) ) {
+            throw new IllegalArgumentException("\"type\" must be one of: " + JOB_TYPE_LIST + " | " +
+                JOB_TYPE_PLAN + " | " + JOB_TYPE_RESTORE + " | " + JOB_TYPE_BACKUP_TIMES);
+        }
+
+        // "host": me | <host_id> | dc:<dc_name> | all
+        String host = getStringParam(params, "host", DseOpscS3RestoreUtils.CMD_OPTION_LIST_ME);
+        String hostId = "";
+        String dcName = "";
+        boolean hostsFromMetadata = false;
+
+        if (host.equalsIgnoreCase(HOST_ALL)) {
+            hostsFromMetadata = true;
+        }
+        else if (host.toLowerCase().startsWith(HOST_DC_PREFIX)) {
+            dcName = host.substring(HOST_DC_PREFIX.length());
+            hostsFromMetadata = true;
+
+            if (dcName.isEmpty()) {
+                throw new IllegalArgumentException("\"host\": \"" + HOST_DC_PREFIX + "<dc_name>\" needs a DC name");
+            }
+        }
+        else if (host.equalsIgnoreCase(DseOpscS3RestoreUtils.CMD_OPTION_LIST_ME)) {
+            hostId = myHostId;
+
+            if ( ((hostId == null) || hostId.isEmpty()) && (dseClusterMetadata != null) ) {
+                hostId = DseOpscS3Restore.findMyHostID(dseClusterMetadata);
+            }
+
+            if ( (hostId == null) || hostId.isEmpty() ) {
+                throw new IllegalArgumentException("Host ID of this node is unknown; please specify it as \"host\"");
+            }
+        }
+        else {
+            hostId = host;
+        }
+
+        if ( hostsFromMetadata && (dseClusterMetadata == null) ) {
+            throw new IllegalArgumentException("\"host\": \"" + host + "\" needs DSE cluster metadata, which is not available");
+        }
+
+        if ( type.equals(JOB_TYPE_RESTORE) && hostsFromMetadata ) {
+            throw new IllegalArgumentException("Restore jobs are for this node (\"me\") or a single host ID only");
+        }
+
+        String keyspaceName = getStringParam(params, "keyspace", null);
+        String tableName = getStringParam(params, "table", null);
+        String backupTimeStr = getStringParam(params, "backup_time", null);
+
+        ZonedDateTime backupTimeGmt = null;
+        if (!type.equals(JOB_TYPE_BACKUP_TIMES)) {
+            if ( (keyspaceName == null) || keyspaceName.isEmpty() ) {
+                throw new IllegalArgumentException("\"keyspace\" is required");
+            }
+
+            // Same lists and patterns as "-k"/"-t"
+            OpscKsTblMatcher.compile(keyspaceName, tableName);
+            if ( (backupTimeStr == null) || backupTimeStr.isEmpty() ) {
+                throw new IllegalArgumentException("\"backup_time\" (M/d/yyyy h:mm a) is required");
+            }
+
+            try {
+                backupTimeGmt = LocalDateTime.parse(backupTimeStr, DseOpscS3RestoreUtils.OPSC_BKUP_TIME_DISPLAY_FORMATTER)
+                    .atZone(ZoneId.of("UTC"));
+            }
+            catch (DateTimeParseException dte) {
+                throw new IllegalArgumentException("\"backup_time\" must be M/d/yyyy h:mm a");
+            }
+        }
+
+        int threadNum = defaultThreadNum;
+        Object threadsObj = params.get("threads");
+        if (threadsObj != null) {
+            if ( !(threadsObj instanceof Long) || ((Long) threadsObj <= 0) || ((Long) threadsObj > Integer.MAX_VALUE) ) {
+                throw new IllegalArgumentException("\"threads\" must be a positive integer");
+            }
+            threadNum = ((Long) threadsObj).intValue();
+        }
+
+        // Same as "-nds": only applies to a single table
+        boolean noTargetDirStruct = Boolean.TRUE.equals(params.get("no_dir_struct")) &&
+            OpscKsTblMatcher.isSingleTable(keyspaceName, tableName);
+
+        String planFormat = getStringParam(params, "format", OpscRestorePlanner.PLAN_FORMAT_TABLE);
+        if ( !planFormat.equalsIgnoreCase(OpscRestorePlanner.PLAN_FORMAT_TABLE) &&
+             !planFormat.equalsIgnoreCase(OpscRestorePlanner.PLAN_FORMAT_JSON) ) {
+            throw new IllegalArgumentException("\"format\" must be " +
+                OpscRestorePlanner.PLAN_FORMAT_TABLE + " | " + OpscRestorePlanner.PLAN_FORMAT_JSON);
+        }
+
+        final String jobHostId = hostId;
+        final String jobDcName = dcName;
+        final ZonedDateTime jobBackupTimeGmt = backupTimeGmt;
+        final int jobThreadNum = threadNum;
+
+        switch (type) {
+            case JOB_TYPE_BACKUP_TIMES:
+                return () -> DseOpscS3Restore.listBackupTimes(
+                    dseClusterMetadata, s3Client, jobDcName, jobHostId);
+
+            case JOB_TYPE_PLAN:
+                return () -> DseOpscS3Restore.planRestore(
+                    dseClusterMetadata, s3Client, jobDcName, jobHostId,
+                    keyspaceName, tableName, jobBackupTimeGmt, fileSizeChk, jobThreadNum, planFormat);
+
+            case JOB_TYPE_LIST:
+                if (host.equalsIgnoreCase(HOST_ALL)) {
+                    return () -> DseOpscS3Restore.listS3ObjtForCluster(
+                        dseClusterMetadata, fileSizeChk, s3Client, keyspaceName, tableName, jobBackupTimeGmt);
+                }
+                else if (!jobDcName.isEmpty()) {
+                    return () -> DseOpscS3Restore.listS3ObjForDC(
+                        dseClusterMetadata, fileSizeChk, s3Client, jobDcName, keyspaceName, tableName, jobBackupTimeGmt);
+                }
+                return () -> DseOpscS3Restore.listDownloadS3ObjForMe(
+                    dseClusterMetadata, fileSizeChk, s3Client, false, jobThreadNum, jobHostId,
+                    keyspaceName, tableName, jobBackupTimeGmt, false, noTargetDirStruct);
+
+            default:
+                // Restore: download directories are shared by all jobs, so "-cls" has no job equivalent
+                return () -> DseOpscS3Restore.listDownloadS3ObjForMe(
+                    dseClusterMetadata, fileSizeChk, s3Client, true, jobThreadNum, jobHostId,
+                    keyspaceName, tableName, jobBackupTimeGmt, false, noTargetDirStruct);
+        }
+    }
+
+    private static String getStringParam(JSONObject params, String name, String defaultValue) {
+        Object value = params.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException("\"" + name + "\" must be a string");
+        }
+        return (String) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void sendError(HttpExchange exchange, int statusCode, String errorMsg) throws IOException {
+        JSONObject errorJson = new JSONObject();
+        errorJson.put("error", errorMsg);
+
+        sendJson(exchange, statusCode, errorJson);
+    }
+
+    private static void sendJson(HttpExchange exchange, int statusCode, JSONObject json) throws IOException {
+        byte[] body = (json.toJSONString() + "\n").getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(statusCode, body.length);
+
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(body);
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package com.dsetools;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/**
+ * Dry-run restore plan: byte totals and object counts per host, keyspace and table,
+ * the largest objects, the expected number of S3 requests and an ETA.
+ *
+ * A plan is built from backup metadata and LIST results only; no SSTable data is fetched.
+ */
+class OpscRestorePlanner {
+
+    static String PLAN_FORMAT_TABLE = "table";
+    static String PLAN_FORMAT_JSON = "json";
+
+    static int LARGEST_OBJ_NUM = 10;
+
+    // Throughput profile file (under local download home), updated after each download run
+    static String THROUGHPUT_PROFILE_FILE = ".opsc_throughput_profile";
+    static String PROFILE_KEY_BYTES_PER_SEC = "bytes_per_sec";
+    static String PROFILE_KEY_MEASURED_AT = "measured_at";
+    static String PROFILE_KEY_THREADS = "threads";
+
+    // Only download runs big enough give a meaningful throughput measurement
+    static long PROFILE_MIN_BYTES = 64L * 1024 * 1024;
+
+    private static class PlanItem {
+        long objNum = 0;
+        long bytes = 0;
+        int missingObjNum = 0;
+    }
+
+    // host_id -> totals; "host_id keyspace.table" -> totals
+    private final Map<String, PlanItem> hostItems = new LinkedHashMap<>();
+    private final Map<String, PlanItem> tableItems = new TreeMap<>();
+
+    // Largest objects, smallest on top
+    private final PriorityQueue<Map.Entry<String, Long>> largestObjs =
+        new PriorityQueue<>(Comparator.comparing(Map.Entry<String, Long>::getValue));
+
+    private long listRequestNum = 0;
+    private long metadataGetNum = 0;
+    private long sstableGetNum = 0;
+    private long extraRequestNum = 0;
+
+    void addHost(String hostId) {
+        if (!hostItems.containsKey(hostId)) {
+            hostItems.put(hostId, new PlanItem());
+        }
+    }
+
+    /**
+     * Add one to-be-restored SSTable object to the plan
+     *
+     * @param hostId
+     * @param keyspaceName
+     * @param tableName
+     * @param s3ObjKey
+     * @param size object size; -1 if the object is not found in the bucket
+     */
+    void addObject(String hostId, String keyspaceName, String tableName, String s3ObjKey, long size) {
+        addHost(hostId);
+
+        String tableKey = hostId + " " + keyspaceName + "." + tableName;
+        PlanItem tableItem = tableItems.get(tableKey);
+        if (tableItem == null) {
+            tableItem = new PlanItem();
+            tableItems.put(tableKey, tableItem);
+        }
+
+        for (PlanItem item : new PlanItem[] { hostItems.get(hostId), tableItem }) {
+            if (size < 0) {
+                item.missingObjNum++;
+            }
+            else {
+                item.objNum++;
+                item.bytes += size;
+            }
+        }
+
+        if (size >= 0) {
+            sstableGetNum++;
+
+            largestObjs.add(new AbstractMap.SimpleEntry<>(s3ObjKey, size));
+            if (largestObjs.size() > LARGEST_OBJ_NUM) {
+                largestObjs.poll();
+            }
+        }
+    }
+
+    void addListRequests(long num) {
+        listRequestNum += num;
+    }
+
+    void addMetadataGets(long num) {
+        metadataGetNum += num;
+    }
+
+    /**
+     * Requests issued per object in addition to the GET (e.g. file size check, cache lookup)
+     */
+    void addExtraRequests(long num) {
+        extraRequestNum += num;
+    }
+
+    long getTotalBytes() {
+        long totalBytes = 0;
+        for (PlanItem item : hostItems.values()) {
+            totalBytes += item.bytes;
+        }
+        return totalBytes;
+    }
+
+    long getTotalObjNum() {
+        long totalObjNum = 0;
+        for (PlanItem item : hostItems.values()) {
+            totalObjNum += item.objNum;
+        }
+        return totalObjNum;
+    }
+
+    private long getTotalRequestNum() {
+        return listRequestNum + metadataGetNum + sstableGetNum + extraRequestNum;
+    }
+
+    private List<Map.Entry<String, Long>> getLargestObjs() {
+        List<Map.Entry<String, Long>> objs = new ArrayList<>(largestObjs);
+        objs.sort(Comparator.comparing(Map.Entry<String, Long>::getValue).reversed());
+        return objs;
+    }
+
+    /**
+     * Estimated restore duration in seconds: data transfer at the profiled throughput plus
+     * per-request overhead spread over the download threads
+     *
+     * @param bytesPerSec
+     * @param requestOverheadMs
+     * @param threadNum
+     * @return
+     */
+    long getEtaSeconds(double bytesPerSec, long requestOverheadMs, int threadNum) {
+        double transferSec = (bytesPerSec > 0) ? (getTotalBytes() / bytesPerSec) : 0;
+        double overheadSec = (getTotalRequestNum() * requestOverheadMs) / 1000.0 / Math.max(threadNum, 1);
+
+        return (long) Math.ceil(transferSec + overheadSec);
+    }
+
+    @SuppressWarnings("unchecked")
+    JSONObject toJSON(double bytesPerSec, String throughputSource, long requestOverheadMs, int threadNum) {
+        JSONObject planJson = new JSONObject();
+
+        JSONArray hostsJson = new JSONArray();
+        for (String hostId : hostItems.keySet()) {
+            PlanItem hostItem = hostItems.get(hostId);
+
+            JSONObject hostJson = new JSONObject();
+            hostJson.put("host_id", hostId);
+            hostJson.put("objects", hostItem.objNum);
+            hostJson.put("bytes", hostItem.bytes);
+            hostJson.put("missing_objects", hostItem.missingObjNum);
+
+            JSONArray tablesJson = new JSONArray();
+            for (String tableKey : tableItems.keySet()) {
+                if (tableKey.startsWith(hostId + " ")) {
+                    PlanItem tableItem = tableItems.get(tableKey);
+                    String ksTbl = tableKey.substring(hostId.length() + 1);
+
+                    JSONObject tableJson = new JSONObject();
+                    tableJson.put("keyspace", ksTbl.substring(0, ksTbl.indexOf('.')));
+                    tableJson.put("table", ksTbl.substring(ksTbl.indexOf('.') + 1));
+                    tableJson.put("objects", tableItem.objNum);
+                    tableJson.put("bytes", tableItem.bytes);
+                    tableJson.put("missing_objects", tableItem.missingObjNum);
+                    tablesJson.add(tableJson);
+                }
+            }
+            hostJson.put("tables", tablesJson);
+
+            hostsJson.add(hostJson);
+        }
+        planJson.put("hosts", hostsJson);
+
+        JSONArray largestJson = new JSONArray();
+        for (Map.Entry<String, Long> obj : getLargestObjs()) {
+            JSONObject objJson = new JSONObject();
+            objJson.put("key", obj.getKey());
+            objJson.put("bytes", obj.getValue());
+            largestJson.add(objJson);
+        }
+        planJson.put("largest_objects", largestJson);
+
+        JSONObject requestsJson = new JSONObject();
+        requestsJson.put("list", listRequestNum);
+        requestsJson.put("metadata_get", metadataGetNum);
+        requestsJson.put("sstable_get", sstableGetNum);
+        requestsJson.put("other", extraRequestNum);
+        requestsJson.put("total", getTotalRequestNum());
+        planJson.put("requests", requestsJson);
+
+        planJson.put("total_objects", getTotalObjNum());
+        planJson.put("total_bytes", getTotalBytes());
+        planJson.put("throughput_bytes_per_sec", (long) bytesPerSec);
+        planJson.put("throughput_source", throughputSource);
+        planJson.put("eta_seconds", getEtaSeconds(bytesPerSec, requestOverheadMs, threadNum));
+
+        return planJson;
+    }
+
+    void printTable(double bytesPerSec, String throughputSource, long requestOverheadMs, int threadNum) {
+        System.out.println("Restore plan (dry run) ...");
+
+        System.out.format("  %-40s %-40s %12s %18s %10s\n", "Host", "Keyspace.Table", "Objects", "Bytes", "Missing");
+        for (String hostId : hostItems.keySet()) {
+            for (String tableKey : tableItems.keySet()) {
+                if (tableKey.startsWith(hostId + " ")) {
+                    PlanItem tableItem = tableItems.get(tableKey);
+                    System.out.format("  %-40s %-40s %12d %18d %10d\n",
+                        hostId, tableKey.substring(hostId.length() + 1),
+                        tableItem.objNum, tableItem.bytes, tableItem.missingObjNum);
+                }
+            }
+
+            PlanItem hostItem = hostItems.get(hostId);
+            System.out.format("  %-40s %-40s %12d %18d %10d\n",
+                hostId, "(host total)", hostItem.objNum, hostItem.bytes, hostItem.missingObjNum);
+        }
+
+        System.out.println();
+        System.out.println("  Largest objects:");
+        for (Map.Entry<String, Long> obj : getLargestObjs()) {
+            System.out.format("    %18d  %s\n", obj.getValue(), obj.getKey());
+        }
+
+        System.out.println();
+        System.out.format("  Total: %d objects, %d bytes (%s)\n",
+            getTotalObjNum(), getTotalBytes(), humanReadableBytes(getTotalBytes()));
+        System.out.format("  Requests: %d total (LIST: %d, metadata GET: %d, SSTable GET: %d, other: %d)\n",
+            getTotalRequestNum(), listRequestNum, metadataGetNum, sstableGetNum, extraRequestNum);
+
+        if (bytesPerSec > 0) {
+            long etaSeconds = getEtaSeconds(bytesPerSec, requestOverheadMs, threadNum);
+            System.out.format("  ETA: %d seconds (%dh %dm %ds) at %s/s (%s), %d download threads\n",
+                etaSeconds, etaSeconds / 3600, (etaSeconds % 3600) / 60, etaSeconds % 60,
+                humanReadableBytes((long) bytesPerSec), throughputSource, threadNum);
+        }
+        else {
+            System.out.println("  ETA: unknown (no throughput configured or measured yet)");
+        }
+
+        System.out.println();
+    }
+
+    static String humanReadableBytes(long bytes) {
+        String[] units = { "B", "KB", "MB", "GB", "TB", "PB" };
+
+        double value = bytes;
+        int unit = 0;
+        while ( (value >= 1024) && (unit < units.length - 1) ) {
+            value /= 1024;
+            unit++;
+        }
+
+        return String.format("%.2f %s", value, units[unit]);
+    }
+
+    /**
+     * Read the previously measured download throughput (bytes/sec); 0 if not available
+     *
+     * @param downloadHomeDir
+     * @return
+     */
+    static double readThroughputProfile(String downloadHomeDir) {
+        File profileFile = new File(downloadHomeDir, THROUGHPUT_PROFILE_FILE);
+
+        if (profileFile.isFile()) {
+            try (InputStream inputStream = new FileInputStream(profileFile)) {
+                Properties profileProps = new Properties();
+                profileProps.load(inputStream);
+
+                return Double.parseDouble(profileProps.getProperty(PROFILE_KEY_BYTES_PER_SEC, "0"));
+            }
+            catch (IOException | NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Record the throughput measured by a download run
+     *
+     * @param downloadHomeDir
+     * @param bytes
+     * @param durationMillis
+     * @param threadNum
+     */
+    static void writeThroughputProfile(String downloadHomeDir, long bytes, long durationMillis, int threadNum) {
+        if ( (bytes < PROFILE_MIN_BYTES) || (durationMillis <= 0) ) {
+            return;
+        }
+
+        Properties profileProps = new Properties();
+        profileProps.setProperty(PROFILE_KEY_BYTES_PER_SEC, String.valueOf((long) (bytes * 1000.0 / durationMillis)));
+        profileProps.setProperty(PROFILE_KEY_MEASURED_AT,
+            LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+        profileProps.setProperty(PROFILE_KEY_THREADS, String.valueOf(threadNum));
+
+        try (OutputStream outputStream = new FileOutputStream(new File(downloadHomeDir, THROUGHPUT_PROFILE_FILE))) {
+            profileProps.store(outputStream, "OpsCenter S3 restore throughput profile");
+        }
+        catch (IOException ioe) {
+            System.out.println("WARN: Failed to write throughput profile file under " + downloadHomeDir);
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package com.dsetools;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.*;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Object index of the backup bucket built from an S3 Inventory report instead of LIST requests.
+ *
+ * The report is read from its "manifest.json", either a local file (e.g. a copy of the inventory
+ * destination made with "aws s3 sync") or "s3://<bucket>/<key>". The data files listed in the
+ * manifest are read from the inventory destination bucket, or for a local manifest, from the
+ * manifest directory or its sibling "data" directory.
+ *
+ * Only "snapshots/" objects are kept: key, size, ETag and last modified time, sorted by key.
+ * Objects created after the inventory snapshot are not in the index; callers fall back to LIST
+ * for them (see getCreationMillis()).
+ *
+ * Only the CSV format is supported; ORC and Parquet reports need the Hadoop file format libraries.
+ */
+class OpscS3Inventory {
+
+    static String INVENTORY_FORMAT_CSV = "CSV";
+    static String S3_LOCATION_PREFIX = "s3://";
+    static String S3_BUCKET_ARN_PREFIX = "arn:aws:s3:::";
+
+    // Up to this many objects missing from the index are looked up one by one; otherwise one full LIST
+    static int MISSING_OBJ_LIST_MAX = 100;
+
+    private final String sourceBucket;
+    private final long creationMillis;
+
+    // Sorted by key
+    private final String[] keys;
+    private final long[] sizes;
+    private final String[] eTags;
+    private final long[] lastModifiedMillis;
+
+    private static class Entry {
+        final String key;
+        final long size;
+        final String eTag;
+        final long lastModifiedMillis;
+
+        Entry(String key, long size, String eTag, long lastModifiedMillis) {
+            this.key = key;
+            this.size = size;
+            this.eTag = eTag;
+            this.lastModifiedMillis = lastModifiedMillis;
+        }
+    }
+
+    private OpscS3Inventory(String sourceBucket, long creationMillis, List<Entry> entries) {
+        this.sourceBucket = sourceBucket;
+        this.creationMillis = creationMillis;
+
+        entries.sort(Comparator.comparing((Entry entry) -> entry.key));
+
+        keys = new String[entries.size()];
+        sizes = new long[entries.size()];
+        eTags = new String[entries.size()];
+        lastModifiedMillis = new long[entries.size()];
+
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            keys[i] = entry.key;
+            sizes[i] = entry.size;
+            eTags[i] = entry.eTag;
+            lastModifiedMillis[i] = entry.lastModifiedMillis;
+        }
+    }
+
+    /**
+     * Load an inventory report
+     *
+     * @param s3Client used for "s3://" locations only
+     * @param manifestLocation local "manifest.json" path, or "s3://<bucket>/<key>"
+     * @return
+     * @throws IOException if the manifest or one of its data files can't be read
+     */
+    static OpscS3Inventory load(AmazonS3 s3Client, String manifestLocation) throws IOException {
+        boolean remote = manifestLocation.startsWith(S3_LOCATION_PREFIX);
+
+        JSONObject manifestJson;
+        try (Reader reader = new BufferedReader(new InputStreamReader(
+            remote ? openS3Object(s3Client, manifestLocation.substring(S3_LOCATION_PREFIX.length())) :
+                new FileInputStream(manifestLocation),
+            StandardCharsets.UTF_8))) {
+            manifestJson = (JSONObject) new JSONParser().parse(reader);
+        }
+        catch (ParseException | ClassCastException e) {
+            throw new IOException("Invalid inventory manifest " + manifestLocation, e);
+        }
+
+        String fileFormat = (String) manifestJson.get("fileFormat");
+        if (!INVENTORY_FORMAT_CSV.equalsIgnoreCase(fileFormat)) {
+            throw new IOException("Unsupported inventory file format \"" + fileFormat + "\" (only CSV is supported)");
+        }
+
+        String sourceBucket = (String) manifestJson.get("sourceBucket");
+        String destinationBucket = (String) manifestJson.get("destinationBucket");
+        if ( (destinationBucket != null) && destinationBucket.startsWith(S3_BUCKET_ARN_PREFIX) ) {
+            destinationBucket = destinationBucket.substring(S3_BUCKET_ARN_PREFIX.length());
+        }
+
+        long creationMillis;
+        try {
+            creationMillis = Long.parseLong(String.valueOf(manifestJson.get("creationTimestamp")));
+        }
+        catch (NumberFormatException nfe) {
+            throw new IOException("Invalid inventory creation timestamp in " + manifestLocation);
+        }
+
+        Map<String, Integer> columns = new HashMap<>();
+        String[] fileSchema = String.valueOf(manifestJson.get("fileSchema")).split(",");
+        for (int i = 0; i < fileSchema.length; i++) {
+            columns.put(fileSchema[i].trim(), i);
+        }
+        if ( !columns.containsKey("Key") || !columns.containsKey("Size") ) {
+            throw new IOException("Inventory report without \"Key\" and \"Size\" fields: " + manifestLocation);
+        }
+
+        List<Entry> entries = new ArrayList<>();
+
+        JSONArray files = (JSONArray) manifestJson.get("files");
+        if (files != null) {
+            for (Object file : files) {
+                String dataFileKey = (String) ((JSONObject) file).get("key");
+
+                try (InputStream inputStream = remote ?
+                    openS3Object(s3Client, destinationBucket + "/" + dataFileKey) :
+                    new FileInputStream(findLocalDataFile(new File(manifestLocation), dataFileKey))) {
+                    readDataFile(inputStream, columns, entries);
+                }
+            }
+        }
+
+        return new OpscS3Inventory(sourceBucket, creationMillis, entries);
+    }
+
+    private static InputStream openS3Object(AmazonS3 s3Client, String bucketAndKey) throws IOException {
+        int slashPos = bucketAndKey.indexOf('/');
+        if (slashPos <= 0) {
+            throw new IOException("Invalid S3 location " + S3_LOCATION_PREFIX + bucketAndKey);
+        }
+
+        S3Object s3Object = s3Client.getObject(bucketAndKey.substring(0, slashPos), bucketAndKey.substring(slashPos + 1));
+        return s3Object.getObjectContent();
+    }
+
+    /**
+     * Data file of a local copy of an inventory report: next to "manifest.json", or in "../data"
+     * (the layout of the inventory destination)
+     */
+    private static File findLocalDataFile(File manifestFile, String dataFileKey) throws FileNotFoundException {
+        File manifestDir = manifestFile.getAbsoluteFile().getParentFile();
+        String dataFileName = dataFileKey.substring(dataFileKey.lastIndexOf('/') + 1);
+
+        for (File dataFile : new File[] {
+                new File(manifestDir, dataFileName),
+                new File(new File(manifestDir.getParentFile(), "data"), dataFileName) }) {
+            if (dataFile.isFile()) {
+                return dataFile;
+            }
+        }
+
+        throw new FileNotFoundException("Inventory data file " + dataFileName + " not found under " + manifestDir);
+    }
+
+    /**
+     * Read one (gzipped) CSV data file
+     */
+    private static void readDataFile(InputStream inputStream,
+                                     Map<String, Integer> columns,
+                                     List<Entry> entries) throws IOException {
+        int keyCol = columns.get("Key");
+        int sizeCol = columns.get("Size");
+        int eTagCol = columns.getOrDefault("ETag", -1);
+        int lastModifiedCol = columns.getOrDefault("LastModifiedDate", -1);
+        int isLatestCol = columns.getOrDefault("IsLatest", -1);
+        int isDeleteMarkerCol = columns.getOrDefault("IsDeleteMarker", -1);
+
+        String keyPrefix = DseOpscS3RestoreUtils.OPSC_OBJKEY_BASESTR + "/";
+
+        try (BufferedReader reader = new BufferedReader(
+            new InputStreamReader(new GZIPInputStream(inputStream), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                List<String> fields = parseCsvLine(line);
+                if (fields.size() <= Math.max(keyCol, sizeCol)) {
+                    continue;
+                }
+
+                // Versioned bucket: only the current version of live objects
+                if ( ((isLatestCol >= 0) && (isLatestCol < fields.size()) && "false".equals(fields.get(isLatestCol))) ||
+                     ((isDeleteMarkerCol >= 0) && (isDeleteMarkerCol < fields.size()) && "true".equals(fields.get(isDeleteMarkerCol))) ) {
+                    continue;
+                }
+
+                // Keys are URL-encoded in CSV reports
+                String key = URLDecoder.decode(fields.get(keyCol), "UTF-8");
+                if (!key.startsWith(keyPrefix)) {
+                    continue;
+                }
+
+                long size;
+                try {
+                    size = Long.parseLong(fields.get(sizeCol));
+                }
+                catch (NumberFormatException nfe) {
+                    continue;
+                }
+
+                long lastModified = 0;
+                if ( (lastModifiedCol >= 0) && (lastModifiedCol < fields.size()) ) {
+                    try {
+                        lastModified = Instant.parse(fields.get(lastModifiedCol)).toEpochMilli();
+                    }
+                    catch (DateTimeParseException dte) {
+                        lastModified = 0;
+                    }
+                }
+
+                entries.add(new Entry(
+                    key,
+                    size,
+                    ( (eTagCol >= 0) && (eTagCol < fields.size()) ) ? fields.get(eTagCol) : null,
+                    lastModified));
+            }
+        }
+    }
+
+    /**
+     * Split a CSV line; fields are optionally quoted, with "" for a quote inside a quoted field
+     */
+    static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+
+            if (quoted) {
+                if (c == '"') {
+                    if ( (i + 1 < line.length()) && (line.charAt(i + 1) == '"') ) {
+                        field.append('"');
+                        i++;
+                    }
+                    else {
+                        quoted = false;
+                    }
+                }
+                else {
+                    field.append(c);
+                }
+            }
+            else if (c == '"') {
+                quoted = true;
+            }
+            else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            }
+            else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+
+        return fields;
+    }
+
+    String getSourceBucket() {
+        return sourceBucket;
+    }
+
+    /**
+     * Time of the inventory snapshot; objects created later may be missing from the index
+     */
+    long getCreationMillis() {
+        return creationMillis;
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    private int lowerBound(String key) {
+        int pos = Arrays.binarySearch(keys, key);
+        return (pos >= 0) ? pos : -(pos + 1);
+    }
+
+    /**
+     * Size of an object
+     *
+     * @param key
+     * @return -1 if the object is not in the inventory
+     */
+    long getSize(String key) {
+        int pos = Arrays.binarySearch(keys, key);
+        return (pos >= 0) ? sizes[pos] : -1;
+    }
+
+    /**
+     * ETag of an object
+     *
+     * @param key
+     * @return null if the object is not in the inventory (or the report has no ETag field)
+     */
+    String getETag(String key) {
+        int pos = Arrays.binarySearch(keys, key);
+        return (pos >= 0) ? eTags[pos] : null;
+    }
+
+    /**
+     * Sizes of all objects under a prefix
+     *
+     * @param prefix
+     * @return object key -> size
+     */
+    Map<String, Long> getSizes(String prefix) {
+        Map<String, Long> objSizes = new HashMap<>();
+
+        for (int i = lowerBound(prefix); (i < keys.length) && keys[i].startsWith(prefix); i++) {
+            objSizes.put(keys[i], sizes[i]);
+        }
+
+        return objSizes;
+    }
+
+    /**
+     * All objects under a prefix, in key order (as a LIST would return them)
+     *
+     * @param prefix
+     * @return
+     */
+    List<S3ObjectSummary> list(String prefix) {
+        List<S3ObjectSummary> objectSummaries = new ArrayList<>();
+
+        for (int i = lowerBound(prefix); (i < keys.length) && keys[i].startsWith(prefix); i++) {
+            S3ObjectSummary objectSummary = new S3ObjectSummary();
+            objectSummary.setBucketName(sourceBucket);
+            objectSummary.setKey(keys[i]);
+            objectSummary.setSize(sizes[i]);
+            objectSummary.setETag(eTags[i]);
+            if (lastModifiedMillis[i] > 0) {
+                objectSummary.setLastModified(new Date(lastModifiedMillis[i]));
+            }
+            objectSummaries.add(objectSummary);
+        }
+
+        return objectSummaries;
+    }
+}
@@ -0,0 +1,684 @@
+package com.dsetools;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.Protocol;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+
+import com.amazonaws.util.IOUtils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A set of equivalent OpsCenter backup sources (e.g. cross-region replicas of the backup bucket).
+ *
+ * Objects are downloaded in ranged parts. Each part goes to a source picked randomly with a
+ * weight proportional to the throughput observed from that source; a part that fails on one
+ * source is retried on another one, and a failing source is put aside for a (growing) backoff
+ * period.
+ */
+class OpscS3SourcePool implements OpscBackupStore {
+
+    static class Source {
+        final String bucketName;
+        final String region;
+        final String endpoint;
+        final AmazonS3 s3Client;
+
+        // Observed throughput (exponentially weighted moving average)
+        volatile double bytesPerSec = INITIAL_BYTES_PER_SEC;
+        volatile boolean measured = false;
+
+        final AtomicInteger consecutiveFailureNum = new AtomicInteger();
+        volatile long disabledUntilMillis = 0;
+
+        final AtomicLong downloadedByteNum = new AtomicLong();
+        final AtomicLong failureNum = new AtomicLong();
+
+        Source(String bucketName, String region, String endpoint, AmazonS3 s3Client) {
+            this.bucketName = bucketName;
+            this.region = region;
+            this.endpoint = endpoint;
+            this.s3Client = s3Client;
+        }
+
+        boolean isAvailable() {
+            return System.currentTimeMillis() >= disabledUntilMillis;
+        }
+
+        @Override
+        public String toString() {
+            return bucketName + "@" + region + ( (endpoint != null) ? ("@" + endpoint) : "" );
+        }
+    }
+
+    static double INITIAL_BYTES_PER_SEC = 1024 * 1024;
+    static double THROUGHPUT_EWMA_WEIGHT = 0.3;
+    static long MAX_SOURCE_BACKOFF_MILLIS = 30000;
+    static int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final List<Source> sources = new ArrayList<>();
+    private final long partSize;
+    private final ExecutorService partExecutor;
+
+    // Buffers between the part downloads and the disk
+    private final OpscWriteBehind writeBehind;
+
+    // Bandwidth shared by concurrent restore jobs (daemon mode); null means no limit
+    private volatile OpscBandwidthBudget bandwidthBudget = null;
+
+    OpscS3SourcePool(long partSize, int partThreadNum, long bufferBytes) {
+        this.partSize = partSize;
+        this.writeBehind = new OpscWriteBehind(bufferBytes);
+        this.partExecutor = Executors.newFixedThreadPool(partThreadNum, runnable -> {
+            // Shared by all daemon jobs: not part of the job whose thread happens to create it
+            Thread thread = new Thread(() -> {
+                OpscRestoreDaemon.clearCurrentJob();
+                runnable.run();
+            }, "s3-part-download");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Build the source pool from the configuration: the primary source ("opsc_s3_bucket_name",
+     * "opsc_s3_aws_region", "opsc_s3_endpoint") plus the replica sources listed in
+     * "opsc_s3_replica_sources" (comma separated "<bucket>@<region>[@<endpoint>]")
+     *
+     * @param configProps
+     * @param credentials
+     * @param primaryS3Client
+     * @return
+     */
+    static OpscS3SourcePool build(Properties configProps, AWSCredentials credentials, AmazonS3 primaryS3Client) {
+        long partSizeMb = DseOpscS3RestoreUtils.DOWNLOAD_PART_SIZE_MB;
+        String partSizeMbStr = configProps.getProperty(DseOpscS3RestoreUtils.CFG_KEY_DOWNLOAD_PART_SIZE_MB);
+        if ( (partSizeMbStr != null) && !partSizeMbStr.isEmpty() ) {
+            partSizeMb = Long.parseLong(partSizeMbStr);
+        }
+
+        int partThreadNum = DseOpscS3RestoreUtils.DOWNLOAD_PART_THREAD_NUM;
+        String partThreadNumStr = configProps.getProperty(DseOpscS3RestoreUtils.CFG_KEY_DOWNLOAD_PART_THREADS);
+        if ( (partThreadNumStr != null) && !partThreadNumStr.isEmpty() ) {
+            partThreadNum = Integer.parseInt(partThreadNumStr);
+        }
+
+        long bufferMb = DseOpscS3RestoreUtils.DOWNLOAD_BUFFER_MB;
+        String bufferMbStr = configProps.getProperty(DseOpscS3RestoreUtils.CFG_KEY_DOWNLOAD_BUFFER_MB);
+        if ( (bufferMbStr != null) && !bufferMbStr.isEmpty() ) {
+            bufferMb = Long.parseLong(bufferMbStr);
+        }
+
+        OpscS3SourcePool sourcePool = new OpscS3SourcePool(partSizeMb * 1024 * 1024, partThreadNum, bufferMb * 1024 * 1024);
+
+        sourcePool.sources.add(new Source(
+            configProps.getProperty(DseOpscS3RestoreUtils.CFG_KEY_OPSC_S3_BUCKET_NAME),
+            configProps.getProperty(DseOpscS3RestoreUtils.CFG_KEY_OPSC_S3_AWS_REGION),
+            configProps.getProperty(DseOpscS3RestoreUtils.CFG_KEY_OPSC_S3_ENDPOINT),
+            primaryS3Client));
+
+        String replicaSourcesStr = configProps.getProperty(DseOpscS3RestoreUtils.CFG_KEY_OPSC_S3_REPLICA_SOURCES);
+        if ( (replicaSourcesStr != null) && !replicaSourcesStr.isEmpty() ) {
+            for (String replicaSourceStr : replicaSourcesStr.split(",")) {
+                String[] sourceFields = replicaSourceStr.trim().split("@");
+
+                String endpoint = (sourceFields.length > 2) ? sourceFields[2] : null;
+                sourcePool.sources.add(new Source(
+                    sourceFields[0],
+                    sourceFields[1],
+                    endpoint,
+                    buildS3Client(credentials, sourceFields[1], endpoint)));
+            }
+        }
+
+        return sourcePool;
+    }
+
+    /**
+     * Create an S3 client for a region; a custom endpoint (e.g. an S3 compatible store) uses
+     * path style access
+     *
+     * @param credentials
+     * @param region
+     * @param endpoint
+     * @return
+     */
+    static AmazonS3 buildS3Client(AWSCredentials credentials, String region, String endpoint) {
+        AmazonS3ClientBuilder s3ClientBuilder = AmazonS3ClientBuilder.standard()
+            .withClientConfiguration(new ClientConfiguration().withProtocol(Protocol.HTTP))
+            .withCredentials(new AWSStaticCredentialsProvider(credentials));
+
+        if ( (endpoint != null) && !endpoint.isEmpty() ) {
+            s3ClientBuilder
+                .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, region))
+                .withPathStyleAccessEnabled(true);
+        }
+        else {
+            s3ClientBuilder.withRegion(region);
+        }
+
+        return s3ClientBuilder.build();
+    }
+
+    List<Source> getSources() {
+        return sources;
+    }
+
+    OpscWriteBehind getWriteBehind() {
+        return writeBehind;
+    }
+
+    @Override
+    public void setBandwidthBudget(OpscBandwidthBudget bandwidthBudget) {
+        this.bandwidthBudget = bandwidthBudget;
+    }
+
+    /**
+     * Pick a source randomly, weighted by observed throughput. Sources in backoff are skipped
+     * unless no other source is available.
+     *
+     * @param exclude source to avoid (e.g. the one that just failed); may be null
+     * @return
+     */
+    Source pickSource(Source exclude) {
+        List<Source> candidates = new ArrayList<>();
+        for (Source source : sources) {
+            if ( source.isAvailable() && (source != exclude) ) {
+                candidates.add(source);
+            }
+        }
+
+        if (candidates.isEmpty()) {
+            for (Source source : sources) {
+                if (source != exclude) {
+                    candidates.add(source);
+                }
+            }
+        }
+        if (candidates.isEmpty()) {
+            candidates.addAll(sources);
+        }
+
+        // A source without measurements yet is weighted like the fastest one, so that it gets tried
+        double maxMeasuredBytesPerSec = INITIAL_BYTES_PER_SEC;
+        for (Source source : candidates) {
+            if (source.measured) {
+                maxMeasuredBytesPerSec = Math.max(maxMeasuredBytesPerSec, source.bytesPerSec);
+            }
+        }
+
+        double[] weights = new double[candidates.size()];
+        double totalWeight = 0;
+        for (int i = 0; i < candidates.size(); i++) {
+            Source source = candidates.get(i);
+            weights[i] = source.measured ? source.bytesPerSec : maxMeasuredBytesPerSec;
+            totalWeight += weights[i];
+        }
+
+        double pick = ThreadLocalRandom.current().nextDouble() * totalWeight;
+        for (int i = 0; i < candidates.size(); i++) {
+            pick -= weights[i];
+            if (pick <= 0) {
+                return candidates.get(i);
+            }
+        }
+
+        return candidates.get(candidates.size() - 1);
+    }
+
+    /**
+     * Get the ETag of an object, failing over to other sources
+     *
+     * @param s3ObjKey
+     * @return
+     * @throws IOException when the request fails on all sources
+     */
+    @Override
+    public String getETag(String s3ObjKey) throws IOException {
+        SdkClientException lastException = null;
+        Source source = null;
+
+        for (int attempt = 0; attempt < sources.size() * 2; attempt++) {
+            source = pickSource(source);
+
+            try {
+                return source.s3Client.getObjectMetadata(source.bucketName, s3ObjKey).getETag();
+            }
+            catch (SdkClientException e) {
+                lastException = e;
+                recordFailure(source);
+            }
+        }
+
+        throw new IOException("Failed to get metadata of " + s3ObjKey + " from all sources", lastException);
+    }
+
+    /**
+     * List through the primary source (replicas have the same objects)
+     */
+    @Override
+    public Map<String, Long> listSizes(String prefix) throws IOException, InterruptedException {
+        Source source = sources.get(0);
+
+        try {
+            return new OpscShardedLister(source.s3Client, 1).listSizes(source.bucketName, prefix, Collections.emptyList());
+        }
+        catch (SdkClientException e) {
+            throw new IOException("Failed to list " + prefix + " on " + source, e);
+        }
+    }
+
+    @Override
+    public long getSize(String s3ObjKey) throws IOException {
+        SdkClientException lastException = null;
+        Source source = null;
+
+        for (int attempt = 0; attempt < sources.size() * 2; attempt++) {
+            source = pickSource(source);
+
+            try {
+                return source.s3Client.getObjectMetadata(source.bucketName, s3ObjKey).getContentLength();
+            }
+            catch (AmazonS3Exception ase) {
+                if (ase.getStatusCode() == 404) {
+                    return -1;
+                }
+                lastException = ase;
+                recordFailure(source);
+            }
+            catch (SdkClientException e) {
+                lastException = e;
+                recordFailure(source);
+            }
+        }
+
+        throw new IOException("Failed to get metadata of " + s3ObjKey + " from all sources", lastException);
+    }
+
+    @Override
+    public byte[] read(String s3ObjKey) throws IOException {
+        return read(s3ObjKey, 0, Long.MAX_VALUE - 1);
+    }
+
+    @Override
+    public byte[] read(String s3ObjKey, long start, long end) throws IOException {
+        Exception lastException = null;
+        Source source = null;
+
+        for (int attempt = 0; attempt < sources.size() * 2; attempt++) {
+            source = pickSource(source);
+
+            try (S3Object s3Object = source.s3Client.getObject(
+                     new GetObjectRequest(source.bucketName, s3ObjKey).withRange(start, end))) {
+                return IOUtils.toByteArray(s3Object.getObjectContent());
+            }
+            catch (AmazonS3Exception ase) {
+                if (ase.getStatusCode() == 404) {
+                    throw new FileNotFoundException("No such object: " + s3ObjKey);
+                }
+                // Range request on an empty object
+                if ( (ase.getStatusCode() == 416) && (start == 0) ) {
+                    return new byte[0];
+                }
+                lastException = ase;
+                recordFailure(source);
+            }
+            catch (SdkClientException | IOException e) {
+                lastException = e;
+                recordFailure(source);
+            }
+        }
+
+        throw new IOException("Failed to read " + s3ObjKey + " from all sources", lastException);
+    }
+
+    /**
+     * Download an object to a local file. The first part also tells the object size and ETag;
+     * the remaining parts are fetched concurrently from the pool sources, on the condition that
+     * the object still has that ETag ("If-Match"). The object fails if a part comes from a
+     * different version of it (overwritten, or a replica that is not the same copy).
+     *
+     * @param s3ObjKey
+     * @param localFile
+     * @return number of bytes downloaded
+     * @throws IOException when a part fails on all sources
+     * @throws InterruptedException
+     */
+    @Override
+    public long download(String s3ObjKey, File localFile) throws IOException, InterruptedException {
+        Files.createDirectories(localFile.toPath().toAbsolutePath().getParent());
+
+        // Parts run on the shared part threads; the bandwidth budget is charged to the caller's job
+        String budgetOwner = OpscBandwidthBudget.getCurrentOwner();
+
+        try (FileChannel fileChannel = FileChannel.open(localFile.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             // null unless the downloads are kept out of the page cache
+             OpscPageCacheGuard pageCacheGuard = OpscPageCacheGuard.open(localFile.toPath(), true)) {
+
+            PartResult firstPart =
+                downloadPartWithFailover(s3ObjKey, 0, partSize - 1, null, fileChannel, pageCacheGuard, budgetOwner);
+            long objSize = firstPart.objSize;
+
+            List<Future<PartResult>> partFutures = new ArrayList<>();
+            for (long partStart = partSize; partStart < objSize; partStart += partSize) {
+                final long start = partStart;
+                final long end = Math.min(partStart + partSize, objSize) - 1;
+
+                partFutures.add(partExecutor.submit(() ->
+                    downloadPartWithFailover(s3ObjKey, start, end, firstPart.eTag, fileChannel, pageCacheGuard, budgetOwner)));
+            }
+
+            try {
+                for (Future<PartResult> partFuture : partFutures) {
+                    partFuture.get();
+                }
+            }
+            catch (ExecutionException ee) {
+                for (Future<PartResult> partFuture : partFutures) {
+                    partFuture.cancel(true);
+                }
+                throw (ee.getCause() instanceof IOException) ?
+                    (IOException) ee.getCause() : new IOException(ee.getCause());
+            }
+            catch (InterruptedException ie) {
+                for (Future<PartResult> partFuture : partFutures) {
+                    partFuture.cancel(true);
+                }
+                throw ie;
+            }
+
+            return objSize;
+        }
+    }
+
+    /**
+     * Downloaded part of an object
+     */
+    private static class PartResult {
+        final long byteNum;
+        final long objSize;
+        final String eTag;
+
+        PartResult(long byteNum, long objSize, String eTag) {
+            this.byteNum = byteNum;
+            this.objSize = objSize;
+            this.eTag = eTag;
+        }
+    }
+
+    /**
+     * A part of the object has a different ETag than the first part: the object changed or the
+     * source has a different copy of it. Not a source failure; the object fails.
+     */
+    static class ObjectChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ObjectChangedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Writing a downloaded part to the local file failed (e.g. a full disk). Not a source
+     * failure, and another source won't help; the object fails.
+     */
+    static class LocalWriteException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        LocalWriteException(String message, IOException cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * Download one part, failing over to other sources. Every source gets up to two tries.
+     *
+     * @param eTag ETag the object must have (from the first part); null for the first part
+     * @param pageCacheGuard null if the part is written through the page cache
+     * @param budgetOwner job charged for the bandwidth
+     * @return
+     */
+    private PartResult downloadPartWithFailover(String s3ObjKey, long start, long end, String eTag, FileChannel fileChannel,
+                                                OpscPageCacheGuard pageCacheGuard, String budgetOwner)
+        throws IOException {
+        Exception lastException = null;
+        Source source = null;
+
+        // Parts not started yet wait while the restore is paused
+        try {
+            OpscRestoreControl.awaitResumed();
+        }
+        catch (InterruptedException ie) {
+            throw new InterruptedIOException("Interrupted while paused");
+        }
+
+        for (int attempt = 0; attempt < sources.size() * 2; attempt++) {
+            source = pickSource(source);
+
+            long startNanos = System.nanoTime();
+            try {
+                PartResult partResult = downloadPart(source, s3ObjKey, start, end, eTag, fileChannel, pageCacheGuard, budgetOwner);
+
+                recordSuccess(source, partResult.byteNum, System.nanoTime() - startNanos);
+                return partResult;
+            }
+            catch (InterruptedIOException | ObjectChangedException | LocalWriteException e) {
+                // Cancelled, another version of the object, or a local write error: not a source failure
+                throw e;
+            }
+            catch (SdkClientException | IOException e) {
+                // Interrupted in the middle of a read (the job is cancelled, or another part failed)
+                if ( Thread.currentThread().isInterrupted() ||
+                     (e instanceof ClosedByInterruptException) || (e instanceof AbortedException) ) {
+                    InterruptedIOException interruptedException =
+                        new InterruptedIOException("Download of " + s3ObjKey + " cancelled");
+                    interruptedException.initCause(e);
+                    throw interruptedException;
+                }
+
+                lastException = e;
+                recordFailure(source);
+            }
+        }
+
+        throw new IOException("Failed to download " + s3ObjKey + " (bytes " + start + "-" + end + ") from all sources",
+            lastException);
+    }
+
+    /**
+     * @param eTag ETag the object must have; null for any
+     * @return
+     */
+    private PartResult downloadPart(Source source, String s3ObjKey, long start, long end, String eTag,
+                                    FileChannel fileChannel, OpscPageCacheGuard pageCacheGuard, String budgetOwner)
+        throws IOException {
+        OpscBandwidthBudget budget = bandwidthBudget;
+
+        GetObjectRequest getObjectRequest = new GetObjectRequest(source.bucketName, s3ObjKey).withRange(start, end);
+        if (eTag != null) {
+            getObjectRequest.withMatchingETagConstraint(eTag);
+        }
+
+        S3Object s3Object;
+        try {
+            s3Object = source.s3Client.getObject(getObjectRequest);
+        }
+        catch (AmazonS3Exception ase) {
+            // Range request on an empty object
+            if ( (ase.getStatusCode() == 416) && (start == 0) ) {
+                return new PartResult(0, 0, null);
+            }
+            if (ase.getStatusCode() == 412) {
+                throw new ObjectChangedException(s3ObjKey + " on " + source + " is not the version of the first part (ETag " + eTag + ")");
+            }
+            throw ase;
+        }
+
+        // No content when the ETag constraint is not met
+        if (s3Object == null) {
+            throw new ObjectChangedException(s3ObjKey + " on " + source + " is not the version of the first part (ETag " + eTag + ")");
+        }
+
+        String partETag = s3Object.getObjectMetadata().getETag();
+        if ( (eTag != null) && (partETag != null) && !eTag.equals(partETag) ) {
+            s3Object.getObjectContent().abort();
+            throw new ObjectChangedException(s3ObjKey + " on " + source + " has ETag " + partETag +
+                ", the first part had " + eTag);
+        }
+
+        long objSize = s3Object.getObjectMetadata().getInstanceLength();
+        long position = start;
+
+        if ( (pageCacheGuard != null) && (start == 0) ) {
+            pageCacheGuard.preallocate(objSize);
+        }
+
+        OpscWriteBehind.Sink sink = writeBehind.open(fileChannel, start, pageCacheGuard);
+        ByteBuffer buffer = null;
+
+        S3ObjectInputStream inputStream = s3Object.getObjectContent();
+        try {
+            ReadableByteChannel inputChannel = Channels.newChannel(inputStream);
+
+            while (true) {
+                if (buffer == null) {
+                    buffer = writeBehind.acquire();
+                }
+
+                int readNum = inputChannel.read(buffer);
+
+                // Full buffers (and the last one) go to the disk writers
+                if ( (readNum == -1) || !buffer.hasRemaining() ) {
+                    if (budget != null) {
+                        budget.acquire(budgetOwner, buffer.position());
+                    }
+
+                    ByteBuffer filledBuffer = buffer;
+                    buffer = null;
+
+                    filledBuffer.flip();
+                    if (filledBuffer.hasRemaining()) {
+                        try {
+                            sink.write(filledBuffer);
+                        }
+                        catch (IOException ioe) {
+                            throw new LocalWriteException("Failed to write " + s3ObjKey + ": " + ioe.getMessage(), ioe);
+                        }
+                    }
+                    else {
+                        writeBehind.release(filledBuffer);
+                    }
+                }
+
+                if (readNum == -1) {
+                    break;
+                }
+            }
+
+            try {
+                position = sink.finish();
+            }
+            catch (IOException ioe) {
+                throw new LocalWriteException("Failed to write " + s3ObjKey + ": " + ioe.getMessage(), ioe);
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            sink.abort();
+            inputStream.abort();
+            throw new InterruptedIOException("Download of " + s3ObjKey + " cancelled");
+        }
+        catch (IOException ioe) {
+            sink.abort();
+            inputStream.abort();
+            throw ioe;
+        }
+        finally {
+            if (buffer != null) {
+                writeBehind.release(buffer);
+            }
+            inputStream.close();
+        }
+
+        return new PartResult(position - start, objSize, partETag);
+    }
+
+    private void recordSuccess(Source source, long byteNum, long durationNanos) {
+        source.consecutiveFailureNum.set(0);
+        source.disabledUntilMillis = 0;
+        source.downloadedByteNum.addAndGet(byteNum);
+
+        // Tiny parts say little about bandwidth
+        if ( (byteNum >= COPY_BUFFER_SIZE) && (durationNanos > 0) ) {
+            double partBytesPerSec = byteNum * 1e9 / durationNanos;
+            source.bytesPerSec = source.measured ?
+                ((1 - THROUGHPUT_EWMA_WEIGHT) * source.bytesPerSec + THROUGHPUT_EWMA_WEIGHT * partBytesPerSec) :
+                partBytesPerSec;
+            source.measured = true;
+        }
+    }
+
+    private void recordFailure(Source source) {
+        source.failureNum.incrementAndGet();
+
+        int failureNum = source.consecutiveFailureNum.incrementAndGet();
+        long backoffMillis = Math.min(MAX_SOURCE_BACKOFF_MILLIS, 1000L << Math.min(failureNum - 1, 15));
+        source.disabledUntilMillis = System.currentTimeMillis() + backoffMillis;
+    }
+
+    @Override
+    public String getStats() {
+        StringBuilder sb = new StringBuilder();
+
+        // A single source has nothing to add to the download totals
+        if (sources.size() > 1) {
+            for (Source source : sources) {
+                sb.append(String.format("    %s: %d bytes, %d failures, %.2f MB/s observed\n",
+                    source, source.downloadedByteNum.get(), source.failureNum.get(), source.bytesPerSec / 1024 / 1024));
+            }
+        }
+
+        sb.append(writeBehind.getStats());
+        return sb.toString();
+    }
+
+    @Override
+    public void shutdown() {
+        partExecutor.shutdownNow();
+        writeBehind.shutdown();
+
+        // The primary client is owned (and shut down) by the caller
+        for (int i = 1; i < sources.size(); i++) {
+            sources.get(i).s3Client.shutdown();
+        }
+    }
+}
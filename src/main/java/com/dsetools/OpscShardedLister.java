@@ -0,0 +1,190 @@
+package com.dsetools;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Concurrent listing of a large prefix (e.g. "snapshots/<host_id>/sstables/").
+ *
+ * The key space under the prefix is split into ranges by a sorted list of split keys:
+ * (-inf, k1], (k1, k2], ..., (kn, +inf). Each range is listed with its own LIST sequence that
+ * starts after the lower split key and stops past the upper one, and the ranges are listed
+ * concurrently. Results are passed on range by range, so the merged result keeps the key order
+ * of a single LIST.
+ *
+ * Split keys are taken from the object keys of "backup.json" (see getSplitKeys()): the SSTables
+ * of one backup are a good sample of the key distribution under the host prefix.
+ */
+class OpscShardedLister {
+
+    // Prefixes with fewer expected keys than this are listed with one LIST sequence
+    static int SHARDED_LIST_MIN_KEYS = 10000;
+
+    // More ranges than threads, so one dense range doesn't hold up the whole listing
+    static int RANGES_PER_THREAD = 4;
+
+    private final AmazonS3 s3Client;
+    private final int threadNum;
+
+    private final AtomicLong listRequestNum = new AtomicLong();
+
+    OpscShardedLister(AmazonS3 s3Client, int threadNum) {
+        assert (threadNum > 0);
+
+        this.s3Client = s3Client;
+        this.threadNum = threadNum;
+    }
+
+    /**
+     * LIST requests sent so far
+     */
+    long getListRequestNum() {
+        return listRequestNum.get();
+    }
+
+    /**
+     * Split keys for a listing: evenly spaced keys of a sample of the keys under the prefix
+     *
+     * @param sampleKeys keys known to be under the prefix (any order)
+     * @param rangeNum number of ranges wanted
+     * @return sorted, distinct split keys (rangeNum - 1 at most)
+     */
+    static List<String> getSplitKeys(List<String> sampleKeys, int rangeNum) {
+        if ( (rangeNum <= 1) || sampleKeys.isEmpty() ) {
+            return Collections.emptyList();
+        }
+
+        List<String> sortedKeys = new ArrayList<>(sampleKeys);
+        Collections.sort(sortedKeys);
+
+        TreeSet<String> splitKeys = new TreeSet<>();
+        for (int r = 1; r < rangeNum; r++) {
+            splitKeys.add(sortedKeys.get((int) ((long) r * sortedKeys.size() / rangeNum)));
+        }
+
+        return new ArrayList<>(splitKeys);
+    }
+
+    /**
+     * Number of ranges worth listing concurrently for the expected number of keys
+     *
+     * @param expectedKeyNum
+     * @return 1 for a single LIST sequence
+     */
+    int getRangeNum(long expectedKeyNum) {
+        return ( (threadNum > 1) && (expectedKeyNum >= SHARDED_LIST_MIN_KEYS) ) ? (threadNum * RANGES_PER_THREAD) : 1;
+    }
+
+    /**
+     * List all objects under a prefix
+     *
+     * @param bktName
+     * @param prefix
+     * @param splitKeys sorted split keys; empty for a single LIST sequence
+     * @param consumer called in key order, from the calling thread
+     * @throws InterruptedException
+     */
+    void list(String bktName,
+              String prefix,
+              List<String> splitKeys,
+              Consumer<S3ObjectSummary> consumer) throws InterruptedException {
+        if (splitKeys.isEmpty()) {
+            for (S3ObjectSummary objectSummary : listRange(bktName, prefix, null, null)) {
+                consumer.accept(objectSummary);
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadNum, splitKeys.size() + 1));
+
+        try {
+            List<Future<List<S3ObjectSummary>>> rangeResults = new ArrayList<>();
+
+            for (int r = 0; r <= splitKeys.size(); r++) {
+                String lowerKey = (r > 0) ? splitKeys.get(r - 1) : null;
+                String upperKey = (r < splitKeys.size()) ? splitKeys.get(r) : null;
+
+                rangeResults.add(executor.submit(() -> listRange(bktName, prefix, lowerKey, upperKey)));
+            }
+
+            // Ranges complete in any order but are passed on in key order
+            for (Future<List<S3ObjectSummary>> rangeResult : rangeResults) {
+                for (S3ObjectSummary objectSummary : rangeResult.get()) {
+                    consumer.accept(objectSummary);
+                }
+            }
+        }
+        catch (ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ee.getCause();
+            }
+            throw new RuntimeException(ee.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Sizes of all objects under a prefix
+     *
+     * @param bktName
+     * @param prefix
+     * @param splitKeys sorted split keys; empty for a single LIST sequence
+     * @return object key -> size, in key order
+     * @throws InterruptedException
+     */
+    Map<String, Long> listSizes(String bktName, String prefix, List<String> splitKeys) throws InterruptedException {
+        Map<String, Long> s3ObjSizes = new LinkedHashMap<>();
+
+        list(bktName, prefix, splitKeys, objectSummary -> s3ObjSizes.put(objectSummary.getKey(), objectSummary.getSize()));
+
+        return s3ObjSizes;
+    }
+
+    /**
+     * List the keys in (lowerKey, upperKey] under a prefix
+     *
+     * @param bktName
+     * @param prefix
+     * @param lowerKey null for no lower bound
+     * @param upperKey null for no upper bound
+     * @return
+     */
+    private List<S3ObjectSummary> listRange(String bktName, String prefix, String lowerKey, String upperKey) {
+        List<S3ObjectSummary> objectSummaries = new ArrayList<>();
+
+        ListObjectsV2Request listRequest = new ListObjectsV2Request()
+            .withBucketName(bktName)
+            .withPrefix(prefix);
+
+        if (lowerKey != null) {
+            listRequest.setStartAfter(lowerKey);
+        }
+
+        while (true) {
+            ListObjectsV2Result listResult = s3Client.listObjectsV2(listRequest);
+            listRequestNum.incrementAndGet();
+
+            for (S3ObjectSummary objectSummary : listResult.getObjectSummaries()) {
+                if ( (upperKey != null) && (objectSummary.getKey().compareTo(upperKey) > 0) ) {
+                    return objectSummaries;
+                }
+                objectSummaries.add(objectSummary);
+            }
+
+            if (!listResult.isTruncated()) {
+                return objectSummaries;
+            }
+
+            listRequest.setContinuationToken(listResult.getNextContinuationToken());
+        }
+    }
+}
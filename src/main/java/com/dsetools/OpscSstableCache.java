@@ -0,0 +1,303 @@
+package com.dsetools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local cache of OpsCenter backup SSTable objects, shared by the restores of one process (e.g.
+ * the jobs of a restore daemon, or the hosts of one run). The index is kept in memory, so a
+ * cache directory belongs to one process at a time: it is locked exclusively (".lock") while
+ * the cache is open, and a second process fails to open it.
+ *
+ * OpsCenter "sstables/" objects are immutable, so a cache entry is keyed by the S3 object key
+ * and its size (its ETag when the size is not known). Entries are evicted in LRU order (last
+ * access time = file modification time) when the total cache size goes over the configured cap.
+ * A cached object is materialized into the download directory as a hard link; a plain copy is
+ * used when the cache directory and the download directory are on different file systems.
+ *
+ * The cache lock only covers the index: an entry being linked or copied is pinned so that it is
+ * not evicted, and the file system work is done outside the lock.
+ */
+class OpscSstableCache {
+
+    private static final String CACHE_TMP_FILE_SUFFIX = ".tmp";
+    private static final String CACHE_LOCK_FILE = ".lock";
+
+    private final Path cacheDir;
+    private final long maxBytes;
+
+    // Held for the life of the process
+    private final FileChannel lockChannel;
+
+    // cache entry file name -> size; iteration order is LRU first
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    // cache entry file name -> number of links/copies in progress
+    private final Map<String, Integer> pins = new HashMap<>();
+
+    private final AtomicLong hitNum = new AtomicLong();
+    private final AtomicLong missNum = new AtomicLong();
+    private final AtomicLong hitBytes = new AtomicLong();
+
+    OpscSstableCache(String cacheDirStr, long maxBytes) throws IOException {
+        this.cacheDir = Paths.get(cacheDirStr);
+        this.maxBytes = maxBytes;
+
+        Files.createDirectories(cacheDir);
+
+        lockChannel = FileChannel.open(cacheDir.resolve(CACHE_LOCK_FILE),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        }
+        catch (OverlappingFileLockException ofle) {
+            lock = null;
+        }
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Cache directory " + cacheDir + " is in use by another restore process");
+        }
+
+        // Rebuild LRU order from existing entries (oldest access first); drop leftovers of interrupted downloads
+        List<Path> entryFiles = new ArrayList<>();
+        try (DirectoryStream<Path> dirStream = Files.newDirectoryStream(cacheDir)) {
+            for (Path entryFile : dirStream) {
+                if (entryFile.getFileName().toString().startsWith(".")) {
+                    continue;
+                }
+                else if (entryFile.getFileName().toString().endsWith(CACHE_TMP_FILE_SUFFIX)) {
+                    Files.deleteIfExists(entryFile);
+                }
+                else if (Files.isRegularFile(entryFile)) {
+                    entryFiles.add(entryFile);
+                }
+            }
+        }
+
+        final Map<Path, Long> lastAccessTimes = new HashMap<>();
+        for (Path entryFile : entryFiles) {
+            lastAccessTimes.put(entryFile, Files.getLastModifiedTime(entryFile).toMillis());
+        }
+        entryFiles.sort(Comparator.comparing(lastAccessTimes::get));
+
+        for (Path entryFile : entryFiles) {
+            long size = Files.size(entryFile);
+            entries.put(entryFile.getFileName().toString(), size);
+            totalBytes += size;
+        }
+
+        evict();
+    }
+
+    /**
+     * Cache entry file name for an S3 object: SHA-1 of "<object_key>\n<size or etag>"
+     *
+     * @param s3ObjKey
+     * @param version object size, or ETag when the size is not known
+     * @return
+     */
+    static String entryName(String s3ObjKey, String version) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((s3ObjKey + "\n" + version).getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    /**
+     * Cache file that fetch() would link for an object of a known size
+     *
+     * @param s3ObjKey
+     * @param objSize
+     * @return null if the object is not cached (or its size is unknown)
+     */
+    synchronized Path getLinkSource(String s3ObjKey, long objSize) {
+        if (objSize < 0) {
+            return null;
+        }
+
+        String entry = entryName(s3ObjKey, String.valueOf(objSize));
+        return entries.containsKey(entry) ? cacheDir.resolve(entry) : null;
+    }
+
+    /**
+     * Materialize an S3 object into a local file, from the cache when possible. On a cache
+     * miss, the object is downloaded into the cache first.
+     *
+     * @param backupStore
+     * @param s3ObjKey
+     * @param objSize -1 if unknown (the ETag is then requested)
+     * @param localFile
+     * @return number of bytes downloaded over the network; 0 when served from the cache
+     * @throws Exception
+     */
+    long fetch(OpscBackupStore backupStore,
+               String s3ObjKey,
+               long objSize,
+               File localFile) throws Exception {
+        String entry = entryName(s3ObjKey,
+            (objSize >= 0) ? String.valueOf(objSize) : backupStore.getETag(s3ObjKey));
+
+        if (linkTo(entry, localFile)) {
+            hitNum.incrementAndGet();
+            hitBytes.addAndGet(localFile.length());
+            return 0;
+        }
+
+        missNum.incrementAndGet();
+
+        Path tmpFile = cacheDir.resolve(entry + "." + Thread.currentThread().getId() + CACHE_TMP_FILE_SUFFIX);
+        long byteNum;
+        try {
+            byteNum = backupStore.download(s3ObjKey, tmpFile.toFile());
+
+            // Objects larger than the whole cache are not cached
+            if (byteNum > maxBytes) {
+                Files.createDirectories(localFile.toPath().toAbsolutePath().getParent());
+                Files.move(tmpFile, localFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                return byteNum;
+            }
+
+            // Admitted pinned, so that it can't be evicted before it is linked
+            admit(entry, tmpFile);
+        }
+        finally {
+            Files.deleteIfExists(tmpFile);
+        }
+
+        try {
+            link(entry, localFile);
+        }
+        finally {
+            unpin(entry);
+        }
+
+        return byteNum;
+    }
+
+    /**
+     * Hard link (or copy) a cache entry to the target file
+     *
+     * @return false if the cache doesn't have the entry (or its file is gone)
+     */
+    private boolean linkTo(String entry, File localFile) throws IOException {
+        if (!pin(entry)) {
+            return false;
+        }
+
+        boolean linked;
+        try {
+            link(entry, localFile);
+            linked = true;
+        }
+        catch (NoSuchFileException nsfe) {
+            // Removed outside of this cache (e.g. by hand): a miss
+            linked = false;
+        }
+        finally {
+            unpin(entry);
+        }
+
+        if (!linked) {
+            drop(entry);
+        }
+        return linked;
+    }
+
+    /**
+     * Hard link (or copy) a pinned cache entry to the target file, outside the cache lock
+     */
+    private void link(String entry, File localFile) throws IOException {
+        Path entryFile = cacheDir.resolve(entry);
+        Path targetFile = localFile.toPath();
+
+        Files.createDirectories(targetFile.toAbsolutePath().getParent());
+        Files.deleteIfExists(targetFile);
+
+        try {
+            Files.createLink(targetFile, entryFile);
+        }
+        catch (IOException | UnsupportedOperationException e) {
+            Files.copy(entryFile, targetFile);
+        }
+
+        // LRU bookkeeping on disk; the access order in memory is updated by pin()
+        Files.setLastModifiedTime(entryFile, FileTime.fromMillis(System.currentTimeMillis()));
+    }
+
+    private synchronized boolean pin(String entry) {
+        if (entries.get(entry) == null) {
+            return false;
+        }
+
+        pins.merge(entry, 1, Integer::sum);
+        return true;
+    }
+
+    private synchronized void unpin(String entry) {
+        pins.computeIfPresent(entry, (e, pinNum) -> (pinNum > 1) ? (pinNum - 1) : null);
+    }
+
+    private synchronized void admit(String entry, Path tmpFile) throws IOException {
+        Path entryFile = cacheDir.resolve(entry);
+        long size = Files.size(tmpFile);
+
+        Files.move(tmpFile, entryFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        Long oldSize = entries.put(entry, size);
+        totalBytes += size - ((oldSize != null) ? oldSize : 0);
+
+        pins.merge(entry, 1, Integer::sum);
+
+        evict();
+    }
+
+    private synchronized void drop(String entry) {
+        Long size = entries.remove(entry);
+        if (size != null) {
+            totalBytes -= size;
+        }
+    }
+
+    private synchronized void evict() throws IOException {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+
+        while ( (totalBytes > maxBytes) && iterator.hasNext() ) {
+            Map.Entry<String, Long> lruEntry = iterator.next();
+
+            // Keep the most recently used entry even if it alone is over the cap, and entries in use
+            if ( !iterator.hasNext() || pins.containsKey(lruEntry.getKey()) ) {
+                continue;
+            }
+
+            Files.deleteIfExists(cacheDir.resolve(lruEntry.getKey()));
+            totalBytes -= lruEntry.getValue();
+            iterator.remove();
+        }
+    }
+
+    synchronized String getStats() {
+        return String.format("%d hits (%d bytes), %d misses; %d entries, %d of %d bytes used",
+            hitNum.get(), hitBytes.get(), missNum.get(), entries.size(), totalBytes, maxBytes);
+    }
+}
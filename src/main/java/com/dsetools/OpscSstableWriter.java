@@ -0,0 +1,288 @@
+package com.dsetools;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Writes a small "mc"/"md" SSTable (Murmur3Partitioner, uncompressed) from partitions taken out of a
+ * backup SSTable, e.g. for "sstableloader" or "nodetool refresh":
+ *
+ *   "-Data.db":       the partitions, as they are in the uncompressed data of the source SSTable
+ *   "-Index.db":      one entry per partition, with the promoted index of the source entry
+ *   "-Summary.db":    index summary at the min index interval of the source SSTable
+ *   "-Filter.db":     Bloom filter of the partition keys
+ *   "-Statistics.db": copied from the source SSTable (serialization header and metadata)
+ *   "-CRC.db", "-Digest.crc32", "-TOC.txt"
+ *
+ * Partition bytes are position independent (row index offsets are relative to the partition
+ * start), and rows are encoded against the serialization header of "-Statistics.db", so the
+ * partitions are copied byte for byte. The statistics of the source SSTable (estimated
+ * partition count and sizes, min/max clustering values, ...) cover more than the partitions
+ * written; they are only used as estimates.
+ */
+class OpscSstableWriter {
+
+    static String DATA_COMPONENT = "Data.db";
+    static String INDEX_COMPONENT = "Index.db";
+    static String SUMMARY_COMPONENT = "Summary.db";
+    static String FILTER_COMPONENT = "Filter.db";
+    static String STATISTICS_COMPONENT = "Statistics.db";
+    static String CRC_COMPONENT = "CRC.db";
+    static String DIGEST_COMPONENT = "Digest.crc32";
+    static String TOC_COMPONENT = "TOC.txt";
+
+    // Bloom filter: 10 bits per key and 7 hashes, about 1% false positives
+    static int FILTER_BUCKETS_PER_KEY = 10;
+    static int FILTER_HASH_COUNT = 7;
+    private static int FILTER_EXCESS_BITS = 20;
+
+    // "-CRC.db" checksum chunk size (uncompressed SSTables)
+    static int CRC_CHUNK_SIZE = 64 * 1024;
+
+    // Summary sampling level at full sampling
+    private static int BASE_SAMPLING_LEVEL = 128;
+
+    /**
+     * One partition to write
+     */
+    static class Partition {
+        final byte[] key;
+        final long token;
+        final byte[] data;
+        final byte[] promotedIndex;
+
+        /**
+         * @param key serialized partition key
+         * @param data partition bytes (uncompressed "-Data.db" content)
+         * @param promotedIndex promoted index of the "-Index.db" entry; empty if none
+         */
+        Partition(byte[] key, byte[] data, byte[] promotedIndex) {
+            this.key = key;
+            this.token = OpscMurmur3Hash.getToken(key);
+            this.data = data;
+            this.promotedIndex = promotedIndex;
+        }
+    }
+
+    /**
+     * Write an SSTable set "<outputDir>/<sstableName>-<component>"
+     *
+     * @param outputDir
+     * @param sstableName e.g. "mc-1-big" (the format version of the source SSTable)
+     * @param partitions in partition order (token, then key bytes), without duplicates
+     * @param statistics "-Statistics.db" of the source SSTable
+     * @param minIndexInterval min index interval of the source SSTable (its "-Summary.db" header)
+     * @throws IOException
+     */
+    static void write(File outputDir,
+                      String sstableName,
+                      List<Partition> partitions,
+                      byte[] statistics,
+                      int minIndexInterval) throws IOException {
+        if (partitions.isEmpty()) {
+            throw new IllegalArgumentException("No partitions to write for " + sstableName);
+        }
+
+        // "-Data.db" and "-Index.db"
+        long[] dataPositions = new long[partitions.size()];
+        long[] indexPositions = new long[partitions.size()];
+
+        CRC32 dataCrc = new CRC32();
+
+        try (DataOutputStream dataStream = new DataOutputStream(new BufferedOutputStream(
+                 new FileOutputStream(componentFile(outputDir, sstableName, DATA_COMPONENT))));
+             DataOutputStream indexStream = new DataOutputStream(new BufferedOutputStream(
+                 new FileOutputStream(componentFile(outputDir, sstableName, INDEX_COMPONENT))))) {
+            for (int i = 0; i < partitions.size(); i++) {
+                Partition partition = partitions.get(i);
+
+                dataPositions[i] = dataStream.size();
+                indexPositions[i] = indexStream.size();
+
+                dataStream.write(partition.data);
+                dataCrc.update(partition.data);
+
+                indexStream.writeShort(partition.key.length);
+                indexStream.write(partition.key);
+                writeUnsignedVInt(indexStream, dataPositions[i]);
+                writeUnsignedVInt(indexStream, partition.promotedIndex.length);
+                indexStream.write(partition.promotedIndex);
+            }
+        }
+
+        writeCrc(outputDir, sstableName);
+        Files.write(componentFile(outputDir, sstableName, DIGEST_COMPONENT).toPath(),
+            String.valueOf(dataCrc.getValue()).getBytes(StandardCharsets.US_ASCII));
+
+        writeSummary(outputDir, sstableName, partitions, indexPositions, minIndexInterval);
+        writeFilter(outputDir, sstableName, partitions);
+
+        Files.write(componentFile(outputDir, sstableName, STATISTICS_COMPONENT).toPath(), statistics);
+
+        List<String> tocLines = new ArrayList<>();
+        for (String component : new String[] { DATA_COMPONENT, INDEX_COMPONENT, SUMMARY_COMPONENT, FILTER_COMPONENT,
+                                                STATISTICS_COMPONENT, CRC_COMPONENT, DIGEST_COMPONENT, TOC_COMPONENT }) {
+            tocLines.add(component);
+        }
+        Files.write(componentFile(outputDir, sstableName, TOC_COMPONENT).toPath(), tocLines, StandardCharsets.US_ASCII);
+    }
+
+    static File componentFile(File outputDir, String sstableName, String component) {
+        return new File(outputDir, sstableName + "-" + component);
+    }
+
+    /**
+     * "-CRC.db": chunk size, then the CRC32 of each chunk of "-Data.db"
+     */
+    private static void writeCrc(File outputDir, String sstableName) throws IOException {
+        try (InputStream dataStream = new BufferedInputStream(
+                 new FileInputStream(componentFile(outputDir, sstableName, DATA_COMPONENT)));
+             DataOutputStream crcStream = new DataOutputStream(new BufferedOutputStream(
+                 new FileOutputStream(componentFile(outputDir, sstableName, CRC_COMPONENT))))) {
+            crcStream.writeInt(CRC_CHUNK_SIZE);
+
+            byte[] chunk = new byte[CRC_CHUNK_SIZE];
+            CRC32 chunkCrc = new CRC32();
+
+            while (true) {
+                int chunkLength = 0;
+                int readNum;
+                while ( (chunkLength < chunk.length) &&
+                        ((readNum = dataStream.read(chunk, chunkLength, chunk.length - chunkLength)) > 0) ) {
+                    chunkLength += readNum;
+                }
+
+                if (chunkLength == 0) {
+                    break;
+                }
+
+                chunkCrc.reset();
+                chunkCrc.update(chunk, 0, chunkLength);
+                crcStream.writeInt((int) chunkCrc.getValue());
+            }
+        }
+    }
+
+    /**
+     * "-Summary.db": header, entry offsets and entries (key + "-Index.db" position) in native
+     * byte order (little endian on the x86 nodes the backups come from), first and last key
+     */
+    private static void writeSummary(File outputDir,
+                                     String sstableName,
+                                     List<Partition> partitions,
+                                     long[] indexPositions,
+                                     int minIndexInterval) throws IOException {
+        List<Integer> sampled = new ArrayList<>();
+        for (int i = 0; i < partitions.size(); i += minIndexInterval) {
+            sampled.add(i);
+        }
+
+        int entriesLength = 0;
+        for (int i : sampled) {
+            entriesLength += partitions.get(i).key.length + 8;
+        }
+
+        int offsetsLength = sampled.size() * 4;
+        ByteBuffer summary = ByteBuffer.allocate(offsetsLength + entriesLength).order(ByteOrder.LITTLE_ENDIAN);
+
+        // Offsets are from the start of the offsets
+        int entryOffset = offsetsLength;
+        for (int i : sampled) {
+            summary.putInt(entryOffset);
+            entryOffset += partitions.get(i).key.length + 8;
+        }
+        for (int i : sampled) {
+            summary.put(partitions.get(i).key);
+            summary.putLong(indexPositions[i]);
+        }
+
+        try (DataOutputStream summaryStream = new DataOutputStream(new BufferedOutputStream(
+                 new FileOutputStream(componentFile(outputDir, sstableName, SUMMARY_COMPONENT))))) {
+            summaryStream.writeInt(minIndexInterval);
+            summaryStream.writeInt(sampled.size());
+            summaryStream.writeLong(summary.capacity());
+            summaryStream.writeInt(BASE_SAMPLING_LEVEL);
+            summaryStream.writeInt(sampled.size());
+            summaryStream.write(summary.array());
+
+            byte[] firstKey = partitions.get(0).key;
+            byte[] lastKey = partitions.get(partitions.size() - 1).key;
+            summaryStream.writeInt(firstKey.length);
+            summaryStream.write(firstKey);
+            summaryStream.writeInt(lastKey.length);
+            summaryStream.write(lastKey);
+        }
+    }
+
+    /**
+     * "-Filter.db": hash count, bit set size in longs, bit set words
+     */
+    private static void writeFilter(File outputDir, String sstableName, List<Partition> partitions) throws IOException {
+        long bitNum = (long) partitions.size() * FILTER_BUCKETS_PER_KEY + FILTER_EXCESS_BITS;
+        long[] words = new long[(int) ((bitNum + 63) / 64)];
+
+        for (Partition partition : partitions) {
+            for (long bitIndex : getFilterBitIndexes(partition.key, FILTER_HASH_COUNT, (long) words.length * 64)) {
+                words[(int) (bitIndex >>> 6)] |= 1L << (bitIndex & 63);
+            }
+        }
+
+        try (DataOutputStream filterStream = new DataOutputStream(new BufferedOutputStream(
+                 new FileOutputStream(componentFile(outputDir, sstableName, FILTER_COMPONENT))))) {
+            filterStream.writeInt(FILTER_HASH_COUNT);
+            filterStream.writeInt(words.length);
+            for (long word : words) {
+                filterStream.writeLong(word);
+            }
+        }
+    }
+
+    /**
+     * Bloom filter bits of a key ("ma" and later formats: the second half of the Murmur3 hash
+     * is the base, the first half the increment)
+     *
+     * @param key
+     * @param hashCount
+     * @param bitNum
+     * @return
+     */
+    static long[] getFilterBitIndexes(byte[] key, int hashCount, long bitNum) {
+        long[] hash = OpscMurmur3Hash.hash3_x64_128(key, 0, key.length, 0);
+        long base = hash[1];
+        long inc = hash[0];
+
+        long[] bitIndexes = new long[hashCount];
+        for (int i = 0; i < hashCount; i++) {
+            bitIndexes[i] = Math.abs(base % bitNum);
+            base += inc;
+        }
+        return bitIndexes;
+    }
+
+    /**
+     * Cassandra unsigned variable-length integer (see OpscPartitionExtractor.readUnsignedVInt)
+     */
+    static void writeUnsignedVInt(DataOutput output, long value) throws IOException {
+        int extraByteNum = Math.max(0, (63 - Long.numberOfLeadingZeros(value)) / 7);
+        if (extraByteNum >= 8) {
+            // 9 bytes: a first byte of 0xff, then all 8 bytes of the value
+            output.writeByte(0xff);
+            output.writeLong(value);
+            return;
+        }
+
+        int firstByte = (int) (value >>> (extraByteNum * 8));
+        firstByte |= ~(0xff >> extraByteNum) & 0xff;
+        output.writeByte(firstByte);
+
+        for (int i = extraByteNum - 1; i >= 0; i--) {
+            output.writeByte((int) (value >>> (i * 8)));
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.dsetools;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.S3Object;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time window filter for SSTable sets (e.g. of TimeWindowCompactionStrategy tables): an SSTable
+ * set is only restored when the cell timestamps [min timestamp, max timestamp] in its
+ * "-Statistics.db" overlap the requested time window.
+ *
+ * Only the small "-Statistics.db" component is read, with one GET. The file starts with a table
+ * of its metadata components (type, offset); the stats component starts with two histograms and
+ * the commit log position, followed by the min and max timestamps. Timestamps are assumed to be
+ * microseconds since the epoch (Cassandra's default write time); negative timestamps or ones
+ * more than MAX_FUTURE_TIMESTAMP_MICROS ahead are rejected (e.g. a different layout).
+ */
+class OpscTimeWindowFilter {
+
+    static String STATISTICS_COMPONENT = "Statistics.db";
+
+    // Metadata component type of the stats (VALIDATION, COMPACTION, STATS, HEADER)
+    static int STATS_METADATA_TYPE = 2;
+
+    // Larger "-Statistics.db" objects are not expected; they are kept without time window check
+    static int MAX_STATISTICS_SIZE = 4 * 1024 * 1024;
+
+    // Cell timestamps further in the future are taken as a misread "-Statistics.db"
+    static long MAX_FUTURE_TIMESTAMP_MICROS = TimeUnit.DAYS.toMicros(1);
+
+    // Commit log position: segment ID (long), position (int)
+    private static final int COMMIT_LOG_POSITION_SIZE = 12;
+
+    private static final ZoneId UTC = ZoneId.of("UTC");
+
+    private final ZonedDateTime windowStart;
+    private final ZonedDateTime windowEnd;
+
+    // Window in microseconds since the epoch, [start, end]
+    private final long windowStartMicros;
+    private final long windowEndMicros;
+
+    /**
+     * Parse "<start_time>,<end_time>" (M/d/yyyy h:mm a, UTC, like "-obt")
+     *
+     * @param timeWindowStr
+     * @return
+     * @throws DateTimeParseException for a malformed value
+     * @throws IllegalArgumentException when the start time is not before the end time
+     */
+    static OpscTimeWindowFilter parseTimeWindow(String timeWindowStr) {
+        String[] timeStrs = timeWindowStr.split(",");
+        if (timeStrs.length != 2) {
+            throw new IllegalArgumentException("Invalid time window: " + timeWindowStr);
+        }
+
+        ZonedDateTime windowStart = LocalDateTime.parse(timeStrs[0].trim(),
+            DseOpscS3RestoreUtils.OPSC_BKUP_TIME_DISPLAY_FORMATTER).atZone(UTC);
+        ZonedDateTime windowEnd = LocalDateTime.parse(timeStrs[1].trim(),
+            DseOpscS3RestoreUtils.OPSC_BKUP_TIME_DISPLAY_FORMATTER).atZone(UTC);
+
+        if (!windowStart.isBefore(windowEnd)) {
+            throw new IllegalArgumentException("Time window start is not before its end: " + timeWindowStr);
+        }
+
+        return new OpscTimeWindowFilter(windowStart, windowEnd);
+    }
+
+    OpscTimeWindowFilter(ZonedDateTime windowStart, ZonedDateTime windowEnd) {
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+        this.windowStartMicros = toMicros(windowStart);
+        this.windowEndMicros = toMicros(windowEnd);
+    }
+
+    private static long toMicros(ZonedDateTime time) {
+        return TimeUnit.SECONDS.toMicros(time.toEpochSecond()) + TimeUnit.NANOSECONDS.toMicros(time.getNano());
+    }
+
+    /**
+     * Whether [minTimestamp, maxTimestamp] overlaps the window. An SSTable without cells has
+     * minTimestamp > maxTimestamp and overlaps nothing.
+     */
+    boolean overlaps(long minTimestamp, long maxTimestamp) {
+        return (minTimestamp <= windowEndMicros) && (maxTimestamp >= windowStartMicros);
+    }
+
+    /**
+     * Read the min and max cell timestamps from a "-Statistics.db" object
+     *
+     * @param s3Client
+     * @param bktName
+     * @param statisticsObjKey
+     * @return { min_timestamp, max_timestamp }
+     * @throws IOException
+     */
+    static long[] readStatisticsTimestamps(AmazonS3 s3Client, String bktName, String statisticsObjKey) throws IOException {
+        byte[] statistics;
+
+        try (S3Object statisticsObj = s3Client.getObject(bktName, statisticsObjKey);
+             InputStream statisticsStream = statisticsObj.getObjectContent()) {
+            long objSize = statisticsObj.getObjectMetadata().getContentLength();
+            if (objSize > MAX_STATISTICS_SIZE) {
+                throw new IOException("Unexpected " + STATISTICS_COMPONENT + " size " + objSize);
+            }
+
+            statistics = IOUtils.toByteArray(statisticsStream);
+        }
+
+        return parseStatisticsTimestamps(statistics);
+    }
+
+    static long[] parseStatisticsTimestamps(byte[] statistics) throws IOException {
+        DataInputStream headerStream = new DataInputStream(new ByteArrayInputStream(statistics));
+
+        int componentNum = headerStream.readInt();
+        if ( (componentNum <= 0) || (componentNum > 16) ) {
+            throw new IOException("Unexpected metadata component count " + componentNum);
+        }
+
+        int statsOffset = -1;
+        for (int i = 0; i < componentNum; i++) {
+            int type = headerStream.readInt();
+            int offset = headerStream.readInt();
+
+            if (type == STATS_METADATA_TYPE) {
+                statsOffset = offset;
+            }
+        }
+
+        if ( (statsOffset < 0) || (statsOffset >= statistics.length) ) {
+            throw new IOException("No stats metadata component");
+        }
+
+        DataInputStream statsStream = new DataInputStream(
+            new ByteArrayInputStream(statistics, statsOffset, statistics.length - statsOffset));
+
+        skipHistogram(statsStream);     // partition sizes
+        skipHistogram(statsStream);     // cell counts
+        skipFully(statsStream, COMMIT_LOG_POSITION_SIZE);
+
+        long minTimestamp = statsStream.readLong();
+        long maxTimestamp = statsStream.readLong();
+
+        // Initial values of an SSTable without cells
+        if ( (minTimestamp == Long.MAX_VALUE) && (maxTimestamp == Long.MIN_VALUE) ) {
+            return new long[] { minTimestamp, maxTimestamp };
+        }
+
+        long maxSaneTimestamp = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis()) + MAX_FUTURE_TIMESTAMP_MICROS;
+        if ( (minTimestamp < 0) || (maxTimestamp < 0) ||
+             (minTimestamp > maxSaneTimestamp) || (maxTimestamp > maxSaneTimestamp) ) {
+            throw new IOException("Implausible cell timestamps [" + minTimestamp + ", " + maxTimestamp + "]");
+        }
+
+        return new long[] { minTimestamp, maxTimestamp };
+    }
+
+    // Bucket count (int), then (offset (long), count (long)) per bucket
+    private static void skipHistogram(DataInputStream inputStream) throws IOException {
+        int bucketNum = inputStream.readInt();
+        if ( (bucketNum < 0) || (bucketNum > 0xffff) ) {
+            throw new IOException("Unexpected histogram bucket count " + bucketNum);
+        }
+
+        skipFully(inputStream, bucketNum * 16);
+    }
+
+    private static void skipFully(DataInputStream inputStream, int byteNum) throws IOException {
+        if (inputStream.skipBytes(byteNum) != byteNum) {
+            throw new IOException("Truncated stats metadata");
+        }
+    }
+
+    /**
+     * Find the backup SSTable objects of a host that are outside the requested time window.
+     * SSTable sets without a readable "-Statistics.db" are kept.
+     *
+     * @param s3Client
+     * @param bktName
+     * @param backupManifest
+     * @param keyspaceName
+     * @param tableName
+     * @param alreadySkipped manifest entries skipped by other filters; their "-Statistics.db" is not read
+     * @return indexes of the backup manifest entries to skip
+     */
+    BitSet findSkippedSstables(AmazonS3 s3Client,
+                               String bktName,
+                               OpscBackupManifest backupManifest,
+                               String keyspaceName,
+                               String tableName,
+                               BitSet alreadySkipped) {
+        // SSTable set key -> manifest indexes of all components
+        Map<String, BitSet> sstableSets = new LinkedHashMap<>();
+        Map<String, Integer> statisticsIndexes = new HashMap<>();
+
+        BitSet selected = backupManifest.select(keyspaceName, tableName);
+        selected.andNot(alreadySkipped);
+
+        for ( int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1) ) {
+            String sstableSetKey = OpscTokenRangeFilter.getSstableSetKey(
+                backupManifest.getKeyspace(i),
+                backupManifest.getTable(i),
+                backupManifest.getSstableObjName(i),
+                backupManifest.getVersion(i));
+
+            BitSet components = sstableSets.get(sstableSetKey);
+            if (components == null) {
+                components = new BitSet();
+                sstableSets.put(sstableSetKey, components);
+            }
+            components.set(i);
+
+            if (backupManifest.getComponent(i).equals(STATISTICS_COMPONENT)) {
+                statisticsIndexes.put(sstableSetKey, i);
+            }
+        }
+
+        BitSet skippedSstables = new BitSet(backupManifest.size());
+        int skippedSetNum = 0;
+
+        for ( String sstableSetKey : sstableSets.keySet() ) {
+            Integer statisticsIndex = statisticsIndexes.get(sstableSetKey);
+            if (statisticsIndex == null) {
+                System.out.println("WARN: No " + STATISTICS_COMPONENT + " for SSTable " + sstableSetKey + "; kept without time window check.");
+                continue;
+            }
+
+            try {
+                long[] timestamps = readStatisticsTimestamps(s3Client, bktName, backupManifest.getS3ObjKey(statisticsIndex));
+
+                if (!overlaps(timestamps[0], timestamps[1])) {
+                    skippedSstables.or(sstableSets.get(sstableSetKey));
+                    skippedSetNum++;
+                }
+            }
+            catch (IOException | SdkClientException e) {
+                System.out.println("WARN: Failed to read timestamps of SSTable " + sstableSetKey +
+                    " (" + e.getMessage() + "); kept without time window check.");
+            }
+        }
+
+        System.out.format("  Time window filter %s: %d of %d SSTables outside the requested window skipped.\n",
+            this, skippedSetNum, sstableSets.size());
+
+        return skippedSstables;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + windowStart.format(DseOpscS3RestoreUtils.OPSC_BKUP_TIME_DISPLAY_FORMATTER) + ", " +
+            windowEnd.format(DseOpscS3RestoreUtils.OPSC_BKUP_TIME_DISPLAY_FORMATTER) + "] UTC";
+    }
+}
@@ -0,0 +1,229 @@
+package com.dsetools;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Token range filter for SSTable sets: an SSTable set is only restored when the token range
+ * [token(first key), token(last key)] of its "-Summary.db" overlaps one of the requested ranges.
+ *
+ * Only the small "-Summary.db" component is read, with two ranged GETs: the fixed-size header
+ * (to get the size of the summary entries) and the tail that holds the first and last partition
+ * keys. Murmur3Partitioner is assumed.
+ */
+class OpscTokenRangeFilter {
+
+    static String SUMMARY_COMPONENT = "Summary.db";
+
+    // minIndexInterval (int), entry count (int), off-heap size (long), sampling level (int), full sampling size (int)
+    static int SUMMARY_HEADER_SIZE = 24;
+
+    /**
+     * Cassandra token range (start, end]; start >= end wraps around the ring
+     */
+    static class TokenRange {
+        final long start;
+        final long end;
+
+        TokenRange(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Whether the range overlaps [firstToken, lastToken] (firstToken <= lastToken)
+         */
+        boolean overlaps(long firstToken, long lastToken) {
+            if (start < end) {
+                return (firstToken <= end) && (lastToken > start);
+            }
+
+            return (lastToken > start) || (firstToken <= end);
+        }
+
+        @Override
+        public String toString() {
+            return "(" + start + ", " + end + "]";
+        }
+    }
+
+    /**
+     * Parse "<start>:<end>[,<start>:<end>...]"
+     *
+     * @param tokenRangesStr
+     * @return
+     * @throws NumberFormatException for a malformed value
+     */
+    static List<TokenRange> parseTokenRanges(String tokenRangesStr) {
+        List<TokenRange> tokenRanges = new ArrayList<>();
+
+        for (String tokenRangeStr : tokenRangesStr.split(",")) {
+            // The end token may be negative, so split at the separator after the start token
+            int sepPos = tokenRangeStr.indexOf(':', 1);
+            if (sepPos < 0) {
+                throw new NumberFormatException("Invalid token range: " + tokenRangeStr);
+            }
+
+            tokenRanges.add(new TokenRange(
+                Long.parseLong(tokenRangeStr.substring(0, sepPos).trim()),
+                Long.parseLong(tokenRangeStr.substring(sepPos + 1).trim())));
+        }
+
+        return tokenRanges;
+    }
+
+    private final List<TokenRange> tokenRanges;
+
+    OpscTokenRangeFilter(List<TokenRange> tokenRanges) {
+        this.tokenRanges = tokenRanges;
+    }
+
+    List<TokenRange> getTokenRanges() {
+        return tokenRanges;
+    }
+
+    boolean overlaps(long firstToken, long lastToken) {
+        for (TokenRange tokenRange : tokenRanges) {
+            if (tokenRange.overlaps(firstToken, lastToken)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * SSTable set key of a backup SSTable object: "<keyspace>/<table>/<version>-<generation>-<format>"
+     * (e.g. "testks/songs/mc-1-big"). OpsCenter object name prefixes are not part of the key.
+     *
+     * @param keyspaceName
+     * @param tableName
+     * @param sstableObjName
+     * @param sstableVersion
+     * @return
+     */
+    static String getSstableSetKey(String keyspaceName, String tableName, String sstableObjName, String sstableVersion) {
+        String realSStableName = sstableObjName.substring(Math.max(sstableObjName.indexOf(sstableVersion), 0));
+        int componentPos = realSStableName.lastIndexOf('-');
+
+        return keyspaceName + "/" + tableName + "/" +
+            ((componentPos > 0) ? realSStableName.substring(0, componentPos) : realSStableName);
+    }
+
+    /**
+     * Read the tokens of the first and last partition keys from a "-Summary.db" object
+     *
+     * @param s3Client
+     * @param bktName
+     * @param summaryObjKey
+     * @return { first_token, last_token }
+     * @throws IOException
+     */
+    static long[] readSummaryTokenBounds(AmazonS3 s3Client, String bktName, String summaryObjKey) throws IOException {
+        long offHeapSize;
+
+        try (S3Object headerObj = s3Client.getObject(
+                 new GetObjectRequest(bktName, summaryObjKey).withRange(0, SUMMARY_HEADER_SIZE - 1));
+             DataInputStream headerStream = new DataInputStream(headerObj.getObjectContent())) {
+            headerStream.readInt();     // min index interval
+            headerStream.readInt();     // entry count
+            offHeapSize = headerStream.readLong();
+        }
+
+        try (S3Object boundsObj = s3Client.getObject(
+                 new GetObjectRequest(bktName, summaryObjKey).withRange(SUMMARY_HEADER_SIZE + offHeapSize));
+             DataInputStream boundsStream = new DataInputStream(boundsObj.getObjectContent())) {
+            byte[] firstKey = readKey(boundsStream);
+            byte[] lastKey = readKey(boundsStream);
+
+            return new long[] { OpscMurmur3Hash.getToken(firstKey), OpscMurmur3Hash.getToken(lastKey) };
+        }
+    }
+
+    private static byte[] readKey(DataInputStream inputStream) throws IOException {
+        int keyLen = inputStream.readInt();
+        if ( (keyLen < 0) || (keyLen > 0xffff) ) {
+            throw new IOException("Unexpected partition key length " + keyLen);
+        }
+
+        byte[] key = new byte[keyLen];
+        inputStream.readFully(key);
+        return key;
+    }
+
+    /**
+     * Find the backup SSTable objects of a host that are outside the requested token ranges.
+     * SSTable sets without a readable "-Summary.db" are kept.
+     *
+     * @param s3Client
+     * @param bktName
+     * @param backupManifest
+     * @param keyspaceName
+     * @param tableName
+     * @return indexes of the backup manifest entries to skip
+     */
+    BitSet findSkippedSstables(AmazonS3 s3Client,
+                               String bktName,
+                               OpscBackupManifest backupManifest,
+                               String keyspaceName,
+                               String tableName) {
+        // SSTable set key -> manifest indexes of all components
+        Map<String, BitSet> sstableSets = new LinkedHashMap<>();
+        Map<String, Integer> summaryIndexes = new HashMap<>();
+
+        BitSet selected = backupManifest.select(keyspaceName, tableName);
+
+        for ( int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1) ) {
+            String sstableSetKey = getSstableSetKey(
+                backupManifest.getKeyspace(i),
+                backupManifest.getTable(i),
+                backupManifest.getSstableObjName(i),
+                backupManifest.getVersion(i));
+
+            BitSet components = sstableSets.get(sstableSetKey);
+            if (components == null) {
+                components = new BitSet();
+                sstableSets.put(sstableSetKey, components);
+            }
+            components.set(i);
+
+            if (backupManifest.getComponent(i).equals(SUMMARY_COMPONENT)) {
+                summaryIndexes.put(sstableSetKey, i);
+            }
+        }
+
+        BitSet skippedSstables = new BitSet(backupManifest.size());
+        int skippedSetNum = 0;
+
+        for ( String sstableSetKey : sstableSets.keySet() ) {
+            Integer summaryIndex = summaryIndexes.get(sstableSetKey);
+            if (summaryIndex == null) {
+                System.out.println("WARN: No " + SUMMARY_COMPONENT + " for SSTable " + sstableSetKey + "; kept without token range check.");
+                continue;
+            }
+
+            try {
+                long[] tokenBounds = readSummaryTokenBounds(s3Client, bktName, backupManifest.getS3ObjKey(summaryIndex));
+
+                if (!overlaps(tokenBounds[0], tokenBounds[1])) {
+                    skippedSstables.or(sstableSets.get(sstableSetKey));
+                    skippedSetNum++;
+                }
+            }
+            catch (IOException | SdkClientException e) {
+                System.out.println("WARN: Failed to read token range of SSTable " + sstableSetKey +
+                    " (" + e.getMessage() + "); kept without token range check.");
+            }
+        }
+
+        System.out.format("  Token range filter %s: %d of %d SSTables outside the requested range(s) skipped.\n",
+            tokenRanges, skippedSetNum, sstableSets.size());
+
+        return skippedSstables;
+    }
+}
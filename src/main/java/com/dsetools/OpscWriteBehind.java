@@ -0,0 +1,246 @@
+package com.dsetools;
+
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind between the network and the disk for downloads: a fixed memory budget
+ * ("download_buffer_mb") of reusable direct buffers, filled by the network readers and drained
+ * by dedicated disk writer threads.
+ *
+ * A reader takes a free buffer, fills it from the S3 stream and queues it on the sink of its
+ * part; it only waits when all buffers are in use. The buffers of one sink are written in order,
+ * one BUFFER_SIZE write at a time, by one disk writer at a time. A slow disk then stalls the
+ * readers only when the budget is used up, and a slow stream doesn't hold up the disk writes of
+ * other parts. Buffers are allocated on first use, up to the budget, and never freed.
+ */
+class OpscWriteBehind {
+
+    static int BUFFER_SIZE = 1024 * 1024;
+    static int DISK_WRITER_NUM = 4;
+
+    private final int bufferNum;
+    private final BlockingQueue<ByteBuffer> freeBuffers;
+    private final AtomicInteger allocatedNum = new AtomicInteger();
+
+    private final ExecutorService diskWriters;
+
+    private final AtomicInteger inUseNum = new AtomicInteger();
+    private final AtomicInteger peakInUseNum = new AtomicInteger();
+    private final AtomicLong waitNum = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+
+    /**
+     * @param budgetBytes memory for buffers; at least two buffers
+     */
+    OpscWriteBehind(long budgetBytes) {
+        this.bufferNum = (int) Math.max(2, Math.min(Integer.MAX_VALUE, budgetBytes / BUFFER_SIZE));
+        this.freeBuffers = new ArrayBlockingQueue<>(bufferNum);
+
+        this.diskWriters = Executors.newFixedThreadPool(DISK_WRITER_NUM, runnable -> {
+            // Shared by all daemon jobs: not part of the job whose thread happens to create it
+            Thread thread = new Thread(() -> {
+                OpscRestoreDaemon.clearCurrentJob();
+                runnable.run();
+            }, "disk-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Take a free (cleared) buffer; blocks while the whole budget is in use
+     *
+     * @return
+     * @throws InterruptedException
+     */
+    ByteBuffer acquire() throws InterruptedException {
+        ByteBuffer buffer = freeBuffers.poll();
+
+        if ( (buffer == null) && (allocatedNum.incrementAndGet() <= bufferNum) ) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        else if (buffer == null) {
+            allocatedNum.decrementAndGet();
+
+            long waitStartNanos = System.nanoTime();
+            buffer = freeBuffers.take();
+
+            waitNum.incrementAndGet();
+            waitNanos.addAndGet(System.nanoTime() - waitStartNanos);
+        }
+
+        int nowInUseNum = inUseNum.incrementAndGet();
+        peakInUseNum.accumulateAndGet(nowInUseNum, Math::max);
+
+        buffer.clear();
+        return buffer;
+    }
+
+    void release(ByteBuffer buffer) {
+        inUseNum.decrementAndGet();
+        freeBuffers.offer(buffer);
+    }
+
+    /**
+     * Sink for the sequential bytes of one writer (e.g. one download part)
+     *
+     * @param fileChannel
+     * @param startPos
+     * @param pageCacheGuard null if written through the page cache
+     * @return
+     */
+    Sink open(FileChannel fileChannel, long startPos, OpscPageCacheGuard pageCacheGuard) {
+        return new Sink(fileChannel, startPos, pageCacheGuard);
+    }
+
+    class Sink {
+        private final FileChannel fileChannel;
+        private final OpscPageCacheGuard.Writer pageCacheWriter;
+
+        // Position of the next queued buffer
+        private long queuedPos;
+
+        private final ArrayDeque<ByteBuffer> queuedBuffers = new ArrayDeque<>();
+        private boolean draining = false;
+        private boolean aborted = false;
+        private IOException failure = null;
+
+        private Sink(FileChannel fileChannel, long startPos, OpscPageCacheGuard pageCacheGuard) {
+            this.fileChannel = fileChannel;
+            this.queuedPos = startPos;
+            this.pageCacheWriter = (pageCacheGuard != null) ? pageCacheGuard.writer(startPos) : null;
+        }
+
+        /**
+         * Queue a filled (flipped) buffer; it goes back to the pool once written
+         *
+         * @param buffer
+         * @throws IOException when an earlier write of this sink failed
+         */
+        synchronized void write(ByteBuffer buffer) throws IOException {
+            if ( (failure != null) || aborted ) {
+                release(buffer);
+                throw (failure != null) ? failure : new IOException("Write-behind sink aborted");
+            }
+
+            queuedBuffers.add(buffer);
+
+            // Not draining: everything queued before is written, and this buffer goes first
+            if (!draining) {
+                draining = true;
+                long drainStartPos = queuedPos;
+                diskWriters.execute(() -> drain(drainStartPos));
+            }
+
+            queuedPos += buffer.remaining();
+        }
+
+        private void drain(long startPos) {
+            long position = startPos;
+
+            while (true) {
+                ByteBuffer buffer;
+                boolean skip;
+                synchronized (this) {
+                    buffer = queuedBuffers.poll();
+                    if (buffer == null) {
+                        draining = false;
+                        notifyAll();
+                        return;
+                    }
+                    skip = (failure != null) || aborted;
+                }
+
+                try {
+                    if (!skip) {
+                        int byteNum = buffer.remaining();
+                        while (buffer.hasRemaining()) {
+                            position += fileChannel.write(buffer, position);
+                        }
+                        writtenBytes.addAndGet(byteNum);
+
+                        if (pageCacheWriter != null) {
+                            pageCacheWriter.written(position);
+                        }
+                    }
+                }
+                catch (IOException ioe) {
+                    synchronized (this) {
+                        failure = ioe;
+                    }
+                }
+                finally {
+                    release(buffer);
+                }
+            }
+        }
+
+        /**
+         * Wait for all queued buffers to be written
+         *
+         * @return end position of the bytes written
+         * @throws IOException when a write failed
+         * @throws InterruptedException
+         */
+        long finish() throws IOException, InterruptedException {
+            synchronized (this) {
+                while (draining) {
+                    wait();
+                }
+
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+
+            if (pageCacheWriter != null) {
+                pageCacheWriter.finish(queuedPos);
+            }
+
+            return queuedPos;
+        }
+
+        /**
+         * Drop the buffers not written yet (e.g. the network read failed); doesn't wait
+         */
+        synchronized void abort() {
+            aborted = true;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    JSONObject getStatsJson() {
+        JSONObject statsJson = new JSONObject();
+        statsJson.put("buffer_size", BUFFER_SIZE);
+        statsJson.put("buffers", bufferNum);
+        statsJson.put("allocated", Math.min(allocatedNum.get(), bufferNum));
+        statsJson.put("in_use", inUseNum.get());
+        statsJson.put("peak_in_use", peakInUseNum.get());
+        statsJson.put("waits", waitNum.get());
+        statsJson.put("wait_ms", TimeUnit.NANOSECONDS.toMillis(waitNanos.get()));
+        statsJson.put("written_bytes", writtenBytes.get());
+        return statsJson;
+    }
+
+    String getStats() {
+        return String.format("    write-behind buffers: %d of %d MB in use (peak %d MB), %d waits for a free buffer (%d ms)\n",
+            (long) inUseNum.get() * BUFFER_SIZE / 1024 / 1024,
+            (long) bufferNum * BUFFER_SIZE / 1024 / 1024,
+            (long) peakInUseNum.get() * BUFFER_SIZE / 1024 / 1024,
+            waitNum.get(),
+            TimeUnit.NANOSECONDS.toMillis(waitNanos.get()));
+    }
+
+    void shutdown() {
+        diskWriters.shutdownNow();
+    }
+}
@@ -0,0 +1,119 @@
+package com.dsetools;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OpscKsTblMatcherTest {
+
+    @Test
+    public void exactNames() {
+        OpscKsTblMatcher matcher = OpscKsTblMatcher.compile("app", "users");
+
+        assertTrue(matcher.matches("app", "users"));
+        assertTrue(matcher.matches("APP", "Users"));
+        assertFalse(matcher.matches("app", "users2"));
+        assertFalse(matcher.matches("app2", "users"));
+        assertFalse(matcher.matches("app", "user"));
+    }
+
+    @Test
+    public void exactNamesAreNotRegexes() {
+        OpscKsTblMatcher matcher = OpscKsTblMatcher.compile("a+b", "t[1]");
+
+        assertTrue(matcher.matches("a+b", "t[1]"));
+        assertFalse(matcher.matches("aab", "t1"));
+    }
+
+    @Test
+    public void allTables() {
+        assertTrue(OpscKsTblMatcher.compile("app", null).matches("app", "anything"));
+        assertTrue(OpscKsTblMatcher.compile("app", "").matches("app", "anything"));
+        assertFalse(OpscKsTblMatcher.compile("app", null).matches("other", "anything"));
+    }
+
+    @Test
+    public void nameLists() {
+        OpscKsTblMatcher matcher = OpscKsTblMatcher.compile("app, metrics", "users,orders");
+
+        assertTrue(matcher.matches("app", "users"));
+        assertTrue(matcher.matches("metrics", "orders"));
+        assertFalse(matcher.matches("app", "events"));
+        assertFalse(matcher.matches("system", "users"));
+    }
+
+    @Test
+    public void wildcards() {
+        OpscKsTblMatcher matcher = OpscKsTblMatcher.compile("metrics_*", "daily_?");
+
+        assertTrue(matcher.matches("metrics_eu", "daily_1"));
+        assertTrue(matcher.matches("metrics_", "DAILY_x"));
+        assertFalse(matcher.matches("metrics", "daily_1"));
+        assertFalse(matcher.matches("metrics_eu", "daily_10"));
+        assertFalse(matcher.matches("metrics_eu", "daily_"));
+    }
+
+    @Test
+    public void wildcardQuotesTheRest() {
+        OpscKsTblMatcher matcher = OpscKsTblMatcher.compile("*", "t$*");
+
+        assertTrue(matcher.matches("app", "t$1"));
+        assertFalse(matcher.matches("app", "t1"));
+    }
+
+    @Test
+    public void regexes() {
+        OpscKsTblMatcher matcher = OpscKsTblMatcher.compile("/app_[0-9]+/", "/(users|orders)/");
+
+        assertTrue(matcher.matches("app_12", "orders"));
+        assertFalse(matcher.matches("app_x", "orders"));
+        assertFalse(matcher.matches("app_12", "users_by_id"));
+    }
+
+    @Test
+    public void exclusions() {
+        OpscKsTblMatcher matcher = OpscKsTblMatcher.compile("*,!system*", "!*_idx");
+
+        assertTrue(matcher.matches("app", "users"));
+        assertFalse(matcher.matches("system_auth", "roles"));
+        assertFalse(matcher.matches("app", "users_idx"));
+    }
+
+    @Test
+    public void exclusionWins() {
+        OpscKsTblMatcher matcher = OpscKsTblMatcher.compile("app", "users*,!users_tmp");
+
+        assertTrue(matcher.matches("app", "users_by_id"));
+        assertFalse(matcher.matches("app", "users_tmp"));
+    }
+
+    @Test
+    public void qualifiedTables() {
+        OpscKsTblMatcher matcher = OpscKsTblMatcher.compile("*", "app.users,metrics_*.daily");
+
+        assertTrue(matcher.matches("app", "users"));
+        assertTrue(matcher.matches("metrics_eu", "daily"));
+        assertFalse(matcher.matches("other", "users"));
+        assertFalse(matcher.matches("app", "daily"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyPattern() {
+        OpscKsTblMatcher.compile("app,,metrics", null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidRegex() {
+        OpscKsTblMatcher.compile("/app[/", null);
+    }
+
+    @Test
+    public void singleTable() {
+        assertTrue(OpscKsTblMatcher.isSingleTable("app", "users"));
+        assertFalse(OpscKsTblMatcher.isSingleTable("app", null));
+        assertFalse(OpscKsTblMatcher.isSingleTable("app", "users,orders"));
+        assertFalse(OpscKsTblMatcher.isSingleTable("app*", "users"));
+        assertFalse(OpscKsTblMatcher.isSingleTable("app", "app.users"));
+    }
+}
@@ -0,0 +1,57 @@
+package com.dsetools;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tokens of Cassandra's Murmur3Partitioner (e.g. "SELECT token(k) ...") for sample partition keys
+ */
+public class OpscMurmur3HashTest {
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    @Test
+    public void intKeys() {
+        assertEquals(-4069959284402364209L, OpscMurmur3Hash.getToken(bytes(0, 0, 0, 1)));
+        assertEquals(-3248873570005575792L, OpscMurmur3Hash.getToken(bytes(0, 0, 0, 2)));
+        assertEquals(9010454139840013625L, OpscMurmur3Hash.getToken(bytes(0, 0, 0, 3)));
+    }
+
+    @Test
+    public void textKeys() {
+        assertEquals(-8839064797231613815L, OpscMurmur3Hash.getToken("a".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(-3758069500696749310L, OpscMurmur3Hash.getToken("hello".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void wholeBlockKey() {
+        assertEquals(5467490433528156583L,
+            OpscMurmur3Hash.getToken("0123456789abcdef".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    // Tail bytes >= 0x80 are sign-extended, as in Cassandra
+    @Test
+    public void highBitTailBytes() {
+        assertEquals(-6888860804312826370L, OpscMurmur3Hash.getToken(bytes(0x80, 0xff, 0xfe)));
+        assertEquals(-2195530867418009455L, OpscMurmur3Hash.getToken(
+            bytes(0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff)));
+        assertEquals(-8709251389218901827L,
+            OpscMurmur3Hash.getToken("0123456789abcdef\u00e9\u00e9\u00e9".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void keyAtOffset() {
+        byte[] key = bytes(0x7f, 0x7f, 0x80, 0xff, 0xfe, 0x7f);
+        assertEquals(OpscMurmur3Hash.hash3_x64_128(bytes(0x80, 0xff, 0xfe), 0, 3, 0)[0],
+            OpscMurmur3Hash.hash3_x64_128(key, 2, 3, 0)[0]);
+    }
+}
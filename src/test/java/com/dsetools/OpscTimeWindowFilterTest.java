@@ -0,0 +1,91 @@
+package com.dsetools;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OpscTimeWindowFilterTest {
+
+    // Cell timestamps of the "mc" fixture: 2019-01-01 00:00:00.123456 and 23:59:59.654321 UTC
+    private static final long FIXTURE_MIN_TIMESTAMP = 1546300800123456L;
+    private static final long FIXTURE_MAX_TIMESTAMP = 1546387199654321L;
+
+    private static byte[] readFixture(String name) throws IOException {
+        try (InputStream inputStream = OpscTimeWindowFilterTest.class.getResourceAsStream(name)) {
+            return IOUtils.toByteArray(inputStream);
+        }
+    }
+
+    // "-Statistics.db" with only the stats component (empty histograms)
+    private static byte[] statistics(long minTimestamp, long maxTimestamp) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream outputStream = new DataOutputStream(bytes);
+
+        outputStream.writeInt(1);
+        outputStream.writeInt(OpscTimeWindowFilter.STATS_METADATA_TYPE);
+        outputStream.writeInt(12);
+
+        outputStream.writeInt(0);
+        outputStream.writeInt(0);
+        outputStream.writeLong(0);
+        outputStream.writeInt(0);
+        outputStream.writeLong(minTimestamp);
+        outputStream.writeLong(maxTimestamp);
+        outputStream.flush();
+
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void parseMcStatistics() throws IOException {
+        long[] timestamps = OpscTimeWindowFilter.parseStatisticsTimestamps(readFixture("mc-1-big-Statistics.db"));
+
+        assertArrayEquals(new long[] { FIXTURE_MIN_TIMESTAMP, FIXTURE_MAX_TIMESTAMP }, timestamps);
+    }
+
+    @Test
+    public void mcStatisticsInWindow() throws IOException {
+        long[] timestamps = OpscTimeWindowFilter.parseStatisticsTimestamps(readFixture("mc-1-big-Statistics.db"));
+
+        assertTrue(OpscTimeWindowFilter.parseTimeWindow("1/1/2019 12:00 PM,1/2/2019 12:00 AM")
+            .overlaps(timestamps[0], timestamps[1]));
+        assertFalse(OpscTimeWindowFilter.parseTimeWindow("1/2/2019 12:01 AM,1/3/2019 12:00 AM")
+            .overlaps(timestamps[0], timestamps[1]));
+    }
+
+    @Test
+    public void sstableWithoutCells() throws IOException {
+        long[] timestamps = OpscTimeWindowFilter.parseStatisticsTimestamps(statistics(Long.MAX_VALUE, Long.MIN_VALUE));
+
+        assertFalse(OpscTimeWindowFilter.parseTimeWindow("1/1/2019 12:00 AM,1/2/2019 12:00 AM")
+            .overlaps(timestamps[0], timestamps[1]));
+    }
+
+    @Test(expected = IOException.class)
+    public void negativeTimestamp() throws IOException {
+        OpscTimeWindowFilter.parseStatisticsTimestamps(statistics(-1, FIXTURE_MAX_TIMESTAMP));
+    }
+
+    @Test(expected = IOException.class)
+    public void futureTimestamp() throws IOException {
+        long tooLate = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis()) + TimeUnit.DAYS.toMicros(2);
+        OpscTimeWindowFilter.parseStatisticsTimestamps(statistics(FIXTURE_MIN_TIMESTAMP, tooLate));
+    }
+
+    @Test(expected = IOException.class)
+    public void noStatsComponent() throws IOException {
+        byte[] statistics = statistics(FIXTURE_MIN_TIMESTAMP, FIXTURE_MAX_TIMESTAMP);
+        statistics[7] = 0;      // VALIDATION instead of STATS
+
+        OpscTimeWindowFilter.parseStatisticsTimestamps(statistics);
+    }
+}
@@ -0,0 +1,81 @@
+package com.dsetools;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OpscTokenRangeFilterTest {
+
+    @Test
+    public void normalRange() {
+        OpscTokenRangeFilter.TokenRange tokenRange = new OpscTokenRangeFilter.TokenRange(-100, 100);
+
+        assertTrue(tokenRange.overlaps(-50, 50));
+        assertTrue(tokenRange.overlaps(-200, -99));
+        assertTrue(tokenRange.overlaps(100, 200));
+        assertTrue(tokenRange.overlaps(-200, 200));
+
+        // The start token is excluded, the end token included
+        assertFalse(tokenRange.overlaps(-200, -100));
+        assertFalse(tokenRange.overlaps(101, 200));
+    }
+
+    @Test
+    public void wrappingRange() {
+        OpscTokenRangeFilter.TokenRange tokenRange = new OpscTokenRangeFilter.TokenRange(100, -100);
+
+        assertTrue(tokenRange.overlaps(101, 200));
+        assertTrue(tokenRange.overlaps(Long.MIN_VALUE, -150));
+        assertTrue(tokenRange.overlaps(-100, -100));
+        assertTrue(tokenRange.overlaps(50, Long.MAX_VALUE));
+
+        assertFalse(tokenRange.overlaps(-99, 100));
+        assertFalse(tokenRange.overlaps(0, 0));
+    }
+
+    @Test
+    public void fullRing() {
+        OpscTokenRangeFilter.TokenRange tokenRange = new OpscTokenRangeFilter.TokenRange(0, 0);
+
+        assertTrue(tokenRange.overlaps(0, 0));
+        assertTrue(tokenRange.overlaps(1, 1));
+        assertTrue(tokenRange.overlaps(-1, -1));
+        assertTrue(tokenRange.overlaps(Long.MIN_VALUE, Long.MIN_VALUE));
+        assertTrue(tokenRange.overlaps(Long.MAX_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void parseNegativeTokens() {
+        List<OpscTokenRangeFilter.TokenRange> tokenRanges =
+            OpscTokenRangeFilter.parseTokenRanges("-9223372036854775808:-4611686018427387904, -10:-5,5:-3");
+
+        assertEquals(3, tokenRanges.size());
+        assertEquals(Long.MIN_VALUE, tokenRanges.get(0).start);
+        assertEquals(-4611686018427387904L, tokenRanges.get(0).end);
+        assertEquals(-10, tokenRanges.get(1).start);
+        assertEquals(-5, tokenRanges.get(1).end);
+        assertEquals(5, tokenRanges.get(2).start);
+        assertEquals(-3, tokenRanges.get(2).end);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void parseMissingSeparator() {
+        OpscTokenRangeFilter.parseTokenRanges("-10");
+    }
+
+    @Test
+    public void filterOverlapsAnyRange() {
+        OpscTokenRangeFilter filter = new OpscTokenRangeFilter(Arrays.asList(
+            new OpscTokenRangeFilter.TokenRange(-100, -50),
+            new OpscTokenRangeFilter.TokenRange(50, 100)));
+
+        assertTrue(filter.overlaps(-60, -55));
+        assertTrue(filter.overlaps(60, 70));
+        assertFalse(filter.overlaps(-40, 40));
+    }
+}